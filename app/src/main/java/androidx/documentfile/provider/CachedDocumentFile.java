@@ -28,11 +28,12 @@ public class CachedDocumentFile extends DocumentFile {
         mLength = null;
     }
 
-    public CachedDocumentFile(DocumentFile wrapped, String name, long length, boolean isDirectory) {
+    public CachedDocumentFile(DocumentFile wrapped, String name, long length, long lastModified, boolean isDirectory) {
         super(wrapped.getParentFile());
         mWrapped = wrapped;
         mName = name;
         mLength = length;
+        mLastModified = lastModified;
         mIsDirectory = isDirectory;
     }
 
@@ -598,7 +598,8 @@ public class LibraryActivity extends BaseActivity {
             sortFieldButton.setVisibility(showSort ? View.VISIBLE : View.GONE);
             if (showSort) {
                 boolean isRandom = (!isGroupDisplayed() && Preferences.Constant.ORDER_FIELD_RANDOM == Preferences.getContentSortField());
-                sortDirectionButton.setVisibility(isRandom ? View.GONE : View.VISIBLE);
+                boolean isRelevance = (!isGroupDisplayed() && Preferences.Constant.ORDER_FIELD_RELEVANCE == Preferences.getContentSortField());
+                sortDirectionButton.setVisibility(isRandom || isRelevance ? View.GONE : View.VISIBLE);
                 sortReshuffleButton.setVisibility(isRandom ? View.VISIBLE : View.GONE);
                 searchClearButton.setVisibility(View.GONE);
             } else {
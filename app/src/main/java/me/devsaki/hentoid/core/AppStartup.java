@@ -23,13 +23,10 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
-import io.reactivex.Observable;
 import io.reactivex.ObservableEmitter;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.Disposable;
-import io.reactivex.functions.BiConsumer;
 import io.reactivex.functions.Consumer;
-import io.reactivex.schedulers.Schedulers;
 import me.devsaki.hentoid.BuildConfig;
 import me.devsaki.hentoid.R;
 import me.devsaki.hentoid.database.CollectionDAO;
@@ -52,7 +49,9 @@ import timber.log.Timber;
 
 public class AppStartup {
 
-    private List<Observable<Float>> launchTasks;
+    // Names of the startup tasks other tasks depend on
+    public static final String STOP_WORKERS = "stopWorkers";
+
     private Disposable launchDisposable = null;
 
     private static boolean isInitialized = false;
@@ -65,78 +64,48 @@ public class AppStartup {
     ) {
         if (isInitialized) onComplete.run();
 
-        // Wait until pre-launch tasks are completed
-        launchTasks = getPreLaunchTasks(context);
-        launchTasks.addAll(DatabaseMaintenance.getPreLaunchCleanupTasks(context));
-
-        // TODO switch from a recursive function to a full RxJava-powered chain
-        doRunTask(0, onMainProgress, onSecondaryProgress, () -> {
-            if (launchDisposable != null) launchDisposable.dispose();
-            isInitialized = true;
-
-            onComplete.run();
-            // Run post-launch tasks on a worker
-            WorkManager workManager = WorkManager.getInstance(context);
-            workManager.enqueueUniqueWork(Integer.toString(R.id.startup_service),
-                    ExistingWorkPolicy.KEEP,
-                    new OneTimeWorkRequest.Builder(StartupWorker.class).build());
-        });
-    }
+        // Wait until blocking tasks are completed; the others are deferred to StartupWorker
+        List<StartupTask> launchTasks = getPreLaunchTasks();
+        launchTasks.addAll(DatabaseMaintenance.getPreLaunchCleanupTasks());
 
-    private void doRunTask(
-            int taskIndex,
-            @NonNull Consumer<Float> onMainProgress,
-            @NonNull Consumer<Float> onSecondaryProgress,
-            @NonNull Runnable onComplete
-    ) {
         if (launchDisposable != null) launchDisposable.dispose();
-        try {
-            onMainProgress.accept(taskIndex * 1f / launchTasks.size());
-        } catch (Exception e) {
-            Timber.w(e);
-        }
-        // Continue executing launch tasks
-        if (taskIndex < launchTasks.size()) {
-            Timber.i("Pre-launch task %s/%s", taskIndex + 1, launchTasks.size());
-            launchDisposable = launchTasks.get(taskIndex)
-                    .subscribeOn(Schedulers.io())
-                    .observeOn(AndroidSchedulers.mainThread())
-                    .subscribe(
-                            onSecondaryProgress,
-                            Timber::e,
-                            () -> doRunTask(taskIndex + 1, onMainProgress, onSecondaryProgress, onComplete)
-                    );
-        } else {
-            onComplete.run();
-        }
+        launchDisposable = new StartupScheduler(context, launchTasks, true)
+                .run(AndroidSchedulers.mainThread(), onMainProgress, onSecondaryProgress)
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(() -> {
+                    isInitialized = true;
+
+                    onComplete.run();
+                    // Run deferred and post-launch tasks on a worker
+                    WorkManager workManager = WorkManager.getInstance(context);
+                    workManager.enqueueUniqueWork(Integer.toString(R.id.startup_service),
+                            ExistingWorkPolicy.KEEP,
+                            new OneTimeWorkRequest.Builder(StartupWorker.class).build());
+                }, Timber::e);
     }
 
     /**
      * Application initialization tasks
      * NB : Heavy operations; must be performed in the background to avoid ANR at startup
      */
-    public static List<Observable<Float>> getPreLaunchTasks(@NonNull final Context context) {
-        List<Observable<Float>> result = new ArrayList<>();
-        result.add(createObservableFrom(context, AppStartup::stopWorkers));
-        result.add(createObservableFrom(context, AppStartup::processAppUpdate));
-        result.add(createObservableFrom(context, AppStartup::loadSiteProperties));
-        result.add(createObservableFrom(context, AppStartup::initUtils));
+    public static List<StartupTask> getPreLaunchTasks() {
+        List<StartupTask> result = new ArrayList<>();
+        result.add(new StartupTask(STOP_WORKERS, true, AppStartup::stopWorkers));
+        result.add(new StartupTask("processAppUpdate", true, AppStartup::processAppUpdate));
+        result.add(new StartupTask("loadSiteProperties", true, AppStartup::loadSiteProperties));
+        result.add(new StartupTask("initUtils", true, AppStartup::initUtils));
         return result;
     }
 
-    public static List<Observable<Float>> getPostLaunchTasks(@NonNull final Context context) {
-        List<Observable<Float>> result = new ArrayList<>();
-//        result.add(createObservableFrom(context, AppStartupDev::testImg));
-        //result.add(createObservableFrom(context, AppStartup::sendFirebaseStats));
-        result.add(createObservableFrom(context, AppStartup::clearPictureCache));
-        result.add(createObservableFrom(context, AppStartup::createBookmarksJson));
+    public static List<StartupTask> getPostLaunchTasks() {
+        List<StartupTask> result = new ArrayList<>();
+//        result.add(new StartupTask("testImg", false, AppStartupDev::testImg));
+        //result.add(new StartupTask("sendFirebaseStats", false, AppStartup::sendFirebaseStats));
+        result.add(new StartupTask("clearPictureCache", false, AppStartup::clearPictureCache));
+        result.add(new StartupTask("createBookmarksJson", false, AppStartup::createBookmarksJson));
         return result;
     }
 
-    private static Observable<Float> createObservableFrom(@NonNull final Context context, BiConsumer<Context, ObservableEmitter<Float>> function) {
-        return Observable.create(emitter -> function.accept(context, emitter));
-    }
-
     private static void stopWorkers(@NonNull final Context context, ObservableEmitter<Float> emitter) {
         try {
             Timber.i("Stop workers : start");
@@ -0,0 +1,133 @@
+package me.devsaki.hentoid.core;
+
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.OpenableColumns;
+import android.text.TextUtils;
+import android.webkit.MimeTypeMap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.List;
+
+import me.devsaki.hentoid.BuildConfig;
+import me.devsaki.hentoid.util.ArchiveHelper;
+import me.devsaki.hentoid.util.FileHelper;
+
+/**
+ * Serves the entries that are STORED (i.e. not compressed) inside ZIP archives directly from the archive file,
+ * so that image decoders can read them without any extraction
+ * <p>
+ * Uri format : content://[AUTHORITY]/[archive Uri]/[path of the entry inside the archive]
+ * Opening an entry gives a descriptor on the part of the archive file the entry occupies
+ * NB : Not exported; other apps can only read the entries whose Uri has been shared with them along with FLAG_GRANT_READ_URI_PERMISSION
+ */
+public class ArchiveEntryProvider extends ContentProvider {
+
+    public static final String AUTHORITY = BuildConfig.APPLICATION_ID + ".provider.ArchiveEntryProvider";
+
+    private static final String[] DEFAULT_PROJECTION = {OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE};
+
+
+    /**
+     * Build the Uri serving the given entry of the given archive
+     *
+     * @param archiveUri Uri of the archive file
+     * @param entryPath  Path of the entry (relative to the archive root)
+     * @return Uri serving the given entry of the given archive
+     */
+    public static Uri buildUri(@NonNull final Uri archiveUri, @NonNull final String entryPath) {
+        Uri.Builder builder = new Uri.Builder()
+                .scheme(ContentResolver.SCHEME_CONTENT)
+                .authority(AUTHORITY)
+                .appendPath(archiveUri.toString());
+        // Keep the entry's file name at the end of the Uri for its extension to be readable
+        for (String segment : entryPath.split("/")) builder.appendPath(segment);
+        return builder.build();
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Nullable
+    @Override
+    public AssetFileDescriptor openAssetFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        if (!"r".equals(mode)) throw new FileNotFoundException("Archive entries are read-only : " + uri);
+        Context context = getContext();
+        List<String> segments = uri.getPathSegments();
+        if (null == context || segments.size() < 2) throw new FileNotFoundException(uri.toString());
+
+        AssetFileDescriptor result;
+        try {
+            result = ArchiveHelper.openStoredEntry(context, Uri.parse(segments.get(0)), getEntryPath(segments));
+        } catch (IOException e) {
+            FileNotFoundException fnfe = new FileNotFoundException(uri.toString());
+            fnfe.initCause(e);
+            throw fnfe;
+        }
+        if (null == result) throw new FileNotFoundException("Entry can't be read directly : " + uri);
+        return result;
+    }
+
+    @Nullable
+    @Override
+    public String getType(@NonNull Uri uri) {
+        String fileName = uri.getLastPathSegment();
+        if (null == fileName) return null;
+        return MimeTypeMap.getSingleton().getMimeTypeFromExtension(FileHelper.getExtension(fileName));
+    }
+
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        if (null == projection) projection = DEFAULT_PROJECTION;
+        MatrixCursor result = new MatrixCursor(projection, 1);
+
+        long size = -1;
+        try (AssetFileDescriptor descriptor = openAssetFile(uri, "r")) {
+            if (descriptor != null) size = descriptor.getLength();
+        } catch (IOException e) {
+            return result; // No such entry
+        }
+
+        Object[] row = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            if (OpenableColumns.DISPLAY_NAME.equals(projection[i])) row[i] = uri.getLastPathSegment();
+            else if (OpenableColumns.SIZE.equals(projection[i])) row[i] = size;
+            else row[i] = uri.toString(); // e.g. document ID
+        }
+        result.addRow(row);
+        return result;
+    }
+
+    private static String getEntryPath(@NonNull final List<String> segments) {
+        return TextUtils.join("/", segments.subList(1, segments.size()));
+    }
+
+    @Nullable
+    @Override
+    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        return null; // Archive entries are read-only
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+        return 0; // Archive entries are read-only
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection, @Nullable String[] selectionArgs) {
+        return 0; // Archive entries are read-only
+    }
+}
@@ -0,0 +1,150 @@
+package me.devsaki.hentoid.core;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Completable;
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.functions.Consumer;
+import io.reactivex.schedulers.Schedulers;
+import timber.log.Timber;
+
+/**
+ * Runs startup tasks according to their dependencies
+ * <ul>
+ * <li>Each task starts as soon as all the tasks it depends on are complete; independent tasks thus run concurrently</li>
+ * <li>A failing task is logged and considered complete, so that it can't prevent the app from starting</li>
+ * <li>The wall time of each task is recorded into StartupTrace</li>
+ * </ul>
+ */
+public class StartupScheduler {
+
+    private final Context context;
+    private final boolean blocking;
+    // Task name -> Task
+    private final Map<String, StartupTask> tasks = new LinkedHashMap<>();
+
+
+    /**
+     * Create a scheduler for the given tasks
+     *
+     * @param context  Context to use
+     * @param tasks    Tasks to run; only those matching the given blocking flag are kept
+     * @param blocking True to run blocking tasks; false to run deferred tasks
+     */
+    public StartupScheduler(@NonNull Context context, @NonNull List<StartupTask> tasks, boolean blocking) {
+        this.context = context.getApplicationContext();
+        this.blocking = blocking;
+        for (StartupTask task : tasks)
+            if (task.isBlocking() == blocking) this.tasks.put(task.getName(), task);
+    }
+
+    /**
+     * Build the run of all tasks
+     * NB : Tasks run on the IO scheduler; progress is sent to the given callbacks on the given scheduler
+     *
+     * @param callbackScheduler   Scheduler to send progress on
+     * @param onMainProgress      Consumer for the number of complete tasks, relative to the total number of tasks
+     * @param onSecondaryProgress Consumer for the progress of the running tasks
+     * @return Completable that completes when all tasks are complete
+     */
+    public Completable run(
+            @NonNull Scheduler callbackScheduler,
+            @NonNull Consumer<Float> onMainProgress,
+            @NonNull Consumer<Float> onSecondaryProgress) {
+        return Completable.defer(() -> {
+            Run run = new Run(callbackScheduler, onMainProgress, onSecondaryProgress);
+            List<Completable> all = new ArrayList<>();
+            for (StartupTask task : tasks.values()) all.add(build(task, run, new HashSet<>()));
+            return Completable.merge(all)
+                    .doOnComplete(() -> StartupTrace.recordRun(getChapter(), tasks.size(), SystemClock.elapsedRealtime() - run.startTime, run.totalTime.get()));
+        });
+    }
+
+    private int getChapter() {
+        return blocking ? StartupTrace.CHAPTER_BLOCKING : StartupTrace.CHAPTER_DEFERRED;
+    }
+
+    /**
+     * Build the Completable of the given task, that waits for the tasks it depends on before running it
+     * NB : Completables are cached so that each task runs once, however many tasks depend on it
+     */
+    private Completable build(@NonNull StartupTask task, @NonNull Run run, @NonNull Set<String> path) {
+        Completable result = run.tasks.get(task.getName());
+        if (result != null) return result;
+        if (!path.add(task.getName()))
+            throw new IllegalStateException("Circular dependency detected on startup task " + task.getName());
+
+        List<Completable> dependencies = new ArrayList<>();
+        for (String name : task.getDependencies()) {
+            StartupTask dependency = tasks.get(name);
+            if (dependency != null) dependencies.add(build(dependency, run, path));
+        }
+        path.remove(task.getName());
+
+        result = Completable.merge(dependencies).andThen(runTask(task, run)).cache();
+        run.tasks.put(task.getName(), result);
+        return result;
+    }
+
+    private Completable runTask(@NonNull StartupTask task, @NonNull Run run) {
+        long[] startTime = new long[1];
+        String[] threadName = new String[1];
+        return Observable.defer(() -> {
+            startTime[0] = SystemClock.elapsedRealtime();
+            threadName[0] = Thread.currentThread().getName();
+            return task.toObservable(context);
+        })
+                .subscribeOn(Schedulers.io())
+                .doOnComplete(() -> trace(task, run, startTime[0], threadName[0], null))
+                .doOnError(t -> trace(task, run, startTime[0], threadName[0], t))
+                .observeOn(run.callbackScheduler)
+                .doOnNext(run.onSecondaryProgress)
+                .ignoreElements()
+                .doOnEvent(t -> run.onMainProgress.accept(run.nbComplete.incrementAndGet() * 1f / tasks.size()))
+                .onErrorComplete();
+    }
+
+    private void trace(@NonNull StartupTask task, @NonNull Run run, long startTime, @NonNull String threadName, @Nullable Throwable error) {
+        long duration = SystemClock.elapsedRealtime() - startTime;
+        run.totalTime.addAndGet(duration);
+        if (error != null) Timber.e(error, "Startup task %s failed", task.getName());
+        StartupTrace.recordTask(getChapter(), task.getName(), startTime - run.startTime, duration, threadName, error);
+    }
+
+    /**
+     * State of a single run
+     */
+    private static class Run {
+        private final Scheduler callbackScheduler;
+        private final Consumer<Float> onMainProgress;
+        private final Consumer<Float> onSecondaryProgress;
+
+        private final long startTime = SystemClock.elapsedRealtime();
+        private final AtomicInteger nbComplete = new AtomicInteger(0);
+        // Sum of the wall times of the complete tasks
+        private final AtomicLong totalTime = new AtomicLong(0);
+        // Task name -> Completable of the task
+        private final Map<String, Completable> tasks = new HashMap<>();
+
+        Run(@NonNull Scheduler callbackScheduler, @NonNull Consumer<Float> onMainProgress, @NonNull Consumer<Float> onSecondaryProgress) {
+            this.callbackScheduler = callbackScheduler;
+            this.onMainProgress = onMainProgress;
+            this.onSecondaryProgress = onSecondaryProgress;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package me.devsaki.hentoid.core;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableEmitter;
+import io.reactivex.functions.BiConsumer;
+
+/**
+ * Task to run when the app starts, as scheduled by StartupScheduler
+ */
+public class StartupTask {
+
+    private final String name;
+    private final boolean blocking;
+    private final BiConsumer<Context, ObservableEmitter<Float>> function;
+    private final List<String> dependencies = new ArrayList<>();
+
+
+    /**
+     * Create a new startup task
+     *
+     * @param name     Name of the task; has to be unique among all startup tasks
+     * @param blocking True if the task has to be complete before the app displays its first screen;
+     *                 false if it can be deferred to StartupWorker
+     * @param function Task to run; has to signal its completion to the given emitter
+     */
+    public StartupTask(
+            @NonNull String name,
+            boolean blocking,
+            @NonNull BiConsumer<Context, ObservableEmitter<Float>> function) {
+        this.name = name;
+        this.blocking = blocking;
+        this.function = function;
+    }
+
+    /**
+     * Declare the tasks that have to be complete before this one starts
+     * NB : Dependencies that aren't part of the same run are considered complete
+     * (e.g. blocking tasks when running deferred tasks)
+     *
+     * @param names Names of the tasks this one depends on
+     * @return This task
+     */
+    public StartupTask dependsOn(@NonNull String... names) {
+        dependencies.addAll(Arrays.asList(names));
+        return this;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isBlocking() {
+        return blocking;
+    }
+
+    public List<String> getDependencies() {
+        return Collections.unmodifiableList(dependencies);
+    }
+
+    Observable<Float> toObservable(@NonNull final Context context) {
+        return Observable.create(emitter -> function.accept(context, emitter));
+    }
+}
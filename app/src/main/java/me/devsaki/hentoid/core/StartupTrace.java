@@ -0,0 +1,90 @@
+package me.devsaki.hentoid.core;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.documentfile.provider.DocumentFile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import me.devsaki.hentoid.util.LogHelper;
+import timber.log.Timber;
+
+/**
+ * Wall time of the startup tasks run since the app has been launched, as recorded by StartupScheduler
+ */
+public class StartupTrace {
+
+    // Log chapters
+    static final int CHAPTER_BLOCKING = 1;
+    static final int CHAPTER_DEFERRED = 2;
+
+    private static final List<LogHelper.LogEntry> entries = Collections.synchronizedList(new ArrayList<>());
+
+    private StartupTrace() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Record the execution of a startup task
+     *
+     * @param chapter     Chapter of the run the task is part of
+     * @param name        Name of the task
+     * @param startOffset Time the task has started at, relative to the start of its run (ms)
+     * @param duration    Wall time of the task (ms)
+     * @param threadName  Name of the thread the task has been run on
+     * @param error       Error thrown by the task; null if it succeeded
+     */
+    static void recordTask(int chapter, @NonNull String name, long startOffset, long duration, @NonNull String threadName, @Nullable Throwable error) {
+        String message = String.format(Locale.ENGLISH, "%s : started at +%d ms; took %d ms [%s]", name, startOffset, duration, threadName);
+        if (error != null) message += " FAILED : " + error.getMessage();
+        Timber.i("Startup task %s", message);
+        entries.add(new LogHelper.LogEntry(message, chapter, error != null));
+    }
+
+    /**
+     * Record the execution of a whole run
+     *
+     * @param chapter   Chapter of the run
+     * @param nbTasks   Number of tasks of the run
+     * @param wallTime  Wall time of the run (ms)
+     * @param totalTime Sum of the wall times of the tasks of the run (ms)
+     */
+    static void recordRun(int chapter, int nbTasks, long wallTime, long totalTime) {
+        String message = String.format(Locale.ENGLISH, "%s startup tasks : %d tasks run in %d ms (%d ms if run one after another)",
+                (CHAPTER_BLOCKING == chapter) ? "Blocking" : "Deferred", nbTasks, wallTime, totalTime);
+        Timber.i(message);
+        entries.add(new LogHelper.LogEntry(message, chapter, false));
+    }
+
+    /**
+     * Recorded startup trace
+     *
+     * @return Entries of the startup trace
+     */
+    public static List<LogHelper.LogEntry> getEntries() {
+        synchronized (entries) {
+            return new ArrayList<>(entries);
+        }
+    }
+
+    /**
+     * Write the recorded startup trace to the app's default storage location
+     *
+     * @param context Context to use
+     * @return DocumentFile of the created log file; null if it couldn't be created
+     */
+    @Nullable
+    public static DocumentFile export(@NonNull Context context) {
+        LogHelper.LogInfo logInfo = new LogHelper.LogInfo();
+        logInfo.setLogName("Startup");
+        logInfo.setFileName("startup_log");
+        logInfo.setNoDataMessage("No startup task recorded.");
+        logInfo.setEntries(getEntries());
+        return LogHelper.writeLog(context, logInfo);
+    }
+}
@@ -0,0 +1,280 @@
+package me.devsaki.hentoid.database;
+
+import android.util.SparseIntArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.devsaki.hentoid.database.domains.Attribute;
+import me.devsaki.hentoid.database.domains.Content;
+import me.devsaki.hentoid.enums.AttributeType;
+import me.devsaki.hentoid.util.ContentHelper;
+import me.devsaki.hentoid.util.IdBitmap;
+
+/**
+ * In-memory index of the books of the library, answering advanced search filters
+ * without querying the DB once per selected attribute
+ * <p>
+ * Posting lists (IDs of the books of the library having a given property) are stored as IdBitmaps :
+ * - Per attribute
+ * - Per source
+ * - Favourite and completed books
+ * <p>
+ * The index is built from the DB on first use and kept up to date by ObjectBoxDB each time a book is saved or deleted
+ * NB : Only books of the library are indexed (see ContentHelper.getLibraryStatuses)
+ */
+class AttributeIndex {
+
+    private static final int[] libraryStatus = ContentHelper.getLibraryStatuses();
+
+    private final IdBitmap library = new IdBitmap();
+    private final IdBitmap favourites = new IdBitmap();
+    private final IdBitmap completed = new IdBitmap();
+    // Site code -> books from that site
+    private final Map<Integer, IdBitmap> booksPerSite = new HashMap<>();
+    // Attribute ID -> books having that attribute
+    private final Map<Long, IdBitmap> booksPerAttribute = new HashMap<>();
+    // Attribute ID -> type of the attribute
+    private final Map<Long, AttributeType> attributeTypes = new HashMap<>();
+    // Type + name -> attribute ID, for filters built from attributes that haven't been loaded from the DB
+    private final Map<String, Long> attributeIds = new HashMap<>();
+    // Book ID -> indexed properties of the book, to be able to unindex it
+    private final Map<Long, IndexedBook> books = new HashMap<>();
+
+
+    private static class IndexedBook {
+        final int siteCode;
+        final long[] attributeIds;
+
+        IndexedBook(int siteCode, long[] attributeIds) {
+            this.siteCode = siteCode;
+            this.attributeIds = attributeIds;
+        }
+    }
+
+
+    /**
+     * Index the given book, replacing its previous indexed properties
+     * NB : The book has to be saved beforehand, so that it and its attributes have IDs
+     *
+     * @param content Book to index
+     */
+    synchronized void update(@NonNull Content content) {
+        remove(content.getId());
+        if (content.getId() < 1 || !isInLibrary(content)) return;
+
+        long id = content.getId();
+        library.add(id);
+        if (content.isFavourite()) favourites.add(id);
+        if (content.isCompleted()) completed.add(id);
+
+        int siteCode = content.getSite().getCode();
+        getOrCreate(booksPerSite, siteCode).add(id);
+
+        List<Attribute> attributes = content.getAttributes();
+        long[] attrIds = new long[(null == attributes) ? 0 : attributes.size()];
+        int nbAttrs = 0;
+        if (attributes != null) {
+            for (Attribute a : attributes) {
+                if (a.getId() < 1) continue;
+                getOrCreate(booksPerAttribute, a.getId()).add(id);
+                attributeTypes.put(a.getId(), a.getType());
+                attributeIds.put(getKey(a.getType(), a.getName()), a.getId());
+                attrIds[nbAttrs++] = a.getId();
+            }
+        }
+        books.put(id, new IndexedBook(siteCode, (nbAttrs == attrIds.length) ? attrIds : Arrays.copyOf(attrIds, nbAttrs)));
+    }
+
+    /**
+     * Unindex the given book
+     *
+     * @param contentId ID of the book to unindex
+     */
+    synchronized void remove(long contentId) {
+        IndexedBook book = books.remove(contentId);
+        if (null == book) return;
+
+        library.remove(contentId);
+        favourites.remove(contentId);
+        completed.remove(contentId);
+
+        IdBitmap siteBooks = booksPerSite.get(book.siteCode);
+        if (siteBooks != null) {
+            siteBooks.remove(contentId);
+            if (siteBooks.isEmpty()) booksPerSite.remove(book.siteCode);
+        }
+        for (long attrId : book.attributeIds) {
+            IdBitmap attrBooks = booksPerAttribute.get(attrId);
+            if (null == attrBooks) continue;
+            attrBooks.remove(contentId);
+            // Forget attributes that aren't used by any book of the library anymore
+            if (attrBooks.isEmpty()) {
+                booksPerAttribute.remove(attrId);
+                attributeTypes.remove(attrId);
+                removeAttributeId(attrId);
+            }
+        }
+    }
+
+    /**
+     * Books of the library matching all the given attributes (AND logic; excluded attributes are subtracted)
+     *
+     * @param attrs                Attributes to filter with; SOURCE attributes have the site code as their ID
+     * @param favouritesOnly       True to only keep favourite books
+     * @param bookCompletedOnly    True to only keep completed books
+     * @param bookNotCompletedOnly True to only keep books that are not completed
+     * @return Books matching the given attributes
+     */
+    synchronized IdBitmap filter(
+            @NonNull List<Attribute> attrs,
+            boolean favouritesOnly,
+            boolean bookCompletedOnly,
+            boolean bookNotCompletedOnly) {
+        IdBitmap result = library;
+        if (favouritesOnly) result = result.and(favourites);
+        if (bookCompletedOnly) result = result.and(completed);
+        else if (bookNotCompletedOnly) result = result.andNot(completed);
+
+        for (Attribute attr : attrs) {
+            IdBitmap attrBooks = getBooks(attr);
+            if (attr.isExcluded()) {
+                if (attrBooks != null) result = result.andNot(attrBooks);
+            } else {
+                if (null == attrBooks) return new IdBitmap();
+                result = result.and(attrBooks);
+            }
+        }
+        // Never give away the index's own bitmaps
+        return (result == library) ? library.copy() : result;
+    }
+
+    /**
+     * Books of the library coming from any of the given sources (OR logic; excluded sources are subtracted)
+     *
+     * @param sources SOURCE attributes to filter with, with the site code as their ID
+     * @return Books coming from any of the given sources
+     */
+    synchronized IdBitmap filterAnySource(@NonNull List<Attribute> sources) {
+        IdBitmap included = null;
+        IdBitmap excluded = new IdBitmap();
+        for (Attribute source : sources) {
+            IdBitmap siteBooks = booksPerSite.get((int) source.getId());
+            if (source.isExcluded()) {
+                if (siteBooks != null) excluded = excluded.or(siteBooks);
+            } else {
+                if (null == included) included = new IdBitmap();
+                if (siteBooks != null) included = included.or(siteBooks);
+            }
+        }
+        // Only excluded sources => start from the whole library
+        return ((null == included) ? library : included).andNot(excluded);
+    }
+
+    /**
+     * Number of books of the given set having the given attribute
+     *
+     * @param attributeId ID of the attribute to count books for
+     * @param scope       Books to count; null to count all books of the library
+     * @return Number of books of the given set having the given attribute
+     */
+    synchronized int count(long attributeId, @Nullable IdBitmap scope) {
+        IdBitmap attrBooks = booksPerAttribute.get(attributeId);
+        if (null == attrBooks) return 0;
+        return (null == scope) ? attrBooks.getCardinality() : attrBooks.andCardinality(scope);
+    }
+
+    /**
+     * IDs of the attributes of the given type used by at least one book of the given set
+     *
+     * @param type  Type of the attributes to select
+     * @param scope Books to select attributes for; null to select attributes of the whole library
+     * @return IDs of the attributes of the given type used by at least one book of the given set
+     */
+    synchronized long[] selectAttributeIds(@NonNull AttributeType type, @Nullable IdBitmap scope) {
+        long[] result = new long[booksPerAttribute.size()];
+        int nbIds = 0;
+        for (Map.Entry<Long, IdBitmap> entry : booksPerAttribute.entrySet()) {
+            if (!type.equals(attributeTypes.get(entry.getKey()))) continue;
+            if (null == scope || entry.getValue().intersects(scope)) result[nbIds++] = entry.getKey();
+        }
+        return Arrays.copyOf(result, nbIds);
+    }
+
+    /**
+     * Number of attributes per type used by at least one book of the given set
+     *
+     * @param scope Books to count attributes for; null to count attributes of the whole library
+     * @return Number of attributes per type, indexed by attribute type code
+     */
+    synchronized SparseIntArray countAttributesPerType(@Nullable IdBitmap scope) {
+        SparseIntArray result = new SparseIntArray();
+        for (Map.Entry<Long, IdBitmap> entry : booksPerAttribute.entrySet()) {
+            AttributeType type = attributeTypes.get(entry.getKey());
+            if (null == type) continue;
+            if (null == scope || entry.getValue().intersects(scope))
+                result.put(type.getCode(), result.get(type.getCode(), 0) + 1);
+        }
+        return result;
+    }
+
+    /**
+     * Number of books of the given set per source
+     *
+     * @param scope Books to count; null to count all books of the library
+     * @return Number of books per source, indexed by site code; sources without any book are omitted
+     */
+    synchronized SparseIntArray countBooksPerSite(@Nullable IdBitmap scope) {
+        SparseIntArray result = new SparseIntArray();
+        for (Map.Entry<Integer, IdBitmap> entry : booksPerSite.entrySet()) {
+            int count = (null == scope) ? entry.getValue().getCardinality() : entry.getValue().andCardinality(scope);
+            if (count > 0) result.put(entry.getKey(), count);
+        }
+        return result;
+    }
+
+    @Nullable
+    private IdBitmap getBooks(@NonNull Attribute attr) {
+        if (attr.getType().equals(AttributeType.SOURCE)) return booksPerSite.get((int) attr.getId());
+
+        long attrId = attr.getId();
+        if (attrId < 1) {
+            Long id = attributeIds.get(getKey(attr.getType(), attr.getName()));
+            if (null == id) return null;
+            attrId = id;
+        }
+        return booksPerAttribute.get(attrId);
+    }
+
+    private void removeAttributeId(long attrId) {
+        for (Map.Entry<String, Long> entry : attributeIds.entrySet())
+            if (entry.getValue() == attrId) {
+                attributeIds.remove(entry.getKey());
+                return;
+            }
+    }
+
+    private static <K> IdBitmap getOrCreate(@NonNull Map<K, IdBitmap> map, @NonNull K key) {
+        IdBitmap result = map.get(key);
+        if (null == result) {
+            result = new IdBitmap();
+            map.put(key, result);
+        }
+        return result;
+    }
+
+    private static String getKey(@NonNull AttributeType type, @NonNull String name) {
+        return type.getCode() + "." + name.toLowerCase().trim();
+    }
+
+    private static boolean isInLibrary(@NonNull Content content) {
+        int code = content.getStatus().getCode();
+        for (int status : libraryStatus) if (status == code) return true;
+        return false;
+    }
+}
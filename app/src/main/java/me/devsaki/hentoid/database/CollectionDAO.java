@@ -102,6 +102,18 @@ public interface CollectionDAO {
 
     void deleteAllExternalBooks();
 
+    Map<String, ImmutablePair<Long, Long>> selectExternalBookFingerprints();
+
+    void deleteExternalBooks(long[] contentIds);
+
+    boolean replaceContent(long contentId, @NonNull final Content content);
+
+    // Bulk import
+
+    Map<String, Long> selectAttributeIdsByKey();
+
+    long[] insertContents(@NonNull List<Content> contents, @NonNull Map<String, Long> attributeIds);
+
     // Groups
 
     List<Group> selectGroups(long[] groupIds);
@@ -132,6 +144,8 @@ public interface CollectionDAO {
 
     long insertGroupItem(GroupItem item);
 
+    void insertGroupItems(@NonNull List<GroupItem> items);
+
     List<GroupItem> selectGroupItems(long contentId, Grouping grouping);
 
     void deleteGroupItems(List<Long> groupItemIds);
@@ -193,6 +207,8 @@ public interface CollectionDAO {
 
     void deleteImageFiles(@NonNull List<ImageFile> imgs);
 
+    void deleteImageFiles(long contentId, @NonNull long[] imageIds);
+
     ImageFile selectImageFile(long id);
 
     LiveData<List<ImageFile>> selectDownloadedImagesFromContent(long id);
@@ -4,16 +4,21 @@ import android.content.Context;
 
 import androidx.annotation.NonNull;
 
+import com.annimon.stream.function.BiConsumer;
+import com.annimon.stream.function.Function;
+
 import org.apache.commons.lang3.tuple.ImmutableTriple;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 import io.objectbox.query.Query;
-import io.reactivex.Observable;
 import io.reactivex.ObservableEmitter;
-import io.reactivex.functions.BiConsumer;
+import me.devsaki.hentoid.core.AppStartup;
+import me.devsaki.hentoid.core.StartupTask;
 import me.devsaki.hentoid.database.domains.Attribute;
 import me.devsaki.hentoid.database.domains.Content;
 import me.devsaki.hentoid.database.domains.Group;
@@ -28,6 +33,43 @@ import timber.log.Timber;
 
 public class DatabaseMaintenance {
 
+    // Number of books migrated in a single transaction
+    private static final int MIGRATION_BATCH_SIZE = 100;
+
+    // Names of the startup tasks other tasks depend on
+    private static final String CLEAN_CONTENT = "cleanContent";
+    private static final String CLEAR_TEMP_CONTENT = "clearTempContent";
+
+    /**
+     * One-shot migrations of the books of the collection
+     * NB : Append new migrations at the end of the list, with a new ID; never reuse the ID of a former migration
+     */
+    private static final List<Migration> MIGRATIONS = Arrays.asList(
+            // Set default values for new ObjectBox properties that are values as null by default (see https://github.com/objectbox/objectbox-java/issues/157)
+            new Migration(1, "setDefaultPropertiesOneShot", "Set default ObjectBox properties", true,
+                    ObjectBoxDB::selectContentIdsWithNullCompleteField, (db, c) -> c.setCompleted(false)),
+            // Update URLs from deprecated Pururin image hosts
+            new Migration(2, "cleanPropertiesOneShot1", "Upgrading Pururin image hosts", false,
+                    ObjectBoxDB::selectContentIdsWithOldPururinHost, DatabaseMaintenance::upgradePururinHost),
+            // Update URLs from deprecated Tsumino image covers
+            new Migration(3, "cleanPropertiesOneShot2", "Upgrading Tsumino covers", false,
+                    ObjectBoxDB::selectContentIdsWithOldTsuminoCovers, DatabaseMaintenance::upgradeTsuminoCover),
+            // Compute missing downloaded Content size according to underlying ImageFile sizes
+            new Migration(4, "computeContentSize", "Computing downloaded content size", true,
+                    ObjectBoxDB::selectDownloadedContentIdsWithNoSize, (db, c) -> c.computeSize()),
+            // Compute missing downloaded Content read progress according to underlying ImageFile read status
+            new Migration(5, "computeReadingProgress", "Computing downloaded content read progress", true,
+                    ObjectBoxDB::selectDownloadedContentIdsWithNoReadProgress, (db, c) -> c.computeReadProgress()),
+            // Compute missing cover data according to the cover ImageFile of each book
+            // Blocking, as displaying books relies on it
+            new Migration(6, "computeCoverData", "Computing cover data", true,
+                    ObjectBoxDB::selectContentIdsWithNoCoverData, (db, c) -> c.computeCoverData()),
+            // Reset the cover hashes computed by ImagePHash v1; they are computed again by the next duplicate detection
+            // Blocking, as hashes of different versions must not be compared
+            new Migration(7, "resetCoverHashes", "Resetting cover hashes", true,
+                    ObjectBoxDB::selectContentIdsWithHashedCovers, ObjectBoxDB::resetCoverHash)
+    );
+
     private DatabaseMaintenance() {
         throw new IllegalStateException("Utility class");
     }
@@ -35,29 +77,68 @@ public class DatabaseMaintenance {
     /**
      * Clean up and upgrade database
      * NB : Heavy operations; must be performed in the background to avoid ANR at startup
+     * <p>
+     * Migrations that are already complete aren't run at all. Those that fill properties the app relies on are blocking,
+     * as the app would otherwise save books with default values before they're migrated
      */
-    public static List<Observable<Float>> getPreLaunchCleanupTasks(@NonNull final Context context) {
-        List<Observable<Float>> result = new ArrayList<>();
-        result.add(createObservableFrom(context, DatabaseMaintenance::setDefaultPropertiesOneShot));
-        result.add(createObservableFrom(context, DatabaseMaintenance::cleanContent));
-        result.add(createObservableFrom(context, DatabaseMaintenance::cleanPropertiesOneShot1));
-        result.add(createObservableFrom(context, DatabaseMaintenance::cleanPropertiesOneShot2));
-        result.add(createObservableFrom(context, DatabaseMaintenance::computeContentSize));
-        result.add(createObservableFrom(context, DatabaseMaintenance::createGroups));
-        result.add(createObservableFrom(context, DatabaseMaintenance::computeReadingProgress));
+    public static List<StartupTask> getPreLaunchCleanupTasks() {
+        List<StartupTask> result = new ArrayList<>();
+        List<String> blockingMigrations = new ArrayList<>();
+        Set<Integer> doneMigrations = Preferences.getDoneDbMigrations();
+        for (Migration migration : MIGRATIONS) {
+            if (doneMigrations.contains(migration.id)) continue;
+            result.add(new StartupTask(migration.name, migration.blocking, (context, emitter) -> runMigration(context, emitter, migration))
+                    .dependsOn(AppStartup.STOP_WORKERS));
+            if (migration.blocking) blockingMigrations.add(migration.name);
+        }
+        // Saves the books it loads; has to wait for the migrations not to overwrite them
+        result.add(new StartupTask(CLEAN_CONTENT, true, DatabaseMaintenance::cleanContent)
+                .dependsOn(AppStartup.STOP_WORKERS)
+                .dependsOn(blockingMigrations.toArray(new String[0])));
+        result.add(new StartupTask("createGroups", true, DatabaseMaintenance::createGroups)
+                .dependsOn(AppStartup.STOP_WORKERS));
         return result;
     }
 
-    public static List<Observable<Float>> getPostLaunchCleanupTasks(@NonNull final Context context) {
-        List<Observable<Float>> result = new ArrayList<>();
-        result.add(createObservableFrom(context, DatabaseMaintenance::clearTempContent));
-        result.add(createObservableFrom(context, DatabaseMaintenance::cleanBookmarksOneShot));
-        result.add(createObservableFrom(context, DatabaseMaintenance::cleanOrphanAttributes));
+    public static List<StartupTask> getPostLaunchCleanupTasks() {
+        List<StartupTask> result = new ArrayList<>();
+        result.add(new StartupTask(CLEAR_TEMP_CONTENT, false, DatabaseMaintenance::clearTempContent));
+        result.add(new StartupTask("cleanBookmarksOneShot", false, DatabaseMaintenance::cleanBookmarksOneShot));
+        result.add(new StartupTask("cleanOrphanAttributes", false, DatabaseMaintenance::cleanOrphanAttributes)
+                .dependsOn(CLEAR_TEMP_CONTENT));
         return result;
     }
 
-    private static Observable<Float> createObservableFrom(@NonNull final Context context, BiConsumer<Context, ObservableEmitter<Float>> function) {
-        return Observable.create(emitter -> function.accept(context, emitter));
+    /**
+     * Run the given migration by batches, each batch inside a single transaction
+     * NB : Migrated books don't match the selection of the migration anymore; an interrupted migration thus resumes
+     * where it stopped the next time it runs. The migration is only recorded as complete once all books have been migrated
+     */
+    private static void runMigration(@NonNull final Context context, ObservableEmitter<Float> emitter, @NonNull final Migration migration) {
+        ObjectBoxDB db = ObjectBoxDB.getInstance(context);
+        try {
+            Timber.i("%s : start", migration.description);
+            long[] contentIds = migration.selector.apply(db);
+            Timber.i("%s : %s books detected", migration.description, contentIds.length);
+            int max = contentIds.length;
+            for (int i = 0; i < max; i += MIGRATION_BATCH_SIZE) {
+                if (emitter.isDisposed()) {
+                    Timber.i("%s : interrupted", migration.description);
+                    return;
+                }
+                long[] batch = Arrays.copyOfRange(contentIds, i, Math.min(i + MIGRATION_BATCH_SIZE, max));
+                if (!db.updateContents(batch, c -> migration.update.accept(db, c))) {
+                    Timber.w("%s : failed; will be resumed next time", migration.description);
+                    return;
+                }
+                emitter.onNext(Math.min(i + MIGRATION_BATCH_SIZE, max) * 1f / max);
+            }
+            Preferences.setDbMigrationDone(migration.id);
+            Timber.i("%s : done", migration.description);
+        } finally {
+            db.closeThreadResources();
+            emitter.onComplete();
+        }
     }
 
     private static void cleanContent(@NonNull final Context context, ObservableEmitter<Float> emitter) {
@@ -123,54 +204,6 @@ public class DatabaseMaintenance {
         }
     }
 
-    private static void cleanPropertiesOneShot1(@NonNull final Context context, ObservableEmitter<Float> emitter) {
-        ObjectBoxDB db = ObjectBoxDB.getInstance(context);
-        try {
-            // Update URLs from deprecated Pururin image hosts
-            Timber.i("Upgrading Pururin image hosts : start");
-            List<Content> contents = db.selectContentWithOldPururinHost();
-            Timber.i("Upgrading Pururin image hosts : %s books detected", contents.size());
-            int max = contents.size();
-            float pos = 1;
-            for (Content c : contents) {
-                c.setCoverImageUrl(c.getCoverImageUrl().replace("api.pururin.to/images/", "cdn.pururin.to/assets/images/data/"));
-                if (c.getImageFiles() != null)
-                    for (ImageFile i : c.getImageFiles()) {
-                        db.updateImageFileUrl(i.setUrl(i.getUrl().replace("api.pururin.to/images/", "cdn.pururin.to/assets/images/data/")));
-                    }
-                db.insertContent(c);
-                emitter.onNext(pos++ / max);
-            }
-            Timber.i("Upgrading Pururin image hosts : done");
-        } finally {
-            db.closeThreadResources();
-            emitter.onComplete();
-        }
-    }
-
-    private static void cleanPropertiesOneShot2(@NonNull final Context context, ObservableEmitter<Float> emitter) {
-        ObjectBoxDB db = ObjectBoxDB.getInstance(context);
-        try {
-            // Update URLs from deprecated Tsumino image covers
-            Timber.i("Upgrading Tsumino covers : start");
-            List<Content> contents = db.selectContentWithOldTsuminoCovers();
-            Timber.i("Upgrading Tsumino covers : %s books detected", contents.size());
-            int max = contents.size();
-            float pos = 1;
-            for (Content c : contents) {
-                String url = c.getCoverImageUrl().replace("www.tsumino.com/Image/Thumb", "content.tsumino.com/thumbs");
-                if (!url.endsWith("/1")) url += "/1";
-                c.setCoverImageUrl(url);
-                db.insertContent(c);
-                emitter.onNext(pos++ / max);
-            }
-            Timber.i("Upgrading Tsumino covers : done");
-        } finally {
-            db.closeThreadResources();
-            emitter.onComplete();
-        }
-    }
-
     private static void cleanBookmarksOneShot(@NonNull final Context context, ObservableEmitter<Float> emitter) {
         ObjectBoxDB db = ObjectBoxDB.getInstance(context);
         try {
@@ -186,48 +219,6 @@ public class DatabaseMaintenance {
         }
     }
 
-    private static void setDefaultPropertiesOneShot(@NonNull final Context context, ObservableEmitter<Float> emitter) {
-        ObjectBoxDB db = ObjectBoxDB.getInstance(context);
-        try {
-            // Set default values for new ObjectBox properties that are values as null by default (see https://github.com/objectbox/objectbox-java/issues/157)
-            Timber.i("Set default ObjectBox properties : start");
-            List<Content> contents = db.selectContentWithNullCompleteField();
-            Timber.i("Set default ObjectBox properties : %s books detected", contents.size());
-            int max = contents.size();
-            float pos = 1;
-            for (Content c : contents) {
-                c.setCompleted(false);
-                db.insertContent(c);
-                emitter.onNext(pos++ / max);
-            }
-            Timber.i("Set default ObjectBox properties : done");
-        } finally {
-            db.closeThreadResources();
-            emitter.onComplete();
-        }
-    }
-
-    private static void computeContentSize(@NonNull final Context context, ObservableEmitter<Float> emitter) {
-        ObjectBoxDB db = ObjectBoxDB.getInstance(context);
-        try {
-            // Compute missing downloaded Content size according to underlying ImageFile sizes
-            Timber.i("Computing downloaded content size : start");
-            List<Content> contents = db.selectDownloadedContentWithNoSize();
-            Timber.i("Computing downloaded content size : %s books detected", contents.size());
-            int max = contents.size();
-            float pos = 1;
-            for (Content c : contents) {
-                c.computeSize();
-                db.insertContent(c);
-                emitter.onNext(pos++ / max);
-            }
-            Timber.i("Computing downloaded content size : done");
-        } finally {
-            db.closeThreadResources();
-            emitter.onComplete();
-        }
-    }
-
     private static void createGroups(@NonNull final Context context, ObservableEmitter<Float> emitter) {
         ObjectBoxDB db = ObjectBoxDB.getInstance(context);
         try {
@@ -302,27 +293,6 @@ public class DatabaseMaintenance {
         }
     }
 
-    private static void computeReadingProgress(@NonNull final Context context, ObservableEmitter<Float> emitter) {
-        ObjectBoxDB db = ObjectBoxDB.getInstance(context);
-        try {
-            // Compute missing downloaded Content size according to underlying ImageFile sizes
-            Timber.i("Computing downloaded content read progress : start");
-            List<Content> contents = db.selectDownloadedContentWithNoReadProgress();
-            Timber.i("Computing downloaded content read progress : %s books detected", contents.size());
-            int max = contents.size();
-            float pos = 1;
-            for (Content c : contents) {
-                c.computeReadProgress();
-                db.insertContent(c);
-                emitter.onNext(pos++ / max);
-            }
-            Timber.i("Computing downloaded content read progress : done");
-        } finally {
-            db.closeThreadResources();
-            emitter.onComplete();
-        }
-    }
-
     private static void cleanOrphanAttributes(@NonNull final Context context, ObservableEmitter<Float> emitter) {
         ObjectBoxDB db = ObjectBoxDB.getInstance(context);
         try {
@@ -335,4 +305,48 @@ public class DatabaseMaintenance {
             emitter.onComplete();
         }
     }
+
+    private static void upgradePururinHost(@NonNull final ObjectBoxDB db, @NonNull final Content c) {
+        c.setCoverImageUrl(c.getCoverImageUrl().replace("api.pururin.to/images/", "cdn.pururin.to/assets/images/data/"));
+        if (c.getImageFiles() != null)
+            for (ImageFile i : c.getImageFiles()) {
+                db.updateImageFileUrl(i.setUrl(i.getUrl().replace("api.pururin.to/images/", "cdn.pururin.to/assets/images/data/")));
+            }
+    }
+
+    private static void upgradeTsuminoCover(@NonNull final ObjectBoxDB db, @NonNull final Content c) {
+        String url = c.getCoverImageUrl().replace("www.tsumino.com/Image/Thumb", "content.tsumino.com/thumbs");
+        if (!url.endsWith("/1")) url += "/1";
+        c.setCoverImageUrl(url);
+    }
+
+    /**
+     * One-shot migration of the books of the collection
+     */
+    private static class Migration {
+        // Recorded once the migration is complete
+        private final int id;
+        // Name of the startup task running the migration
+        private final String name;
+        private final String description;
+        private final boolean blocking;
+        // Selects the IDs of the books to migrate
+        private final Function<ObjectBoxDB, long[]> selector;
+        // Migrates the given book; called inside the transaction of its batch
+        private final BiConsumer<ObjectBoxDB, Content> update;
+
+        Migration(int id,
+                  @NonNull String name,
+                  @NonNull String description,
+                  boolean blocking,
+                  @NonNull Function<ObjectBoxDB, long[]> selector,
+                  @NonNull BiConsumer<ObjectBoxDB, Content> update) {
+            this.id = id;
+            this.name = name;
+            this.description = description;
+            this.blocking = blocking;
+            this.selector = selector;
+            this.update = update;
+        }
+    }
 }
@@ -38,6 +38,14 @@ class DuplicatesDAO(ctx: Context) {
         return entries
     }
 
+    /**
+     * Get the entries whose duplicate is one of the given books
+     * NB : Returned entries are _not_ enriched with their Content
+     */
+    fun getEntriesByDuplicateIds(duplicateIds: List<Long>): List<DuplicateEntry> {
+        return duplicatesDb.selectEntriesByDuplicateIds(duplicateIds.toLongArray())
+    }
+
     fun getEntriesLive(): LiveData<List<DuplicateEntry>> {
         val livedata = ObjectBoxLiveData(duplicatesDb.selectEntriesQ())
 
@@ -64,6 +64,10 @@ public class DuplicatesDB {
         return store.boxFor(DuplicateEntry.class).query().orderDesc(DuplicateEntry_.referenceSize).build();
     }
 
+    List<DuplicateEntry> selectEntriesByDuplicateIds(long[] duplicateIds) {
+        return store.boxFor(DuplicateEntry.class).query().in(DuplicateEntry_.duplicateId, duplicateIds).build().find();
+    }
+
     void insertEntry(DuplicateEntry entry) {
         store.boxFor(DuplicateEntry.class).put(entry);
     }
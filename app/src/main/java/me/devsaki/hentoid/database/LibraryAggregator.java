@@ -0,0 +1,113 @@
+package me.devsaki.hentoid.database;
+
+import androidx.annotation.NonNull;
+
+import com.annimon.stream.function.Supplier;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.objectbox.BoxStore;
+import io.objectbox.query.Query;
+import me.devsaki.hentoid.database.domains.Content;
+import me.devsaki.hentoid.database.domains.Content_;
+import me.devsaki.hentoid.enums.Site;
+
+/**
+ * Aggregates of the books of the DB (SELECT ... GROUP BY equivalents), computed with property queries
+ * instead of loading whole entities, and cached until the next write on books
+ * <p>
+ * Cached values are tagged with the version of the library they have been computed with;
+ * the version is increased each time books are written (see invalidate)
+ */
+class LibraryAggregator {
+
+    private final BoxStore store;
+
+    // Version of the library; increased on each write on books
+    private long version = 0;
+    // Key -> cached value and the version it has been computed with
+    private final Map<String, ImmutablePair<Long, Object>> cache = new HashMap<>();
+
+
+    LibraryAggregator(@NonNull BoxStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Signal that books have been written, making all cached aggregates obsolete
+     */
+    synchronized void invalidate() {
+        version++;
+        cache.clear();
+    }
+
+    /**
+     * Number of books and their total size per source, for the given statuses
+     * SELECT site, COUNT(*), SUM(size) FROM content WHERE status IN (statusCodes) GROUP BY site
+     *
+     * @param statusCodes Status codes of the books to aggregate
+     * @return Number of books and their total size (in bytes) per source
+     */
+    Map<Site, ImmutablePair<Integer, Long>> countAndSizePerSite(@NonNull int[] statusCodes) {
+        return cached("countAndSizePerSite" + Arrays.toString(statusCodes), () -> {
+            Query<Content> query = store.boxFor(Content.class).query().in(Content_.status, statusCodes).build();
+            // Both columns have to be read from the same snapshot to be aligned
+            // NB : Null values are skipped by property queries unless they are replaced (legacy books may have no size)
+            ImmutablePair<long[], long[]> columns = store.callInReadTx(() -> new ImmutablePair<>(
+                    query.property(Content_.site).nullValue((long) Site.NONE.getCode()).findLongs(),
+                    query.property(Content_.size).nullValue(0L).findLongs()
+            ));
+            long[] sites = columns.left;
+            long[] sizes = columns.right;
+
+            // Primitive accumulators : count and total size per source
+            Map<Site, long[]> accumulators = new EnumMap<>(Site.class);
+            for (int i = 0; i < sites.length; i++) {
+                Site site = Site.searchByCode(sites[i]);
+                long[] acc = accumulators.get(site);
+                if (null == acc) {
+                    acc = new long[2];
+                    accumulators.put(site, acc);
+                }
+                acc[0]++;
+                acc[1] += sizes[i];
+            }
+
+            Map<Site, ImmutablePair<Integer, Long>> result = new EnumMap<>(Site.class);
+            for (Map.Entry<Site, long[]> entry : accumulators.entrySet())
+                result.put(entry.getKey(), new ImmutablePair<>((int) entry.getValue()[0], entry.getValue()[1]));
+            return Collections.unmodifiableMap(result);
+        });
+    }
+
+    /**
+     * Get the value cached under the given key, computing it if it isn't cached or if it is obsolete
+     * NB : The value is computed outside of the lock; it is cached only if no write happened in the meantime
+     * Cached values are shared : they must not be modified
+     *
+     * @param key      Key of the value
+     * @param supplier Computation of the value
+     * @return Value cached under the given key
+     */
+    @SuppressWarnings("unchecked")
+    <T> T cached(@NonNull String key, @NonNull Supplier<T> supplier) {
+        long computedVersion;
+        synchronized (this) {
+            ImmutablePair<Long, Object> entry = cache.get(key);
+            if (entry != null && entry.left == version) return (T) entry.right;
+            computedVersion = version;
+        }
+
+        T result = supplier.get();
+        synchronized (this) {
+            if (computedVersion == version) cache.put(key, new ImmutablePair<>(computedVersion, result));
+        }
+        return result;
+    }
+}
@@ -16,6 +16,7 @@ import com.annimon.stream.function.Consumer;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -214,9 +215,10 @@ public class ObjectBoxDAO implements CollectionDAO {
             boolean bookCompletedOnly,
             boolean bookNotCompletedOnly) {
         boolean isCustomOrder = (orderField == Preferences.Constant.ORDER_FIELD_CUSTOM);
+        boolean isRelevanceOrder = (isUniversal && orderField == Preferences.Constant.ORDER_FIELD_RELEVANCE);
 
         ImmutablePair<Long, DataSource.Factory<Integer, Content>> contentRetrieval;
-        if (isCustomOrder)
+        if (isCustomOrder || isRelevanceOrder)
             contentRetrieval = getPagedContentByList(isUniversal, filter, groupId, metadata, orderField, orderDesc, favouritesOnly, bookCompletedOnly, bookNotCompletedOnly);
         else
             contentRetrieval = getPagedContentByQuery(isUniversal, filter, groupId, metadata, orderField, orderDesc, favouritesOnly, bookCompletedOnly, bookNotCompletedOnly);
@@ -253,8 +255,7 @@ public class ObjectBoxDAO implements CollectionDAO {
         }
 
         if (isRandom) {
-            List<Long> shuffledIds = db.getShuffledIds();
-            return new ImmutablePair<>(query.count(), new ObjectBoxRandomDataSource.RandomDataSourceFactory<>(query, shuffledIds));
+            return new ImmutablePair<>(query.count(), new ObjectBoxRandomDataSource.RandomDataSourceFactory<>(db, query, db.getShuffleSeed()));
         } else return new ImmutablePair<>(query.count(), new ObjectBoxDataSource.Factory<>(query));
     }
 
@@ -270,7 +271,9 @@ public class ObjectBoxDAO implements CollectionDAO {
             boolean bookNotCompletedOnly) {
         long[] ids;
 
-        if (isUniversal) {
+        if (isUniversal && orderField == Preferences.Constant.ORDER_FIELD_RELEVANCE) {
+            ids = db.selectContentUniversalId(filter, groupId, bookFavouritesOnly, false, orderField, orderDesc, bookCompletedOnly, bookNotCompletedOnly, ContentHelper.getLibraryStatuses());
+        } else if (isUniversal) {
             ids = db.selectContentUniversalByGroupItem(filter, groupId, bookFavouritesOnly, false, orderField, orderDesc, bookCompletedOnly, bookNotCompletedOnly);
         } else {
             ids = db.selectContentSearchContentByGroupItem(filter, groupId, metadata, bookFavouritesOnly, orderField, orderDesc, bookCompletedOnly, bookNotCompletedOnly);
@@ -371,6 +374,32 @@ public class ObjectBoxDAO implements CollectionDAO {
         db.cleanupOrphanAttributes();
     }
 
+    @Override
+    public Map<String, ImmutablePair<Long, Long>> selectExternalBookFingerprints() {
+        return db.selectExternalBookFingerprints();
+    }
+
+    @Override
+    public void deleteExternalBooks(long[] contentIds) {
+        db.deleteContentById(contentIds);
+        db.cleanupOrphanAttributes();
+    }
+
+    @Override
+    public boolean replaceContent(long contentId, @NonNull final Content content) {
+        return db.replaceContent(contentId, content);
+    }
+
+    @Override
+    public Map<String, Long> selectAttributeIdsByKey() {
+        return db.selectAttributeIdsByKey();
+    }
+
+    @Override
+    public long[] insertContents(@NonNull List<Content> contents, @NonNull Map<String, Long> attributeIds) {
+        return db.insertContents(contents, attributeIds);
+    }
+
     @Override
     public List<Group> selectGroups(long[] groupIds) {
         return db.selectGroups(groupIds);
@@ -494,6 +523,20 @@ public class ObjectBoxDAO implements CollectionDAO {
         return db.insertGroupItem(item);
     }
 
+    public void insertGroupItems(@NonNull List<GroupItem> items) {
+        // Auto-number max order when not provided, once per group
+        Map<Long, Integer> maxOrders = new HashMap<>();
+        for (GroupItem item : items) {
+            if (-1 == item.order) {
+                Integer maxOrder = maxOrders.get(item.getGroupId());
+                if (null == maxOrder) maxOrder = db.getMaxGroupItemOrderFor(item.getGroupId());
+                item.order = maxOrder + 1;
+                maxOrders.put(item.getGroupId(), item.order);
+            }
+        }
+        db.insertGroupItems(items);
+    }
+
     public List<GroupItem> selectGroupItems(long contentId, Grouping grouping) {
         return db.selectGroupItems(contentId, grouping.getId());
     }
@@ -578,6 +621,10 @@ public class ObjectBoxDAO implements CollectionDAO {
         db.updateImageFileStatusParamsMimeTypeUriSize(image);
     }
 
+    public void deleteImageFiles(long contentId, @NonNull long[] imageIds) {
+        db.deleteImageFiles(contentId, imageIds);
+    }
+
     public void deleteImageFiles(@NonNull List<ImageFile> imgs) {
         // Delete the page
         db.deleteImageFiles(imgs);
@@ -7,18 +7,21 @@ import androidx.annotation.NonNull;
 
 import com.annimon.stream.Collectors;
 import com.annimon.stream.Stream;
+import com.annimon.stream.function.Consumer;
 
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.threeten.bp.Instant;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import javax.annotation.Nullable;
 
@@ -28,6 +31,7 @@ import io.objectbox.Property;
 import io.objectbox.android.AndroidObjectBrowser;
 import io.objectbox.query.Query;
 import io.objectbox.query.QueryBuilder;
+import io.objectbox.reactive.DataSubscription;
 import io.objectbox.relation.ToMany;
 import me.devsaki.hentoid.BuildConfig;
 import me.devsaki.hentoid.core.Consts;
@@ -59,7 +63,9 @@ import me.devsaki.hentoid.enums.Grouping;
 import me.devsaki.hentoid.enums.Site;
 import me.devsaki.hentoid.enums.StatusContent;
 import me.devsaki.hentoid.util.ContentHelper;
+import me.devsaki.hentoid.util.FullTextIndex;
 import me.devsaki.hentoid.util.Helper;
+import me.devsaki.hentoid.util.IdBitmap;
 import me.devsaki.hentoid.util.Preferences;
 import me.devsaki.hentoid.util.RandomSeedSingleton;
 import timber.log.Timber;
@@ -76,10 +82,19 @@ public class ObjectBoxDB {
     private static ObjectBoxDB instance;
 
     private final BoxStore store;
+    // Built on first use; see buildIndexes
+    private AttributeIndex attributeIndex = null;
+    private FullTextIndex textIndex = null;
+    // Aggregates of the books, cached until the next write on books
+    private final LibraryAggregator aggregator;
+    // Invalidates the aggregates each time books are written, whatever the code path
+    private final DataSubscription contentSubscription;
 
 
     private ObjectBoxDB(Context context) {
         store = MyObjectBox.builder().androidContext(context.getApplicationContext()).maxSizeInKByte(Preferences.getMaxDbSizeKb()).build();
+        aggregator = new LibraryAggregator(store);
+        contentSubscription = store.subscribe(Content.class).onlyChanges().observer(c -> aggregator.invalidate());
 
         if (BuildConfig.DEBUG && BuildConfig.INCLUDE_OBJECTBOX_BROWSER) {
             boolean started = new AndroidObjectBrowser(store).start(context.getApplicationContext());
@@ -90,6 +105,8 @@ public class ObjectBoxDB {
     // For testing (store generated by the test framework)
     private ObjectBoxDB(BoxStore store) {
         this.store = store;
+        aggregator = new LibraryAggregator(store);
+        contentSubscription = store.subscribe(Content.class).onlyChanges().observer(c -> aggregator.invalidate());
     }
 
 
@@ -114,6 +131,65 @@ public class ObjectBoxDB {
     }
 
 
+    /**
+     * Build the in-memory indexes of the books of the library in a single pass over the DB
+     */
+    private synchronized void buildIndexes() {
+        if (attributeIndex != null) return;
+
+        AttributeIndex attrIndex = new AttributeIndex();
+        FullTextIndex fullTextIndex = new FullTextIndex();
+        store.boxFor(Content.class).query().in(Content_.status, libraryStatus).build().forEach(c -> {
+            attrIndex.update(c);
+            updateTextIndex(fullTextIndex, c);
+        });
+        attributeIndex = attrIndex;
+        textIndex = fullTextIndex;
+    }
+
+    /**
+     * Index of the books of the library used to answer advanced search filters; built on first use
+     */
+    private synchronized AttributeIndex getAttributeIndex() {
+        buildIndexes();
+        return attributeIndex;
+    }
+
+    /**
+     * Index of the titles and tags of the books of the library used to answer universal searches; built on first use
+     */
+    private synchronized FullTextIndex getTextIndex() {
+        buildIndexes();
+        return textIndex;
+    }
+
+    /**
+     * Update the given book inside the indexes, if they have been built
+     * NB : Shares buildIndexes's lock so that no change is lost while the indexes are being built
+     */
+    private synchronized void indexContent(@NonNull Content content) {
+        if (attributeIndex != null) attributeIndex.update(content);
+        if (textIndex != null) updateTextIndex(textIndex, content);
+        // Don't wait for contentSubscription, which is notified asynchronously
+        aggregator.invalidate();
+    }
+
+    private synchronized void unindexContent(long contentId) {
+        if (attributeIndex != null) attributeIndex.remove(contentId);
+        if (textIndex != null) textIndex.remove(contentId);
+        aggregator.invalidate();
+    }
+
+    private static void updateTextIndex(@NonNull FullTextIndex index, @NonNull Content content) {
+        if (content.getId() < 1 || !ContentHelper.isInLibrary(content.getStatus())) {
+            index.remove(content.getId());
+            return;
+        }
+        List<Attribute> attributes = content.getAttributes();
+        List<String> keywords = (null == attributes) ? Collections.emptyList() : Stream.of(attributes).map(Attribute::getName).toList();
+        index.put(content.getId(), content.getTitle(), keywords);
+    }
+
     void closeThreadResources() {
         store.closeThreadResources();
     }
@@ -124,41 +200,189 @@ public class ObjectBoxDB {
 
 
     long insertContent(Content content) {
+        long result = store.callInTxNoException(() -> putContent(content));
+        indexContent(content);
+        return result;
+    }
+
+    /**
+     * Replace the pages, chapters and attributes of the book of the given ID with those of the given content,
+     * and save the given content with that ID, inside a single transaction
+     *
+     * @param contentId ID of the book to replace
+     * @param content   Content to save in place of the book
+     * @return True if the book has been replaced; false if the transaction failed (the book is then left untouched)
+     */
+    boolean replaceContent(long contentId, Content content) {
+        Boolean result = store.callInTxNoException(() -> {
+            resetContentRelations(contentId);
+            content.setId(contentId);
+            putContent(content);
+            return true;
+        });
+        if (!Boolean.TRUE.equals(result)) return false;
+        indexContent(content);
+        return true;
+    }
+
+    // Has to be called inside a transaction
+    private long putContent(Content content) {
         ToMany<Attribute> attributes = content.getAttributes();
         Box<Attribute> attrBox = store.boxFor(Attribute.class);
         Query<Attribute> attrByUniqueKey = attrBox.query().equal(Attribute_.type, 0).equal(Attribute_.name, "").build();
 
-        return store.callInTxNoException(() -> {
-            // Master data management managed manually
-            // Ensure all known attributes are replaced by their ID before being inserted
-            // Watch https://github.com/objectbox/objectbox-java/issues/509 for a lighter solution based on @Unique annotation
-            Attribute dbAttr;
-            Attribute inputAttr;
-            if (attributes != null) {
-                // This transaction may consume a lot of DB readers depending on the number of attributes involved
-                for (int i = 0; i < attributes.size(); i++) {
-                    inputAttr = attributes.get(i);
-                    dbAttr = attrByUniqueKey.setParameter(Attribute_.name, inputAttr.getName())
-                            .setParameter(Attribute_.type, inputAttr.getType().getCode())
-                            .findFirst();
-                    if (dbAttr != null) {
-                        attributes.set(i, dbAttr); // If existing -> set the existing attribute
-                        dbAttr.addLocationsFrom(inputAttr);
-                        attrBox.put(dbAttr);
-                    } else {
-                        inputAttr.setName(inputAttr.getName().toLowerCase().trim()); // If new -> normalize the attribute
-                    }
+        // Master data management managed manually
+        // Ensure all known attributes are replaced by their ID before being inserted
+        // Watch https://github.com/objectbox/objectbox-java/issues/509 for a lighter solution based on @Unique annotation
+        Attribute dbAttr;
+        Attribute inputAttr;
+        if (attributes != null) {
+            // This transaction may consume a lot of DB readers depending on the number of attributes involved
+            for (int i = 0; i < attributes.size(); i++) {
+                inputAttr = attributes.get(i);
+                dbAttr = attrByUniqueKey.setParameter(Attribute_.name, inputAttr.getName())
+                        .setParameter(Attribute_.type, inputAttr.getType().getCode())
+                        .findFirst();
+                if (dbAttr != null) {
+                    attributes.set(i, dbAttr); // If existing -> set the existing attribute
+                    dbAttr.addLocationsFrom(inputAttr);
+                    attrBox.put(dbAttr);
+                } else {
+                    inputAttr.setName(inputAttr.getName().toLowerCase().trim()); // If new -> normalize the attribute
                 }
             }
+        }
+
+        // Refresh the cover data when the images are known; loading them just for that would defeat its purpose
+        ToMany<ImageFile> images = content.getImageFiles();
+        if (!content.hasCoverData() || (images != null && images.isResolved()))
+            content.computeCoverData();
 
-            return store.boxFor(Content.class).put(content);
+        return store.boxFor(Content.class).put(content);
+    }
+
+    /**
+     * Get the IDs of all attributes, to resolve the attributes of many books at once
+     * NB : As with insertContent, names are compared regardless of their case
+     *
+     * @return Attribute key (see getAttributeKey) -> ID of the corresponding attribute
+     */
+    Map<String, Long> selectAttributeIdsByKey() {
+        Query<Attribute> query = store.boxFor(Attribute.class).query().build();
+        // All columns have to be read from the same snapshot to be aligned
+        return store.callInReadTx(() -> {
+            long[] ids = query.findIds();
+            int[] types = query.property(Attribute_.type).nullValue(0).findInts();
+            String[] names = query.property(Attribute_.name).nullValue("").findStrings();
+
+            Map<String, Long> result = new HashMap<>(ids.length);
+            for (int i = 0; i < ids.length && i < types.length && i < names.length; i++)
+                result.put(getAttributeKey(types[i], names[i]), ids[i]);
+            return result;
         });
     }
 
+    static String getAttributeKey(int typeCode, @NonNull String name) {
+        return typeCode + "." + name.toLowerCase();
+    }
+
+    /**
+     * Insert the given contents inside a single transaction
+     * Attributes are resolved using the given attribute IDs instead of being looked up one by one
+     * NB : If the transaction fails, the IDs assigned to the given contents and to their new related entities are reset,
+     * so that they can be inserted again
+     *
+     * @param contents     Contents to insert
+     * @param attributeIds Attribute key -> ID of the corresponding attribute, as given by selectAttributeIdsByKey;
+     *                     completed with the attributes created by the insertion once it has been committed
+     * @return IDs of the inserted contents, in the same order; empty if the transaction has failed
+     */
+    long[] insertContents(@NonNull List<Content> contents, @NonNull Map<String, Long> attributeIds) {
+        Box<Attribute> attrBox = store.boxFor(Attribute.class);
+        Box<Content> contentBox = store.boxFor(Content.class);
+        // Attributes created by the insertion; only known to the caller once the transaction has been committed
+        Map<String, Attribute> newAttributes = new HashMap<>();
+        boolean[] isNew = new boolean[contents.size()];
+        for (int c = 0; c < contents.size(); c++) isNew[c] = (0 == contents.get(c).getId());
+
+        long[] result = store.callInTxNoException(() -> {
+            long[] ids = new long[contents.size()];
+            for (int c = 0; c < contents.size(); c++) {
+                Content content = contents.get(c);
+                ToMany<Attribute> attributes = content.getAttributes();
+                if (attributes != null) {
+                    for (int i = 0; i < attributes.size(); i++) {
+                        Attribute inputAttr = attributes.get(i);
+                        String key = getAttributeKey(inputAttr.getType().getCode(), inputAttr.getName());
+                        Attribute newAttr = newAttributes.get(key);
+                        if (newAttr != null) { // Created by a previous content of the same batch
+                            attributes.set(i, newAttr);
+                            continue;
+                        }
+                        Long dbAttrId = attributeIds.get(key);
+                        Attribute dbAttr = (null == dbAttrId) ? null : attrBox.get(dbAttrId);
+                        if (dbAttr != null) {
+                            attributes.set(i, dbAttr); // If existing -> set the existing attribute
+                            dbAttr.addLocationsFrom(inputAttr);
+                            attrBox.put(dbAttr);
+                        } else {
+                            inputAttr.setName(inputAttr.getName().toLowerCase().trim()); // If new -> normalize the attribute
+                            newAttributes.put(key, inputAttr);
+                        }
+                    }
+                }
+
+                ToMany<ImageFile> images = content.getImageFiles();
+                if (!content.hasCoverData() || (images != null && images.isResolved()))
+                    content.computeCoverData();
+
+                ids[c] = contentBox.put(content);
+            }
+            return ids;
+        });
+        if (null == result) { // Transaction failed and has been rolled back
+            for (int c = 0; c < contents.size(); c++)
+                if (isNew[c]) resetIds(contents.get(c));
+            for (Attribute a : newAttributes.values()) resetIds(a);
+            return new long[0];
+        }
+        for (Map.Entry<String, Attribute> entry : newAttributes.entrySet())
+            attributeIds.put(entry.getKey(), entry.getValue().getId());
+        for (Content content : contents) indexContent(content);
+        return result;
+    }
+
+    /**
+     * Reset the IDs assigned to the given new content and to its related entities by a rolled back transaction
+     */
+    private static void resetIds(@NonNull Content content) {
+        content.setId(0);
+        ToMany<ImageFile> images = content.getImageFiles();
+        if (images != null && images.isResolved())
+            for (ImageFile img : images) img.setId(0);
+        ToMany<Chapter> chapters = content.getChapters();
+        if (chapters != null && chapters.isResolved())
+            for (Chapter chapter : chapters) chapter.setId(0);
+        ToMany<ErrorRecord> errors = content.getErrorLog();
+        if (errors != null && errors.isResolved())
+            for (ErrorRecord error : errors) error.id = 0;
+    }
+
+    /**
+     * Reset the IDs assigned to the given new attribute and to its locations by a rolled back transaction
+     */
+    private static void resetIds(@NonNull Attribute attribute) {
+        attribute.setId(0);
+        ToMany<AttributeLocation> locations = attribute.getLocations();
+        if (locations != null && locations.isResolved())
+            for (AttributeLocation location : locations) location.id = 0;
+    }
+
     public void updateContentStatus(@NonNull final StatusContent updateFrom, @NonNull final StatusContent updateTo) {
         List<Content> contentList = selectContentByStatus(updateFrom);
         for (Content c : contentList) c.setStatus(updateTo);
         store.boxFor(Content.class).put(contentList);
+        for (Content c : contentList) indexContent(c);
     }
 
     List<Content> selectContentByStatus(StatusContent status) {
@@ -189,6 +413,52 @@ public class ObjectBoxDB {
         return store.boxFor(Content.class).query().equal(Content_.status, StatusContent.EXTERNAL.getCode()).build();
     }
 
+    /**
+     * Get the storage Uri, ID and storage fingerprint of all external books, without loading them
+     *
+     * @return Storage Uri -> ID and storage fingerprint of the corresponding external book
+     */
+    Map<String, ImmutablePair<Long, Long>> selectExternalBookFingerprints() {
+        Query<Content> query = selectAllExternalBooksQ();
+        // All columns have to be read from the same snapshot to be aligned
+        return store.callInReadTx(() -> {
+            long[] ids = query.findIds();
+            String[] uris = query.property(Content_.storageUri).nullValue("").findStrings();
+            long[] fingerprints = query.property(Content_.storageFingerprint).nullValue(0L).findLongs();
+
+            Map<String, ImmutablePair<Long, Long>> result = new HashMap<>();
+            for (int i = 0; i < ids.length && i < uris.length && i < fingerprints.length; i++)
+                if (!uris[i].isEmpty()) result.put(uris[i], new ImmutablePair<>(ids[i], fingerprints[i]));
+            return result;
+        });
+    }
+
+    /**
+     * Remove the pages and chapters of the given content, and unlink its attributes, to replace them with new ones
+     * NB : The content itself and its group items are kept
+     *
+     * @param contentId ID of the content to reset the relations of
+     */
+    void resetContentRelations(long contentId) {
+        Box<Content> contentBox = store.boxFor(Content.class);
+        store.runInTx(() -> {
+            Content c = contentBox.get(contentId);
+            if (null == c) return;
+
+            if (c.getImageFiles() != null) {
+                store.boxFor(ImageFile.class).remove(c.getImageFiles());
+                c.getImageFiles().clear();
+            }
+            if (c.getChapters() != null) {
+                store.boxFor(Chapter.class).remove(c.getChapters());
+                c.getChapters().clear();
+            }
+            // Orphan attributes are removed by cleanupOrphanAttributes
+            c.getAttributes().clear();
+            contentBox.put(c);
+        });
+    }
+
     Query<Content> selectAllErrorJsonBooksQ() {
         return store.boxFor(Content.class).query().equal(Content_.status, StatusContent.ERROR.getCode()).notNull(Content_.jsonUri).notEqual(Content_.jsonUri, "").build();
     }
@@ -270,6 +540,7 @@ public class ObjectBoxDB {
 
                     contentBox.remove(c);                                           // Remove the content itself
                 });
+                unindexContent(id);
             }
         }
     }
@@ -397,18 +668,9 @@ public class ObjectBoxDB {
             QueryBuilder<Content> query = store.boxFor(Content.class).query();
             query.in(Content_.status, libraryStatus);
             query.in(Content_.id, filteredBooks);
-            List<Content> content = query.build().find();
 
             // Extract sites from them
-            Map<Site, List<Content>> contentPerSite = Stream.of(content).collect(Collectors.groupingBy(Content::getSite));
-            Set<Long> filteredSiteCodes = new HashSet<>();
-            for (Map.Entry<Site, List<Content>> entry : contentPerSite.entrySet()) {
-                Site site = entry.getKey();
-                filteredSiteCodes.add((long) site.getCode());
-            }
-            List<Long> result = new ArrayList<>(filteredSiteCodes);
-
-            return Helper.getPrimitiveLongArrayFromList(result);
+            return query.build().property(Content_.site).distinct().findLongs();
         } else {
             long[] result = new long[attrs.size()];
             if (!attrs.isEmpty()) {
@@ -426,6 +688,12 @@ public class ObjectBoxDB {
         // Random ordering is tricky (see https://github.com/objectbox/objectbox-java/issues/17)
         // => Implemented post-query build
         if (orderField == Preferences.Constant.ORDER_FIELD_RANDOM) return;
+        // Relevance depends on the universal search query
+        // => Implemented post-query build; defaults to the most recent books first
+        if (orderField == Preferences.Constant.ORDER_FIELD_RELEVANCE) {
+            query.orderDesc(Content_.downloadDate);
+            return;
+        }
         // Custom ordering depends on another "table"
         // => Implemented post-query build
         if (orderField == Preferences.Constant.ORDER_FIELD_CUSTOM) {
@@ -589,6 +857,32 @@ public class ObjectBoxDB {
         return Helper.getPrimitiveLongArrayFromList(Stream.of(query.build().find()).map(gi -> gi.content.getTargetId()).toList());
     }
 
+    /**
+     * IDs of the books matching the given universal search query, besides those matching its unique site ID
+     * - Library : ranked full-text search on titles and tags
+     * - Other statuses (e.g. queue) : books whose tags contain the query; their titles are matched by the caller
+     *
+     * @return IDs of the books matching the given query; ranked by relevance for the library
+     */
+    private long[] selectContentUniversalMatchIds(
+            String queryStr,
+            long groupId,
+            boolean filterBookFavourites,
+            boolean filterPageFavourites,
+            boolean bookCompletedOnly,
+            boolean bookNotCompletedOnly,
+            int[] statuses) {
+        if (isLibrarySearch(statuses)) return getTextIndex().search(queryStr);
+
+        // Due to objectBox limitations (see https://github.com/objectbox/objectbox-java/issues/497 and https://github.com/objectbox/objectbox-java/issues/201)
+        // querying Content and attributes have to be done separately
+        return selectContentUniversalAttributesQ(queryStr, groupId, filterBookFavourites, filterPageFavourites, bookCompletedOnly, bookNotCompletedOnly, statuses).findIds();
+    }
+
+    private static boolean isLibrarySearch(int[] statuses) {
+        return Arrays.equals(statuses, libraryStatus);
+    }
+
     private Query<Content> selectContentUniversalAttributesQ(
             String queryStr,
             long groupId,
@@ -619,7 +913,7 @@ public class ObjectBoxDB {
             long groupId,
             boolean filterBookFavourites,
             boolean filterPageFavourites,
-            long[] additionalIds,
+            long[] matchIds,
             int orderField,
             boolean orderDesc,
             boolean bookCompletedOnly,
@@ -639,10 +933,15 @@ public class ObjectBoxDB {
 
         if (filterPageFavourites) filterWithPageFavs(query);
 
-        query.contains(Content_.title, queryStr, QueryBuilder.StringOrder.CASE_INSENSITIVE);
-        query.or().equal(Content_.uniqueSiteId, queryStr);
-        //        query.or().link(Content_.attributes).contains(Attribute_.name, queryStr, QueryBuilder.StringOrder.CASE_INSENSITIVE); // Use of or() here is not possible yet with ObjectBox v2.3.1
-        query.or().in(Content_.id, additionalIds);
+        if (isLibrarySearch(statuses)) { // Titles and tags have already been matched by the full-text index
+            query.in(Content_.id, matchIds);
+            query.or().equal(Content_.uniqueSiteId, queryStr);
+        } else {
+            query.contains(Content_.title, queryStr, QueryBuilder.StringOrder.CASE_INSENSITIVE);
+            query.or().equal(Content_.uniqueSiteId, queryStr);
+            //        query.or().link(Content_.attributes).contains(Attribute_.name, queryStr, QueryBuilder.StringOrder.CASE_INSENSITIVE); // Use of or() here is not possible yet with ObjectBox v2.3.1
+            query.or().in(Content_.id, matchIds);
+        }
 
         if (groupId > 0) {
             Group group = store.boxFor(Group.class).get(groupId);
@@ -661,7 +960,7 @@ public class ObjectBoxDB {
             String queryStr,
             long groupId,
             boolean filterFavourites,
-            long[] additionalIds,
+            long[] matchIds,
             int orderField,
             boolean orderDesc,
             boolean bookCompletedOnly,
@@ -684,10 +983,9 @@ public class ObjectBoxDB {
         else if (bookNotCompletedOnly) contentQuery.equal(Content_.completed, false);
 
 
-        contentQuery.contains(Content_.title, queryStr, QueryBuilder.StringOrder.CASE_INSENSITIVE);
+        // Titles and tags have already been matched by the full-text index
+        contentQuery.in(Content_.id, matchIds);
         contentQuery.or().equal(Content_.uniqueSiteId, queryStr);
-        //        query.or().link(Content_.attributes).contains(Attribute_.name, queryStr, QueryBuilder.StringOrder.CASE_INSENSITIVE); // Use of or() here is not possible yet with ObjectBox v2.3.1
-        contentQuery.or().in(Content_.id, additionalIds);
         if (groupId > 0) contentQuery.in(Content_.id, selectFilteredContent(groupId));
 
         return Helper.getPrimitiveLongArrayFromList(Stream.of(query.build().find()).map(gi -> gi.content.getTargetId()).toList());
@@ -702,10 +1000,8 @@ public class ObjectBoxDB {
             boolean orderDesc,
             boolean bookCompletedOnly,
             boolean bookNotCompletedOnly) {
-        // Due to objectBox limitations (see https://github.com/objectbox/objectbox-java/issues/497 and https://github.com/objectbox/objectbox-java/issues/201)
-        // querying Content and attributes have to be done separately
-        Query<Content> contentAttrSubQuery = selectContentUniversalAttributesQ(queryStr, groupId, filterBookFavourites, filterPageFavourites, bookCompletedOnly, bookNotCompletedOnly, libraryStatus);
-        return selectContentUniversalContentQ(queryStr, groupId, filterBookFavourites, filterPageFavourites, contentAttrSubQuery.findIds(), orderField, orderDesc, bookCompletedOnly, bookNotCompletedOnly, libraryStatus);
+        long[] matchIds = selectContentUniversalMatchIds(queryStr, groupId, filterBookFavourites, filterPageFavourites, bookCompletedOnly, bookNotCompletedOnly, libraryStatus);
+        return selectContentUniversalContentQ(queryStr, groupId, filterBookFavourites, filterPageFavourites, matchIds, orderField, orderDesc, bookCompletedOnly, bookNotCompletedOnly, libraryStatus);
     }
 
     long[] selectContentUniversalByGroupItem(
@@ -717,38 +1013,42 @@ public class ObjectBoxDB {
             boolean orderDesc,
             boolean bookCompletedOnly,
             boolean bookNotCompletedOnly) {
-        // Due to objectBox limitations (see https://github.com/objectbox/objectbox-java/issues/497 and https://github.com/objectbox/objectbox-java/issues/201)
-        // querying Content and attributes have to be done separately
-        Query<Content> contentAttrSubQuery = selectContentUniversalAttributesQ(queryStr, groupId, filterBookFavourites, filterPageFavourites, bookCompletedOnly, bookNotCompletedOnly, libraryStatus);
-        return selectContentUniversalContentByGroupItem(queryStr, groupId, filterBookFavourites, contentAttrSubQuery.findIds(), orderField, orderDesc, bookCompletedOnly, bookNotCompletedOnly);
+        long[] matchIds = selectContentUniversalMatchIds(queryStr, groupId, filterBookFavourites, filterPageFavourites, bookCompletedOnly, bookNotCompletedOnly, libraryStatus);
+        return selectContentUniversalContentByGroupItem(queryStr, groupId, filterBookFavourites, matchIds, orderField, orderDesc, bookCompletedOnly, bookNotCompletedOnly);
     }
 
-    public List<Long> getShuffledIds() {
-        return Stream.of(store.boxFor(ShuffleRecord.class).getAll()).map(ShuffleRecord::getContentId).toList();
+    /**
+     * Seed of the current random order of the books (see ObjectBoxRandomDataSource)
+     */
+    public long getShuffleSeed() {
+        return Preferences.getContentShuffleSeed();
+    }
+
+    /**
+     * Run the given callable inside a single read transaction, so that all the queries it runs read the same snapshot
+     *
+     * @param callable Callable to run
+     * @param <T>      Type of the result of the callable
+     * @return Result of the callable
+     */
+    <T> T callInReadTx(@NonNull Callable<T> callable) {
+        return store.callInReadTx(callable);
     }
 
     public void shuffleContentIds() {
-        Box<ShuffleRecord> shuffleStore = store.boxFor(ShuffleRecord.class);
-        shuffleStore.removeAll();
-        List<Long> allBooksIds = Helper.getListFromPrimitiveArray(selectStoredContentQ(false, false, -1, false).build().findIds());
-        Collections.shuffle(allBooksIds, new Random(RandomSeedSingleton.getInstance().getSeed(Consts.SEED_CONTENT)));
-        shuffleStore.put(Stream.of(allBooksIds).map(ShuffleRecord::new).toList());
+        // Persist the seed so that the random order survives app restarts
+        Preferences.setContentShuffleSeed(RandomSeedSingleton.getInstance().getSeed(Consts.SEED_CONTENT));
+        // Shuffled IDs used to be persisted one by one
+        store.boxFor(ShuffleRecord.class).removeAll();
     }
 
     private long[] shuffleRandomSortId(Query<Content> query) {
-        List<Long> queryIds = Helper.getListFromPrimitiveArray(query.findIds());
-        List<Long> shuffleIds = getShuffledIds();
+        long[] queryIds = query.findIds();
+        int[] positions = ObjectBoxRandomDataSource.shuffle(queryIds, getShuffleSeed());
 
-        // Keep common IDs
-        shuffleIds.retainAll(queryIds);
-
-        // Isolate new IDs that have never been shuffled and append them at the end
-        if (shuffleIds.size() < queryIds.size()) {
-            queryIds.removeAll(shuffleIds);
-            shuffleIds.addAll(queryIds);
-        }
-
-        return Helper.getPrimitiveLongArrayFromList(shuffleIds);
+        long[] result = new long[positions.length];
+        for (int i = 0; i < positions.length; i++) result[i] = queryIds[positions[i]];
+        return result;
     }
 
     long[] selectContentSearchId(String title, long groupId, List<Attribute> tags, boolean filterBookFavourites, boolean filterPageFavourites, int orderField, boolean orderDesc, boolean bookCompletedOnly, boolean bookNotCompletedOnly) {
@@ -774,19 +1074,35 @@ public class ObjectBoxDB {
             boolean bookNotCompletedOnly,
             int[] statuses) {
         long[] result;
-        // Due to objectBox limitations (see https://github.com/objectbox/objectbox-java/issues/497 and https://github.com/objectbox/objectbox-java/issues/201)
-        // querying Content and attributes have to be done separately
-        Query<Content> contentAttrSubQuery = selectContentUniversalAttributesQ(queryStr, groupId, filterBookFavourites, filterPageFavourites, bookCompletedOnly, bookNotCompletedOnly, statuses);
-        Query<Content> query = selectContentUniversalContentQ(queryStr, groupId, filterBookFavourites, filterPageFavourites, contentAttrSubQuery.findIds(), orderField, orderDesc, bookCompletedOnly, bookNotCompletedOnly, statuses);
+        long[] matchIds = selectContentUniversalMatchIds(queryStr, groupId, filterBookFavourites, filterPageFavourites, bookCompletedOnly, bookNotCompletedOnly, statuses);
+        Query<Content> query = selectContentUniversalContentQ(queryStr, groupId, filterBookFavourites, filterPageFavourites, matchIds, orderField, orderDesc, bookCompletedOnly, bookNotCompletedOnly, statuses);
 
-        if (orderField != Preferences.Constant.ORDER_FIELD_RANDOM) {
-            result = query.findIds();
-        } else {
+        if (orderField == Preferences.Constant.ORDER_FIELD_RANDOM) {
             result = shuffleRandomSortId(query);
+        } else if (orderField == Preferences.Constant.ORDER_FIELD_RELEVANCE && isLibrarySearch(statuses)) {
+            result = relevanceSortId(query, matchIds);
+        } else {
+            result = query.findIds();
         }
         return result;
     }
 
+    /**
+     * Sort the results of the given query according to the given ranking
+     * NB : Results that aren't ranked (e.g. unique site ID matches) come first, as they're exact matches
+     *
+     * @param query     Query to sort the results of
+     * @param rankedIds  IDs of the books, the most relevant first
+     * @return IDs of the results of the given query, the most relevant first
+     */
+    private long[] relevanceSortId(Query<Content> query, long[] rankedIds) {
+        Set<Long> queryIds = new HashSet<>(Helper.getListFromPrimitiveArray(query.findIds()));
+        List<Long> result = new ArrayList<>(queryIds.size());
+        for (long id : rankedIds) if (queryIds.remove(id)) result.add(id);
+        result.addAll(0, queryIds);
+        return Helper.getPrimitiveLongArrayFromList(result);
+    }
+
     private long[] selectFilteredContent(long groupId) {
         if (groupId < 1) return new long[0];
 
@@ -798,75 +1114,20 @@ public class ObjectBoxDB {
     }
 
     private long[] selectFilteredContent(List<Attribute> attrs, boolean filterFavourites, boolean bookCompletedOnly, boolean bookNotCompletedOnly) {
-        if (null == attrs || attrs.isEmpty()) return new long[0];
-
-        // Pre-build queries to reuse them efficiently within the loops
-        QueryBuilder<Content> contentFromSourceQueryBuilder = store.boxFor(Content.class).query();
-        contentFromSourceQueryBuilder.in(Content_.status, libraryStatus);
-        contentFromSourceQueryBuilder.equal(Content_.site, 1);
-        if (filterFavourites) contentFromSourceQueryBuilder.equal(Content_.favourite, true);
-
-        if (bookCompletedOnly) contentFromSourceQueryBuilder.equal(Content_.completed, true);
-        else if (bookNotCompletedOnly)
-            contentFromSourceQueryBuilder.equal(Content_.completed, false);
-
-
-        Query<Content> contentFromSourceQuery = contentFromSourceQueryBuilder.build();
-
-        QueryBuilder<Content> contentFromAttributesQueryBuilder = store.boxFor(Content.class).query();
-        contentFromAttributesQueryBuilder.in(Content_.status, libraryStatus);
-        if (filterFavourites) contentFromAttributesQueryBuilder.equal(Content_.favourite, true);
-
-        // If first tag is to be excluded, start shrinking the whole database
-        List<Long> idsFull = attrs.get(0).isExcluded()
-                ? Helper.getListFromPrimitiveArray(contentFromAttributesQueryBuilder.build().findIds())
-                : Collections.emptyList();
-
-        contentFromAttributesQueryBuilder = store.boxFor(Content.class).query();
-        contentFromAttributesQueryBuilder.in(Content_.status, libraryStatus);
-        if (filterFavourites) contentFromAttributesQueryBuilder.equal(Content_.favourite, true);
-
-        if (bookCompletedOnly) contentFromAttributesQueryBuilder.equal(Content_.completed, true);
-        else if (bookNotCompletedOnly)
-            contentFromAttributesQueryBuilder.equal(Content_.completed, false);
-
-        contentFromAttributesQueryBuilder.link(Content_.attributes)
-                .equal(Attribute_.type, 0)
-                .equal(Attribute_.name, "");
-        Query<Content> contentFromAttributesQuery = contentFromAttributesQueryBuilder.build();
-
-        // Cumulative query loop
-        // Each iteration restricts the results of the next because advanced search uses an AND logic
-        List<Long> results = Collections.emptyList();
-        long[] ids;
-
-        for (Attribute attr : attrs) {
-            if (attr.getType().equals(AttributeType.SOURCE)) {
-                ids = contentFromSourceQuery.setParameter(Content_.site, attr.getId()).findIds();
-            } else {
-                ids = contentFromAttributesQuery.setParameter(Attribute_.type, attr.getType().getCode())
-                        .setParameter(Attribute_.name, attr.getName()).findIds();
-            }
-            if (results.isEmpty()) { // First iteration
-                results = Helper.getListFromPrimitiveArray(ids);
-
-                // If first tag is to be excluded, start trimming results
-                if (attr.isExcluded()) {
-                    idsFull.removeAll(results);
-                    results = idsFull;
-                }
-            } else {
-                // Filter results with newly found IDs (only common IDs should stay)
-                List<Long> idsAsList = Helper.getListFromPrimitiveArray(ids);
-                // Remove ids that fit the attribute from results
-                if (attr.isExcluded())
-                    results.removeAll(idsAsList);
-                else
-                    results.retainAll(idsAsList);
-            }
-        }
+        IdBitmap result = selectFilteredContentBitmap(attrs, filterFavourites, bookCompletedOnly, bookNotCompletedOnly);
+        return (null == result) ? new long[0] : result.toArray();
+    }
 
-        return Helper.getPrimitiveLongArrayFromList(results);
+    /**
+     * Books of the library matching all the given attributes, computed with the attribute index
+     * (advanced search uses an AND logic; excluded attributes are subtracted)
+     *
+     * @return Books matching the given attributes; null if no attribute is given
+     */
+    @Nullable
+    private IdBitmap selectFilteredContentBitmap(List<Attribute> attrs, boolean filterFavourites, boolean bookCompletedOnly, boolean bookNotCompletedOnly) {
+        if (null == attrs || attrs.isEmpty()) return null;
+        return getAttributeIndex().filter(attrs, filterFavourites, bookCompletedOnly, bookNotCompletedOnly);
     }
 
     /*
@@ -888,39 +1149,26 @@ public class ObjectBoxDB {
     List<Attribute> selectAvailableSources(List<Attribute> filter) {
         List<Attribute> result = new ArrayList<>();
 
-        QueryBuilder<Content> query = store.boxFor(Content.class).query();
-        query.in(Content_.status, libraryStatus);
-
-        if (filter != null && !filter.isEmpty()) {
-            AttributeMap metadataMap = new AttributeMap();
-            metadataMap.addAll(filter);
-
-            List<Attribute> params = metadataMap.get(AttributeType.SOURCE);
-            if (params != null && !params.isEmpty())
-                query.in(Content_.site, getIdsFromAttributes(params));
-
-            for (Map.Entry<AttributeType, List<Attribute>> entry : metadataMap.entrySet()) {
-                AttributeType attrType = entry.getKey();
-                if (!attrType.equals(AttributeType.SOURCE)) { // Not a "real" attribute in database
-                    List<Attribute> attrs = entry.getValue();
-                    if (attrs != null && !attrs.isEmpty())
-                        query.in(Content_.id, selectFilteredContent(attrs, false, false, false));
-                }
-            }
-
-        }
-
-        List<Content> content = query.build().find();
-
         // SELECT field, COUNT(*) GROUP BY (field) is not implemented in ObjectBox v2.3.1
         // (see https://github.com/objectbox/objectbox-java/issues/422)
-        // => Group by and count have to be done manually (thanks God Stream exists !)
-        // Group and count by source
-        Map<Site, List<Content>> map = Stream.of(content).collect(Collectors.groupingBy(Content::getSite));
-        for (Map.Entry<Site, List<Content>> entry : map.entrySet()) {
-            Site site = entry.getKey();
-            int size = (null == entry.getValue()) ? 0 : entry.getValue().size();
-            result.add(new Attribute(AttributeType.SOURCE, site.getDescription()).setExternalId(site.getCode()).setCount(size));
+        // => Books are counted per source by the attribute index, without loading them
+        List<Attribute> sources = new ArrayList<>();
+        List<Attribute> attrs = new ArrayList<>();
+        if (filter != null)
+            for (Attribute a : filter) {
+                if (a.getType().equals(AttributeType.SOURCE)) sources.add(a);
+                else attrs.add(a);
+            }
+        IdBitmap filteredContent = selectFilteredContentBitmap(attrs, false, false, false);
+        // Selected sources are cumulative (OR logic), unlike the other attributes
+        if (!sources.isEmpty()) {
+            IdBitmap sourceContent = getAttributeIndex().filterAnySource(sources);
+            filteredContent = (null == filteredContent) ? sourceContent : filteredContent.and(sourceContent);
+        }
+        SparseIntArray countPerSite = getAttributeIndex().countBooksPerSite(filteredContent);
+        for (int i = 0; i < countPerSite.size(); i++) {
+            Site site = Site.searchByCode(countPerSite.keyAt(i));
+            result.add(new Attribute(AttributeType.SOURCE, site.getDescription()).setExternalId(site.getCode()).setCount(countPerSite.valueAt(i)));
         }
         // Order by count desc
         result = Stream.of(result).sortBy(a -> -a.getCount()).collect(toList());
@@ -949,22 +1197,20 @@ public class ObjectBoxDB {
     private Query<Attribute> queryAvailableAttributes(
             @NonNull final AttributeType type,
             String filter,
-            long[] filteredContent) {
+            @Nullable IdBitmap filteredContent) {
         QueryBuilder<Attribute> query = store.boxFor(Attribute.class).query();
         query.equal(Attribute_.type, type.getCode());
         if (filter != null && !filter.trim().isEmpty())
             query.contains(Attribute_.name, filter.trim(), QueryBuilder.StringOrder.CASE_INSENSITIVE);
-        if (filteredContent.length > 0)
-            query.link(Attribute_.contents).in(Content_.id, filteredContent).in(Content_.status, libraryStatus);
-        else
-            query.link(Attribute_.contents).in(Content_.status, libraryStatus);
+        // Only keep attributes used by the filtered books (or by the whole library if there's no filter)
+        query.in(Attribute_.id, getAttributeIndex().selectAttributeIds(type, filteredContent));
 
         return query.build();
     }
 
     long countAvailableAttributes(AttributeType
                                           type, List<Attribute> attributeFilter, String filter, boolean filterFavourites, boolean bookCompletedOnly, boolean bookNotCompletedOnly) {
-        return queryAvailableAttributes(type, filter, selectFilteredContent(attributeFilter, filterFavourites, bookCompletedOnly, bookNotCompletedOnly)).count();
+        return queryAvailableAttributes(type, filter, selectFilteredContentBitmap(attributeFilter, filterFavourites, bookCompletedOnly, bookNotCompletedOnly)).count();
     }
 
     @SuppressWarnings("squid:S2184")
@@ -979,22 +1225,14 @@ public class ObjectBoxDB {
             int itemsPerPage,
             boolean bookCompletedOnly,
             boolean bookNotCompletedOnly) {
-        long[] filteredContent = selectFilteredContent(attributeFilter, filterFavourites, bookCompletedOnly, bookNotCompletedOnly);
-        if (filteredContent.length == 0 && attributeFilter != null && !attributeFilter.isEmpty())
+        IdBitmap filteredContent = selectFilteredContentBitmap(attributeFilter, filterFavourites, bookCompletedOnly, bookNotCompletedOnly);
+        if (filteredContent != null && filteredContent.isEmpty())
             return Collections.emptyList();
-        List<Long> filteredContentAsList = Helper.getListFromPrimitiveArray(filteredContent);
-        List<Integer> libraryStatusAsList = Helper.getListFromPrimitiveArray(libraryStatus);
         List<Attribute> result = queryAvailableAttributes(type, filter, filteredContent).find();
 
         // Compute attribute count for sorting
-        long count;
-        for (Attribute a : result) {
-            count = Stream.of(a.contents)
-                    .filter(c -> libraryStatusAsList.contains(c.getStatus().getCode()))
-                    .filter(c -> filteredContentAsList.isEmpty() || filteredContentAsList.contains(c.getId()))
-                    .count();
-            a.setCount((int) count);
-        }
+        AttributeIndex index = getAttributeIndex();
+        for (Attribute a : result) a.setCount(index.count(a.getId(), filteredContent));
 
         // Apply sort order
         Stream<Attribute> s = Stream.of(result);
@@ -1017,36 +1255,15 @@ public class ObjectBoxDB {
     }
 
     SparseIntArray countAvailableAttributesPerType(List<Attribute> attributeFilter) {
-        // Get Content filtered by current selection
-        long[] filteredContent = selectFilteredContent(attributeFilter, false, false, false);
-        // Get available attributes of the resulting content list
-        QueryBuilder<Attribute> query = store.boxFor(Attribute.class).query();
-
-        if (filteredContent.length > 0)
-            query.link(Attribute_.contents).in(Content_.id, filteredContent).in(Content_.status, libraryStatus);
-        else
-            query.link(Attribute_.contents).in(Content_.status, libraryStatus);
-
-        List<Attribute> attributes = query.build().find();
+        // Unfiltered counts are displayed each time the search screen opens => keep them until the library changes
+        // NB : The caller adds the number of sources to the result, hence the copy
+        if (null == attributeFilter || attributeFilter.isEmpty())
+            return aggregator.cached("attributesPerType", () -> getAttributeIndex().countAttributesPerType(null)).clone();
 
-        SparseIntArray result = new SparseIntArray();
-        // SELECT field, COUNT(*) GROUP BY (field) is not implemented in ObjectBox v2.3.1
-        // (see https://github.com/objectbox/objectbox-java/issues/422)
-        // => Group by and count have to be done manually (thanks God Stream exists !)
-        // Group and count by type
-        Map<AttributeType, List<Attribute>> map = Stream.of(attributes).collect(Collectors.groupingBy(Attribute::getType));
-
-        for (Map.Entry<AttributeType, List<Attribute>> entry : map.entrySet()) {
-            AttributeType t = entry.getKey();
-            if (filteredContent.length == 0 && attributeFilter != null)
-                result.append(t.getCode(), 0);
-            else {
-                int size = (null == entry.getValue()) ? 0 : entry.getValue().size();
-                result.append(t.getCode(), size);
-            }
-        }
-
-        return result;
+        // Get Content filtered by current selection
+        IdBitmap filteredContent = selectFilteredContentBitmap(attributeFilter, false, false, false);
+        // Count available attributes of the resulting content list
+        return getAttributeIndex().countAttributesPerType(filteredContent);
     }
 
     List<Content> selectContentWithTitle(@NonNull String word, int[] contentStatusCodes) {
@@ -1066,6 +1283,7 @@ public class ObjectBoxDB {
             img.setFileUri(image.getFileUri());
             img.setSize(image.getSize());
             imgBox.put(img);
+            updateCoverData(img);
         }
     }
 
@@ -1080,6 +1298,7 @@ public class ObjectBoxDB {
 
         for (ImageFile img : imgs) img.setStatus(updateTo);
         store.boxFor(ImageFile.class).put(imgs);
+        updateCoverData(imgs);
     }
 
     void updateImageFileUrl(@NonNull final ImageFile image) {
@@ -1088,9 +1307,32 @@ public class ObjectBoxDB {
         if (img != null) {
             img.setUrl(image.getUrl());
             imgBox.put(img);
+            updateCoverData(img);
         }
     }
 
+    /**
+     * Update the cover data of the book of the given image, if it is a cover
+     */
+    private void updateCoverData(@NonNull ImageFile img) {
+        if (!img.isCover()) return;
+        long contentId = img.getContent().getTargetId();
+        if (contentId <= 0) return;
+
+        Box<Content> contentBox = store.boxFor(Content.class);
+        Content content = contentBox.get(contentId);
+        if (null == content) return;
+        content.setCoverData(img);
+        contentBox.put(content);
+    }
+
+    /**
+     * Update the cover data of the books of the given images, if any of them is a cover
+     */
+    private void updateCoverData(@NonNull List<ImageFile> imgs) {
+        for (ImageFile img : imgs) updateCoverData(img);
+    }
+
     // Returns a list of processed images grouped by status, with count and filesize (in bytes)
     Map<StatusContent, ImmutablePair<Integer, Long>> countProcessedImagesById(long contentId) {
         QueryBuilder<ImageFile> imgQuery = store.boxFor(ImageFile.class).query();
@@ -1126,29 +1368,7 @@ public class ObjectBoxDB {
     }
 
     Map<Site, ImmutablePair<Integer, Long>> selectMemoryUsagePerSource(int[] statusCodes) {
-        // Get all downloaded images regardless of the book's status
-        QueryBuilder<Content> query = store.boxFor(Content.class).query();
-        query.in(Content_.status, statusCodes);
-        List<Content> books = query.build().find();
-
-        Map<Site, ImmutablePair<Integer, Long>> result = new EnumMap<>(Site.class);
-        // SELECT field, COUNT(*) GROUP BY (field) is not implemented in ObjectBox v2.3.1
-        // (see https://github.com/objectbox/objectbox-java/issues/422)
-        // => Group by and count have to be done manually (thanks God Stream exists !)
-        // Group and count by type
-        Map<Site, List<Content>> map = Stream.of(books).collect(Collectors.groupingBy(Content::getSite));
-        for (Map.Entry<Site, List<Content>> entry : map.entrySet()) {
-            Site s = entry.getKey();
-            int count = 0;
-            long size = 0;
-            if (entry.getValue() != null) {
-                count = entry.getValue().size();
-                for (Content c : entry.getValue()) size += c.getSize();
-            }
-            result.put(s, new ImmutablePair<>(count, size));
-        }
-
-        return result;
+        return aggregator.countAndSizePerSite(statusCodes);
     }
 
     void insertErrorRecord(@NonNull final ErrorRecord record) {
@@ -1165,7 +1385,10 @@ public class ObjectBoxDB {
     }
 
     void insertImageFile(@NonNull ImageFile img) {
-        if (img.getId() > 0) store.boxFor(ImageFile.class).put(img);
+        if (img.getId() > 0) {
+            store.boxFor(ImageFile.class).put(img);
+            updateCoverData(img);
+        }
     }
 
     void deleteImageFiles(long contentId) {
@@ -1176,8 +1399,30 @@ public class ObjectBoxDB {
         store.boxFor(ImageFile.class).remove(images);
     }
 
+    /**
+     * Delete the images of the given IDs and refresh the cover data of the given book, inside a single transaction
+     *
+     * @param contentId ID of the book the images belong to
+     * @param imageIds  IDs of the images to delete
+     */
+    void deleteImageFiles(long contentId, long[] imageIds) {
+        if (0 == imageIds.length) return;
+        store.runInTx(() -> {
+            store.boxFor(ImageFile.class).remove(imageIds);
+            Box<Content> contentBox = store.boxFor(Content.class);
+            Content content = contentBox.get(contentId);
+            if (content != null) {
+                content.computeCoverData();
+                contentBox.put(content);
+            }
+        });
+    }
+
     void insertImageFiles(@NonNull List<ImageFile> imgs) {
-        store.boxFor(ImageFile.class).put(imgs);
+        store.runInTx(() -> {
+            store.boxFor(ImageFile.class).put(imgs);
+            updateCoverData(imgs);
+        });
     }
 
     void replaceImageFiles(long contentId, @NonNull final List<ImageFile> newList) {
@@ -1185,6 +1430,15 @@ public class ObjectBoxDB {
             deleteImageFiles(contentId);
             for (ImageFile img : newList) img.setContentId(contentId);
             insertImageFiles(newList);
+            // Cover data has been updated by insertImageFiles, unless the new list has no cover
+            if (Stream.of(newList).noneMatch(ImageFile::isCover)) {
+                Box<Content> contentBox = store.boxFor(Content.class);
+                Content content = contentBox.get(contentId);
+                if (content != null) {
+                    content.setCoverData(null);
+                    contentBox.put(content);
+                }
+            }
         });
     }
 
@@ -1252,6 +1506,10 @@ public class ObjectBoxDB {
         return store.boxFor(GroupItem.class).put(item);
     }
 
+    void insertGroupItems(@NonNull List<GroupItem> items) {
+        store.boxFor(GroupItem.class).put(items);
+    }
+
     List<GroupItem> selectGroupItems(long[] groupItemIds) {
         return store.boxFor(GroupItem.class).get(groupItemIds);
     }
@@ -1357,24 +1615,76 @@ public class ObjectBoxDB {
      * ONE-SHOT USE QUERIES (MIGRATION & MAINTENANCE)
      */
 
-    List<Content> selectContentWithOldPururinHost() {
-        return store.boxFor(Content.class).query().contains(Content_.coverImageUrl, "://api.pururin.to/images/").build().find();
+    long[] selectContentIdsWithOldPururinHost() {
+        return store.boxFor(Content.class).query().contains(Content_.coverImageUrl, "://api.pururin.to/images/").build().findIds();
+    }
+
+    long[] selectContentIdsWithOldTsuminoCovers() {
+        return store.boxFor(Content.class).query().contains(Content_.coverImageUrl, "://www.tsumino.com/Image/Thumb/").build().findIds();
+    }
+
+    long[] selectDownloadedContentIdsWithNoSize() {
+        return store.boxFor(Content.class).query().in(Content_.status, libraryStatus).isNull(Content_.size).build().findIds();
+    }
+
+    long[] selectDownloadedContentIdsWithNoReadProgress() {
+        return store.boxFor(Content.class).query().in(Content_.status, libraryStatus).isNull(Content_.readProgress).build().findIds();
     }
 
-    List<Content> selectContentWithOldTsuminoCovers() {
-        return store.boxFor(Content.class).query().contains(Content_.coverImageUrl, "://www.tsumino.com/Image/Thumb/").build().find();
+    long[] selectContentIdsWithNoCoverData() {
+        return store.boxFor(Content.class).query().isNull(Content_.coverUri).build().findIds();
     }
 
-    List<Content> selectDownloadedContentWithNoSize() {
-        return store.boxFor(Content.class).query().in(Content_.status, libraryStatus).isNull(Content_.size).build().find();
+    long[] selectContentIdsWithHashedCovers() {
+        return store.boxFor(ImageFile.class).query()
+                .equal(ImageFile_.isCover, true)
+                .notEqual(ImageFile_.imageHash, 0)
+                .notEqual(ImageFile_.imageHash, Long.MIN_VALUE)
+                .build().property(ImageFile_.contentId).distinct().findLongs();
     }
 
-    List<Content> selectDownloadedContentWithNoReadProgress() {
-        return store.boxFor(Content.class).query().in(Content_.status, libraryStatus).isNull(Content_.readProgress).build().find();
+    /**
+     * Reset the hash of the cover of the given book, so that it is computed again
+     * NB : Has to be called inside a transaction
+     */
+    void resetCoverHash(Content content) {
+        ImageFile cover = store.boxFor(ImageFile.class).query()
+                .equal(ImageFile_.contentId, content.getId())
+                .equal(ImageFile_.isCover, true)
+                .build().findFirst();
+        if (null == cover) return;
+        cover.setImageHash(0);
+        store.boxFor(ImageFile.class).put(cover);
+        content.setCoverData(cover);
     }
 
-    List<Content> selectContentWithNullCompleteField() {
-        return store.boxFor(Content.class).query().isNull(Content_.completed).build().find();
+    long[] selectContentIdsWithNullCompleteField() {
+        return store.boxFor(Content.class).query().isNull(Content_.completed).build().findIds();
+    }
+
+    /**
+     * Apply the given update to the books of the given IDs and save them, inside a single transaction
+     * NB : Unlike insertContent, attributes are left untouched; only use it to update the properties of existing books
+     *
+     * @param contentIds IDs of the books to update
+     * @param update     Update to apply to each book
+     * @return True if the books have been saved; false if the transaction failed
+     */
+    boolean updateContents(long[] contentIds, @NonNull final Consumer<Content> update) {
+        Box<Content> contentBox = store.boxFor(Content.class);
+        Boolean result = store.callInTxNoException(() -> {
+            List<Content> contents = Stream.of(contentBox.get(contentIds)).withoutNulls().toList();
+            for (Content c : contents) {
+                update.accept(c);
+                // Same rule as insertContent
+                ToMany<ImageFile> images = c.getImageFiles();
+                if (!c.hasCoverData() || (images != null && images.isResolved()))
+                    c.computeCoverData();
+            }
+            contentBox.put(contents);
+            return true;
+        });
+        return Boolean.TRUE.equals(result);
     }
 
     public Query<Content> selectOldStoredContentQ() {
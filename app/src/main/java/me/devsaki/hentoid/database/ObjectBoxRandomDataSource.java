@@ -5,31 +5,47 @@ import androidx.paging.DataSource;
 import androidx.paging.PositionalDataSource;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import io.objectbox.query.LazyList;
 import io.objectbox.query.Query;
 import io.objectbox.reactive.DataObserver;
-import me.devsaki.hentoid.util.Helper;
 
+/**
+ * Data source displaying the results of the given query in a random order
+ * <p>
+ * The order is given by a keyed hash of the IDs of the results : it is stable for a given seed,
+ * and a book keeps its relative place when other books are filtered out, added or removed.
+ * The order is computed once per data source (i.e. once per change of the results);
+ * loading a page then only costs the requested range.
+ */
 // Inspired from ObjectBoxDataSource
 class ObjectBoxRandomDataSource<T> extends PositionalDataSource<T> {
+    // Bits of the sort keys used to store the position of the result; limits the number of results to 16M
+    private static final int POSITION_BITS = 24;
+    private static final long POSITION_MASK = (1L << POSITION_BITS) - 1;
+
+    private final ObjectBoxDB db;
     private final Query<T> query;
+    private final long seed;
     private final DataObserver<List<T>> observer;
-    private final List<Long> shuffleIds;
 
-    private ObjectBoxRandomDataSource(Query<T> query, List<Long> shuffleIds) {
+    // Results of the query and their shuffled positions; computed on first load
+    private LazyList<T> results = null;
+    private int[] shuffledPositions = null;
+
+    private ObjectBoxRandomDataSource(ObjectBoxDB db, Query<T> query, long seed) {
+        this.db = db;
         this.query = query;
-        this.shuffleIds = shuffleIds;
+        this.seed = seed;
         this.observer = data -> ObjectBoxRandomDataSource.this.invalidate();
         query.subscribe().onlyChanges().weak().observer(this.observer);
     }
 
     public void loadInitial(@NonNull PositionalDataSource.LoadInitialParams params, @NonNull PositionalDataSource.LoadInitialCallback<T> callback) {
-        int totalCount = (int) this.query.count();
+        int totalCount = init();
         if (totalCount == 0) {
             callback.onResult(Collections.emptyList(), 0, 0);
         } else {
@@ -45,54 +61,77 @@ class ObjectBoxRandomDataSource<T> extends PositionalDataSource<T> {
     }
 
     public void loadRange(@NonNull PositionalDataSource.LoadRangeParams params, @NonNull PositionalDataSource.LoadRangeCallback<T> callback) {
+        init();
         callback.onResult(this.loadRange(params.startPosition, params.loadSize));
     }
 
-    private List<T> loadRange(int startPosition, int loadCount) {
-        return shuffleRandomSort(this.query, startPosition, loadCount);
-    }
-
-    private List<T> shuffleRandomSort(Query<T> query, int startPosition, int loadCount) {
-        LazyList<T> lazyList = query.findLazy();
-        List<Long> queryIds = Helper.getListFromPrimitiveArray(query.findIds());
-        Map<Long, Integer> idsToIndexes = new HashMap<>();
-        for (int i = 0; i < queryIds.size(); i++) {
-            idsToIndexes.put(queryIds.get(i), i);
+    /**
+     * Run the query and shuffle its results, if not done yet
+     * NB : Any change to the results invalidates the whole data source, so that they can be kept for its whole life
+     *
+     * @return Number of results
+     */
+    private synchronized int init() {
+        if (null == shuffledPositions) {
+            // Both queries have to read the same snapshot for the shuffled positions to match the results
+            db.callInReadTx(() -> {
+                results = query.findLazy();
+                shuffledPositions = shuffle(query.findIds(), seed);
+                return shuffledPositions.length;
+            });
         }
+        return shuffledPositions.length;
+    }
 
-        // Keep common IDs
-        shuffleIds.retainAll(queryIds);
-
-        // Isolate new IDs that have never been shuffled and append them at the end
-        if (shuffleIds.size() < queryIds.size()) {
-            queryIds.removeAll(shuffleIds);
-            shuffleIds.addAll(queryIds);
-        }
+    private List<T> loadRange(int startPosition, int loadCount) {
+        int maxPosition = Math.min(startPosition + loadCount, shuffledPositions.length);
 
-        int maxPage = Math.min(startPosition + loadCount, shuffleIds.size());
+        List<T> result = new ArrayList<>(Math.max(0, maxPosition - startPosition));
+        for (int i = startPosition; i < maxPosition; i++) result.add(results.get(shuffledPositions[i]));
 
-        List<T> result = new ArrayList<>();
-        for (int i = startPosition; i < maxPage; i++) {
-            Integer index = idsToIndexes.get(shuffleIds.get(i));
-            if (index != null)
-                result.add(lazyList.get(index));
-        }
+        return result;
+    }
 
+    /**
+     * Shuffle the given IDs according to the given seed
+     *
+     * @param ids  IDs to shuffle
+     * @param seed Seed to shuffle the IDs with
+     * @return Positions of the given IDs, in shuffled order
+     */
+    static int[] shuffle(@NonNull long[] ids, long seed) {
+        long[] keys = new long[ids.length];
+        for (int i = 0; i < ids.length; i++)
+            keys[i] = (hash(ids[i], seed) & ~POSITION_MASK) | i;
+        Arrays.sort(keys);
+
+        int[] result = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) result[i] = (int) (keys[i] & POSITION_MASK);
         return result;
     }
 
+    // SplitMix64 finalizer (see https://xoshiro.di.unimi.it/splitmix64.c)
+    private static long hash(long id, long seed) {
+        long z = seed + id * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
     public static class RandomDataSourceFactory<I> extends androidx.paging.DataSource.Factory<Integer, I> {
+        private final ObjectBoxDB db;
         private final Query<I> query;
-        private final List<Long> shuffleIds;
+        private final long seed;
 
-        RandomDataSourceFactory(Query<I> query, List<Long> shuffleIds) {
+        RandomDataSourceFactory(ObjectBoxDB db, Query<I> query, long seed) {
+            this.db = db;
             this.query = query;
-            this.shuffleIds = shuffleIds;
+            this.seed = seed;
         }
 
         @NonNull
         public DataSource<Integer, I> create() {
-            return new ObjectBoxRandomDataSource<>(query, shuffleIds);
+            return new ObjectBoxRandomDataSource<>(db, query, seed);
         }
     }
 
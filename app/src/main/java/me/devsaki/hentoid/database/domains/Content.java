@@ -53,6 +53,7 @@ import me.devsaki.hentoid.enums.StatusContent;
 import me.devsaki.hentoid.util.ArchiveHelper;
 import me.devsaki.hentoid.util.ContentHelper;
 import me.devsaki.hentoid.util.Helper;
+import me.devsaki.hentoid.util.ImageHelper;
 import me.devsaki.hentoid.util.JsonHelper;
 import me.devsaki.hentoid.util.StringHelper;
 import me.devsaki.hentoid.util.network.HttpHelper;
@@ -111,6 +112,12 @@ public class Content implements Serializable {
     private long size = 0;
     private float readProgress = 0f;
 
+    // Data of the cover redundant with the cover ImageFile, to display books without loading their images
+    // Maintained by ObjectBoxDB each time the book or its cover is saved
+    private String coverUri; // Null if not computed yet
+    private long coverHash = 0;
+    private String coverMimeType;
+
     // Temporary during SAVED state only
     private String downloadParams;
     // Temporary during ERROR state only
@@ -124,6 +131,9 @@ public class Content implements Serializable {
     private String jsonUri;
     // Useful only during cleanup operations; no need to get it into the JSON
     private boolean isFlaggedForDeletion = false;
+    // Fingerprint of the files of an external book, to detect changes without rescanning it; 0 if unknown
+    // Only relevant to the files of this device; no need to get it into the JSON
+    private long storageFingerprint = 0;
 
     // Runtime attributes; no need to expose them for JSON persistence nor to persist them to DB
     @Transient
@@ -532,6 +542,71 @@ public class Content implements Serializable {
         return makeupCover;
     }
 
+    /**
+     * Copy the data of the given image as the cover data of the book
+     *
+     * @param cover Cover of the book; null if the book has no cover image
+     */
+    public void setCoverData(@Nullable ImageFile cover) {
+        if (null == cover) {
+            coverUri = getCoverImageUrl();
+            coverHash = Long.MIN_VALUE; // Makeup cover is unhashable
+            coverMimeType = ImageHelper.MIME_IMAGE_GENERIC;
+        } else {
+            coverUri = cover.getUsableUri();
+            coverHash = cover.getImageHash();
+            coverMimeType = cover.getMimeType();
+        }
+    }
+
+    /**
+     * Compute the cover data of the book from its images
+     * NB : Loads the images of the book from the DB if they haven't been loaded yet
+     */
+    public void computeCoverData() {
+        ImageFile cover = null;
+        List<ImageFile> images = getImageFiles();
+        if (images != null)
+            for (ImageFile img : images)
+                if (img.isCover()) {
+                    cover = img;
+                    break;
+                }
+        setCoverData(cover);
+    }
+
+    public boolean hasCoverData() {
+        return coverUri != null;
+    }
+
+    /**
+     * Usable URI of the cover (see {@link ImageFile#getUsableUri()})
+     * NB : Never loads the images of the book; the URL of the online cover is used until the cover data has been computed
+     */
+    public String getCoverUri() {
+        return hasCoverData() ? coverUri : getCoverImageUrl();
+    }
+
+    public void setCoverUri(String coverUri) {
+        this.coverUri = coverUri;
+    }
+
+    /**
+     * Perceptual hash of the cover (see {@link ImageFile#getImageHash()})
+     * NB : Never loads the images of the book; 0 (not hashed) until the cover data has been computed
+     */
+    public long getCoverHash() {
+        return coverHash;
+    }
+
+    /**
+     * Mime-type of the cover
+     * NB : Never loads the images of the book
+     */
+    public String getCoverMimeType() {
+        return (null == coverMimeType) ? ImageHelper.MIME_IMAGE_GENERIC : coverMimeType;
+    }
+
     public String getCoverImageUrl() {
         return (null == coverImageUrl) ? "" : coverImageUrl;
     }
@@ -796,6 +871,14 @@ public class Content implements Serializable {
         this.archiveLocationUri = archiveLocationUri;
     }
 
+    public long getStorageFingerprint() {
+        return storageFingerprint;
+    }
+
+    public void setStorageFingerprint(long storageFingerprint) {
+        this.storageFingerprint = storageFingerprint;
+    }
+
     public List<GroupItem> getGroupItems(Grouping grouping) {
         List<GroupItem> result = new ArrayList<>();
         for (GroupItem gi : groupItems)
@@ -866,6 +949,7 @@ public class Content implements Serializable {
                 isBeingDeleted() == content.isBeingDeleted() &&
                 Objects.equals(getUrl(), content.getUrl()) &&
                 Objects.equals(getCoverImageUrl(), content.getCoverImageUrl()) &&
+                Objects.equals(getCoverUri(), content.getCoverUri()) &&
                 getSite() == content.getSite();
     }
 
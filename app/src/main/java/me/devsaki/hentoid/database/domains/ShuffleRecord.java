@@ -5,6 +5,10 @@ import javax.annotation.Nullable;
 import io.objectbox.annotation.Entity;
 import io.objectbox.annotation.Id;
 
+/**
+ * Former persisted random order of the books, one record per book
+ * NB : Not used anymore (see ObjectBoxRandomDataSource); kept for DB model compatibility
+ */
 @Entity
 public class ShuffleRecord {
 
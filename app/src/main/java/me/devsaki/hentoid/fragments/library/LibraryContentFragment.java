@@ -228,8 +228,9 @@ public class LibraryContentFragment extends Fragment implements ChangeGroupDialo
             if (oldItem.getReadPagesCount() != newItem.getReadPagesCount()) {
                 diffBundleBuilder.setReadPagesCount(newItem.getReadPagesCount());
             }
-            if (!oldItem.getCoverImageUrl().equals(newItem.getCoverImageUrl())) {
-                diffBundleBuilder.setCoverUri(newItem.getCover().getFileUri());
+            if (!oldItem.getCoverImageUrl().equals(newItem.getCoverImageUrl())
+                    || !oldItem.getCoverUri().equals(newItem.getCoverUri())) {
+                diffBundleBuilder.setCoverUri(newItem.getCoverUri());
             }
 
             if (diffBundleBuilder.isEmpty()) return null;
@@ -271,8 +272,9 @@ public class LibraryContentFragment extends Fragment implements ChangeGroupDialo
             if (oldItem.getReadPagesCount() != newItem.getReadPagesCount()) {
                 diffBundleBuilder.setReadPagesCount(newItem.getReadPagesCount());
             }
-            if (!oldItem.getCoverImageUrl().equals(newItem.getCoverImageUrl())) {
-                diffBundleBuilder.setCoverUri(newItem.getCover().getFileUri());
+            if (!oldItem.getCoverImageUrl().equals(newItem.getCoverImageUrl())
+                    || !oldItem.getCoverUri().equals(newItem.getCoverUri())) {
+                diffBundleBuilder.setCoverUri(newItem.getCoverUri());
             }
 
             if (diffBundleBuilder.isEmpty()) return null;
@@ -412,6 +414,9 @@ public class LibraryContentFragment extends Fragment implements ChangeGroupDialo
                     viewModel.shuffleContent();
                     sortDirectionButton.setVisibility(View.GONE);
                     sortReshuffleButton.setVisibility(View.VISIBLE);
+                } else if (fieldCode == Preferences.Constant.ORDER_FIELD_RELEVANCE) { // Most relevant first; no direction
+                    sortDirectionButton.setVisibility(View.GONE);
+                    sortReshuffleButton.setVisibility(View.GONE);
                 } else {
                     sortReshuffleButton.setVisibility(View.GONE);
                     sortDirectionButton.setVisibility(View.VISIBLE);
@@ -462,6 +467,8 @@ public class LibraryContentFragment extends Fragment implements ChangeGroupDialo
                 return Preferences.Constant.ORDER_FIELD_SIZE;
             case (R.id.sort_reading_progress):
                 return Preferences.Constant.ORDER_FIELD_READ_PROGRESS;
+            case (R.id.sort_relevance):
+                return Preferences.Constant.ORDER_FIELD_RELEVANCE;
             case (R.id.sort_custom):
                 return Preferences.Constant.ORDER_FIELD_CUSTOM;
             case (R.id.sort_random):
@@ -489,6 +496,8 @@ public class LibraryContentFragment extends Fragment implements ChangeGroupDialo
                 return R.string.sort_size;
             case (Preferences.Constant.ORDER_FIELD_READ_PROGRESS):
                 return R.string.sort_reading_progress;
+            case (Preferences.Constant.ORDER_FIELD_RELEVANCE):
+                return R.string.sort_relevance;
             case (Preferences.Constant.ORDER_FIELD_CUSTOM):
                 return R.string.sort_custom;
             case (Preferences.Constant.ORDER_FIELD_RANDOM):
@@ -12,7 +12,6 @@ import androidx.activity.OnBackPressedCallback
 import androidx.fragment.app.Fragment
 import androidx.lifecycle.ViewModelProvider
 import androidx.recyclerview.widget.LinearLayoutManager
-import androidx.work.WorkManager
 import com.mikepenz.fastadapter.FastAdapter
 import com.mikepenz.fastadapter.IAdapter
 import com.mikepenz.fastadapter.adapters.ItemAdapter
@@ -253,8 +252,7 @@ class DuplicateMainFragment : Fragment(R.layout.fragment_duplicate_main) {
     }
 
     private fun onStopClick() {
-        WorkManager.getInstance(requireContext())
-            .cancelUniqueWork(R.id.duplicate_detector_service.toString())
+        DuplicateDetectorWorker.cancel(requireContext())
         binding.emptyTxt.text = context?.getText(R.string.duplicate_empty_first_use)
     }
 
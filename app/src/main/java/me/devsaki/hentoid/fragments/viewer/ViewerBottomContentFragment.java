@@ -23,7 +23,6 @@ import com.google.android.material.bottomsheet.BottomSheetDialogFragment;
 import me.devsaki.hentoid.R;
 import me.devsaki.hentoid.core.HentoidApp;
 import me.devsaki.hentoid.database.domains.Content;
-import me.devsaki.hentoid.database.domains.ImageFile;
 import me.devsaki.hentoid.databinding.IncludeViewerContentInfoBinding;
 import me.devsaki.hentoid.util.ContentHelper;
 import me.devsaki.hentoid.util.ThemeHelper;
@@ -86,8 +85,7 @@ public class ViewerBottomContentFragment extends BottomSheetDialogFragment {
     }
 
     private void onContentChanged(Content content) {
-        ImageFile cover = content.getCover();
-        String thumbLocation = cover.getUsableUri();
+        String thumbLocation = content.getCoverUri();
         if (thumbLocation.isEmpty()) {
             binding.ivCover.setVisibility(View.INVISIBLE);
             return;
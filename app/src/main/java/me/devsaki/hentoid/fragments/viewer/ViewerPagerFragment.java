@@ -211,6 +211,8 @@ public class ViewerPagerFragment extends Fragment implements ViewerBrowseModeDia
                 .observe(getViewLifecycleOwner(), this::onShuffleChanged);
 
         viewModel.getShowFavouritesOnly().observe(getViewLifecycleOwner(), this::updateShowFavouriteDisplay);
+
+        viewModel.getArchivePageReady().observe(getViewLifecycleOwner(), this::onArchivePageReady);
     }
 
     @Override
@@ -722,6 +724,7 @@ public class ViewerPagerFragment extends Fragment implements ViewerBrowseModeDia
         }
 
         imageIndex = scrollPosition;
+        viewModel.onPageChange(imageIndex);
         ImageFile currentImage = adapter.getImageAt(imageIndex);
         if (currentImage != null) {
             Preferences.setViewerCurrentPageNum(currentImage.getOrder());
@@ -733,6 +736,15 @@ public class ViewerPagerFragment extends Fragment implements ViewerBrowseModeDia
         updateFavouriteButtonIcon();
     }
 
+    /**
+     * Refresh the given page once it has been extracted from the archive
+     *
+     * @param index 0-based index of the page that has just been extracted
+     */
+    private void onArchivePageReady(int index) {
+        if (index < adapter.getItemCount()) adapter.notifyItemChanged(index);
+    }
+
     /**
      * Update the display of page position controls (text and bar)
      */
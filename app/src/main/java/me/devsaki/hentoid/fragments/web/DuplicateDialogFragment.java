@@ -27,7 +27,6 @@ import me.devsaki.hentoid.core.HentoidApp;
 import me.devsaki.hentoid.database.CollectionDAO;
 import me.devsaki.hentoid.database.ObjectBoxDAO;
 import me.devsaki.hentoid.database.domains.Content;
-import me.devsaki.hentoid.database.domains.ImageFile;
 import me.devsaki.hentoid.databinding.DialogWebDuplicateBinding;
 import me.devsaki.hentoid.enums.Site;
 import me.devsaki.hentoid.enums.StatusContent;
@@ -118,8 +117,7 @@ public final class DuplicateDialogFragment extends DialogFragment {
         binding.chNeverExtraOnDupes.setVisibility(isDownloadPlus ? View.VISIBLE : View.GONE);
 
         binding.tvTitle.setText(content.getTitle());
-        ImageFile cover = content.getCover();
-        String thumbLocation = cover.getUsableUri();
+        String thumbLocation = content.getCoverUri();
         if (thumbLocation.isEmpty()) {
             binding.ivCover.setVisibility(View.INVISIBLE);
             return;
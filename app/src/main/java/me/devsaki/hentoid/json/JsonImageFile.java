@@ -10,6 +10,7 @@ import java.util.List;
 import me.devsaki.hentoid.database.domains.Chapter;
 import me.devsaki.hentoid.database.domains.ImageFile;
 import me.devsaki.hentoid.enums.StatusContent;
+import me.devsaki.hentoid.util.ImagePHash;
 
 class JsonImageFile {
 
@@ -22,6 +23,7 @@ class JsonImageFile {
     private StatusContent status;
     private String mimeType;
     private long pHash;
+    private int pHashVersion = 1; // Files written before hashes were versioned have v1 hashes
 
     private int chapterOrder = -1;
 
@@ -39,6 +41,7 @@ class JsonImageFile {
         result.isRead = f.isRead();
         result.mimeType = f.getMimeType();
         result.pHash = f.getImageHash();
+        result.pHashVersion = ImagePHash.VERSION;
         if (f.getChapter() != null && f.getChapter().getTarget() != null)
             result.chapterOrder = f.getChapter().getTarget().getOrder();
         return result;
@@ -51,7 +54,8 @@ class JsonImageFile {
         result.setFavourite(favourite);
         result.setRead(isRead);
         result.setMimeType(mimeType);
-        result.setImageHash(pHash);
+        // Hashes computed by another version are recomputed (unhashable pictures stay unhashable)
+        result.setImageHash((ImagePHash.VERSION == pHashVersion || Long.MIN_VALUE == pHash) ? pHash : 0);
 
         if (!chapters.isEmpty() && chapterOrder > -1) {
             Optional<Chapter> chapter = Stream.of(chapters).filter(c -> c.getOrder().equals(chapterOrder)).findFirst();
@@ -12,6 +12,7 @@ import org.greenrobot.eventbus.Subscribe;
 import java.util.List;
 import java.util.Map;
 
+import io.reactivex.functions.Consumer;
 import me.devsaki.hentoid.database.domains.Chapter;
 import me.devsaki.hentoid.database.domains.Content;
 import me.devsaki.hentoid.database.domains.ImageFile;
@@ -20,7 +21,7 @@ import me.devsaki.hentoid.events.DownloadEvent;
 import me.devsaki.hentoid.parsers.ParseHelper;
 import timber.log.Timber;
 
-public abstract class BaseImageListParser implements ImageListParser {
+public abstract class BaseImageListParser implements StreamingImageListParser {
 
     private final ParseProgress progress = new ParseProgress();
     protected boolean processHalted = false;
@@ -28,6 +29,18 @@ public abstract class BaseImageListParser implements ImageListParser {
     protected abstract List<String> parseImages(@NonNull Content content) throws Exception;
 
     public List<ImageFile> parseImageList(@NonNull Content content) throws Exception {
+        return parseImageList(content, new ImageBatchPublisher(null));
+    }
+
+    /**
+     * NB : Sites parsed by {@link #parseImages} give their images all at once
+     * => they are published right after the whole list has been parsed
+     */
+    public List<ImageFile> parseImageList(@NonNull Content content, @NonNull Consumer<List<ImageFile>> publisher) throws Exception {
+        return parseImageList(content, new ImageBatchPublisher(publisher));
+    }
+
+    private List<ImageFile> parseImageList(@NonNull Content content, @NonNull ImageBatchPublisher publisher) throws Exception {
         String readerUrl = content.getReaderUrl();
 
         if (!URLUtil.isValidUrl(readerUrl))
@@ -42,6 +55,10 @@ public abstract class BaseImageListParser implements ImageListParser {
             List<String> imgUrls = parseImages(content);
             result = ParseHelper.urlsToImageFiles(imgUrls, content.getCoverImageUrl(), StatusContent.SAVED, null);
             ParseHelper.setDownloadParams(result, content.getSite().getUrl());
+            if (!processHalted) {
+                for (ImageFile img : result) publisher.add(img);
+                publisher.flush();
+            }
         } finally {
             EventBus.getDefault().unregister(this);
         }
@@ -24,6 +24,7 @@ import java.util.Map;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import io.reactivex.functions.Consumer;
 import me.devsaki.hentoid.database.domains.Chapter;
 import me.devsaki.hentoid.database.domains.Content;
 import me.devsaki.hentoid.database.domains.ImageFile;
@@ -45,7 +46,7 @@ import timber.log.Timber;
 
 import static me.devsaki.hentoid.util.network.HttpHelper.getOnlineDocument;
 
-public class EHentaiParser implements ImageListParser {
+public class EHentaiParser implements StreamingImageListParser {
 
     public static final String MPV_LINK_CSS = "#gmid a[href*='/mpv/']";
 
@@ -62,6 +63,14 @@ public class EHentaiParser implements ImageListParser {
     }
 
     public List<ImageFile> parseImageList(@NonNull Content content) throws Exception {
+        return parseImageList(content, new ImageBatchPublisher(null));
+    }
+
+    public List<ImageFile> parseImageList(@NonNull Content content, @NonNull Consumer<List<ImageFile>> publisher) throws Exception {
+        return parseImageList(content, new ImageBatchPublisher(publisher));
+    }
+
+    private List<ImageFile> parseImageList(@NonNull Content content, @NonNull ImageBatchPublisher publisher) throws Exception {
         EventBus.getDefault().register(this);
 
         List<ImageFile> result = Collections.emptyList();
@@ -97,12 +106,15 @@ public class EHentaiParser implements ImageListParser {
                 if (!elements.isEmpty()) {
                     String mpvUrl = elements.get(0).attr("href");
                     try {
-                        result = loadMpv(content, mpvUrl, headers, useHentoidAgent, useWebviewAgent);
+                        result = loadMpv(content, mpvUrl, headers, useHentoidAgent, useWebviewAgent, publisher);
                     } catch (EmptyResultException e) {
-                        result = loadClassic(content, galleryDoc, headers, useHentoidAgent, useWebviewAgent);
+                        // Published images can't be taken back
+                        if (publisher.hasPublished()) throw e;
+                        publisher.clear();
+                        result = loadClassic(content, galleryDoc, headers, useHentoidAgent, useWebviewAgent, publisher);
                     }
                 } else {
-                    result = loadClassic(content, galleryDoc, headers, useHentoidAgent, useWebviewAgent);
+                    result = loadClassic(content, galleryDoc, headers, useHentoidAgent, useWebviewAgent, publisher);
                 }
             }
 
@@ -122,9 +134,8 @@ public class EHentaiParser implements ImageListParser {
             @NonNull final String mpvUrl,
             @NonNull final List<Pair<String, String>> headers,
             boolean useHentoidAgent,
-            boolean useWebviewAgent) throws IOException, EmptyResultException {
-        List<ImageFile> result = new ArrayList<>();
-
+            boolean useWebviewAgent,
+            @NonNull final ImageBatchPublisher publisher) throws Exception {
         // B.1- Open the MPV and parse gallery metadata
         MpvInfo mpvInfo = parseMpvPage(mpvUrl, headers, useHentoidAgent, useWebviewAgent);
         if (null == mpvInfo)
@@ -147,8 +158,8 @@ public class EHentaiParser implements ImageListParser {
 
             EHentaiImageResponse imageMetadata = JsonHelper.jsonToObject(bodyStr, EHentaiImageResponse.class);
             if (1 == pageNum)
-                result.add(ImageFile.newCover(imageMetadata.getUrl(), StatusContent.SAVED));
-            result.add(ParseHelper.urlToImageFile(imageMetadata.getUrl(), pageNum, pageCount, StatusContent.SAVED));
+                publisher.add(ImageFile.newCover(imageMetadata.getUrl(), StatusContent.SAVED));
+            publisher.add(ParseHelper.urlToImageFile(imageMetadata.getUrl(), pageNum, pageCount, StatusContent.SAVED));
             progress.advance();
             // Emulate JS loader
             if (0 == pageNum % 10) {
@@ -160,8 +171,9 @@ public class EHentaiParser implements ImageListParser {
                 }
             }
         }
+        if (!processHalted) publisher.flush();
 
-        return result;
+        return publisher.getImages();
     }
 
     private List<ImageFile> loadClassic(
@@ -169,12 +181,11 @@ public class EHentaiParser implements ImageListParser {
             @NonNull final Document galleryDoc,
             @NonNull final List<Pair<String, String>> headers,
             boolean useHentoidAgent,
-            boolean useWebviewAgent) throws IOException, LimitReachedException {
-        List<ImageFile> result = new ArrayList<>();
-
+            boolean useWebviewAgent,
+            @NonNull final ImageBatchPublisher publisher) throws Exception {
         // A.1- Detect the number of pages of the gallery
         Elements elements = galleryDoc.select("table.ptt a");
-        if (null == elements || elements.isEmpty()) return result;
+        if (null == elements || elements.isEmpty()) return publisher.getImages();
 
         int tabId = (1 == elements.size()) ? 0 : elements.size() - 2;
         int nbGalleryPages = Integer.parseInt(elements.get(tabId).text());
@@ -197,16 +208,17 @@ public class EHentaiParser implements ImageListParser {
         // 3- Open all pages and
         //    - grab the URL of the displayed image
         //    - grab the alternate URL of the "Click here if the image fails loading" link
-        result.add(ImageFile.newCover(content.getCoverImageUrl(), StatusContent.SAVED));
+        publisher.add(ImageFile.newCover(content.getCoverImageUrl(), StatusContent.SAVED));
         int order = 1;
         for (String pageUrl : pageUrls) {
             if (processHalted) break;
             ImageFile img = parsePicturePage(pageUrl, headers, useHentoidAgent, useWebviewAgent, order++, pageUrls.size());
-            if (img != null) result.add(img);
+            if (img != null) publisher.add(img);
             progress.advance();
         }
+        if (!processHalted) publisher.flush();
 
-        return result;
+        return publisher.getImages();
     }
 
     static void fetchPageUrls(@Nonnull Document doc, List<String> pageUrls) {
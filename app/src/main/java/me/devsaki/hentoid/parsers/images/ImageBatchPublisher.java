@@ -0,0 +1,63 @@
+package me.devsaki.hentoid.parsers.images;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.reactivex.functions.Consumer;
+import me.devsaki.hentoid.database.domains.ImageFile;
+
+/**
+ * Collects the images found by a parser and publishes them by batches
+ * (see {@link StreamingImageListParser})
+ */
+class ImageBatchPublisher {
+
+    // Number of images published at once
+    private static final int BATCH_SIZE = 10;
+
+    private final Consumer<List<ImageFile>> consumer;
+    private final List<ImageFile> images = new ArrayList<>();
+    private int nbPublished = 0;
+
+
+    /**
+     * @param consumer Consumer of the batches; null to collect images without publishing them
+     */
+    ImageBatchPublisher(@Nullable Consumer<List<ImageFile>> consumer) {
+        this.consumer = consumer;
+    }
+
+    void add(@NonNull ImageFile img) throws Exception {
+        images.add(img);
+        if (images.size() - nbPublished >= BATCH_SIZE) flush();
+    }
+
+    /**
+     * Publish the images that haven't been published yet
+     */
+    void flush() throws Exception {
+        if (null == consumer || images.size() == nbPublished) return;
+        consumer.accept(new ArrayList<>(images.subList(nbPublished, images.size())));
+        nbPublished = images.size();
+    }
+
+    /**
+     * Forget the images that have been collected so far
+     * NB : Only possible when none of them has been published
+     */
+    void clear() {
+        if (hasPublished()) throw new IllegalStateException("Published images can't be cleared");
+        images.clear();
+    }
+
+    boolean hasPublished() {
+        return nbPublished > 0;
+    }
+
+    List<ImageFile> getImages() {
+        return images;
+    }
+}
@@ -0,0 +1,27 @@
+package me.devsaki.hentoid.parsers.images;
+
+import androidx.annotation.NonNull;
+
+import java.util.List;
+
+import io.reactivex.functions.Consumer;
+import me.devsaki.hentoid.database.domains.Content;
+import me.devsaki.hentoid.database.domains.ImageFile;
+
+/**
+ * Image list parser that publishes images as soon as they are discovered, so that their download
+ * can start before the whole list has been parsed
+ */
+public interface StreamingImageListParser extends ImageListParser {
+    /**
+     * Parse the images of the given content, publishing them by batches along the way
+     * NB : Batches are published on the calling thread, in the order of the pages of the book;
+     * the cover, if any, is part of the 1st batch
+     *
+     * @param content   Content to parse the images of
+     * @param publisher Consumer of the batches of images, called as soon as they are discovered
+     * @return All the images of the given content
+     * @throws Exception If the parsing fails, or if the publisher throws an exception
+     */
+    List<ImageFile> parseImageList(@NonNull Content content, @NonNull Consumer<List<ImageFile>> publisher) throws Exception;
+}
@@ -4,9 +4,7 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 
-import androidx.work.WorkManager;
-
-import me.devsaki.hentoid.R;
+import me.devsaki.hentoid.workers.DuplicateDetectorWorker;
 
 /**
  * Broadcast receiver for the stop button on duplicate detector notifications
@@ -15,6 +13,6 @@ public class DuplicateNotificationStopReceiver extends BroadcastReceiver {
 
     @Override
     public void onReceive(Context context, Intent intent) {
-        WorkManager.getInstance(context).cancelUniqueWork(Integer.toString(R.id.duplicate_detector_service));
+        DuplicateDetectorWorker.cancel(context);
     }
 }
@@ -11,12 +11,21 @@ import androidx.annotation.Nullable;
 import androidx.documentfile.provider.DocumentFile;
 
 import com.annimon.stream.Stream;
+import com.annimon.stream.function.Consumer;
 
+import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.greenrobot.eventbus.EventBus;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import me.devsaki.hentoid.R;
@@ -24,6 +33,7 @@ import me.devsaki.hentoid.core.Consts;
 import me.devsaki.hentoid.database.CollectionDAO;
 import me.devsaki.hentoid.database.ObjectBoxDAO;
 import me.devsaki.hentoid.database.domains.Content;
+import me.devsaki.hentoid.database.domains.ImageFile;
 import me.devsaki.hentoid.enums.StatusContent;
 import me.devsaki.hentoid.events.ProcessEvent;
 import me.devsaki.hentoid.json.JsonContent;
@@ -32,8 +42,11 @@ import me.devsaki.hentoid.notification.import_.ImportProgressNotification;
 import me.devsaki.hentoid.notification.import_.ImportStartNotification;
 import me.devsaki.hentoid.util.ArchiveHelper;
 import me.devsaki.hentoid.util.ContentHelper;
+import me.devsaki.hentoid.util.ContentImportWriter;
 import me.devsaki.hentoid.util.FileExplorer;
 import me.devsaki.hentoid.util.FileHelper;
+import me.devsaki.hentoid.util.FolderScanner;
+import me.devsaki.hentoid.util.Helper;
 import me.devsaki.hentoid.util.ImageHelper;
 import me.devsaki.hentoid.util.ImportHelper;
 import me.devsaki.hentoid.util.JsonHelper;
@@ -57,6 +70,20 @@ public class ExternalImportService extends IntentService {
     private static final int NOTIFICATION_ID = ExternalImportService.class.getName().hashCode();
     private static final Pattern ENDS_WITH_NUMBER = Pattern.compile(".*\\d+(\\.\\d+)?$");
 
+    /**
+     * Book found by the scan, to be scanned by the import thread
+     */
+    private interface BookCandidate {
+        /**
+         * Scan the book
+         *
+         * @param explorer FileExplorer to use
+         * @param dao      CollectionDAO to use
+         * @return Content of the book; may contain multiple books (e.g. archives of chapter folders) or none
+         */
+        List<Content> scan(@NonNull FileExplorer explorer, @NonNull CollectionDAO dao);
+    }
+
     private static boolean running;
     private ServiceNotificationManager notificationManager;
 
@@ -135,66 +162,76 @@ public class ExternalImportService extends IntentService {
 
         DocumentFile logFile = null;
         CollectionDAO dao = new ObjectBoxDAO(this);
+        // New books are written by batches
+        ContentImportWriter writer = new ContentImportWriter(this, dao, ContentImportWriter.DEFAULT_BATCH_SIZE, contents -> {
+            for (Content c : contents) ContentHelper.extractArchiveCover(this, dao, c);
+        });
 
-        try (FileExplorer explorer = new FileExplorer(this, Uri.parse(Preferences.getExternalLibraryUri()))) {
+        Uri rootUri = Uri.parse(Preferences.getExternalLibraryUri());
+        try (FileExplorer explorer = new FileExplorer(this, rootUri)) {
             notificationManager.startForeground(new ImportProgressNotification(this.getResources().getString(R.string.starting_import), 0, 0));
 
-            List<Content> library = new ArrayList<>();
-            // Deep recursive search starting from the place the user has selected
-            scanFolderRecursive(rootFolder, explorer, new ArrayList<>(), library, dao);
-            eventComplete(ImportWorker.STEP_2_BOOK_FOLDERS, 0, 0, 0, null);
-
-            // Write JSON file for every found book and persist it in the DB
-            trace(Log.DEBUG, 0, log, "Import books starting - initial detected count : %s", library.size() + "");
-            dao.deleteAllExternalBooks();
-
-            for (Content content : library) {
-                // If the same book folder is already in the DB, that means the user is trying to import
-                // a subfolder of the Hentoid main folder (yes, it has happened) => ignore these books
-                String duplicateOrigin = "folder";
-                Content existingDuplicate = dao.selectContentByStorageUri(content.getStorageUri(), false);
-
-                // The very same book may also exist in the DB under a different folder,
-                if (null == existingDuplicate) {
-                    existingDuplicate = dao.selectContentBySourceAndUrl(content.getSite(), content.getUrl(), "");
-                    // Ignore the duplicate if it is queued; we do prefer to import a full book
-                    if (existingDuplicate != null) {
-                        if (ContentHelper.isInQueue(existingDuplicate.getStatus()))
-                            existingDuplicate = null;
-                        else duplicateOrigin = "book";
-                    }
-                }
-
-                if (existingDuplicate != null && !existingDuplicate.isFlaggedForDeletion()) {
-                    booksKO++;
-                    trace(Log.INFO, 1, log, "Import book KO! (" + duplicateOrigin + " already in collection) : %s", content.getStorageUri());
-                    continue;
-                }
-
-                if (content.getJsonUri().isEmpty()) {
-                    Uri jsonUri = null;
-                    try {
-                        jsonUri = createJsonFileFor(content, explorer);
-                    } catch (IOException ioe) {
-                        Timber.w(ioe); // Not blocking
-                        trace(Log.WARN, 1, log, "Could not create JSON in %s", content.getStorageUri());
+            // Storage URI of the books already in the library -> ID and storage fingerprint
+            Map<String, ImmutablePair<Long, Long>> knownBooks = dao.selectExternalBookFingerprints();
+            // Storage URI of the books found during this import
+            Set<String> foundUris = Collections.synchronizedSet(new HashSet<>());
+            AtomicInteger nbUnchanged = new AtomicInteger(0);
+            // Uri of the folders that couldn't be listed
+            List<String> failedFolders;
+
+            // Breadth-first search starting from the place the user has selected; books are imported as soon as they are found
+            // NB : Known books whose files haven't changed aren't scanned again
+            trace(Log.DEBUG, 0, log, "Import books starting");
+            try (FolderScanner<BookCandidate> scanner = new FolderScanner<>(this, rootUri)) {
+                scanner.start(Collections.singletonList(rootFolder), (folder, fe, emitter) -> visitFolder(folder, fe, emitter, knownBooks, foundUris, nbUnchanged));
+                // Folders are now scanned along with the import of the books
+                eventComplete(ImportWorker.STEP_2_BOOK_FOLDERS, 0, 0, 0, null);
+
+                // Write JSON file for every new or changed book and persist it in the DB
+                BookCandidate candidate;
+                while ((candidate = scanner.next()) != null) {
+                    for (Content content : candidate.scan(explorer, dao)) {
+                        if (importBook(content, knownBooks, foundUris, explorer, dao, writer, log)) booksOK++;
+                        else booksKO++;
+                        notificationManager.notify(new ImportProgressNotification(content.getTitle(), booksOK + booksKO, booksOK + booksKO));
+                        eventProgress(ImportWorker.STEP_3_BOOKS, booksOK + booksKO, booksOK, booksKO);
                     }
-                    if (jsonUri != null) content.setJsonUri(jsonUri.toString());
                 }
-                ContentHelper.addContent(this, dao, content);
-                trace(Log.INFO, 1, log, "Import book OK : %s", content.getStorageUri());
-                booksOK++;
-                notificationManager.notify(new ImportProgressNotification(content.getTitle(), booksOK + booksKO, library.size()));
-                eventProgress(ImportWorker.STEP_3_BOOKS, library.size(), booksOK, booksKO);
+                trace(Log.DEBUG, 0, log, "Scanned folders : %s (%s folders/s); unchanged books : %s", scanner.getNbScannedFolders() + "", String.format(Locale.ENGLISH, "%.1f", scanner.getFoldersPerSecond()), nbUnchanged.get() + "");
+                failedFolders = scanner.getFailedFolders();
+            }
+            writer.complete();
+
+            // Remove the books that have disappeared from the external library
+            // NB : Books of folders that couldn't be listed may still be there; they are kept, with their favourites and reading progress
+            List<Long> removedIds = new ArrayList<>();
+            if (failedFolders.isEmpty()) {
+                for (Map.Entry<String, ImmutablePair<Long, Long>> knownBook : knownBooks.entrySet())
+                    if (!foundUris.contains(knownBook.getKey())) removedIds.add(knownBook.getValue().left);
+            } else {
+                for (String failedFolder : failedFolders)
+                    trace(Log.WARN, 2, log, "Folder couldn't be listed : %s", failedFolder);
+                trace(Log.WARN, 2, log, "Books that aren't in the external library anymore won't be removed until all folders can be listed");
+            }
+            if (!removedIds.isEmpty()) {
+                dao.deleteExternalBooks(Helper.getPrimitiveLongArrayFromList(removedIds));
+                trace(Log.INFO, 2, log, "Removed books that aren't in the external library anymore : %s", removedIds.size() + "");
             }
-            trace(Log.INFO, 2, log, "Import books complete - %s OK; %s KO; %s final count", booksOK + "", booksKO + "", library.size() + "");
-            eventComplete(ImportWorker.STEP_3_BOOKS, library.size(), booksOK, booksKO, null);
+
+            trace(Log.INFO, 2, log, "Import books complete - %s OK; %s KO; %s final count", booksOK + "", booksKO + "", booksOK + booksKO + "");
+            eventComplete(ImportWorker.STEP_3_BOOKS, booksOK + booksKO, booksOK, booksKO, null);
 
             // Write log in root folder
             logFile = LogHelper.writeLog(this, buildLogInfo(log));
         } catch (IOException e) {
             Timber.w(e);
+        } catch (InterruptedException e) {
+            Timber.w(e);
+            // Restore interrupted state
+            Thread.currentThread().interrupt();
         } finally {
+            // Write the books that have been imported before any interruption
+            writer.complete();
             eventComplete(ImportWorker.STEP_4_QUEUE_FINAL, booksOK + booksKO, booksOK, booksKO, logFile); // Final event; should be step 4
             notificationManager.notify(new ImportCompleteNotification(booksOK, booksKO));
             dao.cleanup();
@@ -204,6 +241,135 @@ public class ExternalImportService extends IntentService {
         stopSelf();
     }
 
+    /**
+     * Persist the given book found in the external library, unless it is a duplicate
+     *
+     * @param content    Book to import
+     * @param knownBooks Books already in the library (storage URI -> ID and storage fingerprint)
+     * @param foundUris  Storage URI of the books found during this import
+     * @param explorer   FileExplorer to use
+     * @param dao        CollectionDAO to use
+     * @param writer     Writer to add new books with
+     * @param log        Log to write to
+     * @return True if the book has been imported; false if it has been ignored
+     */
+    private boolean importBook(
+            @NonNull final Content content,
+            @NonNull final Map<String, ImmutablePair<Long, Long>> knownBooks,
+            @NonNull final Set<String> foundUris,
+            @NonNull final FileExplorer explorer,
+            @NonNull final CollectionDAO dao,
+            @NonNull final ContentImportWriter writer,
+            @NonNull final List<LogHelper.LogEntry> log) {
+        ImmutablePair<Long, Long> knownBook = knownBooks.get(content.getStorageUri());
+
+        // The same book folder may have been detected twice during this import
+        String duplicateOrigin = "folder";
+        Content existingDuplicate = null;
+        if (!foundUris.add(content.getStorageUri())) {
+            existingDuplicate = content;
+        } else if (null == knownBook) {
+            // If the same book folder is already in the DB, that means the user is trying to import
+            // a subfolder of the Hentoid main folder (yes, it has happened) => ignore these books
+            existingDuplicate = dao.selectContentByStorageUri(content.getStorageUri(), false);
+        }
+
+        // The very same book may also exist in the DB under a different folder,
+        if (null == existingDuplicate && null == knownBook) {
+            existingDuplicate = dao.selectContentBySourceAndUrl(content.getSite(), content.getUrl(), "");
+            // Same goes for new books that are waiting to be written
+            if (null == existingDuplicate && writer.isPending(content.getSite(), content.getUrl()))
+                existingDuplicate = content;
+            // Ignore the duplicate if it is queued; we do prefer to import a full book
+            if (existingDuplicate != null) {
+                if (ContentHelper.isInQueue(existingDuplicate.getStatus()))
+                    existingDuplicate = null;
+                else duplicateOrigin = "book";
+            }
+        }
+
+        if (existingDuplicate != null && !existingDuplicate.isFlaggedForDeletion()) {
+            trace(Log.INFO, 1, log, "Import book KO! (" + duplicateOrigin + " already in collection) : %s", content.getStorageUri());
+            return false;
+        }
+
+        if (content.getJsonUri().isEmpty()) {
+            Uri jsonUri = null;
+            try {
+                jsonUri = createJsonFileFor(content, explorer);
+            } catch (IOException ioe) {
+                Timber.w(ioe); // Not blocking
+                trace(Log.WARN, 1, log, "Could not create JSON in %s", content.getStorageUri());
+            }
+            if (jsonUri != null) content.setJsonUri(jsonUri.toString());
+        }
+        if (knownBook != null) {
+            if (!updateKnownBook(content, knownBook.left, dao)) {
+                trace(Log.WARN, 1, log, "Import book KO! (could not be updated) : %s", content.getStorageUri());
+                return false;
+            }
+        } else writer.add(content);
+        trace(Log.INFO, 1, log, "Import book OK : %s", content.getStorageUri());
+        return true;
+    }
+
+    /**
+     * Replace the given known book with the given content scanned from its updated files,
+     * keeping its ID, its groups and what the user did with it
+     *
+     * @param content   Content scanned from the updated files of the book
+     * @param contentId ID of the known book
+     * @param dao       CollectionDAO to use
+     * @return True if the book has been updated; false if it has been left untouched
+     */
+    private boolean updateKnownBook(@NonNull final Content content, long contentId, @NonNull final CollectionDAO dao) {
+        Content existingContent = dao.selectContent(contentId);
+        if (null == existingContent) { // Removed in the meantime
+            dao.insertContent(content);
+            return true;
+        }
+        content.setDownloadDate(existingContent.getDownloadDate());
+        content.setFavourite(existingContent.isFavourite());
+        content.setCompleted(existingContent.isCompleted());
+        content.setReads(existingContent.getReads());
+        content.setLastReadDate(existingContent.getLastReadDate());
+        content.setLastReadPageIndex(existingContent.getLastReadPageIndex());
+        content.setBookPreferences(existingContent.getBookPreferences());
+        // Pages that are still there keep their read and favourite flags
+        List<ImageFile> existingImages = existingContent.getImageFiles();
+        List<ImageFile> images = content.getImageFiles();
+        if (existingImages != null && images != null) {
+            Map<String, ImageFile> existingImagesByUri = new HashMap<>();
+            for (ImageFile img : existingImages) existingImagesByUri.put(img.getFileUri(), img);
+            for (ImageFile img : images) {
+                ImageFile existingImage = existingImagesByUri.get(img.getFileUri());
+                if (existingImage != null) {
+                    img.setRead(existingImage.isRead());
+                    img.setFavourite(existingImage.isFavourite());
+                }
+            }
+            content.computeReadProgress();
+        }
+        // Pages, chapters and attributes are replaced by those that have just been scanned, all at once
+        return dao.replaceContent(contentId, content);
+    }
+
+    /**
+     * Indicate if the given book is already in the library and hasn't changed since it has been imported
+     *
+     * @param knownBooks  Books already in the library (storage URI -> ID and storage fingerprint)
+     * @param storageUri  Storage URI of the book to test
+     * @param fingerprint Storage fingerprint of the files of the book to test
+     * @return True if the given book is already in the library and hasn't changed since it has been imported
+     */
+    private static boolean isUnchanged(
+            @NonNull final Map<String, ImmutablePair<Long, Long>> knownBooks,
+            @NonNull final String storageUri,
+            long fingerprint) {
+        ImmutablePair<Long, Long> knownBook = knownBooks.get(storageUri);
+        return knownBook != null && knownBook.right != 0 && knownBook.right == fingerprint;
+    }
+
     private LogHelper.LogInfo buildLogInfo(@NonNull List<LogHelper.LogEntry> log) {
         LogHelper.LogInfo logInfo = new LogHelper.LogInfo();
         logInfo.setLogName("Import external");
@@ -213,20 +379,34 @@ public class ExternalImportService extends IntentService {
         return logInfo;
     }
 
-    private void scanFolderRecursive(
-            @NonNull final DocumentFile root,
+    /**
+     * Look for books inside the given folder
+     * NB : Called concurrently by the scanning threads; books are only scanned later on, by the import thread
+     *
+     * @param folder      Folder to look into
+     * @param explorer    FileExplorer of the calling scanning thread
+     * @param emitter     Consumer to send the books found inside the given folder to
+     * @param knownBooks  Books already in the library (storage URI -> ID and storage fingerprint)
+     * @param foundUris   Storage URI of the books found during this import
+     * @param nbUnchanged Number of known books that haven't changed
+     * @return Subfolders of the given folder to look into next
+     */
+    private List<DocumentFile> visitFolder(
+            @NonNull final FolderScanner.Folder folder,
             @NonNull final FileExplorer explorer,
-            @NonNull final List<String> parentNames,
-            @NonNull final List<Content> library,
-            @NonNull final CollectionDAO dao) {
-        if (parentNames.size() > 4) return; // We've descended too far
+            @NonNull final Consumer<BookCandidate> emitter,
+            @NonNull final Map<String, ImmutablePair<Long, Long>> knownBooks,
+            @NonNull final Set<String> foundUris,
+            @NonNull final AtomicInteger nbUnchanged) {
+        DocumentFile root = folder.getIndex().getFolder();
+        List<String> parentNames = folder.getParentNames();
 
         String rootName = (null == root.getName()) ? "" : root.getName();
         eventProcessed(2, rootName);
 
         Timber.d(">>>> scan root %s", root.getUri());
-        List<DocumentFile> files = explorer.listDocumentFiles(this, root);
-        List<DocumentFile> subFolders = new ArrayList<>();
+        List<DocumentFile> files = folder.getIndex().getFiles();
+        List<DocumentFile> subFolders = folder.getIndex().getSubfolders();
         List<DocumentFile> images = new ArrayList<>();
         List<DocumentFile> archives = new ArrayList<>();
         List<DocumentFile> jsons = new ArrayList<>();
@@ -234,8 +414,7 @@ public class ExternalImportService extends IntentService {
         // Look for the interesting stuff
         for (DocumentFile file : files)
             if (file.getName() != null) {
-                if (file.isDirectory()) subFolders.add(file);
-                else if (ImageHelper.getImageNamesFilter().accept(file.getName())) images.add(file);
+                if (ImageHelper.getImageNamesFilter().accept(file.getName())) images.add(file);
                 else if (ArchiveHelper.getArchiveNamesFilter().accept(file.getName()))
                     archives.add(file);
                 else if (JsonHelper.getJsonNamesFilter().accept(file.getName())) jsons.add(file);
@@ -249,33 +428,54 @@ public class ExternalImportService extends IntentService {
                 int nbPicturesInside = explorer.countFiles(subFolders.get(0), ImageHelper.getImageNamesFilter());
                 if (nbPicturesInside > 1) {
                     DocumentFile json = ImportHelper.getFileWithName(jsons, Consts.JSON_FILE_NAME_V2);
-                    library.add(scanChapterFolders(this, root, subFolders, explorer, parentNames, dao, json));
+                    emitter.accept((fe, dao) -> Collections.singletonList(scanChapterFolders(this, root, subFolders, fe, parentNames, dao, json)));
                 }
                 // Look for archives inside
                 int nbArchivesInside = explorer.countFiles(subFolders.get(0), ArchiveHelper.getArchiveNamesFilter());
-                if (nbArchivesInside > 0) {
-                    List<Content> c = scanForArchives(this, subFolders, explorer, parentNames, dao);
-                    library.addAll(c);
-                }
+                if (nbArchivesInside > 0)
+                    emitter.accept((fe, dao) -> scanForArchives(this, subFolders, fe, parentNames, dao));
             }
         }
         if (!archives.isEmpty()) { // We've got an archived book
             for (DocumentFile archive : archives) {
+                String archiveUri = archive.getUri().toString();
+                long fingerprint = ImportHelper.computeFingerprint(Collections.singletonList(archive));
+                if (isUnchanged(knownBooks, archiveUri, fingerprint)) {
+                    foundUris.add(archiveUri);
+                    nbUnchanged.incrementAndGet();
+                    continue;
+                }
                 DocumentFile json = ImportHelper.getFileWithName(jsons, archive.getName());
-                Content c = scanArchive(this, root, archive, parentNames, StatusContent.EXTERNAL, dao, json);
-                if (!c.getStatus().equals(StatusContent.IGNORED)) library.add(c);
+                emitter.accept((fe, dao) -> {
+                    Content c = scanArchive(this, root, archive, parentNames, StatusContent.EXTERNAL, dao, json);
+                    if (c.getStatus().equals(StatusContent.IGNORED)) return Collections.emptyList();
+                    c.setStorageFingerprint(fingerprint);
+                    return Collections.singletonList(c);
+                });
             }
         }
         if (images.size() > 2) { // We've got a book
-            DocumentFile json = ImportHelper.getFileWithName(jsons, Consts.JSON_FILE_NAME_V2);
-            library.add(scanBookFolder(this, root, explorer, parentNames, StatusContent.EXTERNAL, dao, images, json));
+            String folderUri = root.getUri().toString();
+            // JSON files are left out of the fingerprint as the app updates them itself (e.g. reading progress)
+            List<DocumentFile> bookFiles = Stream.of(files).filterNot(jsons::contains).toList();
+            bookFiles.addAll(subFolders);
+            long fingerprint = ImportHelper.computeFingerprint(bookFiles);
+            if (isUnchanged(knownBooks, folderUri, fingerprint)) {
+                foundUris.add(folderUri);
+                nbUnchanged.incrementAndGet();
+            } else {
+                DocumentFile json = ImportHelper.getFileWithName(jsons, Consts.JSON_FILE_NAME_V2);
+                emitter.accept((fe, dao) -> {
+                    Content c = scanBookFolder(this, root, fe, parentNames, StatusContent.EXTERNAL, dao, images, json);
+                    c.setStorageFingerprint(fingerprint);
+                    return Collections.singletonList(c);
+                });
+            }
         }
 
         // Go down one level
-        List<String> newParentNames = new ArrayList<>(parentNames);
-        newParentNames.add(rootName);
-        for (DocumentFile subfolder : subFolders)
-            scanFolderRecursive(subfolder, explorer, newParentNames, library, dao);
+        if (parentNames.size() >= 4) return Collections.emptyList(); // We've descended far enough
+        return subFolders;
     }
 
     @Nullable
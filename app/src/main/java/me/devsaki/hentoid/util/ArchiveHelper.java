@@ -2,6 +2,7 @@ package me.devsaki.hentoid.util;
 
 import android.content.ContentResolver;
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.net.Uri;
 import android.os.ParcelFileDescriptor;
 
@@ -24,22 +25,22 @@ import net.sf.sevenzipjbinding.PropID;
 import net.sf.sevenzipjbinding.SevenZip;
 import net.sf.sevenzipjbinding.SevenZipException;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import io.reactivex.Observable;
 import io.reactivex.ObservableEmitter;
@@ -61,7 +62,15 @@ public class ArchiveHelper {
     private static final FileHelper.NameFilter archiveNamesFilter = displayName -> isArchiveExtensionSupported(FileHelper.getExtension(displayName));
     private static final String CACHE_SEPARATOR = "£";
 
-    private static final int BUFFER = 32 * 1024;
+    // Number of ZIP central directories kept in memory
+    private static final int ZIP_DIRECTORY_CACHE_SIZE = 10;
+    // Archive Uri -> central directory of the archive; least recently used first
+    private static final Map<String, ZipDirectory> zipDirectoryCache = new LinkedHashMap<String, ZipDirectory>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ZipDirectory> eldest) {
+            return size() > ZIP_DIRECTORY_CACHE_SIZE;
+        }
+    };
 
 
     /**
@@ -122,6 +131,23 @@ public class ArchiveHelper {
         else return null;
     }
 
+    /**
+     * Determine the format of the given archive file
+     *
+     * @param context Context to be used
+     * @param file    Archive file to determine the format for
+     * @return Format of the given file; null if it isn't a supported archive
+     * @throws IOException If something horrible happens during I/O
+     */
+    @Nullable
+    static ArchiveFormat getArchiveFormat(@NonNull final Context context, @NonNull final DocumentFile file) throws IOException {
+        try (InputStream fi = FileHelper.getInputStream(context, file)) {
+            byte[] header = new byte[8];
+            if (fi.read(header) < header.length) return null;
+            return getTypeFromArchiveHeader(header);
+        }
+    }
+
     /**
      * Get the entries of the given archive file
      *
@@ -133,12 +159,7 @@ public class ArchiveHelper {
     public static List<ArchiveEntry> getArchiveEntries(@NonNull final Context context, @NonNull final DocumentFile file) throws IOException {
         Helper.assertNonUiThread();
 
-        ArchiveFormat format;
-        try (InputStream fi = FileHelper.getInputStream(context, file)) {
-            byte[] header = new byte[8];
-            if (fi.read(header) < header.length) return Collections.emptyList();
-            format = getTypeFromArchiveHeader(header);
-        }
+        ArchiveFormat format = getArchiveFormat(context, file);
         if (null == format) return Collections.emptyList();
 
         return getArchiveEntries(context, format, file.getUri());
@@ -162,6 +183,87 @@ public class ArchiveHelper {
         return result;
     }
 
+    /**
+     * Select the given entries that can be read directly from the archive file, without extracting them
+     * (i.e. entries STORED inside a ZIP archive; see openStoredEntry)
+     *
+     * @param context    Context to be used
+     * @param archiveUri Uri of the archive file
+     * @param entryPaths Paths of the entries to select (relative to the archive root)
+     * @return Given entries that can be read directly from the archive file
+     * @throws IOException If something horrible happens during I/O
+     */
+    public static Set<String> selectStoredEntries(
+            @NonNull final Context context,
+            @NonNull final Uri archiveUri,
+            @NonNull final List<String> entryPaths) throws IOException {
+        Helper.assertNonUiThread();
+        Set<String> result = new HashSet<>();
+        try (ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(archiveUri, "r")) {
+            if (null == pfd) return result;
+            try (FileInputStream fis = new FileInputStream(pfd.getFileDescriptor()); FileChannel channel = fis.getChannel()) {
+                ZipDirectory directory = getZipDirectory(archiveUri, channel);
+                for (String entryPath : entryPaths)
+                    if (directory.getStoredEntry(entryPath) != null) result.add(entryPath);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Open the given entry directly from the archive file, without extracting it
+     * NB : Only works with entries STORED (i.e. not compressed) inside a ZIP archive
+     *
+     * @param context    Context to be used
+     * @param archiveUri Uri of the archive file
+     * @param entryPath  Path of the entry to open (relative to the archive root)
+     * @return Descriptor of the part of the archive file containing the entry; null if the entry can't be read directly
+     * @throws IOException If something horrible happens during I/O
+     */
+    @Nullable
+    public static AssetFileDescriptor openStoredEntry(
+            @NonNull final Context context,
+            @NonNull final Uri archiveUri,
+            @NonNull final String entryPath) throws IOException {
+        long offset;
+        long length;
+        try (ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(archiveUri, "r")) {
+            if (null == pfd) return null;
+            try (FileInputStream fis = new FileInputStream(pfd.getFileDescriptor()); FileChannel channel = fis.getChannel()) {
+                ZipDirectory directory = getZipDirectory(archiveUri, channel);
+                ZipDirectory.Entry entry = directory.getStoredEntry(entryPath);
+                if (null == entry) return null;
+                offset = directory.getDataOffset(channel, entry);
+                length = entry.getSize();
+            }
+        }
+        if (offset < 0) return null;
+
+        // The returned descriptor owns its own file descriptor, which is closed with it
+        ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(archiveUri, "r");
+        if (null == pfd) return null;
+        return new AssetFileDescriptor(pfd, offset, length);
+    }
+
+    /**
+     * Get the central directory of the given ZIP archive, reading it if it isn't cached yet
+     * NB : The cached directory is discarded if the size of the archive file has changed since it has been read
+     */
+    private static ZipDirectory getZipDirectory(@NonNull final Uri archiveUri, @NonNull final FileChannel channel) throws IOException {
+        String key = archiveUri.toString();
+        long archiveSize = channel.size();
+        synchronized (zipDirectoryCache) {
+            ZipDirectory cached = zipDirectoryCache.get(key);
+            if (cached != null && cached.getArchiveSize() == archiveSize) return cached;
+        }
+
+        ZipDirectory result = ZipDirectory.read(channel);
+        synchronized (zipDirectoryCache) {
+            zipDirectoryCache.put(key, result);
+        }
+        return result;
+    }
+
     /**
      * Extract the given entries from the given archive file
      * This is the variant to be used with RxJava
@@ -185,12 +287,7 @@ public class ArchiveHelper {
 
         if (entriesToExtract != null && entriesToExtract.isEmpty()) return Observable.empty();
 
-        ArchiveFormat format;
-        try (InputStream fi = FileHelper.getInputStream(context, file)) {
-            byte[] header = new byte[8];
-            if (fi.read(header) < header.length) return Observable.empty();
-            format = getTypeFromArchiveHeader(header);
-        }
+        ArchiveFormat format = getArchiveFormat(context, file);
         if (null == format) return Observable.empty();
 
         return Observable.create(emitter -> extractArchiveEntries(context, file.getUri(), format, entriesToExtract, targetFolder, targetNames, interrupt, emitter));
@@ -256,6 +353,7 @@ public class ArchiveHelper {
 
     /**
      * Archive the given files into the given output stream
+     * NB : To archive several books in a row, prefer using one single ZipArchiver
      *
      * @param context Context to be used
      * @param files   List of the files to be archived
@@ -263,37 +361,8 @@ public class ArchiveHelper {
      * @throws IOException If something horrible happens during I/O
      */
     public static void zipFiles(@NonNull final Context context, @NonNull final List<DocumentFile> files, @NonNull final OutputStream out) throws IOException {
-        Helper.assertNonUiThread();
-        try (ZipOutputStream zipOutputStream = new ZipOutputStream(new BufferedOutputStream(out))) {
-            final byte[] data = new byte[BUFFER];
-            for (DocumentFile file : files) addFile(context, file, zipOutputStream, data);
-            out.flush();
-        }
-    }
-
-    /**
-     * Add the given file to the given ZipOutputStream
-     *
-     * @param context Context to be used
-     * @param file    File to be added
-     * @param stream  ZipOutputStream to write to
-     * @param buffer  Buffer to be used
-     * @throws IOException If something horrible happens during I/O
-     */
-    private static void addFile(@NonNull final Context context,
-                                @NonNull final DocumentFile file,
-                                final ZipOutputStream stream,
-                                final byte[] buffer) throws IOException {
-        Timber.d("Adding: %s", file);
-        try (InputStream fi = FileHelper.getInputStream(context, file); BufferedInputStream origin = new BufferedInputStream(fi, BUFFER)) {
-
-            ZipEntry zipEntry = new ZipEntry(file.getName());
-            stream.putNextEntry(zipEntry);
-            int count;
-
-            while ((count = origin.read(buffer, 0, BUFFER)) != -1) {
-                stream.write(buffer, 0, count);
-            }
+        try (ZipArchiver archiver = new ZipArchiver()) {
+            archiver.zipFiles(context, files, out);
         }
     }
 
@@ -0,0 +1,268 @@
+package me.devsaki.hentoid.util;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.documentfile.provider.DocumentFile;
+
+import com.annimon.stream.function.Consumer;
+
+import net.sf.sevenzipjbinding.ArchiveFormat;
+import net.sf.sevenzipjbinding.ExtractOperationResult;
+import net.sf.sevenzipjbinding.IInArchive;
+import net.sf.sevenzipjbinding.PropID;
+import net.sf.sevenzipjbinding.SevenZip;
+import net.sf.sevenzipjbinding.SevenZipException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import timber.log.Timber;
+
+/**
+ * Random-access reader of the pages of an archive, extracting them on demand into a size-bounded disk cache
+ * <p>
+ * - The archive stays open until the source is closed
+ * - Pages are extracted one at a time on a single background thread, as an archive can't be read concurrently
+ * - Least recently used pages are deleted when the cache grows beyond its maximum size
+ */
+public class ArchivePageSource implements Closeable {
+
+    private final ArchiveHelper.DocumentFileRandomInStream stream;
+    private final IInArchive archive;
+    private final File cacheFolder;
+    private final long maxCacheSizeBytes;
+
+    // Path of the entry (case-insensitive) -> index of the entry inside the archive
+    private final Map<String, Integer> entryIndexes = new HashMap<>();
+    // Index of the entry -> extracted file; least recently used first
+    private final LinkedHashMap<Integer, File> cachedPages = new LinkedHashMap<>(16, 0.75f, true);
+    private long cacheSizeBytes = 0;
+
+    private final ExecutorService extractor = Executors.newSingleThreadExecutor();
+    private final List<Future<?>> pendingPrefetches = new ArrayList<>();
+    private boolean closed = false;
+
+
+    private ArchivePageSource(
+            @NonNull ArchiveHelper.DocumentFileRandomInStream stream,
+            @NonNull IInArchive archive,
+            @NonNull File cacheFolder,
+            long maxCacheSizeBytes) throws SevenZipException {
+        this.stream = stream;
+        this.archive = archive;
+        this.cacheFolder = cacheFolder;
+        this.maxCacheSizeBytes = maxCacheSizeBytes;
+
+        int itemCount = archive.getNumberOfItems();
+        for (int i = 0; i < itemCount; i++)
+            entryIndexes.put(archive.getStringProperty(i, PropID.PATH).toLowerCase(), i);
+    }
+
+    /**
+     * Open the given archive
+     *
+     * @param context           Context to be used
+     * @param file              Archive file to open
+     * @param cacheFolder       Folder to extract the pages into
+     * @param maxCacheSizeBytes Maximum size of the extracted pages (in bytes)
+     * @return Page source reading the given archive; null if the file isn't a supported archive
+     * @throws IOException If something horrible happens during I/O
+     */
+    @Nullable
+    public static ArchivePageSource open(
+            @NonNull final Context context,
+            @NonNull final DocumentFile file,
+            @NonNull final File cacheFolder,
+            long maxCacheSizeBytes) throws IOException {
+        Helper.assertNonUiThread();
+
+        ArchiveFormat format = ArchiveHelper.getArchiveFormat(context, file);
+        if (null == format) return null;
+
+        ArchiveHelper.DocumentFileRandomInStream stream = new ArchiveHelper.DocumentFileRandomInStream(context, file.getUri());
+        IInArchive archive = null;
+        try {
+            archive = SevenZip.openInArchive(format, stream);
+            return new ArchivePageSource(stream, archive, cacheFolder, maxCacheSizeBytes);
+        } catch (SevenZipException e) {
+            try {
+                if (archive != null) archive.close();
+            } catch (SevenZipException e2) {
+                Timber.w(e2);
+            }
+            stream.close();
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Get the file the given entry is extracted to
+     * NB : The file only exists once the entry has been extracted (see getPage and prefetch)
+     *
+     * @param entryPath Path of the entry (relative to the archive root)
+     * @return File the given entry is extracted to; null if the archive has no such entry
+     */
+    @Nullable
+    public File getCacheFile(@NonNull final String entryPath) {
+        Integer index = entryIndexes.get(entryPath.toLowerCase());
+        return (null == index) ? null : getCacheFile(index, entryPath);
+    }
+
+    /**
+     * Extract the given entry, if it isn't cached yet
+     * NB : Cancels prefetches that haven't started yet, so that the page isn't extracted after them
+     *
+     * @param entryPath Path of the entry (relative to the archive root)
+     * @return Extracted file; null if the archive has no such entry
+     * @throws IOException If something horrible happens during I/O
+     */
+    @Nullable
+    public File getPage(@NonNull final String entryPath) throws IOException {
+        Helper.assertNonUiThread();
+        Integer index = entryIndexes.get(entryPath.toLowerCase());
+        if (null == index) return null;
+
+        Future<File> result;
+        synchronized (this) {
+            File cached = cachedPages.get(index);
+            if (cached != null) return cached;
+            if (closed) return null;
+            cancelPrefetches();
+            result = extractor.submit(() -> extract(index, entryPath));
+        }
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Extract the given entries in the background in the given order, skipping those that are already cached
+     * NB : Replaces the previous prefetch, if it isn't over yet
+     *
+     * @param entryPaths  Paths of the entries to extract (relative to the archive root)
+     * @param onExtracted Called on the extraction thread with the path of each newly extracted entry
+     */
+    public synchronized void prefetch(@NonNull final List<String> entryPaths, @Nullable final Consumer<String> onExtracted) {
+        if (closed) return;
+        cancelPrefetches();
+        for (String entryPath : entryPaths) {
+            Integer index = entryIndexes.get(entryPath.toLowerCase());
+            if (null == index || cachedPages.containsKey(index)) continue;
+            pendingPrefetches.add(extractor.submit(() -> {
+                boolean isNew = !isCached(index);
+                extract(index, entryPath);
+                if (isNew && onExtracted != null) onExtracted.accept(entryPath);
+                return null;
+            }));
+        }
+    }
+
+    private void cancelPrefetches() {
+        for (Future<?> f : pendingPrefetches) f.cancel(false);
+        pendingPrefetches.clear();
+    }
+
+    private synchronized boolean isCached(int index) {
+        return cachedPages.containsKey(index);
+    }
+
+    /**
+     * Extract the given entry to its cache file
+     * NB : Only to be called on the extraction thread
+     */
+    private File extract(int index, @NonNull final String entryPath) throws IOException {
+        synchronized (this) {
+            File cached = cachedPages.get(index);
+            if (cached != null) return cached;
+        }
+
+        File target = getCacheFile(index, entryPath);
+        boolean success = false;
+        try (OutputStream out = FileHelper.getOutputStream(target)) {
+            ExtractOperationResult result = archive.extractSlow(index, data -> {
+                try {
+                    out.write(data);
+                } catch (IOException e) {
+                    throw new SevenZipException(e);
+                }
+                return data.length;
+            });
+            if (result != ExtractOperationResult.OK)
+                throw new IOException("Extraction of " + entryPath + " failed : " + result);
+            success = true;
+        } catch (SevenZipException e) {
+            throw new IOException(e);
+        } finally {
+            if (!success && target.exists() && !target.delete())
+                Timber.w("Unable to delete file %s", target.getAbsolutePath());
+        }
+
+        synchronized (this) {
+            cachedPages.put(index, target);
+            cacheSizeBytes += target.length();
+            evict();
+        }
+        return target;
+    }
+
+    /**
+     * Delete the least recently used pages until the cache fits its maximum size
+     * NB : The last extracted page is always kept
+     */
+    private void evict() {
+        Iterator<Map.Entry<Integer, File>> it = cachedPages.entrySet().iterator();
+        while (cacheSizeBytes > maxCacheSizeBytes && cachedPages.size() > 1 && it.hasNext()) {
+            File f = it.next().getValue();
+            cacheSizeBytes -= f.length();
+            if (!f.delete()) Timber.w("Unable to delete file %s", f.getAbsolutePath());
+            it.remove();
+        }
+    }
+
+    private File getCacheFile(int index, @NonNull final String entryPath) {
+        // TL;DR - We don't care about folders (see ArchiveHelper.extractArchiveEntries)
+        String fileName = entryPath;
+        int lastSeparator = fileName.lastIndexOf(File.separator);
+        if (lastSeparator > -1) fileName = fileName.substring(lastSeparator + 1);
+        return new File(cacheFolder, ArchiveHelper.formatCacheFileName(index, fileName));
+    }
+
+    /**
+     * Close the archive once the ongoing extraction is over
+     * NB : Extracted pages are left in the cache folder
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        cancelPrefetches();
+        extractor.execute(() -> {
+            try {
+                archive.close();
+                stream.close();
+            } catch (SevenZipException | IOException e) {
+                Timber.w(e);
+            }
+        });
+        extractor.shutdown();
+    }
+}
@@ -306,6 +306,7 @@ public final class ContentHelper {
         // Remove from DB
         // NB : start with DB to have a LiveData feedback, because file removal can take much time
         dao.deleteContent(content);
+        DuplicateIndex.Companion.remove(context, new long[]{content.getId()});
 
         if (content.isArchive()) { // Remove an archive
             DocumentFile archive = FileHelper.getFileFromSingleUriString(context, content.getStorageUri());
@@ -415,39 +416,53 @@ public final class ContentHelper {
         }
 
         // Extract the cover to the app's persistent folder if the book is an archive
-        if (content.isArchive() && content.getImageFiles() != null) {
-            DocumentFile archive = FileHelper.getFileFromSingleUriString(context, content.getStorageUri());
-            if (archive != null) {
-                try {
-                    Disposable unarchiveDisposable = ArchiveHelper.extractArchiveEntriesRx(
-                            context,
-                            archive,
-                            Stream.of(content.getCover().getFileUri().replace(content.getStorageUri() + File.separator, "")).toList(),
-                            context.getFilesDir(),
-                            Stream.of(newContentId + "").toList(),
-                            null)
-                            .subscribeOn(Schedulers.io())
-                            .observeOn(Schedulers.computation())
-                            .subscribe(
-                                    uri -> {
-                                        Timber.i(">> Set cover for %s", content.getTitle());
-                                        content.getCover().setFileUri(uri.toString());
-                                        dao.replaceImageList(newContentId, content.getImageFiles());
-                                    },
-                                    Timber::e
-                            );
-
-                    // Not ideal, but better than attaching it to the calling service that may not have enough longevity
-                    new Helper.LifecycleRxCleaner(unarchiveDisposable).publish();
-                } catch (IOException e) {
-                    Timber.w(e);
-                }
-            }
-        }
+        extractArchiveCover(context, dao, content);
 
         return newContentId;
     }
 
+    /**
+     * Extract the cover of the given book to the app's persistent folder, if it is an archive
+     * NB : Extraction is performed asynchronously
+     *
+     * @param context Context to use
+     * @param dao     DAO to be used
+     * @param content Book to extract the cover of; must have been added to the DB already
+     */
+    public static void extractArchiveCover(
+            @NonNull final Context context,
+            @NonNull final CollectionDAO dao,
+            @NonNull final Content content) {
+        if (!content.isArchive() || null == content.getImageFiles()) return;
+        long newContentId = content.getId();
+        DocumentFile archive = FileHelper.getFileFromSingleUriString(context, content.getStorageUri());
+        if (null == archive) return;
+        try {
+            Disposable unarchiveDisposable = ArchiveHelper.extractArchiveEntriesRx(
+                    context,
+                    archive,
+                    Stream.of(content.getCover().getFileUri().replace(content.getStorageUri() + File.separator, "")).toList(),
+                    context.getFilesDir(),
+                    Stream.of(newContentId + "").toList(),
+                    null)
+                    .subscribeOn(Schedulers.io())
+                    .observeOn(Schedulers.computation())
+                    .subscribe(
+                            uri -> {
+                                Timber.i(">> Set cover for %s", content.getTitle());
+                                content.getCover().setFileUri(uri.toString());
+                                dao.replaceImageList(newContentId, content.getImageFiles());
+                            },
+                            Timber::e
+                    );
+
+            // Not ideal, but better than attaching it to the calling service that may not have enough longevity
+            new Helper.LifecycleRxCleaner(unarchiveDisposable).publish();
+        } catch (IOException e) {
+            Timber.w(e);
+        }
+    }
+
     /**
      * Remove the given pages from the disk and the DB
      *
@@ -1081,7 +1096,7 @@ public final class ContentHelper {
 
         // Compute cover hashes for selected candidates
         for (Content c : roughCandidates)
-            if (0 == c.getCover().getImageHash()) computeAndSaveCoverHash(context, c, dao);
+            if (0 == c.getCoverHash()) computeAndSaveCoverHash(context, c, dao);
 
         // Refine by running the actual duplicate detection algorithm against the rough candidates
         List<DuplicateEntry> entries = new ArrayList<>();
@@ -1112,8 +1127,10 @@ public final class ContentHelper {
         Bitmap coverBitmap = DuplicateHelper.Companion.getCoverBitmapFromContent(context, content);
         long pHash = DuplicateHelper.Companion.calcPhash(DuplicateHelper.Companion.getHashEngine(), coverBitmap);
         if (coverBitmap != null) coverBitmap.recycle();
-        content.getCover().setImageHash(pHash);
-        dao.insertImageFile(content.getCover());
+        ImageFile cover = content.getCover();
+        cover.setImageHash(pHash);
+        dao.insertImageFile(cover);
+        content.setCoverData(cover);
     }
 
     /**
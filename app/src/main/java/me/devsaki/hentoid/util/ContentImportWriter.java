@@ -0,0 +1,206 @@
+package me.devsaki.hentoid.util;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.annimon.stream.Stream;
+import com.annimon.stream.function.Consumer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import me.devsaki.hentoid.database.CollectionDAO;
+import me.devsaki.hentoid.database.domains.Attribute;
+import me.devsaki.hentoid.database.domains.AttributeMap;
+import me.devsaki.hentoid.database.domains.Content;
+import me.devsaki.hentoid.database.domains.Group;
+import me.devsaki.hentoid.database.domains.GroupItem;
+import me.devsaki.hentoid.enums.AttributeType;
+import me.devsaki.hentoid.enums.Grouping;
+import me.devsaki.hentoid.enums.Site;
+import timber.log.Timber;
+
+/**
+ * Writes the books found by an import to the DB in bulk, as a faster alternative to ContentHelper.addContent
+ * <ul>
+ * <li>Attributes are resolved using an index of all existing attributes, loaded once</li>
+ * <li>Books are written by batches, each batch inside a single transaction</li>
+ * <li>Books are added to their artist groups in a single pass, once they have all been written (see complete)</li>
+ * </ul>
+ * NB : Books can only be found in the DB once their batch has been written; use isPending to detect
+ * the duplicates of those that haven't been written yet
+ */
+public class ContentImportWriter {
+
+    public static final int DEFAULT_BATCH_SIZE = 200;
+
+    private final Context context;
+    private final CollectionDAO dao;
+    private final int batchSize;
+    private final Consumer<List<Content>> onWritten;
+
+    // Attribute key -> ID of the corresponding attribute
+    private final Map<String, Long> attributeIds;
+    private final List<Content> pendingContents = new ArrayList<>();
+    // IDs of the written books that have to be added to artist groups
+    private final List<Long> ungroupedContentIds = new ArrayList<>();
+    private int nbWritten = 0;
+
+
+    /**
+     * Create a new writer
+     *
+     * @param context   Context to use
+     * @param dao       DAO to use
+     * @param batchSize Number of books to write inside each transaction
+     * @param onWritten Called with every batch of books once it has been written to the DB (e.g. to index them); null if not needed
+     */
+    public ContentImportWriter(
+            @NonNull Context context,
+            @NonNull CollectionDAO dao,
+            int batchSize,
+            @Nullable Consumer<List<Content>> onWritten) {
+        this.context = context;
+        this.dao = dao;
+        this.batchSize = Math.max(1, batchSize);
+        this.onWritten = onWritten;
+        attributeIds = dao.selectAttributeIdsByKey();
+    }
+
+    /**
+     * Add the given book to the library
+     * NB : The book is written to the DB when its batch is full
+     *
+     * @param content Book to add to the library
+     */
+    public void add(@NonNull Content content) {
+        pendingContents.add(content);
+        if (pendingContents.size() >= batchSize) flush();
+    }
+
+    /**
+     * Indicate if a book with the given site and URL has been added but hasn't been written to the DB yet
+     *
+     * @param site Site of the book
+     * @param url  URL of the book
+     * @return True if a book with the given site and URL is waiting to be written to the DB
+     */
+    public boolean isPending(@NonNull Site site, @NonNull String url) {
+        if (url.isEmpty()) return false;
+        return Stream.of(pendingContents).anyMatch(c -> site.equals(c.getSite()) && url.equals(c.getUrl()));
+    }
+
+    /**
+     * Number of books written to the DB so far
+     */
+    public int getNbWritten() {
+        return nbWritten;
+    }
+
+    /**
+     * Write the pending books to the DB
+     */
+    public void flush() {
+        if (pendingContents.isEmpty()) return;
+
+        List<Content> written = new ArrayList<>(pendingContents.size());
+        long[] ids = dao.insertContents(pendingContents, attributeIds);
+        if (ids.length == pendingContents.size()) {
+            for (int i = 0; i < ids.length; i++) {
+                Content content = pendingContents.get(i);
+                content.setId(ids[i]);
+                onContentWritten(content);
+                written.add(content);
+            }
+        } else { // Fall back to one transaction per book not to lose the whole batch
+            // NB : IDs assigned by the failed transaction have been reset by insertContents
+            Timber.w("Batch of %s books could not be written; writing them one by one", pendingContents.size());
+            for (Content content : pendingContents) {
+                try {
+                    content.setId(dao.insertContent(content));
+                    onContentWritten(content);
+                    written.add(content);
+                } catch (Exception e) {
+                    Timber.w(e, "Could not write book %s", content.getStorageUri());
+                }
+            }
+            // Attributes created by insertContent have to be known by the next batches
+            attributeIds.clear();
+            attributeIds.putAll(dao.selectAttributeIdsByKey());
+        }
+        pendingContents.clear();
+        if (onWritten != null && !written.isEmpty()) onWritten.accept(written);
+    }
+
+    private void onContentWritten(@NonNull Content content) {
+        nbWritten++;
+        if (ContentHelper.isInLibrary(content.getStatus()) && content.getGroupItems(Grouping.ARTIST).isEmpty())
+            ungroupedContentIds.add(content.getId());
+    }
+
+    /**
+     * Write the pending books to the DB, then add all written books to their artist groups
+     * NB : Has to be called once all books have been added
+     */
+    public void complete() {
+        flush();
+        if (ungroupedContentIds.isEmpty()) return;
+
+        int nbGroups = (int) dao.countGroupsFor(Grouping.ARTIST);
+        // Attribute ID -> Artist group of the attribute
+        Map<Long, Group> groupsByAttribute = new HashMap<>();
+        Group noArtistGroup = null;
+        // IDs of the groups whose cover has been checked
+        Set<Long> checkedGroupIds = new HashSet<>();
+        List<GroupItem> items = new ArrayList<>();
+
+        for (int i = 0; i < ungroupedContentIds.size(); i += batchSize) {
+            List<Long> idsChunk = ungroupedContentIds.subList(i, Math.min(i + batchSize, ungroupedContentIds.size()));
+            for (Content content : dao.selectContent(Helper.getPrimitiveLongArrayFromList(idsChunk))) {
+                AttributeMap attrs = content.getAttributeMap();
+                List<Attribute> artists = new ArrayList<>();
+                List<Attribute> sublist = attrs.get(AttributeType.ARTIST);
+                if (sublist != null) artists.addAll(sublist);
+                sublist = attrs.get(AttributeType.CIRCLE);
+                if (sublist != null) artists.addAll(sublist);
+
+                List<Group> groups = new ArrayList<>();
+                if (artists.isEmpty()) { // Add to the "no artist" group if no artist has been found
+                    if (null == noArtistGroup)
+                        noArtistGroup = GroupHelper.getOrCreateNoArtistGroup(context, dao);
+                    groups.add(noArtistGroup);
+                } else {
+                    for (Attribute a : artists) { // Add to the artist groups attached to the artists attributes
+                        Group group = groupsByAttribute.get(a.getId());
+                        if (null == group) group = a.getGroup().getTarget();
+                        if (null == group) {
+                            group = new Group(Grouping.ARTIST, a.getName(), ++nbGroups);
+                            group.setSubtype(a.getType().equals(AttributeType.ARTIST) ? Preferences.Constant.ARTIST_GROUP_VISIBILITY_ARTISTS : Preferences.Constant.ARTIST_GROUP_VISIBILITY_GROUPS);
+                            group.picture.setTarget(content.getCover());
+                            group.id = dao.insertGroup(group);
+                            a.putGroup(group);
+                        }
+                        groupsByAttribute.put(a.getId(), group);
+                        groups.add(group);
+                    }
+                }
+
+                for (Group group : groups) {
+                    // Groups without any cover take the cover of their first book
+                    if (checkedGroupIds.add(group.id) && !group.picture.isResolvedAndNotNull())
+                        group.picture.setAndPutTarget(content.getCover());
+                    items.add(new GroupItem(content, group, -1));
+                }
+            }
+        }
+        dao.insertGroupItems(items);
+        Timber.d("Added %s books to %s artist groups", ungroupedContentIds.size(), checkedGroupIds.size());
+        ungroupedContentIds.clear();
+    }
+}
@@ -5,18 +5,24 @@ import android.graphics.Bitmap
 import android.net.Uri
 import androidx.core.util.Consumer
 import com.annimon.stream.function.BiConsumer
+import io.reactivex.Flowable
 import io.reactivex.disposables.Disposable
 import io.reactivex.rxkotlin.subscribeBy
 import io.reactivex.schedulers.Schedulers
 import me.devsaki.hentoid.database.CollectionDAO
 import me.devsaki.hentoid.database.domains.Content
 import me.devsaki.hentoid.database.domains.DuplicateEntry
+import me.devsaki.hentoid.database.domains.ImageFile
 import me.devsaki.hentoid.enums.AttributeType
+import me.devsaki.hentoid.util.string_similarity.Cosine
+import me.devsaki.hentoid.util.string_similarity.MinHashLSH
+import me.devsaki.hentoid.util.string_similarity.ShingleProfile
 import me.devsaki.hentoid.util.string_similarity.StringSimilarity
 import timber.log.Timber
 import java.io.IOException
 import java.io.InputStream
 import java.util.*
+import java.util.concurrent.Executors
 import java.util.concurrent.atomic.AtomicBoolean
 
 class DuplicateHelper {
@@ -29,6 +35,17 @@ class DuplicateHelper {
         private val TOTAL_THRESHOLDS = doubleArrayOf(0.8, 0.85, 0.9)
         private const val COVER_WORK_RESOLUTION = 48
 
+        // Length of the shingles used to compare titles (Cosine's default)
+        private const val TITLE_SHINGLE_SIZE = 3
+        private val titleShingler = Cosine(TITLE_SHINGLE_SIZE)
+
+        // Estimated peak memory used to decode one cover (source file + sampled bitmap)
+        private const val COVER_DECODE_MEMORY_BYTES = 16L * 1024 * 1024
+        private const val MAX_COVER_DECODERS = 8
+
+        // Number of cover hashes saved to the DB in a single transaction
+        private const val COVER_HASH_BATCH_SIZE = 250
+
         private val TITLE_CHAPTER_WORDS = listOf(
             "chapter",
             "chap",
@@ -74,14 +91,38 @@ class DuplicateHelper {
         )
 
 
+        // Hash engines reuse their buffers and can't be shared between threads
+        private val hashEngines = ThreadLocal<ImagePHash>()
+
+        /**
+         * Get the hash engine of the calling thread, at the default resolution
+         */
         fun getHashEngine(): ImagePHash {
-            return getHashEngine(COVER_WORK_RESOLUTION)
+            var result = hashEngines.get()
+            if (null == result) {
+                result = getHashEngine(COVER_WORK_RESOLUTION)
+                hashEngines.set(result)
+            }
+            return result
         }
 
         fun getHashEngine(resolution: Int = COVER_WORK_RESOLUTION): ImagePHash {
             return ImagePHash(resolution, 8)
         }
 
+        /**
+         * Compute and save the hashes of all covers that haven't been hashed yet
+         *
+         * Staged pipeline :
+         *  - Decoding : parallel workers bounded by available memory (see getCoverDecodeConcurrency)
+         *  - Hashing : CPU pool sized to the number of cores
+         *  - Saving : hashes are committed to the DB by batches of COVER_HASH_BATCH_SIZE
+         *
+         * NB : Book JSONs are _not_ updated by this method; use updateContentJsons with
+         * the returned IDs to update them in a separate pass
+         *
+         * @return IDs of the books whose cover has been hashed
+         */
         fun indexCovers(
             context: Context,
             dao: CollectionDAO,
@@ -89,35 +130,113 @@ class DuplicateHelper {
             info: Consumer<Content>,
             progress: BiConsumer<Int, Int>,
             error: Consumer<Throwable>
-        ) {
-            val hashEngine = getHashEngine()
+        ): List<Long> {
             val contentToIndex = dao.selectContentWithUnhashedCovers()
             val nbContent = contentToIndex.size
+            val result = ArrayList<Long>()
+            if (0 == nbContent) {
+                progress.accept(0, 0)
+                return result
+            }
 
-            for ((index, c) in contentToIndex.withIndex()) {
-                try {
-                    info.accept(c)
-                    indexContent(context, dao, c, hashEngine)
-                    progress.accept(index + 1, nbContent)
-                } catch (t: Throwable) {
-                    // Don't break the loop
-                    error.accept(t)
-                }
-                if (stopped.get()) break
+            val nbDecoders = getCoverDecodeConcurrency()
+            val nbHashers = Runtime.getRuntime().availableProcessors()
+            Timber.d("Indexing covers using %d decoders and %d hashers", nbDecoders, nbHashers)
+            val decodeExecutor = Executors.newFixedThreadPool(nbDecoders)
+            val hashExecutor = Executors.newFixedThreadPool(nbHashers)
+            val decodeScheduler = Schedulers.from(decodeExecutor)
+            val hashScheduler = Schedulers.from(hashExecutor)
+
+            val batch = ArrayList<ImageFile>()
+            var index = 0
+            try {
+                Flowable.fromIterable(contentToIndex)
+                    .takeWhile { !stopped.get() }
+                    .flatMap({ c ->
+                        Flowable.fromCallable {
+                            var bitmap: Bitmap? = null
+                            try {
+                                info.accept(c)
+                                bitmap = getCoverBitmapFromContent(context, c)
+                            } catch (t: Throwable) {
+                                // Don't break the loop
+                                error.accept(t)
+                            }
+                            Pair(c, bitmap)
+                        }.subscribeOn(decodeScheduler)
+                    }, false, nbDecoders, 1)
+                    .flatMap({ contentBitmap ->
+                        Flowable.fromCallable {
+                            val bitmap = contentBitmap.second
+                            val pHash = calcPhash(getHashEngine(), bitmap)
+                            bitmap?.recycle()
+                            Pair(contentBitmap.first, pHash)
+                        }.subscribeOn(hashScheduler)
+                    }, false, nbHashers, 1)
+                    .blockingSubscribe { contentHash ->
+                        val cover = contentHash.first.cover
+                        cover.imageHash = contentHash.second
+                        batch.add(cover)
+                        result.add(contentHash.first.id)
+                        if (batch.size >= COVER_HASH_BATCH_SIZE) {
+                            dao.insertImageFiles(batch)
+                            batch.clear()
+                        }
+                        progress.accept(++index, nbContent)
+                    }
+            } catch (t: Throwable) {
+                error.accept(t)
+            } finally {
+                if (batch.isNotEmpty()) dao.insertImageFiles(batch)
+                decodeExecutor.shutdown()
+                hashExecutor.shutdown()
             }
             progress.accept(nbContent, nbContent)
+            return result
+        }
+
+        /**
+         * Number of covers that can be decoded in parallel according to the available memory
+         */
+        private fun getCoverDecodeConcurrency(): Int {
+            val runtime = Runtime.getRuntime()
+            val availableMemory = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory())
+            return (availableMemory / COVER_DECODE_MEMORY_BYTES).toInt()
+                .coerceIn(1, MAX_COVER_DECODERS)
         }
 
-        private fun indexContent(
+        /**
+         * Update the JSON files of the given books with their current data
+         * Used to save cover hashes to the JSON files in a separate pass
+         *
+         * @param contentIds IDs of the books whose JSON file to update
+         */
+        fun updateContentJsons(
             context: Context,
             dao: CollectionDAO,
-            content: Content,
-            hashEngine: ImagePHash,
+            contentIds: List<Long>,
+            stopped: AtomicBoolean
         ) {
-            val bitmap = getCoverBitmapFromContent(context, content)
-            val pHash = calcPhash(hashEngine, bitmap)
-            bitmap?.recycle()
-            savePhash(context, dao, content, pHash)
+            for (id in contentIds) {
+                if (stopped.get()) break
+                val content = dao.selectContent(id) ?: continue
+                try {
+                    // Update the book JSON if the book folder still exists
+                    if (content.storageUri.isNotEmpty()) {
+                        val folder =
+                            FileHelper.getFolderFromTreeUriString(context, content.storageUri)
+                        if (folder != null) {
+                            if (content.jsonUri.isNotEmpty()) ContentHelper.updateContentJson(
+                                context,
+                                content
+                            )
+                            else ContentHelper.createContentJson(context, content)
+                        }
+                    }
+                } catch (e: Exception) {
+                    Timber.w(e) // Doesn't break the loop
+                }
+            }
         }
 
         fun indexCoversRx(
@@ -128,7 +247,6 @@ class DuplicateHelper {
             error: Consumer<Throwable>
         ): Disposable {
 
-            val hash = getHashEngine()
             var index = 0
             val nbContent = dao.countContentWithUnhashedCovers()
 
@@ -141,7 +259,7 @@ class DuplicateHelper {
                 }
                 .observeOn(Schedulers.computation())
                 .map {
-                    val pHash = calcPhash(hash, it.second)
+                    val pHash = calcPhash(getHashEngine(), it.second)
                     it.second?.recycle()
                     Pair(it.first, pHash)
                 }
@@ -240,13 +358,23 @@ class DuplicateHelper {
                 // Ignored cover
                 if (coverScore == -2f) return null
             }
-            if (useTitle) titleScore = computeTitleScore(
-                textComparator,
-                reference.titleCleanup, reference.titleNoDigits,
-                candidate.titleCleanup, candidate.titleNoDigits,
-                ignoreChapters,
-                sensitivity
-            )
+            // Use precomputed profiles when the comparator is compatible with them
+            if (useTitle) titleScore =
+                if (textComparator is Cosine && textComparator.k == TITLE_SHINGLE_SIZE)
+                    computeTitleScore(
+                        textComparator,
+                        reference,
+                        candidate,
+                        ignoreChapters,
+                        sensitivity
+                    )
+                else computeTitleScore(
+                    textComparator,
+                    reference.titleCleanup, reference.titleNoDigits,
+                    candidate.titleCleanup, candidate.titleNoDigits,
+                    ignoreChapters,
+                    sensitivity
+                )
             if (useSameArtist) artistScore =
                 computeArtistScore(reference.artistsCleanup, candidate.artistsCleanup)
             val result = DuplicateEntry(
@@ -290,6 +418,16 @@ class DuplicateHelper {
             return if (preCoverScore >= COVER_THRESHOLDS[sensitivity]) preCoverScore else 0f
         }
 
+        /**
+         * Maximum Hamming distance between two cover hashes for them to reach the cover threshold
+         * of the given sensitivity
+         */
+        fun getCoverMaxDistance(sensitivity: Int): Int {
+            var result = 0
+            while (result < java.lang.Long.SIZE && (java.lang.Long.SIZE - (result + 1)) * 1f / java.lang.Long.SIZE >= COVER_THRESHOLDS[sensitivity]) result++
+            return result
+        }
+
         fun computeTitleScore(
             textComparator: StringSimilarity,
             referenceTitleCleanup: String,
@@ -299,15 +437,45 @@ class DuplicateHelper {
             ignoreChapters: Boolean,
             sensitivity: Int
         ): Float {
-            val similarity1 =
-                textComparator.similarity(referenceTitleCleanup, candidateTitleCleanup)
+            return computeTitleScore(
+                { textComparator.similarity(referenceTitleCleanup, candidateTitleCleanup) },
+                { textComparator.similarity(referenceTitleNoDigits, candidateTitleNoDigits) },
+                ignoreChapters,
+                sensitivity
+            )
+        }
+
+        /**
+         * Same as computeTitleScore, using the title profiles precomputed by the given candidates
+         */
+        fun computeTitleScore(
+            cosine: Cosine,
+            reference: DuplicateCandidate,
+            candidate: DuplicateCandidate,
+            ignoreChapters: Boolean,
+            sensitivity: Int
+        ): Float {
+            return computeTitleScore(
+                { cosine.similarity(reference.titleCleanupProfile, candidate.titleCleanupProfile) },
+                { cosine.similarity(reference.titleNoDigitsProfile, candidate.titleNoDigitsProfile) },
+                ignoreChapters,
+                sensitivity
+            )
+        }
+
+        private inline fun computeTitleScore(
+            titleSimilarity: () -> Double,
+            titleNoDigitsSimilarity: () -> Double,
+            ignoreChapters: Boolean,
+            sensitivity: Int
+        ): Float {
+            val similarity1 = titleSimilarity.invoke()
             if (ignoreChapters) {
                 // Perfect match
                 if (similarity1 > 0.995) return similarity1.toFloat()
                 // Other cases : check if both titles are chapters or sequels
                 return if (similarity1 > TEXT_THRESHOLDS[sensitivity]) {
-                    val similarity2 =
-                        textComparator.similarity(referenceTitleNoDigits, candidateTitleNoDigits)
+                    val similarity2 = titleNoDigitsSimilarity.invoke()
                     // Cleaned up versions are identical
                     // => most probably a chapter variant -> set to 0%
                     if (similarity2 > similarity1 && similarity2 > 0.995) return 0f
@@ -348,25 +516,136 @@ class DuplicateHelper {
     }
 
     class DuplicateCandidate(
-        content: Content,
-        useTitle: Boolean,
-        useArtist: Boolean,
-        useLanguage: Boolean,
-        forceCoverHash: Long = Long.MIN_VALUE
+        val id: Long,
+        val coverHash: Long,
+        val size: Long,
+        val titleCleanup: String,
+        val artistsCleanup: List<String>?,
+        val countryCodes: List<String>?
     ) {
-        val id = content.id
-        val coverHash =
-            if (Long.MIN_VALUE == forceCoverHash) content.cover.imageHash else forceCoverHash
-        val size = content.size
-        val titleCleanup = (if (useTitle) StringHelper.cleanup(content.title) else "")!!
-        val titleNoDigits = if (useTitle) sanitizeTitle(titleCleanup) else ""
-        val artistsCleanup: List<String>? =
+        constructor(
+            content: Content,
+            useTitle: Boolean,
+            useArtist: Boolean,
+            useLanguage: Boolean,
+            forceCoverHash: Long = Long.MIN_VALUE
+        ) : this(
+            content.id,
+            if (Long.MIN_VALUE == forceCoverHash) content.coverHash else forceCoverHash,
+            content.size,
+            (if (useTitle) StringHelper.cleanup(content.title) else "")!!,
             if (useArtist) content.attributeMap[AttributeType.ARTIST]?.map { it ->
                 StringHelper.cleanup(it.name)
+            } else Collections.emptyList(),
+            if (useLanguage) content.attributeMap[AttributeType.LANGUAGE]?.map {
+                LanguageHelper.getCountryCodeFromLanguage(it.name)
             } else Collections.emptyList()
-        val countryCodes = if (useLanguage) content.attributeMap[AttributeType.LANGUAGE]?.map {
-            LanguageHelper.getCountryCodeFromLanguage(it.name)
-        } else Collections.emptyList()
+        )
+
+        val titleNoDigits = if (titleCleanup.isNotEmpty()) sanitizeTitle(titleCleanup) else ""
+        val titleCleanupProfile = ShingleProfile(titleCleanup, titleShingler)
+        val titleNoDigitsProfile = ShingleProfile(titleNoDigits, titleShingler)
     }
 
-}
\ No newline at end of file
+    /**
+     * Candidate generation stage of duplicate detection
+     *
+     * Narrows down the books each reference has to be compared with, so that only pairs
+     * that can reach the detection thresholds are passed to processContent
+     *  - Covers : books whose cover hashes are within the cover threshold, using multi-index hashing
+     *  - Titles (when covers can't be used) : books whose titles share a MinHash/LSH bucket
+     *
+     * NB : Cover-based pruning is exact; title-based pruning is probabilistic (see MinHashLSH)
+     */
+    class DuplicateCandidateIndex(
+        private val library: List<DuplicateCandidate>,
+        private val useTitle: Boolean,
+        private val useCover: Boolean,
+        sensitivity: Int
+    ) {
+        private val coverMaxDistance = getCoverMaxDistance(sensitivity)
+        private val coverIndex: HashMultiIndex?
+        private val titleIndex: MinHashLSH?
+
+        init {
+            if (useCover) {
+                coverIndex = HashMultiIndex(library.size)
+                for ((index, candidate) in library.withIndex())
+                    if (isHashed(candidate.coverHash)) coverIndex.add(candidate.coverHash, index)
+            } else coverIndex = null
+
+            titleIndex = if (useTitle) MinHashLSH(
+                Array(library.size) { library[it].titleCleanupProfile })
+            else null
+        }
+
+        /**
+         * Retrieve the candidates the book at the given index has to be compared with
+         *
+         * @param referenceIndex Index of the reference book inside the library
+         * @param buffers Working buffers of the calling thread; each index must be used only once per buffers
+         * @return Sorted indexes of the books to compare with, all greater than referenceIndex
+         */
+        fun getCandidates(referenceIndex: Int, buffers: SearchBuffers): IntArray {
+            val reference = library[referenceIndex]
+            val results: IntArray
+            if (useCover) {
+                // Covers that haven't been hashed yet never match
+                if (0L == reference.coverHash) return IntArray(0)
+                if (Long.MIN_VALUE == reference.coverHash) {
+                    // Unhashable cover => only the title can match
+                    results = getTitleCandidates(referenceIndex, buffers) { 0L != it }
+                } else {
+                    val coverCandidates =
+                        coverIndex!!.query(reference.coverHash, coverMaxDistance)
+                            .filter { it > referenceIndex }
+                    // Candidates with an unhashable cover can only match on title
+                    val titleCandidates =
+                        getTitleCandidates(referenceIndex, buffers) { Long.MIN_VALUE == it }
+                    results = IntArray(coverCandidates.size + titleCandidates.size)
+                    coverCandidates.toIntArray().copyInto(results)
+                    titleCandidates.copyInto(results, coverCandidates.size)
+                }
+            } else if (useTitle) {
+                results = getTitleCandidates(referenceIndex, buffers) { true }
+            } else {
+                // Neither title nor cover => no score can reach the threshold
+                return IntArray(0)
+            }
+            results.sort()
+            return results
+        }
+
+        /**
+         * Create a new set of working buffers to be used by a single thread
+         */
+        fun newSearchBuffers(): SearchBuffers {
+            return SearchBuffers(library.size)
+        }
+
+        private fun getTitleCandidates(
+            referenceIndex: Int,
+            buffers: SearchBuffers,
+            hashFilter: (Long) -> Boolean
+        ): IntArray {
+            if (null == titleIndex) return IntArray(0)
+            val nbCandidates =
+                titleIndex.getCandidatesAfter(referenceIndex, buffers.marks, buffers.results)
+            var nbResults = 0
+            for (i in 0 until nbCandidates) {
+                val candidate = buffers.results[i]
+                if (hashFilter(library[candidate].coverHash)) buffers.results[nbResults++] = candidate
+            }
+            return buffers.results.copyOf(nbResults)
+        }
+
+        private fun isHashed(hash: Long): Boolean {
+            return hash != 0L && hash != Long.MIN_VALUE
+        }
+
+        class SearchBuffers(size: Int) {
+            internal val marks = IntArray(size)
+            internal val results = IntArray(size)
+        }
+    }
+}
@@ -0,0 +1,448 @@
+package me.devsaki.hentoid.util
+
+import android.content.Context
+import me.devsaki.hentoid.database.CollectionDAO
+import me.devsaki.hentoid.database.DuplicatesDAO
+import me.devsaki.hentoid.database.domains.Content
+import me.devsaki.hentoid.database.domains.DuplicateEntry
+import me.devsaki.hentoid.util.DuplicateHelper.DuplicateCandidate
+import me.devsaki.hentoid.util.string_similarity.Cosine
+import me.devsaki.hentoid.util.string_similarity.GrowableMinHashLSH
+import timber.log.Timber
+import java.io.*
+import java.util.BitSet
+
+/**
+ * Persisted similarity index of the library, used to detect the duplicates of newly
+ * downloaded or imported books without running a full detection
+ *
+ * The index is rebuilt by DuplicateDetectorWorker at the end of each full detection, and records
+ * the settings that detection has been run with. Books added afterwards are probed against it
+ * with the same settings, so that the DuplicateEntry rows they produce are consistent with those
+ * of the full detection. Detection settings can only be changed by running a new full detection.
+ *
+ * Books whose cover hasn't been hashed yet aren't indexed when covers are used, as they can't
+ * match anything; they are indexed by the next full detection, which hashes them first.
+ * Books removed from the library are removed from the index (see remove), or when they are found
+ * as a match of a probed book, for those removed by bulk operations
+ *
+ * File layout : header (version, settings) followed by one record per indexed book;
+ * records of probed books and of removed books (negative ID) are appended to the file
+ */
+class DuplicateIndex private constructor(
+    val useTitle: Boolean,
+    val useCover: Boolean,
+    val useArtist: Boolean,
+    val useSameLanguage: Boolean,
+    val ignoreChapters: Boolean,
+    val sensitivity: Int
+) {
+    private val candidates = ArrayList<DuplicateCandidate>()
+
+    // Book ID -> Position of the book inside candidates
+    private val positions = HashMap<Long, Int>()
+
+    // Positions of the books that have been removed from the index
+    private val removed = BitSet()
+    private val coverIndex = HashMultiIndex()
+    private val coverMaxDistance = DuplicateHelper.getCoverMaxDistance(sensitivity)
+
+    // Titles of the candidates, indexed in the same order
+    private val titleIndex = if (useTitle) GrowableMinHashLSH() else null
+
+    companion object {
+        private const val FILE_NAME = "duplicate_index.bin"
+
+        // v2 : records of removed books
+        // v3 : cover hashes computed by ImagePHash v2
+        private const val VERSION = 3
+
+        // Minimum number of removed books before the file is compacted
+        private const val MIN_REMOVED_TO_COMPACT = 100
+
+        // Index currently loaded in memory
+        private var cache: DuplicateIndex? = null
+
+        /**
+         * Replace the persisted index with the given library, using the given settings
+         */
+        @Synchronized
+        fun rebuild(
+            context: Context,
+            library: List<DuplicateCandidate>,
+            useTitle: Boolean,
+            useCover: Boolean,
+            useArtist: Boolean,
+            useSameLanguage: Boolean,
+            ignoreChapters: Boolean,
+            sensitivity: Int
+        ) {
+            val index = DuplicateIndex(
+                useTitle,
+                useCover,
+                useArtist,
+                useSameLanguage,
+                ignoreChapters,
+                sensitivity
+            )
+            for (candidate in library) if (index.isIndexable(candidate.coverHash)) index.add(candidate)
+            cache = if (save(context, index)) index else null
+        }
+
+        /**
+         * Remove all books from the persisted index, keeping its settings
+         * (e.g. when the whole library is about to be re-imported)
+         */
+        @Synchronized
+        fun clear(context: Context) {
+            val index = load(context) ?: return
+            val emptyIndex = DuplicateIndex(
+                index.useTitle,
+                index.useCover,
+                index.useArtist,
+                index.useSameLanguage,
+                index.ignoreChapters,
+                index.sensitivity
+            )
+            cache = if (save(context, emptyIndex)) emptyIndex else null
+        }
+
+        /**
+         * Delete the persisted index; incremental detection stays disabled until the next rebuild
+         */
+        @Synchronized
+        fun invalidate(context: Context) {
+            cache = null
+            val file = getFile(context)
+            if (file.exists() && !file.delete()) Timber.w("Could not delete duplicate index")
+        }
+
+        /**
+         * Detect the duplicates of the given book among the indexed books, record them as
+         * DuplicateEntry and add the book to the index
+         *
+         * Does nothing if no index has been built by a full detection yet
+         *
+         * @param content Book to process; must have been persisted in the DB
+         * @return Number of recorded duplicates
+         */
+        fun probe(context: Context, dao: CollectionDAO, content: Content): Int {
+            return probe(context, dao, listOf(content))
+        }
+
+        /**
+         * Detect the duplicates of the given books among the indexed books, record them as
+         * DuplicateEntry and add the books to the index
+         * NB : Books of the same batch are also compared with each other
+         *
+         * Does nothing if no index has been built by a full detection yet
+         *
+         * @param contents Books to process; must have been persisted in the DB
+         * @return Number of recorded duplicates
+         */
+        @Synchronized
+        fun probe(context: Context, dao: CollectionDAO, contents: List<Content>): Int {
+            val index = load(context) ?: return 0
+
+            val added = ArrayList<DuplicateCandidate>()
+            val removedIds = ArrayList<Long>()
+            var nbEntries = 0
+            var duplicatesDao: DuplicatesDAO? = null
+            try {
+                for (content in contents) {
+                    if (index.positions.containsKey(content.id)) continue
+                    // Unhashed covers are left for the next full detection
+                    if (!index.isIndexable(content.coverHash)) continue
+
+                    val reference = DuplicateCandidate(
+                        content,
+                        index.useTitle,
+                        index.useArtist,
+                        index.useSameLanguage,
+                        Long.MIN_VALUE
+                    )
+                    val entries = ArrayList<DuplicateEntry>()
+                    for (entry in index.findMatches(reference)) {
+                        // Books that have been removed since they were indexed
+                        if (null == dao.selectContent(entry.referenceId)) {
+                            if (index.remove(entry.referenceId)) removedIds.add(entry.referenceId)
+                        } else entries.add(entry)
+                    }
+                    if (entries.isNotEmpty()) {
+                        if (null == duplicatesDao) duplicatesDao = DuplicatesDAO(context)
+                        nbEntries += recordEntries(duplicatesDao, reference.id, entries)
+                    }
+
+                    index.add(reference)
+                    added.add(reference)
+                }
+            } finally {
+                duplicatesDao?.cleanup()
+            }
+            append(context, index, removedIds, added)
+            return nbEntries
+        }
+
+        /**
+         * Remove the given books from the index
+         * NB : Books that aren't indexed are ignored
+         *
+         * @param contentIds IDs of the books to remove
+         */
+        @Synchronized
+        fun remove(context: Context, contentIds: LongArray) {
+            val index = load(context) ?: return
+            val removedIds = contentIds.filter { index.remove(it) }
+            if (removedIds.isNotEmpty()) append(context, index, removedIds, emptyList())
+        }
+
+        /**
+         * Save the given entries, leaving out those that are transitive links
+         * (same filter as the full detection)
+         *
+         * @return Number of saved entries
+         */
+        private fun recordEntries(
+            duplicatesDao: DuplicatesDAO,
+            newId: Long,
+            entries: List<DuplicateEntry>
+        ): Int {
+            // Known references of the matched books and of the new book
+            val reverseMatchedIds = LongMultiMap()
+            for (entry in duplicatesDao.getEntriesByDuplicateIds(entries.map { it.referenceId }))
+                reverseMatchedIds.put(entry.duplicateId, entry.referenceId)
+
+            val result = ArrayList<DuplicateEntry>()
+            for (entry in entries) {
+                if (reverseMatchedIds.intersects(newId, entry.referenceId)) continue
+                reverseMatchedIds.put(newId, entry.referenceId)
+                result.add(entry)
+            }
+            duplicatesDao.insertEntries(result)
+            Timber.d("%d duplicates recorded for book %d", result.size, newId)
+            return result.size
+        }
+
+        private fun getFile(context: Context): File {
+            return File(context.filesDir, FILE_NAME)
+        }
+
+        private fun load(context: Context): DuplicateIndex? {
+            cache?.let { return it }
+            val file = getFile(context)
+            if (!file.exists()) return null
+
+            // True if the file has to be rewritten before new records can be appended to it
+            var rewrite = false
+            var result: DuplicateIndex? = null
+            try {
+                DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+                    // Indexes of older versions can't be used; the next full detection rebuilds the index
+                    if (input.readInt() != VERSION) return null
+                    val index = DuplicateIndex(
+                        input.readBoolean(),
+                        input.readBoolean(),
+                        input.readBoolean(),
+                        input.readBoolean(),
+                        input.readBoolean(),
+                        input.readInt()
+                    )
+                    while (input.available() > 0) {
+                        try {
+                            val id = input.readLong()
+                            if (id < 0) index.remove(-id)
+                            else index.add(readCandidate(id, input))
+                        } catch (e: EOFException) {
+                            // Last record has been partially written (e.g. app killed while appending)
+                            rewrite = true
+                            break
+                        }
+                    }
+                    result = index
+                }
+            } catch (e: IOException) {
+                Timber.w(e)
+                return null
+            }
+            result?.let {
+                if (it.needsCompaction()) return compact(context, it)
+                if (rewrite && !save(context, it)) return null
+            }
+            cache = result
+            return result
+        }
+
+        /**
+         * Replace the given index with an index of its books that haven't been removed, and persist it
+         */
+        private fun compact(context: Context, index: DuplicateIndex): DuplicateIndex? {
+            val result = DuplicateIndex(
+                index.useTitle,
+                index.useCover,
+                index.useArtist,
+                index.useSameLanguage,
+                index.ignoreChapters,
+                index.sensitivity
+            )
+            for ((position, candidate) in index.candidates.withIndex())
+                if (!index.removed.get(position)) result.add(candidate)
+            cache = if (save(context, result)) result else null
+            return cache
+        }
+
+        private fun save(context: Context, index: DuplicateIndex): Boolean {
+            val file = getFile(context)
+            val tmpFile = File(file.parentFile, "$FILE_NAME.tmp")
+            try {
+                DataOutputStream(BufferedOutputStream(FileOutputStream(tmpFile))).use { output ->
+                    output.writeInt(VERSION)
+                    output.writeBoolean(index.useTitle)
+                    output.writeBoolean(index.useCover)
+                    output.writeBoolean(index.useArtist)
+                    output.writeBoolean(index.useSameLanguage)
+                    output.writeBoolean(index.ignoreChapters)
+                    output.writeInt(index.sensitivity)
+                    for ((position, candidate) in index.candidates.withIndex())
+                        if (!index.removed.get(position)) writeCandidate(output, candidate)
+                }
+            } catch (e: IOException) {
+                Timber.w(e)
+                return false
+            }
+            return tmpFile.renameTo(file)
+        }
+
+        /**
+         * Append the given records to the persisted index, using a single writer
+         */
+        private fun append(
+            context: Context,
+            index: DuplicateIndex,
+            removedIds: List<Long>,
+            candidates: List<DuplicateCandidate>
+        ) {
+            if (removedIds.isEmpty() && candidates.isEmpty()) return
+            if (index.needsCompaction()) {
+                compact(context, index)
+                return
+            }
+            try {
+                DataOutputStream(BufferedOutputStream(FileOutputStream(getFile(context), true))).use {
+                    for (id in removedIds) it.writeLong(-id)
+                    for (candidate in candidates) writeCandidate(it, candidate)
+                }
+            } catch (e: IOException) {
+                Timber.w(e)
+                // Persisted index is now out of sync with the memory
+                invalidate(context)
+            }
+        }
+
+        private fun writeCandidate(output: DataOutputStream, candidate: DuplicateCandidate) {
+            output.writeLong(candidate.id)
+            output.writeLong(candidate.size)
+            output.writeLong(candidate.coverHash)
+            output.writeUTF(candidate.titleCleanup)
+            writeStrings(output, candidate.artistsCleanup)
+            writeStrings(output, candidate.countryCodes)
+        }
+
+        private fun readCandidate(id: Long, input: DataInputStream): DuplicateCandidate {
+            val size = input.readLong()
+            val coverHash = input.readLong()
+            return DuplicateCandidate(
+                id,
+                coverHash,
+                size,
+                input.readUTF(),
+                readStrings(input),
+                readStrings(input)
+            )
+        }
+
+        private fun writeStrings(output: DataOutputStream, values: List<String>?) {
+            if (null == values) {
+                output.writeInt(-1)
+                return
+            }
+            output.writeInt(values.size)
+            for (value in values) output.writeUTF(value)
+        }
+
+        private fun readStrings(input: DataInputStream): List<String>? {
+            val size = input.readInt()
+            if (size < 0) return null
+            val result = ArrayList<String>(size)
+            for (i in 0 until size) result.add(input.readUTF())
+            return result
+        }
+    }
+
+    private fun add(candidate: DuplicateCandidate) {
+        val position = candidates.size
+        candidates.add(candidate)
+        positions[candidate.id] = position
+        if (useCover && Long.MIN_VALUE != candidate.coverHash)
+            coverIndex.add(candidate.coverHash, position)
+        titleIndex?.add(candidate.titleCleanupProfile)
+    }
+
+    /**
+     * Remove the given book from the index
+     *
+     * @return True if the book was indexed
+     */
+    private fun remove(id: Long): Boolean {
+        val position = positions.remove(id) ?: return false
+        removed.set(position)
+        return true
+    }
+
+    private fun needsCompaction(): Boolean {
+        val nbRemoved = removed.cardinality()
+        return nbRemoved >= MIN_REMOVED_TO_COMPACT && nbRemoved * 4 >= candidates.size
+    }
+
+    /**
+     * Indicate if a book with the given cover hash can be indexed
+     * (covers that haven't been hashed yet can't be compared when covers are used)
+     */
+    private fun isIndexable(coverHash: Long): Boolean {
+        return !useCover || 0L != coverHash
+    }
+
+    /**
+     * Compare the given book with the indexed books that can actually match it
+     *
+     * @return Entries matching the given book, using the indexed books as references
+     */
+    private fun findMatches(reference: DuplicateCandidate): List<DuplicateEntry> {
+        val titlePositions = titleIndex?.getCandidates(reference.titleCleanupProfile) ?: IntArray(0)
+        val matchPositions: Collection<Int> = if (useCover) {
+            when (reference.coverHash) {
+                // Covers that haven't been hashed yet never match
+                0L -> emptyList()
+                // Unhashable cover => only the title can match
+                Long.MIN_VALUE -> titlePositions.toList()
+                else -> {
+                    val result = coverIndex.query(reference.coverHash, coverMaxDistance).toSortedSet()
+                    // Candidates with an unhashable cover can only match on title
+                    titlePositions.filterTo(result) { Long.MIN_VALUE == candidates[it].coverHash }
+                    result
+                }
+            }
+        } else titlePositions.toList()
+
+        val cosine = Cosine()
+        val result = ArrayList<DuplicateEntry>()
+        for (position in matchPositions) {
+            if (removed.get(position)) continue
+            val entry = DuplicateHelper.processContent(
+                candidates[position], reference,
+                useTitle, useCover, useArtist, useSameLanguage, ignoreChapters, sensitivity, cosine
+            )
+            if (entry != null) result.add(entry)
+        }
+        return result
+    }
+}
@@ -23,6 +23,8 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import timber.log.Timber;
 
@@ -34,8 +36,13 @@ public class FileExplorer implements Closeable {
     private static final String DOCPROVIDER_PATH_DOCUMENT = "document";
     private static final String DOCPROVIDER_PATH_TREE = "tree";
 
-    private static final Map<String, Boolean> providersCache = new HashMap<>();
+    // Shared by the explorers of all threads
+    private static final Map<String, Boolean> providersCache = new ConcurrentHashMap<>();
+    // Number of children queries sent to DocumentsProviders since the app has started
+    private static final AtomicLong nbQueries = new AtomicLong(0);
     private final Map<String, String> documentIdCache = new HashMap<>();
+    // Number of children queries of this explorer that have failed
+    private int nbFailedQueries = 0;
 
     private final ContentProviderClient client;
 
@@ -48,6 +55,22 @@ public class FileExplorer implements Closeable {
         client = context.getContentResolver().acquireContentProviderClient(parentUri);
     }
 
+    /**
+     * Number of folder listings sent to DocumentsProviders since the app has started
+     * NB : Meant for instrumentation; compare two values to get the number of listings of an operation
+     */
+    public static long getNbQueries() {
+        return nbQueries.get();
+    }
+
+    /**
+     * Number of folder listings of this explorer that have failed
+     * NB : Failed listings return no document; compare two values to know if an operation has listed all of its folders
+     */
+    public int getNbFailedQueries() {
+        return nbFailedQueries;
+    }
+
     @Override
     public void close() throws IOException {
         documentIdCache.clear();
@@ -190,27 +213,35 @@ public class FileExplorer implements Closeable {
             final FileHelper.NameFilter nameFilter,
             boolean listFolders,
             boolean listFiles) {
-        if (null == client) return Collections.emptyList();
+        if (null == client) {
+            nbFailedQueries++;
+            return Collections.emptyList();
+        }
         final List<DocumentProperties> results = new ArrayList<>();
 
         final Uri searchUri = DocumentsContract.buildChildDocumentsUriUsingTree(parent.getUri(), DocumentsContract.getDocumentId(parent.getUri()));
+        nbQueries.incrementAndGet();
         try (Cursor c = client.query(searchUri, new String[]{
                 DocumentsContract.Document.COLUMN_DOCUMENT_ID,
                 DocumentsContract.Document.COLUMN_DISPLAY_NAME,
                 DocumentsContract.Document.COLUMN_MIME_TYPE,
-                DocumentsContract.Document.COLUMN_SIZE}, null, null, null)) {
-            if (c != null)
+                DocumentsContract.Document.COLUMN_SIZE,
+                DocumentsContract.Document.COLUMN_LAST_MODIFIED}, null, null, null)) {
+            if (null == c) nbFailedQueries++;
+            else
                 while (c.moveToNext()) {
                     final String documentId = c.getString(0);
                     final String documentName = c.getString(1);
                     boolean isFolder = c.getString(2).equals(DocumentsContract.Document.MIME_TYPE_DIR);
                     final long documentSize = c.getLong(3);
+                    final long documentLastModified = c.getLong(4);
 
                     // FileProvider doesn't take query selection arguments into account, so the selection has to be done manually
                     if ((null == nameFilter || nameFilter.accept(documentName)) && ((listFiles && !isFolder) || (listFolders && isFolder)))
-                        results.add(new DocumentProperties(buildDocumentUriUsingTreeCached(parent.getUri(), documentId), documentName, documentSize, isFolder));
+                        results.add(new DocumentProperties(buildDocumentUriUsingTreeCached(parent.getUri(), documentId), documentName, documentSize, documentLastModified, isFolder));
                 }
         } catch (Exception e) {
+            nbFailedQueries++;
             Timber.w(e, "Failed query");
         }
         return results;
@@ -230,7 +261,7 @@ public class FileExplorer implements Closeable {
             // Following line should be the proper way to go but it's inefficient as it calls queryIntentContentProviders from scratch repeatedly
             //DocumentFile docFile = DocumentFile.fromTreeUri(context, uri.left);
             if (docFile != null)
-                resultFiles.add(new CachedDocumentFile(docFile, result.name, result.size, result.isDirectory));
+                resultFiles.add(new CachedDocumentFile(docFile, result.name, result.size, result.lastModified, result.isDirectory));
         }
         return resultFiles;
     }
@@ -345,12 +376,14 @@ public class FileExplorer implements Closeable {
         final Uri uri;
         final String name;
         final long size;
+        final long lastModified;
         final boolean isDirectory;
 
-        public DocumentProperties(Uri uri, String name, long size, boolean isDirectory) {
+        public DocumentProperties(Uri uri, String name, long size, long lastModified, boolean isDirectory) {
             this.uri = uri;
             this.name = name;
             this.size = size;
+            this.lastModified = lastModified;
             this.isDirectory = isDirectory;
         }
     }
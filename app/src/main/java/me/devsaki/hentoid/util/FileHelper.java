@@ -653,6 +653,8 @@ public class FileHelper {
         } else {
             sharingIntent.putExtra(Intent.EXTRA_STREAM, fileUri);
         }
+        // Let the receiving app read the shared file (e.g. served by one of the app's providers)
+        sharingIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
         context.startActivity(Intent.createChooser(sharingIntent, context.getString(R.string.send_to)));
     }
 
@@ -716,6 +718,42 @@ public class FileHelper {
         out.flush();
     }
 
+    /**
+     * Copy all data from the given InputStream to the given OutputStream, using the given buffer
+     *
+     * @param in     InputStream to read data from
+     * @param out    OutputStream to write data to
+     * @param buffer Buffer to use for the transfer
+     * @return Number of copied bytes
+     * @throws IOException If something horrible happens during I/O
+     */
+    public static long copy(@NonNull InputStream in, @NonNull OutputStream out, @NonNull byte[] buffer) throws IOException {
+        long result = 0;
+        int len;
+        while ((len = in.read(buffer)) > -1) {
+            out.write(buffer, 0, len);
+            result += len;
+        }
+        out.flush();
+        return result;
+    }
+
+    /**
+     * Read data from the given InputStream until the given buffer is full or the stream has ended
+     *
+     * @param in     InputStream to read data from
+     * @param buffer Buffer to fill
+     * @return Number of bytes read into the buffer; less than the buffer size if the stream has ended
+     * @throws IOException If something horrible happens during I/O
+     */
+    public static int fill(@NonNull InputStream in, @NonNull byte[] buffer) throws IOException {
+        int result = 0;
+        int len;
+        while (result < buffer.length && (len = in.read(buffer, result, buffer.length - result)) > -1)
+            result += len;
+        return result;
+    }
+
     /**
      * Get the device's Downloads folder
      *
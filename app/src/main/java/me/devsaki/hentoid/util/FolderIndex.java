@@ -0,0 +1,203 @@
+package me.devsaki.hentoid.util;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.documentfile.provider.DocumentFile;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Index of the contents of a folder (display name -> document), built from a single listing
+ * of the folder and kept up to date as files are created through it
+ * <p>
+ * Finding a file inside a folder with the DocumentsProvider requires listing the whole folder;
+ * looking files up through the index avoids listing the same folder over and over
+ * (e.g. once per downloaded page)
+ * <p>
+ * NB : Changes made to the folder without going through the index are not reflected
+ */
+public class FolderIndex {
+
+    private final DocumentFile folder;
+    // Keys are exact display names
+    private final Map<String, DocumentFile> files = new LinkedHashMap<>();
+    // Lowercase display name -> Exact display name of the first file with that name
+    private final Map<String, String> filesIgnoreCase = new HashMap<>();
+    private final Map<String, DocumentFile> subfolders = new LinkedHashMap<>();
+
+
+    private FolderIndex(@NonNull DocumentFile folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * Build the index of the given folder
+     *
+     * @param context Context to use
+     * @param folder  Folder to index
+     * @return Index of the given folder
+     */
+    public static FolderIndex build(@NonNull Context context, @NonNull DocumentFile folder) {
+        try (FileExplorer explorer = new FileExplorer(context, folder)) {
+            return build(context, folder, explorer);
+        } catch (IOException e) {
+            Timber.w(e);
+        }
+        return new FolderIndex(folder);
+    }
+
+    /**
+     * Build the index of the given folder using the given explorer
+     *
+     * @param context  Context to use
+     * @param folder   Folder to index
+     * @param explorer Explorer to list the folder with
+     * @return Index of the given folder
+     */
+    public static FolderIndex build(@NonNull Context context, @NonNull DocumentFile folder, @NonNull FileExplorer explorer) {
+        FolderIndex result = new FolderIndex(folder);
+        for (DocumentFile doc : explorer.listDocumentFiles(context, folder)) {
+            String name = doc.getName();
+            if (null == name) continue;
+            if (doc.isDirectory()) result.subfolders.put(name, doc);
+            else result.putFile(name, doc);
+        }
+        return result;
+    }
+
+    /**
+     * Indexed folder
+     */
+    public DocumentFile getFolder() {
+        return folder;
+    }
+
+    /**
+     * Indicate if the given folder is the one that has been indexed
+     *
+     * @param folder Folder to test
+     * @return True if the given folder is the indexed folder
+     */
+    public boolean isIndexOf(@NonNull DocumentFile folder) {
+        return this.folder.getUri().equals(folder.getUri());
+    }
+
+    /**
+     * List the files (non-folders) of the folder
+     */
+    public synchronized List<DocumentFile> getFiles() {
+        return new ArrayList<>(files.values());
+    }
+
+    /**
+     * List the files (non-folders) of the folder that match the given name filter
+     *
+     * @param filter Name filter to use
+     * @return Files of the folder matching the given name filter
+     */
+    public synchronized List<DocumentFile> getFiles(@NonNull FileHelper.NameFilter filter) {
+        List<DocumentFile> result = new ArrayList<>();
+        for (DocumentFile doc : files.values())
+            if (filter.accept(StringHelper.protect(doc.getName()))) result.add(doc);
+        return result;
+    }
+
+    /**
+     * List the subfolders of the folder
+     */
+    public synchronized List<DocumentFile> getSubfolders() {
+        if (subfolders.isEmpty()) return Collections.emptyList();
+        return new ArrayList<>(subfolders.values());
+    }
+
+    /**
+     * Find the file (non-folder) that has the given name
+     * NB : Names are compared exactly; use findFileIgnoreCase to ignore their case
+     *
+     * @param displayName Name of the file to find
+     * @return File of the folder that has the given name; null if not found
+     */
+    @Nullable
+    public synchronized DocumentFile findFile(@NonNull String displayName) {
+        return files.get(displayName);
+    }
+
+    /**
+     * Find the file (non-folder) that has the given name, regardless of its case
+     * NB : Files whose name is an exact match are returned first
+     *
+     * @param displayName Name of the file to find
+     * @return File of the folder that has the given name, regardless of its case; null if not found
+     */
+    @Nullable
+    public synchronized DocumentFile findFileIgnoreCase(@NonNull String displayName) {
+        DocumentFile result = files.get(displayName);
+        if (result != null) return result;
+        String name = filesIgnoreCase.get(getKeyIgnoreCase(displayName));
+        return (null == name) ? null : files.get(name);
+    }
+
+    /**
+     * Return the file with the given name; if it doesn't exist, create it and return it
+     * NB : A file whose name only differs by its case is returned instead of being created,
+     * as most storages consider them to be the same file
+     *
+     * @param mimeType    Mime-type to use if the file has to be created
+     * @param displayName Name of the file
+     * @return Usable file; null if creation failed
+     */
+    @Nullable
+    public DocumentFile findOrCreateFile(@Nullable String mimeType, @NonNull String displayName) {
+        DocumentFile result = findFileIgnoreCase(displayName);
+        if (result != null) return result;
+
+        if (null == mimeType) mimeType = "application/octet-steam";
+        result = folder.createFile(mimeType, displayName);
+        if (result != null) {
+            synchronized (this) {
+                putFile(displayName, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Remove the given file from the index
+     * NB : The file itself has to be removed by the caller
+     *
+     * @param displayName Name of the file to remove
+     */
+    public synchronized void removeFile(@NonNull String displayName) {
+        if (null == files.remove(displayName)) return;
+        String key = getKeyIgnoreCase(displayName);
+        if (!displayName.equals(filesIgnoreCase.get(key))) return;
+        filesIgnoreCase.remove(key);
+        // Another file may have the same name with a different case
+        for (String name : files.keySet())
+            if (getKeyIgnoreCase(name).equals(key)) {
+                filesIgnoreCase.put(key, name);
+                break;
+            }
+    }
+
+    private void putFile(@NonNull String displayName, @NonNull DocumentFile doc) {
+        files.put(displayName, doc);
+        String key = getKeyIgnoreCase(displayName);
+        if (!filesIgnoreCase.containsKey(key)) filesIgnoreCase.put(key, displayName);
+    }
+
+    private static String getKeyIgnoreCase(@NonNull String displayName) {
+        return displayName.toLowerCase(Locale.ROOT);
+    }
+}
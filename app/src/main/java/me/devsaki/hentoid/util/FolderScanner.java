@@ -0,0 +1,259 @@
+package me.devsaki.hentoid.util;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.documentfile.provider.DocumentFile;
+
+import com.annimon.stream.function.Consumer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import timber.log.Timber;
+
+/**
+ * Breadth-first scanner of a folder tree, listing several folders at once
+ * <p>
+ * Listing a folder through a DocumentsProvider mostly consists in waiting for the provider; the folders
+ * are thus listed concurrently by a bounded pool of scanning threads, each with its own FileExplorer
+ * (i.e. its own ContentProviderClient)
+ * <p>
+ * The book candidates found by the given Visitor are streamed to the caller as soon as they are found,
+ * so that importing them can start while the rest of the tree is being scanned
+ *
+ * @param <T> Type of the book candidates found by the scan
+ */
+public class FolderScanner<T> implements Closeable {
+
+    // Beyond that, most providers don't answer faster
+    private static final int NB_THREADS = 4;
+    // Bounds the memory used by candidates waiting to be imported
+    private static final int MAX_PENDING_CANDIDATES = 100;
+    // Marks the end of the scan inside the candidates queue
+    private static final Object END = new Object();
+
+    /**
+     * Folder listed by the scanner
+     */
+    public static class Folder {
+        private final FolderIndex index;
+        private final List<String> parentNames;
+
+        private Folder(@NonNull FolderIndex index, @NonNull List<String> parentNames) {
+            this.index = index;
+            this.parentNames = parentNames;
+        }
+
+        /**
+         * Contents of the folder
+         */
+        public FolderIndex getIndex() {
+            return index;
+        }
+
+        /**
+         * Names of the parent folders, starting from the scanned root; last of the list is the immediate parent of the folder
+         */
+        public List<String> getParentNames() {
+            return parentNames;
+        }
+    }
+
+    /**
+     * Visitor of the folders of the tree
+     *
+     * @param <T> Type of the book candidates found by the visitor
+     */
+    public interface Visitor<T> {
+        /**
+         * Look for book candidates inside the given folder
+         * NB : Called concurrently by the scanning threads
+         *
+         * @param folder   Folder to look into
+         * @param explorer Explorer of the calling scanning thread, to use for any additional listing
+         * @param emitter  Consumer to send the book candidates found inside the given folder to
+         * @return Subfolders of the given folder to scan next
+         */
+        List<DocumentFile> visit(@NonNull Folder folder, @NonNull FileExplorer explorer, @NonNull Consumer<T> emitter);
+    }
+
+    private final Context context;
+    private final Uri rootUri;
+    private final ExecutorService executor = Executors.newFixedThreadPool(NB_THREADS);
+    private final BlockingQueue<Object> candidates = new LinkedBlockingQueue<>(MAX_PENDING_CANDIDATES);
+    // Explorer of each scanning thread
+    private final ThreadLocal<FileExplorer> explorer = new ThreadLocal<>();
+    private final List<FileExplorer> explorers = Collections.synchronizedList(new ArrayList<>());
+
+    // Number of folders submitted to the scanning threads that haven't been entirely processed yet
+    private final AtomicInteger nbPendingFolders = new AtomicInteger(0);
+    private final AtomicInteger nbScannedFolders = new AtomicInteger(0);
+    // Uri of the folders that couldn't be entirely listed
+    private final List<String> failedFolders = Collections.synchronizedList(new ArrayList<>());
+    private long startTime;
+    private boolean ended = false;
+
+
+    /**
+     * Create a scanner for the tree of the given Uri
+     *
+     * @param context Context to use
+     * @param rootUri Uri of the tree the scanned folders are part of
+     */
+    public FolderScanner(@NonNull Context context, @NonNull Uri rootUri) {
+        this.context = context.getApplicationContext();
+        this.rootUri = rootUri;
+    }
+
+    /**
+     * Start scanning the given folders and their subfolders, as selected by the given visitor
+     * NB : The book candidates can be retrieved with next as soon as the scan has started
+     *
+     * @param roots   Folders to start scanning from
+     * @param visitor Visitor to look for book candidates and subfolders to scan with
+     */
+    public void start(@NonNull List<DocumentFile> roots, @NonNull Visitor<T> visitor) {
+        startTime = SystemClock.elapsedRealtime();
+        if (roots.isEmpty()) {
+            candidates.add(END);
+            return;
+        }
+        nbPendingFolders.addAndGet(roots.size());
+        for (DocumentFile root : roots) submit(root, Collections.emptyList(), visitor);
+    }
+
+    /**
+     * Wait for the next book candidate found by the scan
+     *
+     * @return Next book candidate found by the scan; null if the scan is complete
+     * @throws InterruptedException If the calling thread has been interrupted while waiting
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public T next() throws InterruptedException {
+        if (ended) return null;
+        Object result = candidates.take();
+        if (END == result) {
+            ended = true;
+            Timber.d("Folder scan complete : %s folders (%.1f folders/s)", nbScannedFolders.get(), getFoldersPerSecond());
+            return null;
+        }
+        return (T) result;
+    }
+
+    /**
+     * Number of folders that have been listed since the scan has started
+     */
+    public int getNbScannedFolders() {
+        return nbScannedFolders.get();
+    }
+
+    /**
+     * Uri of the folders that couldn't be entirely listed, e.g. because the provider has failed to answer
+     * NB : The contents of these folders, including their subfolders, may be missing from the scan
+     */
+    public List<String> getFailedFolders() {
+        synchronized (failedFolders) {
+            return new ArrayList<>(failedFolders);
+        }
+    }
+
+    /**
+     * Number of folders listed per second since the scan has started
+     */
+    public float getFoldersPerSecond() {
+        long elapsed = Math.max(1, SystemClock.elapsedRealtime() - startTime);
+        return nbScannedFolders.get() * 1000f / elapsed;
+    }
+
+    private void submit(@NonNull DocumentFile folder, @NonNull List<String> parentNames, @NonNull Visitor<T> visitor) {
+        try {
+            executor.execute(() -> scan(folder, parentNames, visitor));
+        } catch (RejectedExecutionException e) {
+            // The scanner has been closed
+            nbPendingFolders.decrementAndGet();
+        }
+    }
+
+    private void scan(@NonNull DocumentFile folder, @NonNull List<String> parentNames, @NonNull Visitor<T> visitor) {
+        try {
+            FileExplorer fe = getExplorer();
+            int nbFailedQueries = fe.getNbFailedQueries();
+            Folder listedFolder = new Folder(FolderIndex.build(context, folder, fe), parentNames);
+            nbScannedFolders.incrementAndGet();
+
+            List<DocumentFile> subfolders = visitor.visit(listedFolder, fe, this::put);
+            if (fe.getNbFailedQueries() > nbFailedQueries) {
+                Timber.w("Failed to list %s", folder.getUri());
+                failedFolders.add(folder.getUri().toString());
+            }
+            if (!subfolders.isEmpty() && !Thread.currentThread().isInterrupted()) {
+                List<String> subfolderParentNames = new ArrayList<>(parentNames);
+                subfolderParentNames.add(StringHelper.protect(folder.getName()));
+                // Subfolders are counted before the folder is done for the scan not to end prematurely
+                nbPendingFolders.addAndGet(subfolders.size());
+                for (DocumentFile subfolder : subfolders)
+                    submit(subfolder, subfolderParentNames, visitor);
+            }
+        } catch (Exception e) {
+            Timber.w(e, "Failed to scan %s", folder.getUri());
+            failedFolders.add(folder.getUri().toString());
+        } finally {
+            if (0 == nbPendingFolders.decrementAndGet()) put(END);
+        }
+    }
+
+    private void put(@NonNull Object o) {
+        try {
+            candidates.put(o);
+        } catch (InterruptedException e) {
+            // The scanner has been closed
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private FileExplorer getExplorer() {
+        FileExplorer result = explorer.get();
+        if (null == result) {
+            result = new FileExplorer(context, rootUri);
+            explorer.set(result);
+            explorers.add(result);
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS))
+                Timber.w("Folder scan still running after 5s");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (explorers) {
+            for (FileExplorer fe : explorers) {
+                try {
+                    fe.close();
+                } catch (IOException e) {
+                    Timber.w(e);
+                }
+            }
+            explorers.clear();
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package me.devsaki.hentoid.util;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory inverted index of the titles and tags of the books, answering universal searches
+ * without scanning the whole DB
+ * <p>
+ * - Text is normalized with StringHelper.cleanup and split into words
+ * - CJK text has no spaces between words, so it is split into overlapping bigrams
+ * - All words of the query have to match (AND logic); the last one also matches as a prefix (search-as-you-type)
+ * - Words that don't match anything are tolerant to typos (words at edit distance 1 or 2, sharing the same first letter)
+ * - Results are ranked by the rarity of the matched words, title matches scoring higher than tag matches
+ * <p>
+ * NB : Thread-safe
+ */
+public class FullTextIndex {
+
+    // Maximum number of dictionary words a single query word can expand to (prefix / typos)
+    private static final int MAX_EXPANSIONS = 128;
+    // Minimum length of a query word for it to be looked up with typos
+    private static final int MIN_FUZZY_LENGTH = 4;
+    // Minimum length of a query word for it to be looked up with two typos
+    private static final int MIN_FUZZY2_LENGTH = 8;
+
+    private static final float TITLE_WEIGHT = 2f;
+    private static final float TAG_WEIGHT = 1f;
+    private static final float EXACT_MATCH = 1f;
+    private static final float PREFIX_MATCH = 0.8f;
+    private static final float FUZZY_MATCH = 0.5f;
+
+    private static final Pattern BRACKETS = Pattern.compile("[\\[\\]()]");
+
+    // Books containing a given word
+    private static class Postings {
+        final String term;
+        final IdBitmap titles = new IdBitmap();
+        final IdBitmap tags = new IdBitmap();
+
+        Postings(@NonNull String term) {
+            this.term = term;
+        }
+
+        int getDocFrequency() {
+            return titles.getCardinality() + tags.getCardinality();
+        }
+    }
+
+    // Word -> books containing that word; sorted to allow prefix and typo lookups
+    private final NavigableMap<String, Postings> terms = new TreeMap<>();
+    // Book -> words of the book, to be able to unindex it
+    private final Map<Long, Postings[]> documents = new HashMap<>();
+
+
+    /**
+     * Index the given book, replacing its previous indexed text
+     *
+     * @param docId    ID of the book
+     * @param title    Title of the book
+     * @param keywords Other searchable text of the book (e.g. tags)
+     */
+    public synchronized void put(long docId, @Nullable String title, @NonNull Collection<String> keywords) {
+        remove(docId);
+
+        Map<Postings, Boolean> docTerms = new LinkedHashMap<>();
+        for (String token : tokenize(title)) {
+            Postings p = getOrCreate(token);
+            p.titles.add(docId);
+            docTerms.put(p, true);
+        }
+        for (String keyword : keywords)
+            for (String token : tokenize(keyword)) {
+                Postings p = getOrCreate(token);
+                p.tags.add(docId);
+                docTerms.put(p, true);
+            }
+        if (!docTerms.isEmpty()) documents.put(docId, docTerms.keySet().toArray(new Postings[0]));
+    }
+
+    /**
+     * Unindex the given book
+     *
+     * @param docId ID of the book to unindex
+     */
+    public synchronized void remove(long docId) {
+        Postings[] docTerms = documents.remove(docId);
+        if (null == docTerms) return;
+        for (Postings p : docTerms) {
+            p.titles.remove(docId);
+            p.tags.remove(docId);
+            if (p.titles.isEmpty() && p.tags.isEmpty()) terms.remove(p.term);
+        }
+    }
+
+    /**
+     * Number of indexed books
+     */
+    public synchronized int size() {
+        return documents.size();
+    }
+
+    /**
+     * Search the given query
+     *
+     * @param query Query to search
+     * @return IDs of the matching books, the most relevant first; empty array if nothing matches
+     */
+    public synchronized long[] search(@NonNull String query) {
+        List<String> tokens = tokenize(query);
+        if (tokens.isEmpty()) return new long[0];
+
+        // Match each query word against the dictionary
+        List<Map<Postings, Float>> matches = new ArrayList<>(tokens.size());
+        IdBitmap result = null;
+        for (int i = 0; i < tokens.size(); i++) {
+            String token = tokens.get(i);
+            Map<Postings, Float> tokenMatches = expand(token, i == tokens.size() - 1 || isSingleCjk(token));
+            if (tokenMatches.isEmpty()) return new long[0];
+
+            IdBitmap tokenDocs = new IdBitmap();
+            for (Postings p : tokenMatches.keySet()) tokenDocs = tokenDocs.or(p.titles).or(p.tags);
+            result = (null == result) ? tokenDocs : result.and(tokenDocs);
+            if (result.isEmpty()) return new long[0];
+            matches.add(tokenMatches);
+        }
+
+        // Score the matching books
+        long[] ids = result.toArray();
+        float[] scores = new float[ids.length];
+        float[] tokenScores = new float[ids.length];
+        float nbDocs = documents.size();
+        for (Map<Postings, Float> tokenMatches : matches) {
+            Arrays.fill(tokenScores, 0f);
+            for (Map.Entry<Postings, Float> match : tokenMatches.entrySet()) {
+                Postings p = match.getKey();
+                float idf = (float) Math.log(1 + nbDocs / Math.max(1, p.getDocFrequency()));
+                float quality = match.getValue() * idf;
+                score(p.titles.and(result), ids, tokenScores, quality * TITLE_WEIGHT);
+                score(p.tags.and(result), ids, tokenScores, quality * TAG_WEIGHT);
+            }
+            for (int i = 0; i < ids.length; i++) scores[i] += tokenScores[i];
+        }
+
+        // Sort by descending score, then by descending ID (i.e. most recent books first)
+        // Scores are positive floats, whose bits sort the same way as their values
+        long[] keys = new long[ids.length];
+        for (int i = 0; i < ids.length; i++)
+            keys[i] = ((long) Float.floatToIntBits(scores[i]) << 32) | i;
+        Arrays.sort(keys);
+        long[] sorted = new long[ids.length];
+        for (int i = 0; i < keys.length; i++)
+            sorted[i] = ids[(int) (keys[keys.length - 1 - i] & 0xFFFFFFFFL)];
+        return sorted;
+    }
+
+    private static void score(@NonNull IdBitmap docs, @NonNull long[] ids, @NonNull float[] scores, float score) {
+        for (long id : docs.toArray()) {
+            int index = Arrays.binarySearch(ids, id);
+            if (index > -1 && scores[index] < score) scores[index] = score;
+        }
+    }
+
+    /**
+     * Find the dictionary words matching the given query word
+     *
+     * @param token  Query word
+     * @param prefix True if the query word also matches as a prefix
+     * @return Matching dictionary words with the quality of the match
+     */
+    private Map<Postings, Float> expand(@NonNull String token, boolean prefix) {
+        Map<Postings, Float> result = new LinkedHashMap<>();
+        Postings exact = terms.get(token);
+        if (exact != null) result.put(exact, EXACT_MATCH);
+
+        if (prefix) {
+            for (Postings p : terms.subMap(token, false, token + Character.MAX_VALUE, false).values()) {
+                if (result.size() >= MAX_EXPANSIONS) break;
+                result.put(p, PREFIX_MATCH);
+            }
+        }
+
+        // Typo tolerance, only when the word has no better match
+        if (result.isEmpty() && token.length() >= MIN_FUZZY_LENGTH && !isCjk(token.codePointAt(0))) {
+            int maxDistance = (token.length() >= MIN_FUZZY2_LENGTH) ? 2 : 1;
+            String first = token.substring(0, 1);
+            for (Postings p : terms.subMap(first, true, first + Character.MAX_VALUE, false).values()) {
+                if (Math.abs(p.term.length() - token.length()) > maxDistance) continue;
+                if (editDistance(token, p.term, maxDistance) <= maxDistance) {
+                    result.put(p, FUZZY_MATCH);
+                    if (result.size() >= MAX_EXPANSIONS) break;
+                }
+            }
+        }
+        return result;
+    }
+
+    private Postings getOrCreate(@NonNull String term) {
+        Postings result = terms.get(term);
+        if (null == result) {
+            result = new Postings(term);
+            terms.put(term, result);
+        }
+        return result;
+    }
+
+    /**
+     * Split the given text into normalized words
+     * NB : Text between brackets is kept, as it usually contains circles and events
+     *
+     * @param text Text to split
+     * @return Normalized words of the given text; CJK text is split into bigrams
+     */
+    static List<String> tokenize(@Nullable String text) {
+        if (null == text || text.isEmpty()) return Collections.emptyList();
+
+        String normalized = StringHelper.cleanup(BRACKETS.matcher(text).replaceAll(" "));
+        List<String> result = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        List<Integer> cjkRun = new ArrayList<>();
+        for (int offset = 0; offset < normalized.length(); ) {
+            int codePoint = normalized.codePointAt(offset);
+            offset += Character.charCount(codePoint);
+
+            if (isCjk(codePoint)) {
+                flushWord(word, result);
+                cjkRun.add(codePoint);
+            } else if (Character.isLetterOrDigit(codePoint)) {
+                flushCjk(cjkRun, result);
+                word.appendCodePoint(codePoint);
+            } else {
+                flushWord(word, result);
+                flushCjk(cjkRun, result);
+            }
+        }
+        flushWord(word, result);
+        flushCjk(cjkRun, result);
+        return result;
+    }
+
+    private static void flushWord(@NonNull StringBuilder word, @NonNull List<String> tokens) {
+        if (word.length() > 0) tokens.add(word.toString());
+        word.setLength(0);
+    }
+
+    private static void flushCjk(@NonNull List<Integer> run, @NonNull List<String> tokens) {
+        if (1 == run.size()) tokens.add(new String(Character.toChars(run.get(0))));
+        for (int i = 0; i < run.size() - 1; i++)
+            tokens.add(new String(Character.toChars(run.get(i))) + new String(Character.toChars(run.get(i + 1))));
+        run.clear();
+    }
+
+    private static boolean isSingleCjk(@NonNull String token) {
+        return token.codePointCount(0, token.length()) == 1 && isCjk(token.codePointAt(0));
+    }
+
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeBlock block = Character.UnicodeBlock.of(codePoint);
+        return Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS.equals(block)
+                || Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_A.equals(block)
+                || Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_B.equals(block)
+                || Character.UnicodeBlock.CJK_COMPATIBILITY_IDEOGRAPHS.equals(block)
+                || Character.UnicodeBlock.HIRAGANA.equals(block)
+                || Character.UnicodeBlock.KATAKANA.equals(block)
+                || Character.UnicodeBlock.KATAKANA_PHONETIC_EXTENSIONS.equals(block)
+                || Character.UnicodeBlock.HANGUL_SYLLABLES.equals(block);
+    }
+
+    /**
+     * Levenshtein distance between both given words, computed up to the given maximum
+     *
+     * @return Distance between both words; any value above maxDistance if they're further apart
+     */
+    static int editDistance(@NonNull String a, @NonNull String b, int maxDistance) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) previous[j] = j;
+
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = (a.charAt(i - 1) == b.charAt(j - 1)) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            // No way to get below the maximum anymore
+            if (rowMin > maxDistance) return maxDistance + 1;
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+}
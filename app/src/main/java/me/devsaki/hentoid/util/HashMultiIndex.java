@@ -0,0 +1,154 @@
+package me.devsaki.hentoid.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Multi-index hashing of 64-bit perceptual hashes (see {@link ImagePHash}) in Hamming space
+ * <p>
+ * Allows retrieving every indexed hash that lies within a given distance of a reference hash
+ * without comparing the reference against the whole index
+ * <p>
+ * Hashes are split into 4 slices of 16 bits, each slice being indexed in its own table.
+ * If two hashes are within distance r, at least one of their slices is within distance r/4
+ * (pigeonhole principle); the search thus only has to probe the buckets of each table that are
+ * within r/4 of the corresponding slice of the reference hash.
+ * <p>
+ * NB : Queries are thread-safe as long as no hash is being added concurrently
+ */
+public class HashMultiIndex {
+
+    private static final int NB_SLICES = 4;
+    private static final int SLICE_BITS = Long.SIZE / NB_SLICES;
+    private static final int NB_BUCKETS = 1 << SLICE_BITS;
+    private static final int SLICE_MASK = NB_BUCKETS - 1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Masks of the values within a given distance of 0, indexed by distance
+    private static final List<int[]> masksCache = new ArrayList<>();
+
+    // Entry data
+    private long[] hashes;
+    private int[] values;
+    // For each slice, head entry of each bucket and next entry of each entry (chained buckets)
+    private final int[][] bucketHeads = new int[NB_SLICES][NB_BUCKETS];
+    private final int[][] nextEntries = new int[NB_SLICES][];
+
+    private int size = 0;
+
+
+    public HashMultiIndex() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public HashMultiIndex(int capacity) {
+        int initialCapacity = Math.max(capacity, INITIAL_CAPACITY);
+        hashes = new long[initialCapacity];
+        values = new int[initialCapacity];
+        for (int s = 0; s < NB_SLICES; s++) {
+            Arrays.fill(bucketHeads[s], -1);
+            nextEntries[s] = new int[initialCapacity];
+        }
+    }
+
+    /**
+     * Hamming distance between the two given hashes
+     *
+     * @param hash1 First hash
+     * @param hash2 Second hash
+     * @return Number of differing bits between the two given hashes
+     */
+    public static int distance(long hash1, long hash2) {
+        return Long.bitCount(hash1 ^ hash2);
+    }
+
+    /**
+     * Number of indexed hashes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Index the given hash
+     *
+     * @param hash  Hash to index
+     * @param value Value associated with the hash (e.g. index of the corresponding book)
+     */
+    public void add(long hash, int value) {
+        ensureCapacity(size + 1);
+        int entry = size++;
+        hashes[entry] = hash;
+        values[entry] = value;
+        for (int s = 0; s < NB_SLICES; s++) {
+            int bucket = slice(hash, s);
+            nextEntries[s][entry] = bucketHeads[s][bucket];
+            bucketHeads[s][bucket] = entry;
+        }
+    }
+
+    /**
+     * Retrieve the values of all indexed hashes that are within the given distance of the given hash
+     *
+     * @param hash        Hash to search for
+     * @param maxDistance Maximum Hamming distance (inclusive)
+     * @return Values associated with the matching hashes, in no particular order
+     */
+    public int[] query(long hash, int maxDistance) {
+        if (0 == size) return new int[0];
+
+        int sliceDistance = maxDistance / NB_SLICES;
+        int[] masks = getMasks(sliceDistance);
+        int[] result = new int[16];
+        int nbResults = 0;
+
+        for (int s = 0; s < NB_SLICES; s++) {
+            int querySlice = slice(hash, s);
+            for (int mask : masks) {
+                int entry = bucketHeads[s][querySlice ^ mask];
+                while (entry > -1) {
+                    long entryHash = hashes[entry];
+                    if (distance(hash, entryHash) <= maxDistance && !isFoundInPreviousSlices(hash, entryHash, s, sliceDistance)) {
+                        if (nbResults == result.length)
+                            result = Arrays.copyOf(result, nbResults * 2);
+                        result[nbResults++] = values[entry];
+                    }
+                    entry = nextEntries[s][entry];
+                }
+            }
+        }
+        return Arrays.copyOf(result, nbResults);
+    }
+
+    // Entries that have been found while probing a previous slice must not be reported twice
+    private static boolean isFoundInPreviousSlices(long hash1, long hash2, int slice, int sliceDistance) {
+        for (int s = 0; s < slice; s++)
+            if (Integer.bitCount(slice(hash1, s) ^ slice(hash2, s)) <= sliceDistance) return true;
+        return false;
+    }
+
+    private static int slice(long hash, int slice) {
+        return (int) (hash >>> (slice * SLICE_BITS)) & SLICE_MASK;
+    }
+
+    private static synchronized int[] getMasks(int distance) {
+        while (masksCache.size() <= distance) {
+            int d = masksCache.size();
+            int[] masks = new int[NB_BUCKETS];
+            int nbMasks = 0;
+            for (int v = 0; v < NB_BUCKETS; v++) if (Integer.bitCount(v) <= d) masks[nbMasks++] = v;
+            masksCache.add(Arrays.copyOf(masks, nbMasks));
+        }
+        return masksCache.get(distance);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= hashes.length) return;
+        int newCapacity = Math.max(capacity, hashes.length * 2);
+        hashes = Arrays.copyOf(hashes, newCapacity);
+        values = Arrays.copyOf(values, newCapacity);
+        for (int s = 0; s < NB_SLICES; s++)
+            nextEntries[s] = Arrays.copyOf(nextEntries[s], newCapacity);
+    }
+}
@@ -0,0 +1,605 @@
+package me.devsaki.hentoid.util;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Compressed set of DB IDs, organized the same way as Roaring bitmaps
+ * (see https://roaringbitmap.org/)
+ * <p>
+ * IDs are split into a 16-bit high part and a 16-bit low part; the low parts sharing the same high part
+ * are stored in one container :
+ * - Array container : sorted array of the low parts, while there are less than 4096 of them
+ * - Bitmap container : 65536-bit bitmap above that
+ * <p>
+ * Set operations (AND, OR, AND NOT) work container by container, which is way faster than
+ * List<Long>.retainAll / removeAll and doesn't allocate one object per ID
+ * <p>
+ * NB : Only supports IDs between 0 and 2^32 - 1; not thread-safe
+ */
+public class IdBitmap {
+
+    private static final long MAX_ID = 0xFFFFFFFFL;
+    // Maximum cardinality of an array container; above that, a bitmap container uses less memory
+    static final int MAX_ARRAY_SIZE = 4096;
+
+    // High parts, sorted
+    private char[] keys;
+    // Containers of the low parts, in the same order as their high part
+    private Container[] containers;
+    // Number of used containers
+    private int size = 0;
+
+
+    public IdBitmap() {
+        this(4);
+    }
+
+    private IdBitmap(int capacity) {
+        keys = new char[capacity];
+        containers = new Container[capacity];
+    }
+
+    /**
+     * Build a bitmap containing the given IDs
+     *
+     * @param ids IDs to add
+     * @return Bitmap containing the given IDs
+     */
+    public static IdBitmap of(@NonNull long[] ids) {
+        IdBitmap result = new IdBitmap();
+        for (long id : ids) result.add(id);
+        return result;
+    }
+
+    /**
+     * Add the given ID
+     *
+     * @param id ID to add
+     * @return True if the ID has been added; false if it was already there
+     */
+    public boolean add(long id) {
+        checkId(id);
+        char key = highOf(id);
+        int index = Arrays.binarySearch(keys, 0, size, key);
+        if (index < 0) {
+            index = -index - 1;
+            insertContainer(index, key, new ArrayContainer());
+        }
+        Container c = containers[index];
+        int before = c.getCardinality();
+        containers[index] = c.add(lowOf(id));
+        return containers[index].getCardinality() > before;
+    }
+
+    /**
+     * Remove the given ID
+     *
+     * @param id ID to remove
+     * @return True if the ID has been removed; false if it wasn't there
+     */
+    public boolean remove(long id) {
+        if (id < 0 || id > MAX_ID) return false;
+        int index = Arrays.binarySearch(keys, 0, size, highOf(id));
+        if (index < 0) return false;
+
+        Container c = containers[index];
+        int before = c.getCardinality();
+        c = c.remove(lowOf(id));
+        if (0 == c.getCardinality()) removeContainer(index);
+        else containers[index] = c;
+        return c.getCardinality() < before;
+    }
+
+    public boolean contains(long id) {
+        if (id < 0 || id > MAX_ID) return false;
+        int index = Arrays.binarySearch(keys, 0, size, highOf(id));
+        return index > -1 && containers[index].contains(lowOf(id));
+    }
+
+    /**
+     * Number of IDs in the bitmap
+     */
+    public int getCardinality() {
+        int result = 0;
+        for (int i = 0; i < size; i++) result += containers[i].getCardinality();
+        return result;
+    }
+
+    public boolean isEmpty() {
+        return 0 == size;
+    }
+
+    /**
+     * Intersection of this bitmap and the given bitmap
+     *
+     * @param other Bitmap to intersect with
+     * @return New bitmap containing the IDs present in both bitmaps
+     */
+    public IdBitmap and(@NonNull IdBitmap other) {
+        IdBitmap result = new IdBitmap(Math.max(1, Math.min(size, other.size)));
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) i++;
+            else if (keys[i] > other.keys[j]) j++;
+            else {
+                Container c = containers[i].and(other.containers[j]);
+                if (c.getCardinality() > 0) result.appendContainer(keys[i], c);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Union of this bitmap and the given bitmap
+     *
+     * @param other Bitmap to unite with
+     * @return New bitmap containing the IDs present in any of both bitmaps
+     */
+    public IdBitmap or(@NonNull IdBitmap other) {
+        IdBitmap result = new IdBitmap(Math.max(1, size + other.size));
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            if (j >= other.size || (i < size && keys[i] < other.keys[j]))
+                result.appendContainer(keys[i], containers[i++].copy());
+            else if (i >= size || keys[i] > other.keys[j])
+                result.appendContainer(other.keys[j], other.containers[j++].copy());
+            else result.appendContainer(keys[i], containers[i++].or(other.containers[j++]));
+        }
+        return result;
+    }
+
+    /**
+     * Difference between this bitmap and the given bitmap
+     *
+     * @param other Bitmap to subtract
+     * @return New bitmap containing the IDs of this bitmap that are absent from the given bitmap
+     */
+    public IdBitmap andNot(@NonNull IdBitmap other) {
+        IdBitmap result = new IdBitmap(Math.max(1, size));
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            while (j < other.size && other.keys[j] < keys[i]) j++;
+            Container c;
+            if (j < other.size && other.keys[j] == keys[i])
+                c = containers[i].andNot(other.containers[j]);
+            else c = containers[i].copy();
+            if (c.getCardinality() > 0) result.appendContainer(keys[i], c);
+        }
+        return result;
+    }
+
+    /**
+     * Number of IDs present in both this bitmap and the given bitmap
+     * NB : Faster than and(other).getCardinality() as it doesn't build the intersection
+     *
+     * @param other Bitmap to intersect with
+     * @return Cardinality of the intersection of both bitmaps
+     */
+    public int andCardinality(@NonNull IdBitmap other) {
+        int result = 0;
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) i++;
+            else if (keys[i] > other.keys[j]) j++;
+            else result += containers[i++].andCardinality(other.containers[j++]);
+        }
+        return result;
+    }
+
+    /**
+     * Indicate if this bitmap and the given bitmap have at least one ID in common
+     *
+     * @param other Bitmap to intersect with
+     * @return True if both bitmaps have at least one ID in common
+     */
+    public boolean intersects(@NonNull IdBitmap other) {
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) i++;
+            else if (keys[i] > other.keys[j]) j++;
+            else if (containers[i++].andCardinality(other.containers[j++]) > 0) return true;
+        }
+        return false;
+    }
+
+    public IdBitmap copy() {
+        IdBitmap result = new IdBitmap(Math.max(1, size));
+        for (int i = 0; i < size; i++) result.appendContainer(keys[i], containers[i].copy());
+        return result;
+    }
+
+    /**
+     * IDs of the bitmap, sorted in ascending order
+     */
+    public long[] toArray() {
+        long[] result = new long[getCardinality()];
+        int pos = 0;
+        for (int i = 0; i < size; i++)
+            pos = containers[i].fill(result, pos, ((long) keys[i]) << 16);
+        return result;
+    }
+
+    private void insertContainer(int index, char key, @NonNull Container container) {
+        ensureCapacity(size + 1);
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+        keys[index] = key;
+        containers[index] = container;
+        size++;
+    }
+
+    private void appendContainer(char key, @NonNull Container container) {
+        ensureCapacity(size + 1);
+        keys[size] = key;
+        containers[size] = container;
+        size++;
+    }
+
+    private void removeContainer(int index) {
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        System.arraycopy(containers, index + 1, containers, index, size - index - 1);
+        containers[--size] = null;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= keys.length) return;
+        int newCapacity = Math.max(capacity, keys.length * 2);
+        keys = Arrays.copyOf(keys, newCapacity);
+        containers = Arrays.copyOf(containers, newCapacity);
+    }
+
+    private static void checkId(long id) {
+        if (id < 0 || id > MAX_ID) throw new IllegalArgumentException("ID out of range : " + id);
+    }
+
+    private static char highOf(long id) {
+        return (char) (id >>> 16);
+    }
+
+    private static char lowOf(long id) {
+        return (char) (id & 0xFFFF);
+    }
+
+
+    /**
+     * Set of the low parts of the IDs sharing the same high part
+     * Modifying operations return the container to use afterwards, as it may have changed type
+     */
+    private abstract static class Container {
+        abstract Container add(char value);
+
+        abstract Container remove(char value);
+
+        abstract boolean contains(char value);
+
+        abstract int getCardinality();
+
+        abstract Container and(Container other);
+
+        abstract Container or(Container other);
+
+        abstract Container andNot(Container other);
+
+        abstract int andCardinality(Container other);
+
+        abstract Container copy();
+
+        // Write the IDs of the container into the given array, starting at the given position; returns the next position
+        abstract int fill(long[] array, int pos, long high);
+    }
+
+    private static class ArrayContainer extends Container {
+        private char[] values;
+        private int cardinality = 0;
+
+        ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            int index = Arrays.binarySearch(values, 0, cardinality, value);
+            if (index > -1) return this;
+            if (cardinality >= MAX_ARRAY_SIZE) return toBitmap().add(value);
+
+            index = -index - 1;
+            if (cardinality == values.length)
+                values = Arrays.copyOf(values, Math.min(MAX_ARRAY_SIZE, Math.max(4, values.length * 2)));
+            System.arraycopy(values, index, values, index + 1, cardinality - index);
+            values[index] = value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            int index = Arrays.binarySearch(values, 0, cardinality, value);
+            if (index > -1) {
+                System.arraycopy(values, index + 1, values, index, cardinality - index - 1);
+                cardinality--;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) > -1;
+        }
+
+        @Override
+        int getCardinality() {
+            return cardinality;
+        }
+
+        @Override
+        Container and(Container other) {
+            char[] result = new char[Math.min(cardinality, other.getCardinality())];
+            int pos = 0;
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                int i = 0;
+                int j = 0;
+                while (i < cardinality && j < o.cardinality) {
+                    if (values[i] < o.values[j]) i++;
+                    else if (values[i] > o.values[j]) j++;
+                    else {
+                        result[pos++] = values[i++];
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < cardinality; i++)
+                    if (other.contains(values[i])) result[pos++] = values[i];
+            }
+            return new ArrayContainer(result, pos);
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer) return other.or(this);
+            ArrayContainer o = (ArrayContainer) other;
+            if (cardinality + o.cardinality > MAX_ARRAY_SIZE) {
+                Container result = toBitmap();
+                for (int i = 0; i < o.cardinality; i++) result = result.add(o.values[i]);
+                return result;
+            }
+            char[] result = new char[Math.max(1, cardinality + o.cardinality)];
+            int pos = 0;
+            int i = 0;
+            int j = 0;
+            while (i < cardinality || j < o.cardinality) {
+                if (j >= o.cardinality || (i < cardinality && values[i] < o.values[j]))
+                    result[pos++] = values[i++];
+                else if (i >= cardinality || values[i] > o.values[j]) result[pos++] = o.values[j++];
+                else {
+                    result[pos++] = values[i++];
+                    j++;
+                }
+            }
+            return new ArrayContainer(result, pos);
+        }
+
+        @Override
+        Container andNot(Container other) {
+            char[] result = new char[cardinality];
+            int pos = 0;
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                int j = 0;
+                for (int i = 0; i < cardinality; i++) {
+                    while (j < o.cardinality && o.values[j] < values[i]) j++;
+                    if (j >= o.cardinality || o.values[j] != values[i]) result[pos++] = values[i];
+                }
+            } else {
+                for (int i = 0; i < cardinality; i++)
+                    if (!other.contains(values[i])) result[pos++] = values[i];
+            }
+            return new ArrayContainer(result, pos);
+        }
+
+        @Override
+        int andCardinality(Container other) {
+            int result = 0;
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                int i = 0;
+                int j = 0;
+                while (i < cardinality && j < o.cardinality) {
+                    if (values[i] < o.values[j]) i++;
+                    else if (values[i] > o.values[j]) j++;
+                    else {
+                        result++;
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < cardinality; i++)
+                    if (other.contains(values[i])) result++;
+            }
+            return result;
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(1, cardinality)), cardinality);
+        }
+
+        @Override
+        int fill(long[] array, int pos, long high) {
+            for (int i = 0; i < cardinality; i++) array[pos++] = high | values[i];
+            return pos;
+        }
+
+        private BitmapContainer toBitmap() {
+            BitmapContainer result = new BitmapContainer();
+            for (int i = 0; i < cardinality; i++) result.add(values[i]);
+            return result;
+        }
+    }
+
+    private static class BitmapContainer extends Container {
+        private final long[] words;
+        private int cardinality;
+
+        BitmapContainer() {
+            this(new long[1024], 0);
+        }
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            long mask = 1L << value;
+            if ((words[value >>> 6] & mask) == 0) {
+                words[value >>> 6] |= mask;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            long mask = 1L << value;
+            if ((words[value >>> 6] & mask) != 0) {
+                words[value >>> 6] &= ~mask;
+                cardinality--;
+                if (cardinality < MAX_ARRAY_SIZE) return toArrayContainer();
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        int getCardinality() {
+            return cardinality;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) return other.and(this);
+            BitmapContainer o = (BitmapContainer) other;
+            long[] result = new long[words.length];
+            int card = 0;
+            for (int i = 0; i < words.length; i++) {
+                result[i] = words[i] & o.words[i];
+                card += Long.bitCount(result[i]);
+            }
+            return fromWords(result, card);
+        }
+
+        @Override
+        Container or(Container other) {
+            long[] result = words.clone();
+            int card = cardinality;
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                for (int i = 0; i < o.cardinality; i++) {
+                    char value = o.values[i];
+                    long mask = 1L << value;
+                    if ((result[value >>> 6] & mask) == 0) {
+                        result[value >>> 6] |= mask;
+                        card++;
+                    }
+                }
+            } else {
+                BitmapContainer o = (BitmapContainer) other;
+                card = 0;
+                for (int i = 0; i < result.length; i++) {
+                    result[i] |= o.words[i];
+                    card += Long.bitCount(result[i]);
+                }
+            }
+            return new BitmapContainer(result, card);
+        }
+
+        @Override
+        Container andNot(Container other) {
+            long[] result = words.clone();
+            int card = cardinality;
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                for (int i = 0; i < o.cardinality; i++) {
+                    char value = o.values[i];
+                    long mask = 1L << value;
+                    if ((result[value >>> 6] & mask) != 0) {
+                        result[value >>> 6] &= ~mask;
+                        card--;
+                    }
+                }
+            } else {
+                BitmapContainer o = (BitmapContainer) other;
+                card = 0;
+                for (int i = 0; i < result.length; i++) {
+                    result[i] &= ~o.words[i];
+                    card += Long.bitCount(result[i]);
+                }
+            }
+            return fromWords(result, card);
+        }
+
+        @Override
+        int andCardinality(Container other) {
+            if (other instanceof ArrayContainer) return other.andCardinality(this);
+            BitmapContainer o = (BitmapContainer) other;
+            int result = 0;
+            for (int i = 0; i < words.length; i++) result += Long.bitCount(words[i] & o.words[i]);
+            return result;
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+
+        @Override
+        int fill(long[] array, int pos, long high) {
+            for (int i = 0; i < words.length; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    array[pos++] = high | (i * 64L + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return pos;
+        }
+
+        private ArrayContainer toArrayContainer() {
+            char[] values = new char[cardinality];
+            int pos = 0;
+            for (int i = 0; i < words.length; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    values[pos++] = (char) (i * 64 + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, cardinality);
+        }
+
+        private static Container fromWords(long[] words, int cardinality) {
+            BitmapContainer result = new BitmapContainer(words, cardinality);
+            return (cardinality < MAX_ARRAY_SIZE) ? result.toArrayContainer() : result;
+        }
+    }
+}
@@ -80,7 +80,18 @@ public final class ImageHelper {
      * @return MIME-type of the given binary data; empty string if not supported
      */
     public static String getMimeTypeFromPictureBinary(byte[] binary) {
-        if (binary.length < 12) return "";
+        return getMimeTypeFromPictureBinary(binary, binary.length);
+    }
+
+    /**
+     * Determine the MIME-type of the given binary data if it's a picture
+     *
+     * @param binary Buffer containing the first bytes of the picture to determine the MIME-type for
+     * @param length Number of meaningful bytes inside the given buffer
+     * @return MIME-type of the given binary data; empty string if not supported
+     */
+    public static String getMimeTypeFromPictureBinary(byte[] binary, int length) {
+        if (length < 12) return "";
 
         // In Java, byte type is signed !
         // => Converting all raw values to byte to be sure they are evaluated as expected
@@ -88,9 +99,9 @@ public final class ImageHelper {
             return MIME_IMAGE_JPEG;
         else if ((byte) 0x89 == binary[0] && (byte) 0x50 == binary[1] && (byte) 0x4E == binary[2]) {
             // Detect animated PNG : To be recognized as APNG an 'acTL' chunk must appear in the stream before any 'IDAT' chunks
-            int acTlPos = FileHelper.findSequencePosition(binary, 0, "acTL".getBytes(CHARSET_LATIN_1), (int) (binary.length * 0.2));
+            int acTlPos = FileHelper.findSequencePosition(binary, 0, "acTL".getBytes(CHARSET_LATIN_1), (int) (length * 0.2));
             if (acTlPos > -1) {
-                long idatPos = FileHelper.findSequencePosition(binary, acTlPos, "IDAT".getBytes(CHARSET_LATIN_1), (int) (binary.length * 0.1));
+                long idatPos = FileHelper.findSequencePosition(binary, acTlPos, "IDAT".getBytes(CHARSET_LATIN_1), (int) (length * 0.1));
                 if (idatPos > -1) return "image/apng";
             }
             return "image/png";
@@ -1,10 +1,8 @@
 package me.devsaki.hentoid.util;
 
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.ColorMatrix;
-import android.graphics.ColorMatrixColorFilter;
-import android.graphics.Paint;
+
+import androidx.annotation.NonNull;
 
 import timber.log.Timber;
 
@@ -13,16 +11,52 @@ import timber.log.Timber;
  * Author: Elliot Shepherd (elliot@jarofworms.com)
  * https://gist.github.com/kuFEAR/6e20342198d4040e0bb5
  * Based On: http://www.hackerfactor.com/blog/index.php?/archives/432-Looks-Like-It.html
+ * <p>
+ * NB : Instances reuse their working buffers and are therefore NOT thread-safe;
+ * use one instance per thread
  */
 public class ImagePHash {
+    // Version of the algorithm; hashes computed by different versions must not be compared
+    // v2 : luminance computed inline, which can differ by 1 from the Skia grayscale filter used by v1 on some pixels
+    public static final int VERSION = 2;
+
+    // Luminance coefficients used by ColorMatrix.setSaturation(0)
+    private static final double LUMINANCE_R = 0.213;
+    private static final double LUMINANCE_G = 0.715;
+    private static final double LUMINANCE_B = 0.072;
+
     private final int size;
     private final int smallerSize;
 
+    // DCT coefficients and cosine table; computed once per instance
+    private final double[] c;
+    private final double[] cosTable; // [u * size + i] = cos(((2 * i + 1) / (2.0 * size)) * u * PI) for u < smallerSize
+
+    // Working buffers; reused across calls
+    private final int[] pixels;
+    private final double[] vals; // [x * size + y]
+    private final double[] rowDct; // [u * size + y]
+    private final double[] dctVals; // [u * smallerSize + v]
+
     public ImagePHash(int size, int smallerSize) {
         this.size = size;
         this.smallerSize = smallerSize;
 
-        initCoefficients();
+        c = new double[size];
+        for (int i = 1; i < size; i++) {
+            c[i] = 1;
+        }
+        c[0] = 1 / Math.sqrt(2.0);
+
+        cosTable = new double[smallerSize * size];
+        for (int u = 0; u < smallerSize; u++)
+            for (int i = 0; i < size; i++)
+                cosTable[u * size + i] = Math.cos(((2 * i + 1) / (2.0 * size)) * u * Math.PI);
+
+        pixels = new int[size * size];
+        vals = new double[size * size];
+        rowDct = new double[smallerSize * size];
+        dctVals = new double[smallerSize * smallerSize];
     }
 
     public static int distance(long hash1, long hash2) {
@@ -40,83 +74,86 @@ public class ImagePHash {
 
 
     public long calcPHash(Bitmap img) {
-
-        // Initializing coefficients
-        initCoefficients();
-
         /* 1. Reduce size.
          * Like Average Hash, pHash starts with a small image.
          * However, the image is larger than 8x8; 32x32 is a good size.
          * This is really done to simplify the DCT computation and not
          * because it is needed to reduce the high frequencies.
          */
-        img = resize(img, size, size);
+        Bitmap resized = resize(img, size, size);
+        if (null == resized) return 0;
+
+        resized.getPixels(pixels, 0, size, 0, 0, size, size);
+        if (resized != img) resized.recycle();
+
+        return calcPHash(pixels);
+    }
 
+    /**
+     * Compute the hash of the given picture
+     *
+     * @param argbPixels Pixels of the picture, already reduced to size x size, as ARGB values (row by row)
+     * @return Hash of the given picture
+     */
+    public long calcPHash(@NonNull int[] argbPixels) {
         /* 2. Reduce color.
          * The image is reduced to a grayscale just to further simplify
          * the number of computations.
          */
-        long hash = 0;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                vals[x * size + y] = luminance(argbPixels[y * size + x]);
+            }
+        }
 
-        if (img != null) {
-            img = grayscale(img);
+        /* 3. Compute the DCT.
+         * The DCT separates the image into a collection of frequencies
+         * and scalars. While JPEG uses an 8x8 DCT, this algorithm uses
+         * a 32x32 DCT.
+         */
+        /* 4. Reduce the DCT.
+         * This is the magic step. While the DCT is 32x32, just keep the
+         * top-left 8x8. Those represent the lowest frequencies in the
+         * picture.
+         */
+        applyDCT();
 
-            double[][] vals = new double[size][size];
+        /* 5. Compute the average value.
+         * Like the Average Hash, compute the mean DCT value (using only
+         * the 8x8 DCT low-frequency values and excluding the first term
+         * since the DC coefficient can be significantly different from
+         * the other values and will throw off the average).
+         */
+        double total = 0;
 
-            for (int x = 0; x < img.getWidth(); x++) {
-                for (int y = 0; y < img.getHeight(); y++) {
-                    vals[x][y] = getBlue(img, x, y);
-                }
+        for (int x = 0; x < smallerSize; x++) {
+            for (int y = 0; y < smallerSize; y++) {
+                total += dctVals[x * smallerSize + y];
             }
-
-            /* 3. Compute the DCT.
-             * The DCT separates the image into a collection of frequencies
-             * and scalars. While JPEG uses an 8x8 DCT, this algorithm uses
-             * a 32x32 DCT.
-             */
-            double[][] dctVals = applyDCT(vals);
-
-            /* 4. Reduce the DCT.
-             * This is the magic step. While the DCT is 32x32, just keep the
-             * top-left 8x8. Those represent the lowest frequencies in the
-             * picture.
-             */
-            /* 5. Compute the average value.
-             * Like the Average Hash, compute the mean DCT value (using only
-             * the 8x8 DCT low-frequency values and excluding the first term
-             * since the DC coefficient can be significantly different from
-             * the other values and will throw off the average).
-             */
-            double total = 0;
-
-            for (int x = 0; x < smallerSize; x++) {
-                for (int y = 0; y < smallerSize; y++) {
-                    total += dctVals[x][y];
+        }
+        total -= dctVals[0];
+
+        double avg = total / (double) ((smallerSize * smallerSize) - 1);
+
+        /* 6. Further reduce the DCT.
+         * This is the magic step. Set the 64 hash bits to 0 or 1
+         * depending on whether each of the 64 DCT values is above or
+         * below the average value. The result doesn't tell us the
+         * actual low frequencies; it just tells us the very-rough
+         * relative scale of the frequencies to the mean. The result
+         * will not vary as long as the overall structure of the image
+         * remains the same; this can survive gamma and color histogram
+         * adjustments without a problem.
+         */
+        long hash = 0;
+        for (int x = 0; x < smallerSize; x++) {
+            for (int y = 0; y < smallerSize; y++) {
+                if (x != 0 && y != 0) {
+                    hash *= 2;
+                    if (dctVals[x * smallerSize + y] > avg) hash++;
                 }
-            }
-            total -= dctVals[0][0];
-
-            double avg = total / (double) ((smallerSize * smallerSize) - 1);
-
-            /* 6. Further reduce the DCT.
-             * This is the magic step. Set the 64 hash bits to 0 or 1
-             * depending on whether each of the 64 DCT values is above or
-             * below the average value. The result doesn't tell us the
-             * actual low frequencies; it just tells us the very-rough
-             * relative scale of the frequencies to the mean. The result
-             * will not vary as long as the overall structure of the image
-             * remains the same; this can survive gamma and color histogram
-             * adjustments without a problem.
-             */
-            for (int x = 0; x < smallerSize; x++) {
-                for (int y = 0; y < smallerSize; y++) {
-                    if (x != 0 && y != 0) {
-                        hash *= 2;
-                        if (dctVals[x][y] > avg) hash++;
-                    }
-                } // Inner loop
-            } // Outer Loop
-        } // img not null
+            } // Inner loop
+        } // Outer Loop
 
         return hash;
     }
@@ -133,59 +170,40 @@ public class ImagePHash {
         return resizedBitmap;
     }
 
-    // TODO optimize by using renderscript
-    // see https://stackoverflow.com/questions/31905350/renderscript-greyscale-not-quite-working, http://www.johndcook.com/blog/2009/08/24/algorithms-convert-color-grayscale/ and https://gist.github.com/imminent/cf4ab750104aa286fa08
-    private Bitmap grayscale(Bitmap orginalBitmap) {
-        ColorMatrix colorMatrix = new ColorMatrix();
-        colorMatrix.setSaturation(0);
-
-        ColorMatrixColorFilter colorMatrixFilter = new ColorMatrixColorFilter(colorMatrix);
-
-        Bitmap blackAndWhiteBitmap = orginalBitmap.copy(Bitmap.Config.ARGB_8888, true);
-
-        Paint paint = new Paint();
-        paint.setColorFilter(colorMatrixFilter);
-
-        Canvas canvas = new Canvas(blackAndWhiteBitmap);
-        canvas.drawBitmap(blackAndWhiteBitmap, 0, 0, paint);
-
-        return blackAndWhiteBitmap;
-    }
-
-    // TODO optimize by using renderscript
-    private static int getBlue(Bitmap img, int x, int y) {
-        return (img.getPixel(x, y)) & 0xff;
+    // Grayscale value of the given pixel, as computed by a desaturating ColorMatrix
+    private static int luminance(int argb) {
+        int r = (argb >> 16) & 0xff;
+        int g = (argb >> 8) & 0xff;
+        int b = argb & 0xff;
+        int result = (int) (LUMINANCE_R * r + LUMINANCE_G * g + LUMINANCE_B * b + 0.5);
+        return Math.min(result, 0xff);
     }
 
-    // DCT function stolen from http://stackoverflow.com/questions/4240490/problems-with-dct-and-idct-algorithm-in-java
-
-    private double[] c;
-
-    private void initCoefficients() {
-        c = new double[size];
-
-        for (int i = 1; i < size; i++) {
-            c[i] = 1;
+    /**
+     * Separable DCT restricted to the smallerSize x smallerSize low-frequency outputs
+     * - Rows pass : rowDct[u][y] = sum_x cos(x, u) * vals[x][y]
+     * - Columns pass : dctVals[u][v] = c[u] * c[v] / 4 * sum_y cos(y, v) * rowDct[u][y]
+     */
+    private void applyDCT() {
+        int n = size;
+        for (int u = 0; u < smallerSize; u++) {
+            int cosOffset = u * n;
+            int rowOffset = u * n;
+            for (int y = 0; y < n; y++) rowDct[rowOffset + y] = 0;
+            for (int x = 0; x < n; x++) {
+                double cosVal = cosTable[cosOffset + x];
+                int valOffset = x * n;
+                for (int y = 0; y < n; y++) rowDct[rowOffset + y] += cosVal * vals[valOffset + y];
+            }
         }
-        c[0] = 1 / Math.sqrt(2.0);
-    }
-
-    private double[][] applyDCT(double[][] f) {
-        int N = size;
-
-        double[][] F = new double[N][N];
-        for (int u = 0; u < N; u++) {
-            for (int v = 0; v < N; v++) {
+        for (int u = 0; u < smallerSize; u++) {
+            int rowOffset = u * n;
+            for (int v = 0; v < smallerSize; v++) {
+                int cosOffset = v * n;
                 double sum = 0.0;
-                for (int i = 0; i < N; i++) {
-                    for (int j = 0; j < N; j++) {
-                        sum += Math.cos(((2 * i + 1) / (2.0 * N)) * u * Math.PI) * Math.cos(((2 * j + 1) / (2.0 * N)) * v * Math.PI) * (f[i][j]);
-                    }
-                }
-                sum *= ((c[u] * c[v]) / 4.0);
-                F[u][v] = sum;
+                for (int y = 0; y < n; y++) sum += cosTable[cosOffset + y] * rowDct[rowOffset + y];
+                dctVals[u * smallerSize + v] = sum * ((c[u] * c[v]) / 4.0);
             }
         }
-        return F;
     }
 }
@@ -27,6 +27,7 @@ import org.threeten.bp.Instant;
 import java.io.IOException;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
@@ -812,4 +813,19 @@ public class ImportHelper {
         Optional<DocumentFile> file = Stream.of(files).filter(f -> (f.getName() != null && FileHelper.getFileNameWithoutExtension(f.getName()).equalsIgnoreCase(targetBareName))).findFirst();
         return file.orElse(null);
     }
+
+    /**
+     * Compute the fingerprint of the given files, that changes whenever one of them is added, removed, renamed or modified
+     * NB : Only relies on the properties returned by the file listing; the files themselves aren't read
+     *
+     * @param files Files to compute the fingerprint of (e.g. files of a book folder, or an archive and its JSON)
+     * @return Fingerprint of the given files
+     */
+    public static long computeFingerprint(@NonNull final List<DocumentFile> files) {
+        List<DocumentFile> sortedFiles = Stream.of(files).sortBy(f -> StringHelper.protect(f.getName())).toList();
+        StringBuilder sb = new StringBuilder();
+        for (DocumentFile f : sortedFiles)
+            sb.append(f.getName()).append('|').append(f.length()).append('|').append(f.lastModified()).append('/');
+        return Helper.hash64(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
 }
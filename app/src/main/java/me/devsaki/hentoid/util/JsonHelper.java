@@ -93,6 +93,30 @@ public class JsonHelper {
         if (null == file)
             throw new IOException("Failed creating file " + fileName + " in " + dir.getUri().getPath());
 
+        return writeJson(context, object, type, file);
+    }
+
+    /**
+     * Serialize and save the object contents to a JSON file in the given indexed folder
+     * The JSON file is created if it doesn't exist
+     *
+     * @param context Context to be used
+     * @param object  Object to be serialized and saved
+     * @param type    Type of the output JSON structure to use
+     * @param dir     Index of the existing folder to save the JSON file to
+     * @param <K>     Type of the given object
+     * @return DocumentFile where the object has been serialized and saved
+     * @throws IOException If anything happens during file I/O
+     */
+    public static <K> DocumentFile jsonToFile(@NonNull final Context context, K object, Type type, @NonNull FolderIndex dir) throws IOException {
+        DocumentFile file = dir.findOrCreateFile(JSON_MIME_TYPE, Consts.JSON_FILE_NAME_V2);
+        if (null == file)
+            throw new IOException("Failed creating file " + Consts.JSON_FILE_NAME_V2 + " in " + dir.getFolder().getUri().getPath());
+
+        return writeJson(context, object, type, file);
+    }
+
+    private static <K> DocumentFile writeJson(@NonNull final Context context, K object, Type type, @NonNull DocumentFile file) throws IOException {
         try (OutputStream output = FileHelper.getOutputStream(context, file)) {
             if (output != null) updateJson(object, type, output);
             else Timber.w("JSON file creation failed for %s", file.getUri().getPath());
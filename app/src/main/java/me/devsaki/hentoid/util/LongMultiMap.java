@@ -0,0 +1,139 @@
+package me.devsaki.hentoid.util;
+
+import java.util.Arrays;
+
+/**
+ * Map associating long keys to lists of long values, using primitive arrays only
+ * (open addressing with linear probing; no boxing)
+ * <p>
+ * NB : Not thread-safe
+ */
+public class LongMultiMap {
+
+    private static final float MAX_LOAD = 0.6f;
+    private static final int INITIAL_VALUES_CAPACITY = 2;
+
+    private long[] keys;
+    private boolean[] used;
+    private long[][] values;
+    private int[] counts;
+
+    private int size = 0;
+
+
+    public LongMultiMap() {
+        this(16);
+    }
+
+    public LongMultiMap(int expectedKeys) {
+        int capacity = Integer.highestOneBit(Math.max((int) (expectedKeys / MAX_LOAD), 8) - 1) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * Number of keys
+     */
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        Arrays.fill(values, null);
+        Arrays.fill(counts, 0);
+        size = 0;
+    }
+
+    /**
+     * Add the given value to the values of the given key
+     */
+    public void put(long key, long value) {
+        int slot = findSlot(key);
+        if (!used[slot]) {
+            if (size + 1 > keys.length * MAX_LOAD) {
+                rehash(keys.length * 2);
+                slot = findSlot(key);
+            }
+            used[slot] = true;
+            keys[slot] = key;
+            values[slot] = new long[INITIAL_VALUES_CAPACITY];
+            size++;
+        }
+        long[] slotValues = values[slot];
+        if (counts[slot] == slotValues.length) {
+            slotValues = Arrays.copyOf(slotValues, slotValues.length * 2);
+            values[slot] = slotValues;
+        }
+        slotValues[counts[slot]++] = value;
+    }
+
+    /**
+     * Number of values associated with the given key
+     */
+    public int count(long key) {
+        int slot = findSlot(key);
+        return used[slot] ? counts[slot] : 0;
+    }
+
+    /**
+     * Indicate whether the given value is associated with the given key
+     */
+    public boolean contains(long key, long value) {
+        int slot = findSlot(key);
+        if (!used[slot]) return false;
+        long[] slotValues = values[slot];
+        for (int i = 0; i < counts[slot]; i++) if (slotValues[i] == value) return true;
+        return false;
+    }
+
+    /**
+     * Indicate whether the two given keys have at least one value in common
+     */
+    public boolean intersects(long key1, long key2) {
+        int slot1 = findSlot(key1);
+        if (!used[slot1]) return false;
+        int slot2 = findSlot(key2);
+        if (!used[slot2]) return false;
+        long[] values1 = values[slot1];
+        long[] values2 = values[slot2];
+        for (int i = 0; i < counts[slot1]; i++)
+            for (int j = 0; j < counts[slot2]; j++)
+                if (values1[i] == values2[j]) return true;
+        return false;
+    }
+
+    private int findSlot(long key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (used[slot] && keys[slot] != key) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = keys;
+        boolean[] oldUsed = used;
+        long[][] oldValues = values;
+        int[] oldCounts = counts;
+        allocate(newCapacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (!oldUsed[i]) continue;
+            int slot = findSlot(oldKeys[i]);
+            used[slot] = true;
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+            counts[slot] = oldCounts[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        used = new boolean[capacity];
+        values = new long[capacity][];
+        counts = new int[capacity];
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -11,8 +11,10 @@ import com.annimon.stream.Stream;
 
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import me.devsaki.hentoid.BuildConfig;
 import me.devsaki.hentoid.enums.Grouping;
@@ -157,6 +159,7 @@ public final class Preferences {
         result.remove(Key.SD_STORAGE_URI);
         result.remove(Key.EXTERNAL_LIBRARY_URI);
         result.remove(Key.LAST_KNOWN_APP_VERSION_CODE);
+        result.remove(Key.DB_MIGRATIONS_DONE);
 
         return result;
     }
@@ -532,6 +535,21 @@ public final class Preferences {
                 .apply();
     }
 
+    public static Set<Integer> getDoneDbMigrations() {
+        String migrationsStr = sharedPreferences.getString(Key.DB_MIGRATIONS_DONE, "") + "";
+        if (migrationsStr.isEmpty()) return Collections.emptySet();
+
+        return new HashSet<>(Stream.of(migrationsStr.split(",")).map(Integer::parseInt).toList());
+    }
+
+    public static synchronized void setDbMigrationDone(int migrationId) {
+        Set<Integer> migrations = new HashSet<>(getDoneDbMigrations());
+        migrations.add(migrationId);
+        sharedPreferences.edit()
+                .putString(Key.DB_MIGRATIONS_DONE, TextUtils.join(",", migrations))
+                .apply();
+    }
+
     public static boolean isQueueAutostart() {
         return sharedPreferences.getBoolean(Key.QUEUE_AUTOSTART, Default.QUEUE_AUTOSTART);
     }
@@ -744,6 +762,18 @@ public final class Preferences {
                 .apply();
     }
 
+    public static long getDuplicateLastFingerprint() {
+        return Long.parseLong(sharedPreferences.getString(Key.DUPLICATE_LAST_FINGERPRINT, "0") + "");
+    }
+
+    // NB : Synchronous write to make sure the checkpoint survives the process being killed
+    public static void setDuplicateCheckpoint(int lastIndex, long fingerprint) {
+        sharedPreferences.edit()
+                .putString(Key.DUPLICATE_LAST_INDEX, Integer.toString(lastIndex))
+                .putString(Key.DUPLICATE_LAST_FINGERPRINT, Long.toString(fingerprint))
+                .commit();
+    }
+
     public static boolean isDownloadDuplicateAsk() {
         return sharedPreferences.getBoolean(Key.DOWNLOAD_DUPLICATE_ASK, Default.DOWNLOAD_DUPLICATE_ASK);
     }
@@ -764,6 +794,16 @@ public final class Preferences {
                 .apply();
     }
 
+    public static long getContentShuffleSeed() {
+        return Long.parseLong(sharedPreferences.getString(Key.CONTENT_SHUFFLE_SEED, "0") + "");
+    }
+
+    public static void setContentShuffleSeed(long value) {
+        sharedPreferences.edit()
+                .putString(Key.CONTENT_SHUFFLE_SEED, Long.toString(value))
+                .apply();
+    }
+
     public static long getViewerCurrentContent() {
         return Long.parseLong(sharedPreferences.getString(Key.VIEWER_CURRENT_CONTENT, "-1") + "");
     }
@@ -859,6 +899,7 @@ public final class Preferences {
         public static final String VIEWER_CAP_TAP_ZOOM = "pref_viewer_cap_tap_zoom";
         public static final String VIEWER_AUTO_ROTATE = "pref_viewer_auto_rotate";
         static final String LAST_KNOWN_APP_VERSION_CODE = "last_known_app_version_code";
+        static final String DB_MIGRATIONS_DONE = "db_migrations_done";
         public static final String COLOR_THEME = "pref_color_theme";
         static final String QUEUE_AUTOSTART = "pref_queue_autostart";
         static final String QUEUE_NEW_DOWNLOADS_POSITION = "pref_queue_new_position";
@@ -891,8 +932,10 @@ public final class Preferences {
         public static final String DUPLICATE_USE_SAME_LANGUAGE = "duplicate_use_same_language";
         public static final String DUPLICATE_IGNORE_CHAPTERS = "duplicate_ignore_chapters";
         public static final String DUPLICATE_LAST_INDEX = "last_index";
+        public static final String DUPLICATE_LAST_FINGERPRINT = "last_fingerprint";
         public static final String DOWNLOAD_DUPLICATE_ASK = "download_duplicate_ask";
         public static final String DOWNLOAD_PLUS_DUPLICATE_TRY = "download_plus_duplicate_try";
+        static final String CONTENT_SHUFFLE_SEED = "content_shuffle_seed";
 
         // Deprecated values kept for housekeeping/migration
         //static final String ANALYTICS_TRACKING = "pref_analytics_tracking";
@@ -1015,6 +1058,7 @@ public final class Preferences {
         public static final int ORDER_FIELD_SIZE = 7;
         public static final int ORDER_FIELD_CHILDREN = 8; // Groups only
         public static final int ORDER_FIELD_READ_PROGRESS = 9;
+        public static final int ORDER_FIELD_RELEVANCE = 10; // Universal search only
         public static final int ORDER_FIELD_CUSTOM = 98;
         public static final int ORDER_FIELD_RANDOM = 99;
 
@@ -0,0 +1,444 @@
+package me.devsaki.hentoid.util;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.documentfile.provider.DocumentFile;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes ZIP archives, preparing their entries in parallel
+ * <p>
+ * - Already compressed files (e.g. JPEG, PNG, WebP pictures) are STORED as is; other files are deflated
+ * - Entries are read and compressed on a bounded thread pool, a few entries ahead of the one being written;
+ * the memory held by these entries is capped by a byte budget
+ * - Entries are written in the given order, as a stream (no seeking into the output)
+ * - One archiver can be used to archive several books in a row; it must be closed afterwards to release its threads
+ * <p>
+ * NB : ZIP64 isn't supported (archives are limited to 65535 entries and 4GB)
+ */
+public class ZipArchiver implements Closeable {
+
+    private static final int BUFFER = 32 * 1024;
+    // Files larger than that are streamed by the writer instead of being prepared in memory
+    private static final long MAX_IN_MEMORY_SIZE = 4L * 1024 * 1024;
+    // Maximum memory held by the entries being prepared or waiting to be written
+    private static final long MAX_BYTES_IN_FLIGHT = 32L * 1024 * 1024;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int EOCD_SIZE = 22;
+
+    private static final short METHOD_STORED = 0;
+    private static final short METHOD_DEFLATED = 8;
+    private static final short FLAG_UTF8 = 0x0800;
+    private static final long MAX_ZIP32_VALUE = 0xFFFFFFFFL;
+    private static final int MAX_ZIP32_ENTRIES = 0xFFFF;
+
+    // Extensions of the files that don't gain anything from being deflated
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "jpg", "jpeg", "jfif", "png", "apng", "gif", "webp", "avif", "heic", "heif",
+            "zip", "cbz", "rar", "cbr", "7z", "cb7", "mp4", "webm"));
+
+    /**
+     * File to be archived
+     */
+    public interface Source {
+        String getName();
+
+        // Size of the file, in bytes; 0 if unknown
+        long getSize();
+
+        // Last modification date, in milliseconds; 0 if unknown
+        long getLastModified();
+
+        InputStream open() throws IOException;
+    }
+
+    // Entry ready to be written
+    private static class PreparedEntry {
+        private final Source source;
+        private final byte[] name;
+        private final short method;
+        private final long crc;
+        private final long size;
+        private final long compressedSize;
+        private final int dosTime;
+        // Data to write; null if the entry is streamed from its source by the writer
+        private final byte[] data;
+
+        private PreparedEntry(@NonNull Source source, short method, long crc, long size, long compressedSize, @Nullable byte[] data) {
+            this.source = source;
+            this.name = source.getName().getBytes(StandardCharsets.UTF_8);
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.dosTime = toDosTime(source.getLastModified());
+            this.data = data;
+        }
+    }
+
+    private final ExecutorService executor;
+    private final int maxEntriesInFlight;
+    private final long maxBytesInFlight;
+    private final long maxInMemorySize;
+
+
+    /**
+     * Create an archiver using as many threads as there are available processors, but one
+     */
+    public ZipArchiver() {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), MAX_IN_MEMORY_SIZE);
+    }
+
+    ZipArchiver(int nbThreads, long maxInMemorySize) {
+        executor = Executors.newFixedThreadPool(nbThreads);
+        // Bounds the memory used by prepared entries waiting to be written
+        maxEntriesInFlight = nbThreads * 2;
+        maxBytesInFlight = Math.min(MAX_BYTES_IN_FLIGHT, Runtime.getRuntime().maxMemory() / 8);
+        this.maxInMemorySize = maxInMemorySize;
+    }
+
+    /**
+     * Archive the given files into the given output stream
+     * NB : The output stream is flushed but not closed
+     *
+     * @param context Context to be used
+     * @param files   Files to be archived
+     * @param out     Output stream to write to
+     * @return Size of the archive, in bytes
+     * @throws IOException If something horrible happens during I/O
+     */
+    public long zipFiles(@NonNull final Context context, @NonNull final List<DocumentFile> files, @NonNull final OutputStream out) throws IOException {
+        List<Source> sources = new ArrayList<>(files.size());
+        for (DocumentFile file : files) {
+            String name = file.getName();
+            sources.add(new Source() {
+                @Override
+                public String getName() {
+                    return (null == name) ? "" : name;
+                }
+
+                @Override
+                public long getSize() {
+                    return file.length();
+                }
+
+                @Override
+                public long getLastModified() {
+                    return file.lastModified();
+                }
+
+                @Override
+                public InputStream open() throws IOException {
+                    return FileHelper.getInputStream(context, file);
+                }
+            });
+        }
+        return zip(sources, out);
+    }
+
+    /**
+     * Archive the given sources into the given output stream
+     * NB : The output stream is flushed but not closed
+     *
+     * @param sources Files to be archived, in the order of the archive
+     * @param out     Output stream to write to
+     * @return Size of the archive, in bytes
+     * @throws IOException If something horrible happens during I/O
+     */
+    long zip(@NonNull final List<Source> sources, @NonNull final OutputStream out) throws IOException {
+        Helper.assertNonUiThread();
+        if (sources.size() > MAX_ZIP32_ENTRIES) throw new IOException("Too many files to archive");
+
+        CountingOutputStream output = new CountingOutputStream(new BufferedOutputStream(out, BUFFER));
+        ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+        Deque<Future<PreparedEntry>> inFlight = new ArrayDeque<>();
+        // Memory cost of each entry in flight, in the same order
+        Deque<Long> inFlightCosts = new ArrayDeque<>();
+        long bytesInFlight = 0;
+        int nextSource = 0;
+        try {
+            while (nextSource < sources.size() || !inFlight.isEmpty()) {
+                while (nextSource < sources.size() && inFlight.size() < maxEntriesInFlight) {
+                    Source source = sources.get(nextSource);
+                    long cost = memoryCost(source);
+                    // At least one entry is always in flight, whatever its cost
+                    if (!inFlight.isEmpty() && bytesInFlight + cost > maxBytesInFlight) break;
+                    nextSource++;
+                    inFlight.add(executor.submit(() -> prepare(source)));
+                    inFlightCosts.add(cost);
+                    bytesInFlight += cost;
+                }
+                PreparedEntry entry = await(inFlight.remove());
+                bytesInFlight -= inFlightCosts.remove();
+                long localHeaderOffset = output.getCount();
+                writeEntry(entry, output);
+                centralDirectory.write(centralHeader(entry, localHeaderOffset));
+            }
+
+            long centralDirectoryOffset = output.getCount();
+            centralDirectory.writeTo(output);
+            output.write(endOfCentralDirectory(sources.size(), centralDirectory.size(), centralDirectoryOffset));
+            output.flush();
+            return output.getCount();
+        } finally {
+            for (Future<PreparedEntry> f : inFlight) f.cancel(true);
+        }
+    }
+
+    private static PreparedEntry await(@NonNull Future<PreparedEntry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Archiving interrupted");
+        }
+    }
+
+    private boolean isStreamed(@NonNull Source source) {
+        // Files of unknown size are streamed, as their size can't be accounted for
+        return source.getSize() <= 0 || source.getSize() > maxInMemorySize;
+    }
+
+    /**
+     * Estimate the memory used to prepare the given source, until it is written
+     */
+    private long memoryCost(@NonNull Source source) {
+        if (isStreamed(source)) return BUFFER;
+        boolean isCompressed = COMPRESSED_EXTENSIONS.contains(FileHelper.getExtension(source.getName()));
+        // Deflated files need their raw data and their deflated data at the same time
+        return isCompressed ? source.getSize() : source.getSize() * 2;
+    }
+
+    /**
+     * Read and compress the given source
+     * NB : Runs on the thread pool
+     */
+    private PreparedEntry prepare(@NonNull Source source) throws IOException {
+        boolean isCompressed = COMPRESSED_EXTENSIONS.contains(FileHelper.getExtension(source.getName()));
+
+        // Large files : only compute their checksum; their data is streamed when writing them
+        if (isStreamed(source)) {
+            CRC32 crc = new CRC32();
+            long size = 0;
+            byte[] buffer = new byte[BUFFER];
+            try (InputStream in = source.open()) {
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    crc.update(buffer, 0, count);
+                    size += count;
+                }
+            }
+            return new PreparedEntry(source, METHOD_STORED, crc.getValue(), size, size, null);
+        }
+
+        byte[] raw = readFully(source);
+        CRC32 crc = new CRC32();
+        crc.update(raw);
+        if (!isCompressed) {
+            byte[] deflated = deflate(raw);
+            if (deflated.length < raw.length)
+                return new PreparedEntry(source, METHOD_DEFLATED, crc.getValue(), raw.length, deflated.length, deflated);
+        }
+        return new PreparedEntry(source, METHOD_STORED, crc.getValue(), raw.length, raw.length, raw);
+    }
+
+    private static byte[] readFully(@NonNull Source source) throws IOException {
+        // Read directly into an array of the expected size, to avoid copying the data
+        byte[] result = new byte[(int) source.getSize()];
+        int size = 0;
+        try (InputStream in = source.open()) {
+            int count;
+            while (size < result.length && (count = in.read(result, size, result.length - size)) != -1)
+                size += count;
+            if (size == result.length && in.read() != -1)
+                throw new IOException("File has changed while being archived : " + source.getName());
+        }
+        return (size < result.length) ? Arrays.copyOf(result, size) : result;
+    }
+
+    private static byte[] deflate(@NonNull byte[] data) {
+        // Raw deflate (no zlib header), as expected inside ZIP archives
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream result = new ByteArrayOutputStream(data.length / 2 + 64);
+            byte[] buffer = new byte[BUFFER];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                result.write(buffer, 0, count);
+            }
+            return result.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeEntry(@NonNull PreparedEntry entry, @NonNull CountingOutputStream output) throws IOException {
+        if (output.getCount() > MAX_ZIP32_VALUE || entry.compressedSize > MAX_ZIP32_VALUE)
+            throw new IOException("Archive too large");
+
+        output.write(localHeader(entry));
+        if (entry.data != null) {
+            output.write(entry.data);
+            return;
+        }
+
+        // Streamed entry : the file must not have changed since its checksum has been computed
+        CRC32 crc = new CRC32();
+        long size = 0;
+        byte[] buffer = new byte[BUFFER];
+        try (InputStream in = entry.source.open()) {
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, count);
+                size += count;
+                output.write(buffer, 0, count);
+            }
+        }
+        if (size != entry.size || crc.getValue() != entry.crc)
+            throw new IOException("File has changed while being archived : " + entry.source.getName());
+    }
+
+    private static byte[] localHeader(@NonNull PreparedEntry entry) {
+        ByteBuffer result = ByteBuffer.allocate(LOCAL_HEADER_SIZE + entry.name.length).order(ByteOrder.LITTLE_ENDIAN);
+        result.putInt(LOCAL_HEADER_SIGNATURE);
+        result.putShort(versionNeeded(entry));
+        result.putShort(FLAG_UTF8);
+        result.putShort(entry.method);
+        result.putInt(entry.dosTime);
+        result.putInt((int) entry.crc);
+        result.putInt((int) entry.compressedSize);
+        result.putInt((int) entry.size);
+        result.putShort((short) entry.name.length);
+        result.putShort((short) 0); // Extra field length
+        result.put(entry.name);
+        return result.array();
+    }
+
+    private static byte[] centralHeader(@NonNull PreparedEntry entry, long localHeaderOffset) {
+        ByteBuffer result = ByteBuffer.allocate(CENTRAL_HEADER_SIZE + entry.name.length).order(ByteOrder.LITTLE_ENDIAN);
+        result.putInt(CENTRAL_HEADER_SIGNATURE);
+        result.putShort(versionNeeded(entry)); // Version made by
+        result.putShort(versionNeeded(entry));
+        result.putShort(FLAG_UTF8);
+        result.putShort(entry.method);
+        result.putInt(entry.dosTime);
+        result.putInt((int) entry.crc);
+        result.putInt((int) entry.compressedSize);
+        result.putInt((int) entry.size);
+        result.putShort((short) entry.name.length);
+        result.putShort((short) 0); // Extra field length
+        result.putShort((short) 0); // Comment length
+        result.putShort((short) 0); // Disk number
+        result.putShort((short) 0); // Internal attributes
+        result.putInt(0);           // External attributes
+        result.putInt((int) localHeaderOffset);
+        result.put(entry.name);
+        return result.array();
+    }
+
+    private static byte[] endOfCentralDirectory(int nbEntries, long size, long offset) throws IOException {
+        if (offset > MAX_ZIP32_VALUE) throw new IOException("Archive too large");
+        ByteBuffer result = ByteBuffer.allocate(EOCD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        result.putInt(EOCD_SIGNATURE);
+        result.putShort((short) 0); // Disk number
+        result.putShort((short) 0); // Disk where the central directory starts
+        result.putShort((short) nbEntries);
+        result.putShort((short) nbEntries);
+        result.putInt((int) size);
+        result.putInt((int) offset);
+        result.putShort((short) 0); // Comment length
+        return result.array();
+    }
+
+    private static short versionNeeded(@NonNull PreparedEntry entry) {
+        return (short) ((METHOD_DEFLATED == entry.method) ? 20 : 10);
+    }
+
+    /**
+     * Convert the given date to the MS-DOS format used by ZIP headers (time on the lower 16 bits, date on the upper 16 bits)
+     */
+    static int toDosTime(long millis) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis((millis > 0) ? millis : System.currentTimeMillis());
+        int year = cal.get(Calendar.YEAR);
+        if (year < 1980) return (1 << 21) | (1 << 16); // 1980-01-01, the earliest possible date
+
+        int date = ((year - 1980) << 9) | ((cal.get(Calendar.MONTH) + 1) << 5) | cal.get(Calendar.DAY_OF_MONTH);
+        int time = (cal.get(Calendar.HOUR_OF_DAY) << 11) | (cal.get(Calendar.MINUTE) << 5) | (cal.get(Calendar.SECOND) >> 1);
+        return (date << 16) | time;
+    }
+
+    /**
+     * Stop the threads of the archiver
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        private long count = 0;
+
+        CountingOutputStream(@NonNull OutputStream out) {
+            this.out = out;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
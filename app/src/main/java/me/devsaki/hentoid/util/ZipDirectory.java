@@ -0,0 +1,179 @@
+package me.devsaki.hentoid.util;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Central directory of a ZIP archive, locating the entries that are STORED (i.e. not compressed)
+ * so that they can be read directly from the archive file, without any extraction
+ * <p>
+ * Only the entries that can be read as is are kept : compressed, encrypted and ZIP64 entries are left
+ * to the regular extraction
+ */
+class ZipDirectory {
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+
+    private static final int EOCD_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIZE = 30;
+
+    private static final int METHOD_STORED = 0;
+    private static final int FLAG_ENCRYPTED = 1;
+    private static final long ZIP64_MARKER = 0xFFFFFFFFL;
+
+    static class Entry {
+        private final long localHeaderOffset;
+        private final long size;
+        // Offset of the data of the entry; read from its local header on first access
+        private long dataOffset = -1;
+
+        private Entry(long localHeaderOffset, long size) {
+            this.localHeaderOffset = localHeaderOffset;
+            this.size = size;
+        }
+
+        long getSize() {
+            return size;
+        }
+    }
+
+    private final long archiveSize;
+    // Path of the entry (case-insensitive) -> STORED entry
+    private final Map<String, Entry> storedEntries;
+
+
+    private ZipDirectory(long archiveSize, @NonNull Map<String, Entry> storedEntries) {
+        this.archiveSize = archiveSize;
+        this.storedEntries = storedEntries;
+    }
+
+    /**
+     * Read the central directory of the given archive
+     *
+     * @param channel Channel to the archive file
+     * @return Central directory of the given archive; without any entry if it isn't a ZIP archive that can be read directly
+     * @throws IOException If something horrible happens during I/O
+     */
+    static ZipDirectory read(@NonNull FileChannel channel) throws IOException {
+        long archiveSize = channel.size();
+        if (archiveSize < EOCD_SIZE) return empty(archiveSize);
+
+        // The end of central directory record is located at the end of the file, before the archive comment
+        int tailSize = (int) Math.min(archiveSize, EOCD_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = readAt(channel, archiveSize - tailSize, tailSize);
+        int eocdPos = -1;
+        for (int i = tailSize - EOCD_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == EOCD_SIGNATURE) {
+                eocdPos = i;
+                break;
+            }
+        }
+        if (eocdPos < 0) return empty(archiveSize);
+
+        int nbEntries = tail.getShort(eocdPos + 10) & 0xFFFF;
+        long directorySize = tail.getInt(eocdPos + 12) & ZIP64_MARKER;
+        long directoryOffset = tail.getInt(eocdPos + 16) & ZIP64_MARKER;
+        if (0xFFFF == nbEntries || ZIP64_MARKER == directorySize || ZIP64_MARKER == directoryOffset)
+            return empty(archiveSize);
+        if (directoryOffset + directorySize > archiveSize - tailSize + eocdPos)
+            return empty(archiveSize);
+
+        ByteBuffer directory = readAt(channel, directoryOffset, (int) directorySize);
+        Map<String, Entry> storedEntries = new HashMap<>();
+        int pos = 0;
+        for (int i = 0; i < nbEntries; i++) {
+            if (pos + CENTRAL_HEADER_SIZE > directorySize || directory.getInt(pos) != CENTRAL_HEADER_SIGNATURE)
+                return empty(archiveSize);
+            int flags = directory.getShort(pos + 8) & 0xFFFF;
+            int method = directory.getShort(pos + 10) & 0xFFFF;
+            long compressedSize = directory.getInt(pos + 20) & ZIP64_MARKER;
+            long size = directory.getInt(pos + 24) & ZIP64_MARKER;
+            int nameLength = directory.getShort(pos + 28) & 0xFFFF;
+            int extraLength = directory.getShort(pos + 30) & 0xFFFF;
+            int commentLength = directory.getShort(pos + 32) & 0xFFFF;
+            long localHeaderOffset = directory.getInt(pos + 42) & ZIP64_MARKER;
+            if (pos + CENTRAL_HEADER_SIZE + nameLength > directorySize)
+                return empty(archiveSize);
+
+            String name = new String(directory.array(), pos + CENTRAL_HEADER_SIZE, nameLength, StandardCharsets.UTF_8);
+            if (METHOD_STORED == method
+                    && 0 == (flags & FLAG_ENCRYPTED)
+                    && compressedSize == size
+                    && size != ZIP64_MARKER
+                    && localHeaderOffset != ZIP64_MARKER
+                    && !name.endsWith("/"))
+                storedEntries.put(name.toLowerCase(), new Entry(localHeaderOffset, size));
+
+            pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+
+        return new ZipDirectory(archiveSize, storedEntries);
+    }
+
+    private static ZipDirectory empty(long archiveSize) {
+        return new ZipDirectory(archiveSize, Collections.emptyMap());
+    }
+
+    long getArchiveSize() {
+        return archiveSize;
+    }
+
+    /**
+     * Get the given entry, if it can be read directly from the archive file
+     *
+     * @param entryPath Path of the entry (relative to the archive root)
+     * @return Given entry; null if the archive has no such entry or if it isn't STORED
+     */
+    @Nullable
+    Entry getStoredEntry(@NonNull String entryPath) {
+        return storedEntries.get(entryPath.toLowerCase());
+    }
+
+    /**
+     * Get the offset of the data of the given entry inside the archive file
+     *
+     * @param channel Channel to the archive file
+     * @param entry   Entry to locate
+     * @return Offset of the data of the given entry inside the archive file; -1 if its local header is invalid
+     * @throws IOException If something horrible happens during I/O
+     */
+    long getDataOffset(@NonNull FileChannel channel, @NonNull Entry entry) throws IOException {
+        synchronized (entry) {
+            if (entry.dataOffset < 0) {
+                // Names and extra fields of the local header may differ from those of the central directory
+                ByteBuffer header = readAt(channel, entry.localHeaderOffset, LOCAL_HEADER_SIZE);
+                if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) return -1;
+                int nameLength = header.getShort(26) & 0xFFFF;
+                int extraLength = header.getShort(28) & 0xFFFF;
+                long dataOffset = entry.localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+                if (dataOffset + entry.size > archiveSize) return -1;
+                entry.dataOffset = dataOffset;
+            }
+            return entry.dataOffset;
+        }
+    }
+
+    private static ByteBuffer readAt(@NonNull FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer result = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (result.hasRemaining()) {
+            if (channel.read(result, position + result.position()) < 0)
+                throw new EOFException("Unexpected end of archive");
+        }
+        result.flip();
+        return result;
+    }
+}
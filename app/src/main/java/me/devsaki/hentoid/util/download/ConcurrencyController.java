@@ -0,0 +1,113 @@
+package me.devsaki.hentoid.util.download;
+
+/**
+ * AIMD (additive increase / multiplicative decrease) controller of the number of downloads
+ * to run at the same time on a given site
+ * <p>
+ * - Additive increase : the limit grows by one as long as the measured throughput keeps growing
+ * with it; when it doesn't, the last increment is given back and the limit stays stable for a while
+ * - Multiplicative decrease : the limit is halved when the site signals it's overloaded
+ * (429 / 503 responses, timeouts)
+ * <p>
+ * NB : Not thread-safe
+ */
+public class ConcurrencyController {
+
+    // Number of throughput samples averaged before deciding on the next step
+    static final int SAMPLES_PER_STEP = 3;
+    // Minimum throughput gain for an increment to be considered useful
+    private static final float MIN_GAIN = 1.1f;
+    // Number of steps the limit stays stable after a useless increment or a decrease
+    static final int HOLD_STEPS = 10;
+    // Minimum delay between two decreases (requests running at the same time tend to fail together)
+    static final long DECREASE_COOLDOWN_MS = 5000;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private int limit;
+
+    // Average throughput measured with the previous limit
+    private float referenceSpeed = 0;
+    private float speedSum = 0;
+    private int nbSamples = 0;
+    private boolean lastStepIncreased = false;
+    private int holdSteps = 0;
+    private long lastDecrease = 0;
+
+
+    /**
+     * @param initialLimit Initial number of downloads to run at the same time
+     * @param maxLimit     Maximum number of downloads to run at the same time
+     */
+    public ConcurrencyController(int initialLimit, int maxLimit) {
+        this.minLimit = 1;
+        this.maxLimit = Math.max(maxLimit, minLimit);
+        this.limit = Math.max(Math.min(initialLimit, this.maxLimit), minLimit);
+    }
+
+    /**
+     * Current number of downloads to run at the same time
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Record a throughput sample, measured while the current limit was fully used
+     *
+     * @param speedKbps Measured throughput
+     * @return True if the limit has changed
+     */
+    public boolean onSpeedSample(float speedKbps) {
+        speedSum += speedKbps;
+        if (++nbSamples < SAMPLES_PER_STEP) return false;
+
+        float speed = speedSum / nbSamples;
+        speedSum = 0;
+        nbSamples = 0;
+
+        if (holdSteps > 0) {
+            holdSteps--;
+            referenceSpeed = speed;
+            return false;
+        }
+
+        int previousLimit = limit;
+        if (0 == referenceSpeed || speed > referenceSpeed * MIN_GAIN) {
+            // Throughput still grows with concurrency => keep growing
+            lastStepIncreased = limit < maxLimit;
+            if (lastStepIncreased) limit++;
+        } else {
+            // No gain => give the last increment back and stay there for a while
+            if (lastStepIncreased && limit > minLimit) limit--;
+            lastStepIncreased = false;
+            holdSteps = HOLD_STEPS;
+        }
+        referenceSpeed = speed;
+        return limit != previousLimit;
+    }
+
+    /**
+     * Signal the site is overloaded or is throttling downloads
+     *
+     * @return True if the limit has changed
+     */
+    public boolean onCongestion() {
+        return onCongestion(System.currentTimeMillis());
+    }
+
+    boolean onCongestion(long nowMs) {
+        if (lastDecrease > 0 && nowMs - lastDecrease < DECREASE_COOLDOWN_MS) return false;
+        lastDecrease = nowMs;
+
+        int previousLimit = limit;
+        limit = Math.max(minLimit, limit / 2);
+        // Throughput measured before the decrease is no longer relevant
+        referenceSpeed = 0;
+        speedSum = 0;
+        nbSamples = 0;
+        lastStepIncreased = false;
+        holdSteps = HOLD_STEPS;
+        return limit != previousLimit;
+    }
+}
@@ -0,0 +1,54 @@
+package me.devsaki.hentoid.util.download;
+
+import androidx.annotation.NonNull;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of fixed-size buffers used to stream downloaded files to storage
+ * <p>
+ * Memory used by a download doesn't depend on the size of the downloaded file : each download
+ * borrows one buffer for its whole duration, and gives it back when it's done
+ */
+public class DownloadBufferPool {
+
+    public static final int BUFFER_SIZE = 64 * 1024;
+    // Buffers in excess are left to the garbage collector
+    private static final int MAX_POOLED_BUFFERS = 16;
+
+    private static final Queue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger nbBuffers = new AtomicInteger(0);
+
+    private DownloadBufferPool() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Borrow a buffer of BUFFER_SIZE bytes from the pool
+     * NB : Contents of the buffer are undefined
+     *
+     * @return Buffer to use; to be given back using release
+     */
+    public static byte[] acquire() {
+        byte[] result = buffers.poll();
+        if (null == result) return new byte[BUFFER_SIZE];
+        nbBuffers.decrementAndGet();
+        return result;
+    }
+
+    /**
+     * Give the given buffer back to the pool
+     *
+     * @param buffer Buffer to give back; must not be used by the caller afterwards
+     */
+    public static void release(@NonNull byte[] buffer) {
+        if (buffer.length != BUFFER_SIZE) return;
+        if (nbBuffers.incrementAndGet() > MAX_POOLED_BUFFERS) {
+            nbBuffers.decrementAndGet();
+            return;
+        }
+        buffers.offer(buffer);
+    }
+}
@@ -0,0 +1,140 @@
+package me.devsaki.hentoid.util.download;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import me.devsaki.hentoid.util.Helper;
+import timber.log.Timber;
+
+/**
+ * Storage of partially downloaded files, allowing their download to be resumed
+ * with HTTP Range requests, including after the app has been restarted
+ * <p>
+ * Each part is made of two files named after the hash of the downloaded URL :
+ * - Data received so far (the offset to resume from being its length)
+ * - Metadata : URL, expected length, validator (ETag or Last-Modified) and content type
+ */
+class DownloadPartStore {
+
+    // Responses bigger than that are downloaded through a part file
+    static final long RESUMABLE_MIN_SIZE = 2L * 1024 * 1024;
+    // Parts older than that are considered abandoned
+    private static final long MAX_PART_AGE_MS = 7L * 24 * 60 * 60 * 1000;
+
+    private static final String DATA_EXT = ".part";
+    private static final String META_EXT = ".meta";
+
+    private final File folder;
+
+
+    /**
+     * Part of a download
+     */
+    static class Part {
+        final File data;
+        final File meta;
+        final long totalLength;
+        final String validator;
+        final String contentType;
+
+        private Part(@NonNull File data, @NonNull File meta, long totalLength, @NonNull String validator, @NonNull String contentType) {
+            this.data = data;
+            this.meta = meta;
+            this.totalLength = totalLength;
+            this.validator = validator;
+            this.contentType = contentType;
+        }
+
+        /**
+         * Number of bytes already received
+         */
+        long getOffset() {
+            return data.length();
+        }
+    }
+
+
+    DownloadPartStore(@NonNull File folder) {
+        this.folder = folder;
+        if (!folder.exists() && !folder.mkdirs()) Timber.w("Could not create %s", folder);
+        purge();
+    }
+
+    /**
+     * Find the part previously downloaded for the given URL
+     *
+     * @param url URL to find the part for
+     * @return Part previously downloaded for the given URL; null if none
+     */
+    @Nullable
+    synchronized Part find(@NonNull String url) {
+        String key = getKey(url);
+        File meta = new File(folder, key + META_EXT);
+        File data = new File(folder, key + DATA_EXT);
+        if (!meta.exists() || !data.exists()) return null;
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(meta)))) {
+            if (!input.readUTF().equals(url)) return null; // Hash collision
+            Part result = new Part(data, meta, input.readLong(), input.readUTF(), input.readUTF());
+            if (result.getOffset() <= result.totalLength) return result;
+        } catch (IOException e) {
+            Timber.w(e);
+        }
+        // Unreadable or inconsistent part
+        delete(new Part(data, meta, 0, "", ""));
+        return null;
+    }
+
+    /**
+     * Create an empty part for the given URL
+     *
+     * @param url         Downloaded URL
+     * @param totalLength Expected length of the file
+     * @param validator   Value identifying the version of the file (ETag or Last-Modified)
+     * @param contentType Content type of the file
+     * @return New part
+     * @throws IOException If the part can't be created
+     */
+    synchronized Part create(@NonNull String url, long totalLength, @NonNull String validator, @NonNull String contentType) throws IOException {
+        String key = getKey(url);
+        File meta = new File(folder, key + META_EXT);
+        File data = new File(folder, key + DATA_EXT);
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(meta)))) {
+            output.writeUTF(url);
+            output.writeLong(totalLength);
+            output.writeUTF(validator);
+            output.writeUTF(contentType);
+        }
+        // Truncate any previous data
+        new FileOutputStream(data).close();
+        return new Part(data, meta, totalLength, validator, contentType);
+    }
+
+    synchronized void delete(@NonNull Part part) {
+        if (part.data.exists() && !part.data.delete()) Timber.w("Could not delete %s", part.data);
+        if (part.meta.exists() && !part.meta.delete()) Timber.w("Could not delete %s", part.meta);
+    }
+
+    // Remove abandoned parts
+    private void purge() {
+        File[] files = folder.listFiles();
+        if (null == files) return;
+        long limit = System.currentTimeMillis() - MAX_PART_AGE_MS;
+        for (File f : files)
+            if (f.lastModified() < limit && !f.delete()) Timber.w("Could not delete %s", f);
+    }
+
+    private static String getKey(@NonNull String url) {
+        return Long.toHexString(Helper.hash64(url.getBytes(StandardCharsets.UTF_8)));
+    }
+}
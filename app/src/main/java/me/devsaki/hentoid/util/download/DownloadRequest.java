@@ -0,0 +1,106 @@
+package me.devsaki.hentoid.util.download;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.InputStream;
+import java.util.Map;
+
+import me.devsaki.hentoid.util.network.HttpHelper;
+import okhttp3.Request;
+
+/**
+ * Download of a single file, to be processed by {@link RequestQueueManager}
+ * <p>
+ * The body of a successful response is streamed to the success callback as it is received;
+ * both callbacks are called on the download threads of the queue
+ */
+public class DownloadRequest {
+
+    /**
+     * Callback receiving the body of a successful response
+     */
+    public interface StreamListener {
+        /**
+         * Process the given response body
+         * NB : The stream is closed as soon as the call returns
+         *
+         * @param body    Body of the response
+         * @param headers Headers of the response (case-insensitive keys)
+         */
+        void onStream(@NonNull InputStream body, @NonNull Map<String, String> headers);
+    }
+
+    /**
+     * Callback receiving download failures
+     * NB : Not called for requests that have been canceled
+     */
+    public interface ErrorListener {
+        /**
+         * Process the given failure
+         *
+         * @param statusCode HTTP status code of the response; -1 if no response has been received
+         * @param error      Exception that has caused the failure; null if the server has answered with an error code
+         */
+        void onError(int statusCode, @Nullable Exception error);
+    }
+
+    private final String url;
+    private final Map<String, String> headers;
+    private final boolean useHentoidAgent;
+    private final boolean useWebviewAgent;
+    private final StreamListener streamListener;
+    private final ErrorListener errorListener;
+    // Number of times the download has been resumed after a transfer failure
+    private int nbResumes = 0;
+
+
+    public DownloadRequest(
+            @NonNull String url,
+            @NonNull Map<String, String> headers,
+            boolean useHentoidAgent,
+            boolean useWebviewAgent,
+            @NonNull StreamListener streamListener,
+            @NonNull ErrorListener errorListener) {
+        this.url = url;
+        this.headers = headers;
+        this.useHentoidAgent = useHentoidAgent;
+        this.useWebviewAgent = useWebviewAgent;
+        this.streamListener = streamListener;
+        this.errorListener = errorListener;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    StreamListener getStreamListener() {
+        return streamListener;
+    }
+
+    ErrorListener getErrorListener() {
+        return errorListener;
+    }
+
+    int getNbResumes() {
+        return nbResumes;
+    }
+
+    void increaseNbResumes() {
+        nbResumes++;
+    }
+
+    /**
+     * Build the HTTP request corresponding to this download
+     */
+    Request buildHttpRequest() {
+        Request.Builder builder = new Request.Builder().url(url).get();
+        builder.header(HttpHelper.HEADER_USER_AGENT, HttpHelper.getMobileUserAgent(useHentoidAgent, useWebviewAgent));
+        builder.header("Accept", "image/jpeg,image/png,image/avif,image/webp,image/apng,image/svg+xml,image/*,*/*"); // Required to pass through cloudflare filtering on some sites
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            String value = (null == entry.getValue()) ? "" : entry.getValue();
+            builder.header(entry.getKey(), value);
+        }
+        return builder.build();
+    }
+}
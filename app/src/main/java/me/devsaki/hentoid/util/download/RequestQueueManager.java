@@ -1,195 +1,449 @@
 package me.devsaki.hentoid.util.download;
 
-import android.app.ActivityManager;
 import android.content.Context;
 import android.net.Uri;
 
-import com.android.volley.Request;
-import com.android.volley.RequestQueue;
-import com.android.volley.toolbox.BasicNetwork;
-import com.android.volley.toolbox.DiskBasedCache;
-import com.android.volley.toolbox.Volley;
-//import com.crashlytics.android.Crashlytics;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.util.EnumMap;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Random;
+import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 
 import io.reactivex.Observable;
-import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.Disposable;
 import io.reactivex.schedulers.Schedulers;
+import me.devsaki.hentoid.enums.Site;
+import me.devsaki.hentoid.util.FileHelper;
 import me.devsaki.hentoid.util.Preferences;
-import me.devsaki.hentoid.util.network.VolleyOkHttp3Stack;
+import me.devsaki.hentoid.util.StringHelper;
+import me.devsaki.hentoid.util.network.HttpHelper;
+import me.devsaki.hentoid.util.network.OkHttpClientSingleton;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
+import okhttp3.Headers;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
 import timber.log.Timber;
 
 /**
  * Created by Robb_w on 2018/04
- * Manager class for image download queue (Volley)
+ * Manager class for image download queue
  * <p>
- * NB : Class looks like a singleton but isn't really one, since it is reinstanciated everytime forceSlowMode changes
+ * Downloads are run as asynchronous OkHttp calls by a dispatcher of its own, which limits
+ * the number of downloads running at the same time, per host and overall. The connection pool is
+ * shared with the rest of the app, so that HTTP/2 connections are multiplexed whenever the site
+ * supports it.
+ * <p>
+ * Queued requests are only handed over to the dispatcher when there's room for them, so that
+ * canceling the queue or simulating human reading doesn't have to deal with calls that are
+ * already scheduled.
+ * <p>
+ * The number of requests running at the same time is adjusted live for each site by a
+ * {@link ConcurrencyController}, according to measured throughput and to the errors of the site.
+ * <p>
+ * Large files served by hosts that support Range requests are received into a part file
+ * (see {@link DownloadPartStore}); when their transfer fails, they are resumed from the last
+ * received byte, immediately or the next time they are queued.
  */
-public class RequestQueueManager<T> implements RequestQueue.RequestEventListener {
+public class RequestQueueManager {
     private static RequestQueueManager mInstance;           // Instance of the singleton
     private static final int TIMEOUT_MS = 15000;
+    // Maximum number of downloads running at the same time, all hosts combined
+    private static final int MAX_CONCURRENT_DOWNLOADS = 16;
+    // Number of times a failed transfer is resumed right away
+    private static final int MAX_RESUMES = 3;
+    private static final String PARTS_FOLDER = "download_parts";
+
+    private static final String HEADER_RANGE = "Range";
+    private static final String HEADER_IF_RANGE = "If-Range";
+    private static final String HEADER_CONTENT_RANGE = "Content-Range";
+    private static final String HEADER_ACCEPT_RANGES = "Accept-Ranges";
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+
+    private final OkHttpClient client;
+    private final Dispatcher dispatcher;
+    private final DownloadPartStore partStore;
+    private final int initialConcurrency;
+    private final int maxConcurrency;
 
-    private RequestQueue mRequestQueue;                     // Volley download request queue
-    private int nbRequests = 0;                             // Number of requests currently in the queue (for debug display)
+    // Concurrency controllers of the sites downloaded during this session
+    private final Map<Site, ConcurrencyController> controllers = new EnumMap<>(Site.class);
+    private ConcurrencyController controller;
+
+    private final LinkedList<DownloadRequest> waitingRequestQueue = new LinkedList<>();
+    private int nbActiveRequests = 0;                       // Number of requests currently handled by the dispatcher
 
     private boolean isSimulateHumanReading = false;
-    private final LinkedList<Request<T>> waitingRequestQueue = new LinkedList<>();
     private Disposable waitDisposable = null;
 
 
-    private RequestQueueManager(Context context) {
+    private RequestQueueManager(@NonNull Context context) {
+        // Automatic setting : adapt from the suggested count up to the maximum
+        // Manual setting : adapt below the chosen count
         int dlThreadCount = Preferences.getDownloadThreadCount();
         if (dlThreadCount == Preferences.Constant.DOWNLOAD_THREAD_COUNT_AUTO) {
-            dlThreadCount = getSuggestedThreadCount(context);
+            initialConcurrency = getSuggestedThreadCount();
+            maxConcurrency = MAX_CONCURRENT_DOWNLOADS;
+        } else {
+            initialConcurrency = dlThreadCount;
+            maxConcurrency = dlThreadCount;
         }
-        //Crashlytics.setInt("Download thread count", dlThreadCount);
-        //crashlytics.setCustomKey("Download thread count", dlThreadCount);
-
-        mRequestQueue = getRequestQueue(context, dlThreadCount);
-    }
+        controller = new ConcurrencyController(initialConcurrency, maxConcurrency);
 
-    private static int getSuggestedThreadCount(Context context) {
-        final int threshold = 64;
-        final int maxThreads = 4;
+        // Actual limits are enforced by processWaitingRequests
+        dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(maxConcurrency);
+        dispatcher.setMaxRequests(Math.max(maxConcurrency, MAX_CONCURRENT_DOWNLOADS));
 
-        int memoryClass = getMemoryClass(context);
-        //Crashlytics.setInt("Memory class", memoryClass);
-        //crashlytics.setCustomKey("Memory class", memoryClass);
+        client = OkHttpClientSingleton.getInstance(TIMEOUT_MS).newBuilder()
+                .dispatcher(dispatcher)
+                .cache(null) // Downloaded files are never cached
+                .build();
 
-        if (memoryClass == 0) return maxThreads;
-        int threadCount = (int) Math.ceil((double) memoryClass / (double) threshold);
-        return Math.min(threadCount, maxThreads);
+        partStore = new DownloadPartStore(new File(context.getFilesDir(), PARTS_FOLDER));
     }
 
-    private static int getMemoryClass(Context context) {
-        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
-        if (activityManager == null) return 0;
-        return activityManager.getMemoryClass();
+    private static int getSuggestedThreadCount() {
+        // Downloads are streamed to storage using fixed-size buffers (see DownloadBufferPool)
+        // => memory used by each thread doesn't depend on the size of the downloaded pictures
+        // and doesn't need to limit the number of threads anymore
+        return 4;
     }
 
-    @SuppressWarnings("unchecked")
-    public static synchronized <T> RequestQueueManager<T> getInstance(Context context) {
+    public static synchronized RequestQueueManager getInstance(Context context) {
         if (context != null && mInstance == null) {
-            mInstance = new RequestQueueManager<T>(context);
+            mInstance = new RequestQueueManager(context.getApplicationContext());
         }
         return mInstance;
     }
 
     /**
-     * Start the app's Volley request queue
+     * Add a request to the app's queue
      *
-     * @param ctx App context
-     * @return Hentoid Volley request queue
+     * @param request Request to add to the queue
+     */
+    public synchronized void queueRequest(@NonNull DownloadRequest request) {
+        waitingRequestQueue.add(request);
+        Timber.v("Waiting requests queue ::: request stored for host %s - current total %s", Uri.parse(request.getUrl()).getHost(), waitingRequestQueue.size());
+        processWaitingRequests();
+    }
+
+    /**
+     * Hand waiting requests over to the dispatcher, as long as there's room for them
      */
-    private RequestQueue getRequestQueue(Context ctx) { // This is the safest code, as it relies on standard Volley interface
-        if (mRequestQueue == null) {
-            mRequestQueue = Volley.newRequestQueue(ctx.getApplicationContext(), new VolleyOkHttp3Stack(TIMEOUT_MS));
-            mRequestQueue.addRequestEventListener(this);
+    private synchronized void processWaitingRequests() {
+        while (!waitingRequestQueue.isEmpty() && nbActiveRequests < controller.getLimit()) {
+            // When simulating human reading, requests are run one at a time, after a random delay
+            if (isSimulateHumanReading && (nbActiveRequests > 0 || waitDisposable != null)) return;
+            executeRequest(waitingRequestQueue.removeFirst());
         }
-        return mRequestQueue;
     }
 
-    private RequestQueue getRequestQueue(Context ctx, int nbDlThreads) { // Freely inspired by inner workings of Volley.java and RequestQueue.java; to be watched closely as Volley evolves
-        if (mRequestQueue == null) {
-            BasicNetwork network = new BasicNetwork(new VolleyOkHttp3Stack(TIMEOUT_MS));
-            DiskBasedCache.FileSupplier cacheSupplier =
-                    new DiskBasedCache.FileSupplier() {
-                        private File cacheDir = null;
+    private void executeRequest(@NonNull DownloadRequest request) {
+        nbActiveRequests++;
+        Timber.v("Global requests queue ::: request added for host %s - current total %s", Uri.parse(request.getUrl()).getHost(), nbActiveRequests);
 
-                        @Override
-                        public File get() {
-                            if (cacheDir == null) {
-                                cacheDir = new File(ctx.getCacheDir(), "volley"); // NB : this is dirty, as this value is supposed to be private in Volley.java
-                            }
-                            return cacheDir;
-                        }
-                    };
-            mRequestQueue = new RequestQueue(new DiskBasedCache(cacheSupplier), network, nbDlThreads);
-            mRequestQueue.addRequestEventListener(this);
-            mRequestQueue.start();
+        // Resume from the part that has already been received, if any
+        DownloadPartStore.Part part = partStore.find(request.getUrl());
+        Request.Builder httpRequest = request.buildHttpRequest().newBuilder();
+        if (part != null && part.getOffset() > 0) {
+            httpRequest.header(HEADER_RANGE, "bytes=" + part.getOffset() + "-");
+            // Server sends the whole file if it has changed since the part was received
+            httpRequest.header(HEADER_IF_RANGE, part.validator);
         }
-        return mRequestQueue;
+
+        client.newCall(httpRequest.build()).enqueue(new Callback() {
+            @Override
+            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                try {
+                    if (!call.isCanceled()) onTransferError(request, e, false);
+                } finally {
+                    onRequestFinished(request);
+                }
+            }
+
+            @Override
+            public void onResponse(@NonNull Call call, @NonNull Response response) {
+                try (ResponseBody body = response.body()) {
+                    if (call.isCanceled()) return;
+                    if (response.isSuccessful() && body != null) {
+                        processBody(request, part, response, body);
+                    } else {
+                        if (429 == response.code() || 503 == response.code()) onCongestion();
+                        request.getErrorListener().onError(response.code(), null);
+                    }
+                } catch (DownloadPartException e) {
+                    if (!call.isCanceled()) onTransferError(request, e.getCause(), true);
+                } finally {
+                    onRequestFinished(request);
+                }
+            }
+        });
     }
 
     /**
-     * Add a request to the app's queue
+     * Process the body of the given successful response
      *
-     * @param request Request to addAll to the queue
+     * @param request  Request the response belongs to
+     * @param part     Part the request has been sent for; null if none
+     * @param response Response to process
+     * @param body     Body of the response
+     * @throws DownloadPartException If the transfer of a resumable file has failed
      */
-    public void queueRequest(Request<T> request) {
-        if (isSimulateHumanReading && nbRequests > 0) {
-            Timber.d("Waiting requests queue ::: request stored for host %s - current total %s", Uri.parse(request.getUrl()).getHost(), waitingRequestQueue.size());
-            waitingRequestQueue.add(request);
-        } else {
-            addToRequestQueue(request);
+    private void processBody(
+            @NonNull DownloadRequest request,
+            @Nullable DownloadPartStore.Part part,
+            @NonNull Response response,
+            @NonNull ResponseBody body) throws DownloadPartException {
+        Map<String, String> headers = mapHeaders(response.headers());
+
+        if (206 == response.code()) {
+            if (part != null && getRangeStart(response) == part.getOffset()) {
+                receivePart(request, part, body, headers);
+                return;
+            }
+            // Range that doesn't follow the received part => it can't be completed nor used as the whole file
+            if (part != null) {
+                partStore.delete(part);
+                // Without the part, the next request asks for the whole file
+                if (request.getNbResumes() < MAX_RESUMES) {
+                    request.increaseNbResumes();
+                    Timber.d("Unexpected range %s received for %s; downloading the whole file", response.header(HEADER_CONTENT_RANGE), request.getUrl());
+                    synchronized (this) {
+                        waitingRequestQueue.addFirst(request);
+                    }
+                    return;
+                }
+            }
+            request.getErrorListener().onError(206, new IOException("Unexpected partial content : " + response.header(HEADER_CONTENT_RANGE)));
+            return;
+        }
+        // Only complete files can be handed over to the request
+        if (response.code() != 200) {
+            if (part != null) partStore.delete(part);
+            request.getErrorListener().onError(response.code(), null);
+            return;
+        }
+        // Server sends the file from its start => previous part is useless
+        if (part != null) partStore.delete(part);
+
+        // Large file that can be resumed
+        String validator = getValidator(response);
+        long length = body.contentLength();
+        if (length >= DownloadPartStore.RESUMABLE_MIN_SIZE && validator != null
+                && "bytes".equalsIgnoreCase(response.header(HEADER_ACCEPT_RANGES))) {
+            String contentType = StringHelper.protect(response.header(HttpHelper.HEADER_CONTENT_TYPE));
+            try {
+                part = partStore.create(request.getUrl(), length, validator, contentType);
+            } catch (IOException e) {
+                Timber.w(e);
+                part = null;
+            }
+            if (part != null) {
+                receivePart(request, part, body, headers);
+                return;
+            }
+        }
+
+        request.getStreamListener().onStream(body.byteStream(), headers);
+    }
+
+    /**
+     * Append the given body to the given part; hand the whole file over to the request when complete
+     *
+     * @throws DownloadPartException If the transfer has failed
+     */
+    private void receivePart(
+            @NonNull DownloadRequest request,
+            @NonNull DownloadPartStore.Part part,
+            @NonNull ResponseBody body,
+            @NonNull Map<String, String> headers) throws DownloadPartException {
+        byte[] buffer = DownloadBufferPool.acquire();
+        try (OutputStream out = new FileOutputStream(part.data, true)) {
+            FileHelper.copy(body.byteStream(), out, buffer);
+        } catch (IOException e) {
+            throw new DownloadPartException(e);
+        } finally {
+            DownloadBufferPool.release(buffer);
+        }
+        if (part.getOffset() < part.totalLength)
+            throw new DownloadPartException(new IOException(String.format("Transfer ended at %s of %s bytes", part.getOffset(), part.totalLength)));
+
+        if (!part.contentType.isEmpty()) headers.put(HttpHelper.HEADER_CONTENT_TYPE, part.contentType);
+        try (InputStream in = new FileInputStream(part.data)) {
+            request.getStreamListener().onStream(in, headers);
+        } catch (IOException e) {
+            Timber.w(e);
+            request.getErrorListener().onError(-1, e);
+        } finally {
+            partStore.delete(part);
+        }
+    }
+
+    /**
+     * Handle a transfer that has failed because of network conditions
+     *
+     * @param request     Failed request
+     * @param e           Cause of the failure
+     * @param hasProgress True if bytes have been received into a part file during the transfer
+     */
+    private void onTransferError(@NonNull DownloadRequest request, @NonNull IOException e, boolean hasProgress) {
+        if (e instanceof SocketTimeoutException) onCongestion();
+        if (hasProgress && request.getNbResumes() < MAX_RESUMES) {
+            request.increaseNbResumes();
+            Timber.d("Resuming transfer of %s (%s)", request.getUrl(), e.getMessage());
+            synchronized (this) {
+                waitingRequestQueue.addFirst(request);
+            }
+        } else request.getErrorListener().onError(-1, e);
+    }
+
+    // Start of the range of the given partial response; -1 if none
+    private static long getRangeStart(@NonNull Response response) {
+        // Format : bytes <start>-<end>/<total>
+        String contentRange = response.header(HEADER_CONTENT_RANGE);
+        if (null == contentRange || !contentRange.startsWith("bytes ")) return -1;
+        int dashIndex = contentRange.indexOf('-');
+        if (dashIndex < 0) return -1;
+        try {
+            return Long.parseLong(contentRange.substring(6, dashIndex).trim());
+        } catch (NumberFormatException e) {
+            return -1;
         }
     }
 
-    private void addToRequestQueue(Request<T> request) {
-        mRequestQueue.add(request);
-        nbRequests++;
-        Timber.v("Global requests queue ::: request added for host %s - current total %s", Uri.parse(request.getUrl()).getHost(), nbRequests);
+    // Value identifying the version of the received file, usable by If-Range; null if none
+    @Nullable
+    private static String getValidator(@NonNull Response response) {
+        String eTag = response.header(HEADER_ETAG);
+        if (eTag != null && !eTag.startsWith("W/")) return eTag; // Weak ETags can't be used with If-Range
+        return response.header(HEADER_LAST_MODIFIED);
+    }
+
+    /**
+     * Failed transfer of a resumable file
+     */
+    private static class DownloadPartException extends Exception {
+        DownloadPartException(@NonNull IOException cause) {
+            super(cause);
+        }
+
+        @NonNull
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
     }
 
     /**
      * Generic handler called when a request is completed
-     * NB : This method is run on the app's main thread
+     * NB : This method is run on the dispatcher's threads
      *
      * @param request Completed request
      */
-    public void onRequestFinished(Request<T> request) {
-        nbRequests--;
-        Timber.v("Global requests queue ::: request removed for host %s - current total %s", Uri.parse(request.getUrl()).getHost(), nbRequests);
+    private synchronized void onRequestFinished(@NonNull DownloadRequest request) {
+        nbActiveRequests--;
+        Timber.v("Global requests queue ::: request removed for host %s - current total %s", Uri.parse(request.getUrl()).getHost(), nbActiveRequests);
 
-        if (isSimulateHumanReading && 0 == nbRequests && !waitingRequestQueue.isEmpty()) {
-            // Wait on a separate thread as we're currently on the app's main thread
+        if (isSimulateHumanReading && 0 == nbActiveRequests && !waitingRequestQueue.isEmpty() && null == waitDisposable) {
             int delayMs = 500 + new Random().nextInt(1500);
             Timber.d("Waiting requests queue ::: waiting %d ms", delayMs);
             waitDisposable = Observable.timer(delayMs, TimeUnit.MILLISECONDS)
                     .subscribeOn(Schedulers.computation())
-                    .observeOn(AndroidSchedulers.mainThread())
                     .subscribe(
-                            v -> {
-                                // Add the next request to the queue
-                                Timber.d("Waiting requests queue ::: request added for host %s - current total %s", Uri.parse(request.getUrl()).getHost(), waitingRequestQueue.size());
-                                Request<T> req = waitingRequestQueue.removeFirst();
-                                addToRequestQueue(req);
-                                waitDisposable.dispose();
-                            },
+                            v -> onWaitComplete(),
                             Timber::e
                     );
+        } else processWaitingRequests();
+    }
+
+    private synchronized void onWaitComplete() {
+        if (waitDisposable != null) {
+            waitDisposable.dispose();
+            waitDisposable = null;
+        }
+        processWaitingRequests();
+    }
+
+    /**
+     * Select the site the next requests are going to be downloaded from
+     *
+     * @param site Site the next requests are going to be downloaded from
+     */
+    public synchronized void setSite(@NonNull Site site) {
+        ConcurrencyController siteController = controllers.get(site);
+        if (null == siteController) {
+            siteController = new ConcurrencyController(initialConcurrency, maxConcurrency);
+            controllers.put(site, siteController);
+        }
+        controller = siteController;
+        processWaitingRequests();
+    }
+
+    /**
+     * Record the download throughput measured at the current time
+     *
+     * @param speedKbps Measured throughput
+     */
+    public synchronized void onDownloadSpeedSample(float speedKbps) {
+        // Throughput only tells something about the limit when it is fully used
+        if (waitingRequestQueue.isEmpty() || nbActiveRequests < controller.getLimit()) return;
+        if (controller.onSpeedSample(speedKbps)) {
+            Timber.d("Concurrency ::: throughput %.0f Kbps -> %d requests", speedKbps, controller.getLimit());
+            processWaitingRequests();
         }
     }
 
-    public void setSimulateHumanReading(boolean value) {
+    // Site is overloaded or is throttling downloads
+    private synchronized void onCongestion() {
+        if (controller.onCongestion())
+            Timber.d("Concurrency ::: congestion -> %d requests", controller.getLimit());
+    }
+
+    private static Map<String, String> mapHeaders(@NonNull Headers headers) {
+        Map<String, String> result = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0, len = headers.size(); i < len; i++)
+            result.put(headers.name(i), headers.value(i));
+        return result;
+    }
+
+    public synchronized void setSimulateHumanReading(boolean value) {
         isSimulateHumanReading = value;
     }
 
-    public boolean isSimulateHumanReading() {
+    public synchronized boolean isSimulateHumanReading() {
         return isSimulateHumanReading;
     }
 
     /**
-     * Cancel the app's request queue : cancel all requests remaining in the queue
+     * Cancel the app's request queue : cancel all requests remaining in the queue,
+     * as well as the ones that are running
+     * <p>
+     * NB : That's how downloads are paused; they are queued again when the download is resumed
      */
-    public void cancelQueue() {
-        RequestQueue.RequestFilter filterForAll = request -> true;
-        mRequestQueue.cancelAll(filterForAll);
+    public synchronized void cancelQueue() {
         waitingRequestQueue.clear();
+        dispatcher.cancelAll();
         isSimulateHumanReading = false;
-        if (waitDisposable != null) waitDisposable.dispose();
-        Timber.d("RequestQueue ::: canceled");
-    }
-
-    @Override
-    public void onRequestEvent(Request<?> request, int event) {
-        if (event == RequestQueue.RequestEvent.REQUEST_FINISHED) {
-            onRequestFinished((Request<T>) request); // https://github.com/google/volley/issues/403
+        if (waitDisposable != null) {
+            waitDisposable.dispose();
+            waitDisposable = null;
         }
+        Timber.d("RequestQueue ::: canceled");
     }
 }
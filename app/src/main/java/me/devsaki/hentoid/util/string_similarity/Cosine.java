@@ -60,6 +60,35 @@ public class Cosine extends ShingleBased implements StringSimilarity {
                 / (norm(profile1) * norm(profile2));
     }
 
+    /**
+     * Compute the cosine similarity between precomputed profiles.
+     * Gives the same result as similarity(String, String) on their source strings,
+     * without recomputing the profiles nor allocating anything.
+     *
+     * @param profile1 Profile of the first string to compare.
+     * @param profile2 Profile of the second string to compare.
+     * @return The cosine similarity in the range [0, 1]
+     * @throws IllegalArgumentException if the profiles haven't been computed with the same k.
+     */
+    public final double similarity(final ShingleProfile profile1, final ShingleProfile profile2) {
+        if (profile1.getK() != getK() || profile2.getK() != getK()) {
+            throw new IllegalArgumentException("Profiles must be computed with k=" + getK());
+        }
+
+        String s1 = profile1.getSource();
+        String s2 = profile2.getSource();
+        if (s1.equals(s2)) {
+            return 1;
+        }
+
+        if (s1.length() < getK() || s2.length() < getK()) {
+            return 0;
+        }
+
+        return ShingleProfile.dotProduct(profile1, profile2)
+                / (profile1.getNorm() * profile2.getNorm());
+    }
+
     /**
      * Compute the norm L2 : sqrt(Sum_i( v_i²)).
      *
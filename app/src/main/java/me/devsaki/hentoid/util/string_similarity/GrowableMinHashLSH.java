@@ -0,0 +1,108 @@
+package me.devsaki.hentoid.util.string_similarity;
+
+import java.util.Arrays;
+
+/**
+ * Variant of MinHashLSH that can be built one string at a time, and queried with strings
+ * that aren't part of the index
+ * <p>
+ * Entries of each band are kept sorted (binary search), apart from the latest ones that are
+ * kept in a small unsorted tail (linear search) until they are merged into the sorted entries.
+ * Strings become candidates under the same conditions as with MinHashLSH.
+ * <p>
+ * NB : Not thread-safe
+ */
+public class GrowableMinHashLSH {
+
+    // Maximum number of entries kept unsorted in each band
+    private static final int MAX_TAIL_SIZE = 512;
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Empty index, only used to compute band keys
+    private final MinHashLSH keys;
+    private final int nbBands;
+
+    // For each band, entries sorted by (band key | index of the string), then the unsorted tail
+    private final long[][] bandEntries;
+    private int sortedSize = 0;
+    private int size = 0;
+
+
+    public GrowableMinHashLSH() {
+        this(MinHashLSH.DEFAULT_BANDS, MinHashLSH.DEFAULT_ROWS);
+    }
+
+    /**
+     * @param nbBands Number of LSH bands
+     * @param nbRows  Number of MinHash values per band
+     */
+    public GrowableMinHashLSH(int nbBands, int nbRows) {
+        keys = new MinHashLSH(new ShingleProfile[0], nbBands, nbRows);
+        this.nbBands = nbBands;
+        bandEntries = new long[nbBands][INITIAL_CAPACITY];
+    }
+
+    /**
+     * Number of indexed strings
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Index the string of the given profile
+     *
+     * @param profile Profile of the string to index
+     * @return Index of the string, to be used as its identifier
+     */
+    public int add(ShingleProfile profile) {
+        if (size >= MinHashLSH.MAX_SIZE)
+            throw new IllegalStateException("Can't index more than " + MinHashLSH.MAX_SIZE + " strings");
+        int index = size++;
+        long[] bandKeys = keys.computeBandKeys(profile);
+        for (int b = 0; b < nbBands; b++) {
+            if (bandEntries[b].length < size)
+                bandEntries[b] = Arrays.copyOf(bandEntries[b], bandEntries[b].length * 2);
+            bandEntries[b][index] = (bandKeys[b] << MinHashLSH.INDEX_BITS) | index;
+        }
+        if (size - sortedSize >= MAX_TAIL_SIZE) {
+            for (int b = 0; b < nbBands; b++) Arrays.sort(bandEntries[b], 0, size);
+            sortedSize = size;
+        }
+        return index;
+    }
+
+    /**
+     * Retrieve the indexed strings that are candidates for the string of the given profile
+     *
+     * @param profile Profile of the string to retrieve candidates for
+     * @return Sorted indexes of the candidates
+     */
+    public int[] getCandidates(ShingleProfile profile) {
+        long[] bandKeys = keys.computeBandKeys(profile);
+        int[] result = new int[16];
+        int nbResults = 0;
+        for (int b = 0; b < nbBands; b++) {
+            long[] entries = bandEntries[b];
+            long key = bandKeys[b];
+            // Entries of the same bucket are contiguous inside the sorted entries
+            int position = Arrays.binarySearch(entries, 0, sortedSize, key << MinHashLSH.INDEX_BITS);
+            if (position < 0) position = -position - 1;
+            for (int p = position; p < sortedSize && (entries[p] >>> MinHashLSH.INDEX_BITS) == key; p++) {
+                if (nbResults == result.length) result = Arrays.copyOf(result, nbResults * 2);
+                result[nbResults++] = (int) (entries[p] & MinHashLSH.INDEX_MASK);
+            }
+            for (int p = sortedSize; p < size; p++) {
+                if ((entries[p] >>> MinHashLSH.INDEX_BITS) != key) continue;
+                if (nbResults == result.length) result = Arrays.copyOf(result, nbResults * 2);
+                result[nbResults++] = (int) (entries[p] & MinHashLSH.INDEX_MASK);
+            }
+        }
+        // Remove candidates found in several bands
+        Arrays.sort(result, 0, nbResults);
+        int nbDistinct = 0;
+        for (int i = 0; i < nbResults; i++)
+            if (0 == nbDistinct || result[i] != result[nbDistinct - 1]) result[nbDistinct++] = result[i];
+        return Arrays.copyOf(result, nbDistinct);
+    }
+}
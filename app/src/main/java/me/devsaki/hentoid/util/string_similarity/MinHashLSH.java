@@ -0,0 +1,188 @@
+package me.devsaki.hentoid.util.string_similarity;
+
+import java.util.Arrays;
+
+/**
+ * Locality-sensitive hashing index of strings, based on MinHash signatures of their k-shingles
+ * <p>
+ * Each string is summarized by a signature of (nbBands * nbRows) MinHash values; two strings
+ * become candidates as soon as all the rows of any of their bands are identical.
+ * The probability for two strings with Jaccard index J to become candidates is
+ * 1 - (1 - J^nbRows)^nbBands
+ * <p>
+ * NB : This is a candidate generation structure; it is probabilistic and does not compute any
+ * similarity by itself. Candidates still have to be scored with the actual similarity measure.
+ */
+public class MinHashLSH {
+
+    // 24 bands of 3 rows : > 99.9% chance of catching strings with Jaccard index >= 0.64
+    // (i.e. the lowest Jaccard index two strings can have with a cosine similarity >= 0.8),
+    // < 3% chance of pairing unrelated strings (Jaccard index <= 0.1)
+    public static final int DEFAULT_BANDS = 24;
+    public static final int DEFAULT_ROWS = 3;
+
+    // Number of bits of each entry used to store the index of the indexed string
+    static final int INDEX_BITS = 24;
+    static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+    public static final int MAX_SIZE = 1 << INDEX_BITS;
+
+    private final int nbBands;
+    private final int nbRows;
+    private final long[] seeds;
+
+    // For each band, entries sorted by (band key | index of the string)
+    private final long[][] bandEntries;
+    // For each band, position of each string inside the corresponding bandEntries
+    private final int[][] bandPositions;
+    private final int size;
+
+
+    /**
+     * Build the index of the given strings using the default number of bands and rows
+     *
+     * @param shingler Shingler to use to extract k-shingles from the strings
+     * @param strings  Strings to index; their indexes will be used as identifiers
+     */
+    public MinHashLSH(ShingleBased shingler, String[] strings) {
+        this(toProfiles(shingler, strings), DEFAULT_BANDS, DEFAULT_ROWS);
+    }
+
+    /**
+     * Build the index of the strings of the given profiles using the default number of bands and rows
+     *
+     * @param profiles Profiles of the strings to index; their indexes will be used as identifiers
+     */
+    public MinHashLSH(ShingleProfile[] profiles) {
+        this(profiles, DEFAULT_BANDS, DEFAULT_ROWS);
+    }
+
+    /**
+     * Build the index of the strings of the given profiles
+     *
+     * @param profiles Profiles of the strings to index; their indexes will be used as identifiers
+     * @param nbBands  Number of LSH bands
+     * @param nbRows   Number of MinHash values per band
+     */
+    public MinHashLSH(ShingleProfile[] profiles, int nbBands, int nbRows) {
+        if (profiles.length > MAX_SIZE)
+            throw new IllegalArgumentException("Can't index more than " + MAX_SIZE + " strings");
+        this.nbBands = nbBands;
+        this.nbRows = nbRows;
+        size = profiles.length;
+
+        seeds = new long[nbBands * nbRows];
+        long seed = 0x2545F4914F6CDD1DL;
+        for (int i = 0; i < seeds.length; i++) {
+            seed = mix64(seed + i);
+            seeds[i] = seed;
+        }
+
+        bandEntries = new long[nbBands][size];
+        bandPositions = new int[nbBands][size];
+        long[] signature = new long[seeds.length];
+        for (int i = 0; i < size; i++) {
+            computeSignature(profiles[i], signature);
+            for (int b = 0; b < nbBands; b++)
+                bandEntries[b][i] = (bandKey(signature, b) << INDEX_BITS) | i;
+        }
+        for (int b = 0; b < nbBands; b++) {
+            long[] entries = bandEntries[b];
+            Arrays.sort(entries);
+            for (int p = 0; p < size; p++) bandPositions[b][(int) (entries[p] & INDEX_MASK)] = p;
+        }
+    }
+
+    private static ShingleProfile[] toProfiles(ShingleBased shingler, String[] strings) {
+        ShingleProfile[] result = new ShingleProfile[strings.length];
+        for (int i = 0; i < strings.length; i++)
+            result[i] = new ShingleProfile(strings[i], shingler);
+        return result;
+    }
+
+    /**
+     * Number of indexed strings
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Retrieve the candidates of the string at the given index that have a greater index
+     *
+     * @param index     Index of the string to retrieve candidates for
+     * @param marks     Buffer of the size of the index, used to deduplicate candidates;
+     *                  must initially contain zeros, and can then be reused as is for calls
+     *                  with other indexes (each index must be used only once per buffer)
+     * @param result    Buffer receiving the candidates; must be of the size of the index
+     * @return Number of candidates written into the given buffer, in no particular order
+     */
+    public int getCandidatesAfter(int index, int[] marks, int[] result) {
+        int stamp = index + 1;
+        int nbResults = 0;
+        for (int b = 0; b < nbBands; b++) {
+            long[] entries = bandEntries[b];
+            int position = bandPositions[b][index];
+            long key = entries[position] >>> INDEX_BITS;
+            // Entries of the same bucket are contiguous
+            for (int p = position - 1; p >= 0 && (entries[p] >>> INDEX_BITS) == key; p--)
+                nbResults = addCandidate((int) (entries[p] & INDEX_MASK), index, stamp, marks, result, nbResults);
+            for (int p = position + 1; p < size && (entries[p] >>> INDEX_BITS) == key; p++)
+                nbResults = addCandidate((int) (entries[p] & INDEX_MASK), index, stamp, marks, result, nbResults);
+        }
+        return nbResults;
+    }
+
+    private static int addCandidate(int candidate, int index, int stamp, int[] marks, int[] result, int nbResults) {
+        if (candidate <= index || marks[candidate] == stamp) return nbResults;
+        marks[candidate] = stamp;
+        result[nbResults] = candidate;
+        return nbResults + 1;
+    }
+
+    /**
+     * Compute the key of each band of the string of the given profile
+     * NB : Keys can only be compared with keys computed by an index with the same number of bands and rows
+     *
+     * @param profile Profile of the string to compute band keys for
+     * @return Key of each band, small enough to leave room for the index of the string
+     */
+    long[] computeBandKeys(ShingleProfile profile) {
+        long[] signature = new long[seeds.length];
+        computeSignature(profile, signature);
+        long[] result = new long[nbBands];
+        for (int b = 0; b < nbBands; b++) result[b] = bandKey(signature, b);
+        return result;
+    }
+
+    private void computeSignature(ShingleProfile profile, long[] signature) {
+        Arrays.fill(signature, Long.MAX_VALUE);
+        int[] shingleIds = profile.getIds();
+        // Strings without shingles are only similar to identical strings
+        if (0 == shingleIds.length) {
+            addToSignature(profile.getSource().hashCode(), signature);
+        } else {
+            for (int id : shingleIds) addToSignature(id, signature);
+        }
+    }
+
+    private void addToSignature(int shingleHash, long[] signature) {
+        for (int i = 0; i < seeds.length; i++) {
+            long h = mix64(shingleHash ^ seeds[i]);
+            if (h < signature[i]) signature[i] = h;
+        }
+    }
+
+    private long bandKey(long[] signature, int band) {
+        long result = band;
+        for (int r = 0; r < nbRows; r++) result = mix64(result * 31 + signature[band * nbRows + r]);
+        // Keep room for the index of the string
+        return result >>> INDEX_BITS;
+    }
+
+    // SplitMix64 finalizer
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
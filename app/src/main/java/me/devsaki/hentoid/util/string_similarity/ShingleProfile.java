@@ -0,0 +1,131 @@
+package me.devsaki.hentoid.util.string_similarity;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Precomputed, compact k-shingle profile of a string (see {@link ShingleBased#getProfile(String)})
+ * <p>
+ * Shingles are identified by a 32-bit hash, stored in ascending order along with their number
+ * of occurrences, so that two profiles can be compared by a merge-join without any allocation.
+ * The L2 norm of the profile is computed once.
+ * <p>
+ * NB : Identifiers only depend on the shingles themselves, so that profiles computed at any time can be compared
+ * without keeping any shared state. Two shingles of the same hash are counted as the same shingle, which is
+ * very unlikely to happen within two titles and only raises their similarity by a tiny amount.
+ */
+public final class ShingleProfile {
+
+    private final String source;
+    private final int k;
+    private final int[] ids;
+    private final int[] counts;
+    private final double norm;
+
+
+    /**
+     * Compute the profile of the given string
+     *
+     * @param source   String to compute the profile for
+     * @param shingler Shingler defining the length of the shingles
+     */
+    public ShingleProfile(@NonNull String source, @NonNull ShingleBased shingler) {
+        this.source = source;
+        this.k = shingler.getK();
+
+        if (source.length() < k) {
+            // Too short to be profiled; such strings are only similar to identical strings
+            ids = new int[0];
+            counts = new int[0];
+        } else {
+            Map<String, Integer> profile = shingler.getProfile(source);
+            // Identifier in the upper 32 bits, count in the lower 32 bits => sorted by identifier
+            long[] entries = new long[profile.size()];
+            int i = 0;
+            for (Map.Entry<String, Integer> entry : profile.entrySet())
+                entries[i++] = ((long) hash(entry.getKey()) << 32) | entry.getValue();
+            Arrays.sort(entries);
+            int[] tmpIds = new int[entries.length];
+            int[] tmpCounts = new int[entries.length];
+            int nbIds = 0;
+            for (long entry : entries) {
+                int id = (int) (entry >> 32);
+                if (nbIds > 0 && tmpIds[nbIds - 1] == id) { // Hash collision
+                    tmpCounts[nbIds - 1] += (int) entry;
+                } else {
+                    tmpIds[nbIds] = id;
+                    tmpCounts[nbIds++] = (int) entry;
+                }
+            }
+            ids = (nbIds < entries.length) ? Arrays.copyOf(tmpIds, nbIds) : tmpIds;
+            counts = (nbIds < entries.length) ? Arrays.copyOf(tmpCounts, nbIds) : tmpCounts;
+        }
+
+        double agg = 0;
+        for (int count : counts) agg += 1.0 * count * count;
+        norm = Math.sqrt(agg);
+    }
+
+    // FNV-1a followed by the MurmurHash3 finalizer, to spread short strings over the 32 bits
+    private static int hash(@NonNull String shingle) {
+        int h = 0x811C9DC5;
+        for (int i = 0; i < shingle.length(); i++) h = (h ^ shingle.charAt(i)) * 0x01000193;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * String the profile has been computed for
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Length of the shingles of the profile
+     */
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * Identifiers of the shingles of the profile, in ascending order
+     * NB : Returned array must not be modified
+     */
+    public int[] getIds() {
+        return ids;
+    }
+
+    /**
+     * L2 norm of the profile
+     */
+    public double getNorm() {
+        return norm;
+    }
+
+    /**
+     * Dot product of the given profiles
+     */
+    public static double dotProduct(@NonNull ShingleProfile profile1, @NonNull ShingleProfile profile2) {
+        int[] ids1 = profile1.ids;
+        int[] ids2 = profile2.ids;
+        int i = 0;
+        int j = 0;
+        long agg = 0;
+        while (i < ids1.length && j < ids2.length) {
+            int id1 = ids1[i];
+            int id2 = ids2[j];
+            if (id1 == id2) {
+                agg += (long) profile1.counts[i++] * profile2.counts[j++];
+            } else if (id1 < id2) i++;
+            else j++;
+        }
+        return agg;
+    }
+}
@@ -300,7 +300,7 @@ public class ContentItem extends AbstractItem<ContentItem.ContentViewHolder> imp
                 longValue = bundleParser.getReadPagesCount();
                 if (longValue != null) item.content.setReadPagesCount(longValue.intValue());
                 String stringValue = bundleParser.getCoverUri();
-                if (stringValue != null) item.content.getCover().setFileUri(stringValue);
+                if (stringValue != null) item.content.setCoverUri(stringValue);
             }
 
             if (item.deleteAction != null)
@@ -363,8 +363,7 @@ public class ContentItem extends AbstractItem<ContentItem.ContentViewHolder> imp
         }
 
         private void attachCover(@NonNull final Content content) {
-            ImageFile cover = content.getCover();
-            String thumbLocation = cover.getUsableUri();
+            String thumbLocation = content.getCoverUri();
             if (thumbLocation.isEmpty()) {
                 ivCover.setVisibility(View.INVISIBLE);
                 return;
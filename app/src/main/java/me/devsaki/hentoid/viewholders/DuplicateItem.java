@@ -44,7 +44,6 @@ import me.devsaki.hentoid.activities.bundles.DuplicateItemBundle;
 import me.devsaki.hentoid.core.HentoidApp;
 import me.devsaki.hentoid.database.domains.Content;
 import me.devsaki.hentoid.database.domains.DuplicateEntry;
-import me.devsaki.hentoid.database.domains.ImageFile;
 import me.devsaki.hentoid.enums.Site;
 import me.devsaki.hentoid.enums.StatusContent;
 import me.devsaki.hentoid.ui.BlinkAnimation;
@@ -258,8 +257,7 @@ public class DuplicateItem extends AbstractItem<DuplicateItem.ContentViewHolder>
         }
 
         private void attachCover(@NonNull final Content content) {
-            ImageFile cover = content.getCover();
-            String thumbLocation = cover.getUsableUri();
+            String thumbLocation = content.getCoverUri();
             if (thumbLocation.isEmpty()) {
                 ivCover.setVisibility(View.INVISIBLE);
                 return;
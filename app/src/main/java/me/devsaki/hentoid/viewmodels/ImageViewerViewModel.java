@@ -4,6 +4,8 @@ import android.app.Application;
 import android.content.Context;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
@@ -30,6 +32,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -43,6 +46,7 @@ import io.reactivex.disposables.Disposable;
 import io.reactivex.disposables.Disposables;
 import io.reactivex.schedulers.Schedulers;
 import me.devsaki.hentoid.R;
+import me.devsaki.hentoid.core.ArchiveEntryProvider;
 import me.devsaki.hentoid.core.Consts;
 import me.devsaki.hentoid.database.CollectionDAO;
 import me.devsaki.hentoid.database.ObjectBoxDAO;
@@ -50,6 +54,7 @@ import me.devsaki.hentoid.database.domains.Content;
 import me.devsaki.hentoid.database.domains.ImageFile;
 import me.devsaki.hentoid.events.ProcessEvent;
 import me.devsaki.hentoid.util.ArchiveHelper;
+import me.devsaki.hentoid.util.ArchivePageSource;
 import me.devsaki.hentoid.util.ContentHelper;
 import me.devsaki.hentoid.util.FileHelper;
 import me.devsaki.hentoid.util.Helper;
@@ -63,6 +68,13 @@ import timber.log.Timber;
 
 public class ImageViewerViewModel extends AndroidViewModel {
 
+    // Maximum size of the pages extracted from the archive being read
+    private static final long ARCHIVE_CACHE_MAX_SIZE_BYTES = 150L * 1024 * 1024;
+    // Number of pages extracted ahead of the displayed page, in the reading direction
+    private static final int ARCHIVE_PAGES_AHEAD = 5;
+    // Number of pages extracted behind the displayed page
+    private static final int ARCHIVE_PAGES_BEHIND = 2;
+
     // Collection DAO
     private final CollectionDAO collectionDao;
     private final ContentSearchManager searchManager;
@@ -90,14 +102,19 @@ public class ImageViewerViewModel extends AndroidViewModel {
     // TODO doc
     private final AtomicBoolean interruptImageLoad = new AtomicBoolean(false);
 
+    // Archive data
+    private volatile ArchivePageSource archivePageSource = null;                           // Pages of the archive being read, extracted on demand
+    private final Map<Integer, String> archiveEntries = new ConcurrentHashMap<>();      // Page order -> path of the page inside the archive
+    private int lastArchiveIndex = 0;                                                   // Index of the last displayed page; gives the reading direction
+    private final MutableLiveData<Integer> archivePageReady = new MutableLiveData<>();  // Index of the last page extracted from the archive
+
     // Technical
     private final CompositeDisposable compositeDisposable = new CompositeDisposable();
     private Disposable searchDisposable = Disposables.empty();
-    private Disposable unarchiveDisposable = Disposables.empty();
     private Disposable imageLoadDisposable = Disposables.empty();
     private Disposable leaveDisposable = Disposables.empty();
     private Disposable emptyCacheDisposable = Disposables.empty();
-    private boolean isArchiveExtracting = false;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
 
     public ImageViewerViewModel(@NonNull Application application, @NonNull CollectionDAO collectionDAO) {
@@ -114,6 +131,7 @@ public class ImageViewerViewModel extends AndroidViewModel {
         collectionDao.cleanup();
         compositeDisposable.clear();
         searchDisposable.dispose();
+        closeArchivePageSource();
         super.onCleared();
     }
 
@@ -142,6 +160,11 @@ public class ImageViewerViewModel extends AndroidViewModel {
         return showFavouritesOnly;
     }
 
+    @NonNull
+    public LiveData<Integer> getArchivePageReady() {
+        return archivePageReady;
+    }
+
     // Artificial observer bound to the activity's lifecycle to ensure DB images are pushed to the ViewModel
     public void observeDbImages(AppCompatActivity activity) {
         databaseImages.observe(activity, v -> {
@@ -188,7 +211,7 @@ public class ImageViewerViewModel extends AndroidViewModel {
         // e.g. page favourited
         if (imageLocations.isEmpty() || newImages.size() != imageLocations.size()) {
             if (theContent.isArchive())
-                observable = Observable.create(emitter -> processArchiveImages(theContent, newImages, interruptImageLoad, emitter));
+                observable = Observable.create(emitter -> processArchiveImages(theContent, pageNumber, newImages, interruptImageLoad, emitter));
             else
                 observable = Observable.create(emitter -> processDiskImages(theContent, newImages, emitter));
 
@@ -274,18 +297,17 @@ public class ImageViewerViewModel extends AndroidViewModel {
 
     private synchronized void processArchiveImages(
             @NonNull Content theContent,
+            int pageNumber,
             @NonNull List<ImageFile> newImages,
             @NonNull AtomicBoolean interrupt,
             @NonNull final ObservableEmitter<ImageFile> emitter) throws IOException {
         if (!theContent.isArchive())
             throw new IllegalArgumentException("Content must be an archive");
 
-        if (isArchiveExtracting) return;
-
         List<ImageFile> newImageFiles = new ArrayList<>(newImages);
         List<ImageFile> currentImages = databaseImages.getValue();
         if ((!newImages.isEmpty() && loadedContentId != newImages.get(0).getContent().getTargetId()) || null == currentImages) { // Load a new book
-            // TODO create a smarter cache that works with a window of a given size
+            closeArchivePageSource();
             File cachePicFolder = FileHelper.getOrCreateCacheFolder(getApplication(), Consts.PICTURE_CACHE_FOLDER);
             if (cachePicFolder != null) {
                 // Empty the cache folder where previous cached images might be
@@ -294,36 +316,65 @@ public class ImageViewerViewModel extends AndroidViewModel {
                     for (File f : files)
                         if (!f.delete()) Timber.w("Unable to delete file %s", f.getAbsolutePath());
 
-                // Extract the images if they are contained within an archive
-                // Unzip the archive in the app's cache folder
                 DocumentFile archiveFile = FileHelper.getFileFromSingleUriString(getApplication(), theContent.getStorageUri());
-                // TODO replace that with a proper on-demand loading
                 if (archiveFile != null) {
                     interrupt.set(false);
-                    isArchiveExtracting = true;
-                    unarchiveDisposable = ArchiveHelper.extractArchiveEntriesRx(
-                            getApplication(),
-                            archiveFile,
-                            Stream.of(newImageFiles).filter(i -> i.getFileUri().startsWith(theContent.getStorageUri())).map(i -> i.getFileUri().replace(theContent.getStorageUri() + File.separator, "")).toList(),
-                            cachePicFolder,
-                            null,
-                            interrupt)
-                            .subscribeOn(Schedulers.io())
-                            .observeOn(Schedulers.computation())
-                            .subscribe(
-                                    uri -> emitter.onNext(mapUriToImageFile(newImages, uri)),
-                                    t -> {
-                                        Timber.e(t);
-                                        isArchiveExtracting = false;
-                                    },
-                                    () -> {
-                                        isArchiveExtracting = false;
-                                        emitter.onComplete();
-                                        unarchiveDisposable.dispose();
-                                    }
-                            );
+                    String archivePrefix = theContent.getStorageUri() + File.separator;
+                    Map<Integer, String> imageEntries = new HashMap<>();
+                    for (ImageFile img : newImages)
+                        if (img.getFileUri().startsWith(archivePrefix))
+                            imageEntries.put(img.getOrder(), img.getFileUri().substring(archivePrefix.length()));
+
+                    // Pages stored without compression are read directly from the archive file
+                    Set<String> storedEntries = Collections.emptySet();
+                    try {
+                        storedEntries = ArchiveHelper.selectStoredEntries(getApplication(), archiveFile.getUri(), new ArrayList<>(imageEntries.values()));
+                    } catch (IOException e) {
+                        Timber.w(e);
+                    }
+                    for (ImageFile img : newImages) {
+                        String entryPath = imageEntries.get(img.getOrder());
+                        if (entryPath != null && storedEntries.contains(entryPath)) {
+                            img.setFileUri(ArchiveEntryProvider.buildUri(archiveFile.getUri(), entryPath).toString());
+                            imageEntries.remove(img.getOrder());
+                        }
+                    }
+
+                    // Other pages are extracted on demand from the archive into the app's cache folder
+                    ArchivePageSource source = imageEntries.isEmpty() ? null : ArchivePageSource.open(getApplication(), archiveFile, cachePicFolder, ARCHIVE_CACHE_MAX_SIZE_BYTES);
+                    if (source != null) {
+                        archivePageSource = source;
+
+                        // Point the pages to the files they are going to be extracted to
+                        for (ImageFile img : newImages) {
+                            String entryPath = imageEntries.get(img.getOrder());
+                            if (null == entryPath) continue;
+                            File target = source.getCacheFile(entryPath);
+                            if (null == target) continue;
+                            archiveEntries.put(img.getOrder(), entryPath);
+                            img.setFileUri(Uri.fromFile(target).toString());
+                        }
+
+                        // Only extract the starting page before displaying the book; its neighbours follow in the background
+                        int startIndex = getArchiveStartIndex(theContent, pageNumber, newImages);
+                        if (startIndex < newImages.size() && !interrupt.get()) {
+                            ImageFile startImage = newImages.get(startIndex);
+                            String entryPath = archiveEntries.get(startImage.getOrder());
+                            if (entryPath != null) {
+                                try {
+                                    source.getPage(entryPath);
+                                    emitter.onNext(startImage);
+                                } catch (IOException e) {
+                                    Timber.w(e);
+                                }
+                            }
+                            lastArchiveIndex = startIndex;
+                            prefetchArchivePages(newImages, startIndex, true);
+                        }
+                    }
                 }
             }
+            emitter.onComplete();
         } else { // Refresh current book with new data
             for (int i = 0; i < newImageFiles.size(); i++) {
                 ImageFile newImg = newImageFiles.get(i);
@@ -339,18 +390,81 @@ public class ImageViewerViewModel extends AndroidViewModel {
         }
     }
 
-    // TODO doc
-    private ImageFile mapUriToImageFile(@NonNull final List<ImageFile> imageFiles, @NonNull final Uri uri) {
-        String path = uri.getPath();
-        if (null == path) return new ImageFile();
-
-        // Feed the Uri's of unzipped files back into the corresponding images for viewing
-        for (ImageFile img : imageFiles) {
-            if (FileHelper.getFileNameWithoutExtension(img.getFileUri()).equalsIgnoreCase(ArchiveHelper.extractCacheFileName(path))) {
-                return img.setFileUri(uri.toString());
+    /**
+     * Get the index of the page the viewer is going to start at (see initViewer)
+     */
+    private int getArchiveStartIndex(@NonNull Content theContent, int pageNumber, @NonNull List<ImageFile> imageFiles) {
+        if (pageNumber > -1)
+            for (int i = 0; i < imageFiles.size(); i++)
+                if (imageFiles.get(i).getOrder() == pageNumber) return i;
+
+        if (Preferences.isViewerResumeLastLeft() && theContent.getLastReadPageIndex() > -1)
+            return Math.min(theContent.getLastReadPageIndex(), imageFiles.size() - 1);
+        return 0;
+    }
+
+    /**
+     * Extract the pages of the current archive around the given page
+     * NB : The displayed page comes first, then the following pages in the reading direction, then the previous ones
+     *
+     * @param imgs    Images, in display order
+     * @param index   Index of the displayed page
+     * @param forward True if the user is reading forward; false if backwards
+     */
+    private void prefetchArchivePages(@NonNull List<ImageFile> imgs, int index, boolean forward) {
+        ArchivePageSource source = archivePageSource;
+        if (null == source) return;
+
+        int step = forward ? 1 : -1;
+        List<String> entryPaths = new ArrayList<>();
+        addArchiveEntry(imgs, index, entryPaths);
+        for (int i = 1; i <= ARCHIVE_PAGES_AHEAD; i++) addArchiveEntry(imgs, index + i * step, entryPaths);
+        for (int i = 1; i <= ARCHIVE_PAGES_BEHIND; i++) addArchiveEntry(imgs, index - i * step, entryPaths);
+        source.prefetch(entryPaths, this::onArchivePageExtracted);
+    }
+
+    private void addArchiveEntry(@NonNull List<ImageFile> imgs, int index, @NonNull List<String> entryPaths) {
+        if (index < 0 || index >= imgs.size()) return;
+        String entryPath = archiveEntries.get(imgs.get(index).getOrder());
+        if (entryPath != null) entryPaths.add(entryPath);
+    }
+
+    // Called on the extraction thread
+    private void onArchivePageExtracted(@NonNull String entryPath) {
+        List<ImageFile> imgs = viewerImages.getValue();
+        if (null == imgs) return;
+
+        for (int i = 0; i < imgs.size(); i++) {
+            if (entryPath.equals(archiveEntries.get(imgs.get(i).getOrder()))) {
+                final int index = i;
+                // Not using postValue to signal every page, as it only keeps the last value
+                mainHandler.post(() -> archivePageReady.setValue(index));
+                return;
             }
         }
-        return new ImageFile();
+    }
+
+    /**
+     * Signal the page the viewer is currently displaying, to extract its neighbours from the archive
+     *
+     * @param viewerIndex Index of the displayed page among the viewer images
+     */
+    public void onPageChange(int viewerIndex) {
+        List<ImageFile> imgs = viewerImages.getValue();
+        if (null == archivePageSource || null == imgs) return;
+
+        boolean forward = (viewerIndex >= lastArchiveIndex);
+        lastArchiveIndex = viewerIndex;
+        prefetchArchivePages(imgs, viewerIndex, forward);
+    }
+
+    private void closeArchivePageSource() {
+        if (archivePageSource != null) {
+            archivePageSource.close();
+            archivePageSource = null;
+        }
+        archiveEntries.clear();
+        lastArchiveIndex = 0;
     }
 
     private void initViewer(@NonNull Content theContent, int pageNumber, @NonNull List<ImageFile> imageFiles) {
@@ -444,9 +558,7 @@ public class ImageViewerViewModel extends AndroidViewModel {
             Preferences.setViewerDeleteAskMode(Preferences.Constant.VIEWER_DELETE_ASK_AGAIN);
 
         // Stop any ongoing picture loading
-        unarchiveDisposable.dispose();
         imageLoadDisposable.dispose();
-        isArchiveExtracting = false;
         interruptImageLoad.set(true);
 
         // Don't do anything if the Content hasn't even been loaded
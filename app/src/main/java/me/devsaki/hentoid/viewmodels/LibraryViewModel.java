@@ -2,6 +2,7 @@ package me.devsaki.hentoid.viewmodels;
 
 import android.app.Application;
 import android.os.Bundle;
+import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -24,6 +25,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.security.InvalidParameterException;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import io.reactivex.Completable;
 import io.reactivex.Observable;
@@ -48,6 +50,7 @@ import me.devsaki.hentoid.util.GroupHelper;
 import me.devsaki.hentoid.util.Helper;
 import me.devsaki.hentoid.util.Preferences;
 import me.devsaki.hentoid.util.RandomSeedSingleton;
+import me.devsaki.hentoid.util.ZipArchiver;
 import me.devsaki.hentoid.util.download.ContentQueueManager;
 import me.devsaki.hentoid.widget.ContentSearchManager;
 import me.devsaki.hentoid.workers.DeleteWorker;
@@ -446,10 +449,18 @@ public class LibraryViewModel extends AndroidViewModel {
     public void archiveContents(@NonNull final List<Content> contentList, Consumer<Content> onProgress, Runnable onSuccess, Consumer<Throwable> onError) {
         Timber.d("Building file list for %s books", contentList.size());
 
+        // One single archiver (and thread pool) for the whole batch
+        ZipArchiver archiver = new ZipArchiver();
+        AtomicLong totalBytes = new AtomicLong();
+        long startTime = SystemClock.elapsedRealtime();
         compositeDisposable.add(
                 Observable.fromIterable(contentList)
                         .observeOn(Schedulers.io())
-                        .map(this::doArchiveContent)
+                        .map(c -> doArchiveContent(c, archiver, totalBytes))
+                        .doFinally(() -> {
+                            archiver.close();
+                            logArchiveThroughput(contentList.size() + " books", totalBytes.get(), SystemClock.elapsedRealtime() - startTime);
+                        })
                         .observeOn(AndroidSchedulers.mainThread())
                         .subscribe(
                                 onProgress::accept,
@@ -459,12 +470,18 @@ public class LibraryViewModel extends AndroidViewModel {
         );
     }
 
+    private static void logArchiveThroughput(@NonNull final String label, long bytes, long durationMs) {
+        Timber.i(">> archived %s : %.1f MB in %d ms (%.1f MB/s)", label, bytes / 1048576.0, durationMs, (bytes / 1048576.0) / Math.max(durationMs, 1) * 1000);
+    }
+
     /**
      * Archive the given Content into a ZIP file located into the device's 'Download' folder
      *
-     * @param content Content to be archived
+     * @param content    Content to be archived
+     * @param archiver   Archiver to use
+     * @param totalBytes Total size of the archives created so far, in bytes; increased with the size of the new archive
      */
-    public Content doArchiveContent(@NonNull final Content content) throws IOException {
+    private Content doArchiveContent(@NonNull final Content content, @NonNull final ZipArchiver archiver, @NonNull final AtomicLong totalBytes) throws IOException {
         Helper.assertNonUiThread();
         Timber.i(">> archive %s", content.getTitle());
         DocumentFile bookFolder = FileHelper.getFolderFromTreeUriString(getApplication(), content.getStorageUri());
@@ -485,7 +502,10 @@ public class LibraryViewModel extends AndroidViewModel {
                     destFile = FileHelper.openNewDownloadOutputStream(getApplication(), destName, ArchiveHelper.ZIP_MIME_TYPE);
                 }
                 Timber.d("Destination file: %s", destName);
-                ArchiveHelper.zipFiles(getApplication(), files, destFile);
+                long startTime = SystemClock.elapsedRealtime();
+                long size = archiver.zipFiles(getApplication(), files, destFile);
+                totalBytes.addAndGet(size);
+                logArchiveThroughput(destName, size, SystemClock.elapsedRealtime() - startTime);
             } finally {
                 if (destFile != null) destFile.close();
             }
@@ -13,14 +13,6 @@ import androidx.documentfile.provider.DocumentFile;
 import androidx.work.Data;
 import androidx.work.WorkerParameters;
 
-import com.android.volley.AuthFailureError;
-import com.android.volley.NetworkError;
-import com.android.volley.NoConnectionError;
-import com.android.volley.ParseError;
-import com.android.volley.Request;
-import com.android.volley.ServerError;
-import com.android.volley.TimeoutError;
-import com.android.volley.VolleyError;
 import com.annimon.stream.Stream;
 
 import org.apache.commons.io.output.ByteArrayOutputStream;
@@ -30,6 +22,11 @@ import org.greenrobot.eventbus.Subscribe;
 import org.threeten.bp.Instant;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -69,13 +66,20 @@ import me.devsaki.hentoid.notification.download.DownloadSuccessNotification;
 import me.devsaki.hentoid.notification.download.DownloadWarningNotification;
 import me.devsaki.hentoid.parsers.ContentParserFactory;
 import me.devsaki.hentoid.parsers.images.ImageListParser;
+import me.devsaki.hentoid.parsers.images.StreamingImageListParser;
 import me.devsaki.hentoid.util.ContentHelper;
+import me.devsaki.hentoid.util.DuplicateIndex;
+import me.devsaki.hentoid.util.FileExplorer;
 import me.devsaki.hentoid.util.FileHelper;
+import me.devsaki.hentoid.util.FolderIndex;
+import me.devsaki.hentoid.util.Helper;
 import me.devsaki.hentoid.util.ImageHelper;
 import me.devsaki.hentoid.util.JsonHelper;
 import me.devsaki.hentoid.util.Preferences;
 import me.devsaki.hentoid.util.StringHelper;
 import me.devsaki.hentoid.util.download.ContentQueueManager;
+import me.devsaki.hentoid.util.download.DownloadBufferPool;
+import me.devsaki.hentoid.util.download.DownloadRequest;
 import me.devsaki.hentoid.util.download.RequestQueueManager;
 import me.devsaki.hentoid.util.exception.AccountException;
 import me.devsaki.hentoid.util.exception.CaptchaException;
@@ -85,7 +89,6 @@ import me.devsaki.hentoid.util.exception.PreparationInterruptedException;
 import me.devsaki.hentoid.util.exception.UnsupportedContentException;
 import me.devsaki.hentoid.util.network.DownloadSpeedCalculator;
 import me.devsaki.hentoid.util.network.HttpHelper;
-import me.devsaki.hentoid.util.network.InputStreamVolleyRequest;
 import me.devsaki.hentoid.util.network.NetworkHelper;
 import me.devsaki.hentoid.util.notification.Notification;
 import me.devsaki.hentoid.util.notification.NotificationManager;
@@ -105,12 +108,17 @@ public class ContentDownloadWorker extends BaseWorker {
     private boolean isCloudFlareBlocked;
 
     private final NotificationManager userActionNotificationManager;
-    private final RequestQueueManager<Object> requestQueueManager;
+    private final RequestQueueManager requestQueueManager;
     protected final CompositeDisposable compositeDisposable = new CompositeDisposable();
 
     // Download speed calculator
     private final DownloadSpeedCalculator downloadSpeedCalculator = new DownloadSpeedCalculator();
 
+    // Index of the folder of the book being downloaded
+    private FolderIndex folderIndex = null;
+    // Number of storage provider queries when the download of the current book has started
+    private long nbProviderQueriesAtStart = 0;
+
 
     public ContentDownloadWorker(
             @NonNull Context context,
@@ -277,29 +285,45 @@ public class ContentDownloadWorker extends BaseWorker {
 
         for (ImageFile img : images) if (img.getStatus().equals(StatusContent.ERROR)) nbErrors++;
 
+        DocumentFile dir = null;
+        boolean isPipelined = false;
         if (images.isEmpty()
                 || nbErrors == images.size()
                 || (nbErrors > 0 && content.getSite().hasBackupURLs())
         ) {
+            ImageListParser parser = ContentParserFactory.getInstance().getImageListParser(content);
+            // When the whole image list is replaced, downloads can start while it is being parsed
+            isPipelined = parser instanceof StreamingImageListParser && (images.isEmpty() || nbErrors == images.size());
             try {
-                List<ImageFile> newImages = fetchImageURLs(content);
-                // Cases 1 and 2 : Replace existing images with the parsed images
-                if (images.isEmpty() || nbErrors == images.size()) images = newImages;
-                // Case 3 : Replace images in ERROR state with the parsed images at the same position
-                if (nbErrors > 0 && content.getSite().hasBackupURLs()) {
-                    for (int i = 0; i < images.size(); i++) {
-                        ImageFile oldImage = images.get(i);
-                        if (oldImage.getStatus().equals(StatusContent.ERROR)) {
-                            for (ImageFile newImg : newImages)
-                                if (newImg.getOrder().equals(oldImage.getOrder()))
-                                    images.set(i, newImg);
+                long contentId = content.getId();
+                if (isPipelined) {
+                    dir = createDownloadDir(content, images.size());
+                    if (null == dir)
+                        return new ImmutablePair<>(QueuingResult.CONTENT_FAILED, content);
+                    startDownload(content, dir);
+                    if (downloadCanceled || downloadSkipped)
+                        return new ImmutablePair<>(QueuingResult.CONTENT_SKIPPED, null);
+
+                    images = fetchImageURLs(content, (StreamingImageListParser) parser, dir);
+                } else {
+                    List<ImageFile> newImages = fetchImageURLs(content, parser);
+                    // Cases 1 and 2 : Replace existing images with the parsed images
+                    if (images.isEmpty() || nbErrors == images.size()) images = newImages;
+                    // Case 3 : Replace images in ERROR state with the parsed images at the same position
+                    if (nbErrors > 0 && content.getSite().hasBackupURLs()) {
+                        for (int i = 0; i < images.size(); i++) {
+                            ImageFile oldImage = images.get(i);
+                            if (oldImage.getStatus().equals(StatusContent.ERROR)) {
+                                for (ImageFile newImg : newImages)
+                                    if (newImg.getOrder().equals(oldImage.getOrder()))
+                                        images.set(i, newImg);
+                            }
                         }
                     }
-                }
 
-                // Manually insert new images (without using insertContent)
-                long contentId = content.getId();
-                dao.replaceImageList(contentId, images);
+                    // Manually insert new images (without using insertContent)
+                    dao.replaceImageList(contentId, images);
+                }
                 // Get updated Content with the generated ID of new images
                 content = dao.selectContent(contentId);
                 if (null == content)
@@ -338,6 +362,8 @@ public class ContentDownloadWorker extends BaseWorker {
         }
 
         if (hasError) {
+            // Stop the downloads of the images that have been found before the error
+            if (isPipelined) requestQueueManager.cancelQueue();
             moveToErrors(content.getId());
             EventBus.getDefault().post(new DownloadEvent(content, DownloadEvent.EV_COMPLETE, 0, 0, 0, 0));
             return new ImmutablePair<>(QueuingResult.CONTENT_FAILED, content);
@@ -348,7 +374,48 @@ public class ContentDownloadWorker extends BaseWorker {
         if (downloadCanceled || downloadSkipped)
             return new ImmutablePair<>(QueuingResult.CONTENT_SKIPPED, null);
 
-        // Create destination folder for images to be downloaded
+        if (isPipelined) {
+            // Set QtyPages if the content parser couldn't do it (certain sources only)
+            // Don't count the cover thumbnail in the number of pages
+            if (0 == content.getQtyPages()) {
+                content.setQtyPages(images.size() - 1);
+                dao.insertContent(content);
+            }
+        } else {
+            dir = createDownloadDir(content, images.size());
+            if (null == dir)
+                return new ImmutablePair<>(QueuingResult.CONTENT_FAILED, content);
+
+            // Set QtyPages if the content parser couldn't do it (certain sources only)
+            // Don't count the cover thumbnail in the number of pages
+            if (0 == content.getQtyPages()) content.setQtyPages(images.size() - 1);
+            startDownload(content, dir);
+
+            // In case the download has been canceled while in preparation phase
+            // NB : No log of any sort because this is normal behaviour
+            if (downloadCanceled || downloadSkipped)
+                return new ImmutablePair<>(QueuingResult.CONTENT_SKIPPED, null);
+
+            queueImages(content, dir, images);
+        }
+
+        if (ContentHelper.updateQueueJson(getApplicationContext(), dao))
+            Timber.i("Queue JSON successfully saved");
+        else Timber.w("Queue JSON saving failed");
+
+        return new ImmutablePair<>(QueuingResult.CONTENT_FOUND, content);
+    }
+
+    /**
+     * Create the folder the images of the given book are downloaded to
+     * NB : If the folder can't be created, the book is flagged as failed
+     *
+     * @param content  Book to create the folder for
+     * @param nbImages Number of images of the book
+     * @return Created folder; null if it couldn't be created
+     */
+    @Nullable
+    private DocumentFile createDownloadDir(@NonNull Content content, int nbImages) {
         DocumentFile dir = ContentHelper.getOrCreateContentDownloadDir(getApplicationContext(), content);
         // Folder creation failed
         if (null == dir || !dir.exists()) {
@@ -363,15 +430,27 @@ public class ContentDownloadWorker extends BaseWorker {
             // No sense in waiting for every image to be downloaded in error state (terrible waste of network resources)
             // => Create all images, flag them as failed as well as the book
             dao.updateImageContentStatus(content.getId(), StatusContent.SAVED, StatusContent.ERROR);
-            completeDownload(content.getId(), content.getTitle(), 0, images.size(), 0);
-            return new ImmutablePair<>(QueuingResult.CONTENT_FAILED, content);
+            completeDownload(content.getId(), content.getTitle(), 0, nbImages, 0);
+            return null;
+        }
+        return dir;
+    }
+
+    /**
+     * Flag the given book as being downloaded to the given folder and prepare the download queue for it
+     *
+     * @param content Book to download
+     * @param dir     Folder to download the book to
+     */
+    private void startDownload(@NonNull Content content, @NonNull DocumentFile dir) {
+        nbProviderQueriesAtStart = FileExplorer.getNbQueries();
+        // Files of the folder may have changed since it has been indexed
+        synchronized (this) {
+            folderIndex = null;
         }
 
         // Folder creation succeeds -> memorize its path
         content.setStorageUri(dir.getUri().toString());
-        // Set QtyPages if the content parser couldn't do it (certain sources only)
-        // Don't count the cover thumbnail in the number of pages
-        if (0 == content.getQtyPages()) content.setQtyPages(images.size() - 1);
         content.setStatus(StatusContent.DOWNLOADING);
         dao.insertContent(content);
 
@@ -392,13 +471,17 @@ public class ContentDownloadWorker extends BaseWorker {
         }
 
         requestQueueManager.setSimulateHumanReading(content.getSite().isSimulateHumanReading());
+        requestQueueManager.setSite(content.getSite());
+    }
 
-        // In case the download has been canceled while in preparation phase
-        // NB : No log of any sort because this is normal behaviour
-        if (downloadCanceled || downloadSkipped)
-            return new ImmutablePair<>(QueuingResult.CONTENT_SKIPPED, null);
-
-        // Queue image download requests
+    /**
+     * Queue the download requests of the given images
+     *
+     * @param content Book the images belong to
+     * @param dir     Folder to download the images to
+     * @param images  Images to download
+     */
+    private void queueImages(@NonNull Content content, @NonNull DocumentFile dir, @NonNull List<ImageFile> images) {
         for (ImageFile img : images) {
             if (img.getStatus().equals(StatusContent.SAVED)) {
                 // Enrich download params just in case
@@ -424,18 +507,12 @@ public class ContentDownloadWorker extends BaseWorker {
                 requestQueueManager.queueRequest(buildDownloadRequest(img, dir, content));
             }
         }
-
-        if (ContentHelper.updateQueueJson(getApplicationContext(), dao))
-            Timber.i("Queue JSON successfully saved");
-        else Timber.w("Queue JSON saving failed");
-
-        return new ImmutablePair<>(QueuingResult.CONTENT_FOUND, content);
     }
 
     /**
      * Watch download progress
      * <p>
-     * NB : download pause is managed at the Volley queue level (see RequestQueueManager.pauseQueue / startQueue)
+     * NB : download pause is managed at the download queue level (see RequestQueueManager.cancelQueue)
      *
      * @param content Content to watch (1st book of the download queue)
      */
@@ -468,6 +545,8 @@ public class ContentDownloadWorker extends BaseWorker {
             // Download speed and size estimation
             downloadSpeedCalculator.addSampleNow(NetworkHelper.getIncomingNetworkUsage(getApplicationContext()));
             int avgSpeedKbps = (int) downloadSpeedCalculator.getAvgSpeedKbps();
+            // Adapt the number of parallel downloads to the measured throughput
+            requestQueueManager.onDownloadSpeedSample(downloadSpeedCalculator.getAvgSpeedKbps());
 
             double estimateBookSizeMB = -1;
             if (pagesOK > 3 && progress > 0 && totalPages > 0) {
@@ -599,7 +678,7 @@ public class ContentDownloadWorker extends BaseWorker {
 
                 // Save JSON file
                 try {
-                    DocumentFile jsonFile = JsonHelper.jsonToFile(getApplicationContext(), JsonContent.fromEntity(content), JsonContent.class, dir);
+                    DocumentFile jsonFile = JsonHelper.jsonToFile(getApplicationContext(), JsonContent.fromEntity(content), JsonContent.class, getFolderIndex(dir));
                     // Cache its URI to the newly created content
                     if (jsonFile != null) {
                         content.setJsonUri(jsonFile.getUri().toString());
@@ -611,7 +690,11 @@ public class ContentDownloadWorker extends BaseWorker {
                 }
                 ContentHelper.addContent(getApplicationContext(), dao, content);
 
+                // Detect duplicates of the new book against the existing library
+                DuplicateIndex.Companion.probe(getApplicationContext(), dao, content);
+
                 Timber.i("Content download finished: %s [%s]", title, contentId);
+                Timber.d("Storage provider queries for %s : %s", title, FileExplorer.getNbQueries() - nbProviderQueriesAtStart);
 
                 // Delete book from queue
                 dao.deleteQueue(content);
@@ -657,12 +740,63 @@ public class ContentDownloadWorker extends BaseWorker {
      * Query source to fetch all image file names and URLs of a given book
      *
      * @param content Book whose pages to retrieve
+     * @param parser  Parser to use
      * @return List of pages with original URLs and file name
      */
-    private List<ImageFile> fetchImageURLs(@NonNull Content content) throws Exception {
-        List<ImageFile> imgs;
+    private List<ImageFile> fetchImageURLs(@NonNull Content content, @NonNull ImageListParser parser) throws Exception {
+        initDownloadParams(content);
 
-        // If content doesn't have any download parameters, get them from the cookie manager
+        // Use ImageListParser to query the source
+        List<ImageFile> imgs = parser.parseImageList(content);
+        checkImageURLs(imgs);
+        prepareImages(content, imgs);
+
+        return imgs;
+    }
+
+    /**
+     * Query source to fetch all image file names and URLs of a given book, and download them
+     * as soon as they are found
+     * NB : The previous images of the book are replaced by the images that are found, once they have all been found;
+     * they are left untouched if parsing fails or is interrupted
+     *
+     * @param content Book whose pages to retrieve
+     * @param parser  Parser to use
+     * @param dir     Folder to download the pages to
+     * @return List of pages with original URLs and file name
+     */
+    private List<ImageFile> fetchImageURLs(
+            @NonNull Content content,
+            @NonNull StreamingImageListParser parser,
+            @NonNull DocumentFile dir) throws Exception {
+        initDownloadParams(content);
+
+        List<ImageFile> previousImages = content.getImageFiles();
+        long[] previousIds = (null == previousImages) ? new long[0] : Helper.getPrimitiveLongArrayFromList(Stream.of(previousImages).map(ImageFile::getId).toList());
+        List<Long> newIds = Collections.synchronizedList(new ArrayList<>());
+        try {
+            List<ImageFile> imgs = parser.parseImageList(content, batch -> {
+                prepareImages(content, batch);
+                // Images need their DB ID to be downloaded
+                dao.insertImageFiles(batch);
+                for (ImageFile img : batch) newIds.add(img.getId());
+                queueImages(content, dir, batch);
+            });
+            checkImageURLs(imgs);
+
+            dao.deleteImageFiles(content.getId(), previousIds);
+            return imgs;
+        } catch (Exception e) {
+            // Only remove the images found so far
+            synchronized (newIds) {
+                dao.deleteImageFiles(content.getId(), Helper.getPrimitiveLongArrayFromList(newIds));
+            }
+            throw e;
+        }
+    }
+
+    // If content doesn't have any download parameters, get them from the cookie manager
+    private void initDownloadParams(@NonNull Content content) {
         String contentDownloadParamsStr = content.getDownloadParams();
         if (null == contentDownloadParamsStr || contentDownloadParamsStr.isEmpty()) {
             String cookieStr = HttpHelper.getCookies(content.getGalleryUrl());
@@ -672,17 +806,23 @@ public class ContentDownloadWorker extends BaseWorker {
                 content.setDownloadParams(JsonHelper.serializeToJson(downloadParams, JsonHelper.MAP_STRINGS));
             }
         }
+    }
 
-        // Use ImageListParser to query the source
-        ImageListParser parser = ContentParserFactory.getInstance().getImageListParser(content);
-        imgs = parser.parseImageList(content);
-
+    private static void checkImageURLs(@NonNull List<ImageFile> imgs) throws EmptyResultException {
         // If no images found, or just the cover, image detection has failed
         if (imgs.isEmpty() || (1 == imgs.size() && imgs.get(0).isCover()))
             throw new EmptyResultException();
+    }
 
+    /**
+     * Prepare the given images parsed from the source to be stored as images of the given book
+     *
+     * @param content Book the images belong to
+     * @param imgs    Parsed images
+     */
+    private void prepareImages(@NonNull Content content, @NonNull List<ImageFile> imgs) {
         // Add the content's download params to the images only if they have missing information
-        contentDownloadParamsStr = content.getDownloadParams();
+        String contentDownloadParamsStr = content.getDownloadParams();
         if (contentDownloadParamsStr != null && contentDownloadParamsStr.length() > 2) {
             Map<String, String> contentDownloadParams = ContentHelper.parseDownloadParams(contentDownloadParamsStr);
             for (ImageFile i : imgs) {
@@ -708,8 +848,6 @@ public class ContentDownloadWorker extends BaseWorker {
             img.setStatus(StatusContent.SAVED);
             img.setContentId(content.getId());
         }
-
-        return imgs;
     }
 
     /**
@@ -717,9 +855,9 @@ public class ContentDownloadWorker extends BaseWorker {
      *
      * @param img Image to download
      * @param dir Destination folder
-     * @return Volley request and its handler
+     * @return Download request and its handlers
      */
-    private Request<Object> buildDownloadRequest(
+    private DownloadRequest buildDownloadRequest(
             @NonNull final ImageFile img,
             @NonNull final DocumentFile dir,
             @NonNull final Content content) {
@@ -747,32 +885,27 @@ public class ContentDownloadWorker extends BaseWorker {
 
         final String backupUrlFinal = HttpHelper.fixUrl(backupUrl, site.getUrl());
 
-        return new InputStreamVolleyRequest(
-                Request.Method.GET,
+        return new DownloadRequest(
                 imageUrl,
                 requestHeaders,
                 site.useHentoidAgent(),
                 site.useWebviewAgent(),
-                result -> onRequestSuccess(result, img, dir, site.hasImageProcessing(), backupUrlFinal, requestHeaders),
-                error -> onRequestError(error, content, img, dir, backupUrlFinal, requestHeaders));
+                (body, headers) -> onRequestSuccess(body, headers, img, dir, site.hasImageProcessing(), backupUrlFinal, requestHeaders),
+                (statusCode, error) -> onRequestError(statusCode, error, content, img, dir, backupUrlFinal, requestHeaders));
     }
 
     private void onRequestSuccess(
-            Map.Entry<byte[], Map<String, String>> result,
+            @NonNull InputStream body,
+            @NonNull Map<String, String> responseHeaders,
             @NonNull ImageFile img,
             @NonNull DocumentFile dir,
             boolean hasImageProcessing,
             @NonNull String backupUrl,
             @NonNull Map<String, String> requestHeaders) {
         try {
-            if (result != null) {
-                DocumentFile imgFile = processAndSaveImage(img, dir, result.getValue().get(HttpHelper.HEADER_CONTENT_TYPE), result.getKey(), hasImageProcessing);
-                if (imgFile != null)
-                    updateImageStatusUri(img, true, imgFile.getUri().toString());
-            } else {
-                updateImageStatusUri(img, false, "");
-                logErrorRecord(img.getContent().getTargetId(), ErrorType.UNDEFINED, img.getUrl(), img.getName(), "Result null");
-            }
+            DocumentFile imgFile = processAndSaveImage(img, dir, responseHeaders.get(HttpHelper.HEADER_CONTENT_TYPE), body, hasImageProcessing);
+            if (imgFile != null)
+                updateImageStatusUri(img, true, imgFile.getUri().toString());
         } catch (UnsupportedContentException e) {
             Timber.w(e);
             if (!backupUrl.isEmpty()) tryUsingBackupUrl(img, dir, backupUrl, requestHeaders);
@@ -793,7 +926,8 @@ public class ContentDownloadWorker extends BaseWorker {
     }
 
     private void onRequestError(
-            VolleyError error,
+            int statusCode,
+            @Nullable Exception error,
             @NonNull Content content,
             @NonNull ImageFile img,
             @NonNull DocumentFile dir,
@@ -806,25 +940,23 @@ public class ContentDownloadWorker extends BaseWorker {
         }
 
         // If no backup, then process the error
-        int statusCode = (error.networkResponse != null) ? error.networkResponse.statusCode : -1;
-        String message = error.getMessage() + (img.isBackup() ? " (from backup URL)" : "");
-        String cause = "";
+        String message = ((null == error) ? "" : error.getMessage()) + (img.isBackup() ? " (from backup URL)" : "");
+        String cause;
 
-        if (error instanceof TimeoutError) {
+        if (error instanceof SocketTimeoutException) {
             cause = "Timeout";
-        } else if (error instanceof NoConnectionError) {
+        } else if (error instanceof UnknownHostException || error instanceof ConnectException) {
             cause = "No connection";
-        } else if (error instanceof AuthFailureError) { // 403's fall in this category
+        } else if (401 == statusCode || 403 == statusCode) {
             cause = "Auth failure";
-        } else if (error instanceof ServerError) { // 404's fall in this category
+        } else if (statusCode > -1) { // 404's fall in this category
             cause = "Server error";
-        } else if (error instanceof NetworkError) {
+        } else {
             cause = "Network error";
-        } else if (error instanceof ParseError) {
-            cause = "Network parse error";
         }
 
-        Timber.w(error);
+        if (error != null) Timber.w(error);
+        else Timber.w("HTTP error %d for %s", statusCode, img.getUrl());
 
         updateImageStatusUri(img, false, "");
         logErrorRecord(content.getId(), ErrorType.NETWORKING, img.getUrl(), img.getName(), cause + "; HTTP statusCode=" + statusCode + "; message=" + message);
@@ -855,8 +987,8 @@ public class ContentDownloadWorker extends BaseWorker {
         ImageListParser parser = ContentParserFactory.getInstance().getImageListParser(site);
         Chapter chp = (img.getChapter() != null) ? img.getChapter().getTarget() : null;
 
-        // per Volley behaviour, this method is called on the UI thread
-        // -> need to create a new thread to do a network call
+        // This method is called on a download thread
+        // -> parse the backup URL on a separate thread not to hold the download slot
         compositeDisposable.add(
                 Single.fromCallable(() -> parser.parseBackupUrl(backupUrl, requestHeaders, img.getOrder(), content.getQtyPages(), chp))
                         .subscribeOn(Schedulers.io())
@@ -926,19 +1058,22 @@ public class ContentDownloadWorker extends BaseWorker {
      */
 
     /**
-     * Create the given file in the given destination folder, and write binary data to it
+     * Create the given file in the given destination folder, and write the given data to it
+     * <p>
+     * Data is streamed to the file using a buffer from {@link DownloadBufferPool}, whose
+     * first bytes are used to sniff the format of the picture
      *
-     * @param img           ImageFile that is being processed
-     * @param dir           Destination folder
-     * @param contentType   Content type of the image (because some sources don't serve images with extensions)
-     * @param binaryContent Binary content of the image
+     * @param img         ImageFile that is being processed
+     * @param dir         Destination folder
+     * @param contentType Content type of the image (because some sources don't serve images with extensions)
+     * @param body        Binary content of the image
      * @throws IOException IOException if image cannot be saved at given location
      */
     @Nullable
     private DocumentFile processAndSaveImage(@NonNull ImageFile img,
                                              @NonNull DocumentFile dir,
                                              @Nullable String contentType,
-                                             byte[] binaryContent,
+                                             @NonNull InputStream body,
                                              boolean hasImageProcessing) throws IOException, UnsupportedContentException {
 
         if (!dir.exists()) {
@@ -948,89 +1083,118 @@ public class ContentDownloadWorker extends BaseWorker {
             return null;
         }
 
-        /*
-        byte[] processedBinaryContent = null;
-
-        if (hasImageProcessing && !img.getName().equals(Consts.THUMB_FILE_NAME)) {
-            if (img.getDownloadParams() != null && !img.getDownloadParams().isEmpty())
-                processedBinaryContent = processImage(img.getDownloadParams(), binaryContent);
-            else throw new InvalidParameterException("No processing parameters found");
-        }
-        binaryContent = (null == processedBinaryContent) ? binaryContent : processedBinaryContent;
-        */
-        img.setSize((null == binaryContent) ? 0 : binaryContent.length);
-
-        // Determine the extension of the file
-        String fileExt = null;
-        String mimeType = null;
-
-        // Check for picture validity if it's < 1KB (might be plain test or HTML if things have gone wrong... or a small GIF! )
-        if (img.getSize() < 1024 && binaryContent != null) {
-            mimeType = ImageHelper.getMimeTypeFromPictureBinary(binaryContent);
-            if (mimeType.isEmpty() || mimeType.equals(ImageHelper.MIME_IMAGE_GENERIC)) {
-                Timber.w("Small non-image data received from %s", img.getUrl());
-                throw new UnsupportedContentException(String.format("Small non-image data received from %s - data not processed", img.getUrl()));
+        byte[] buffer = DownloadBufferPool.acquire();
+        try {
+            // Read the beginning of the file to be able to detect its format
+            int headerLength = FileHelper.fill(body, buffer);
+            boolean isComplete = headerLength < buffer.length;
+
+            // Determine the extension of the file
+            String fileExt = null;
+            String mimeType = null;
+
+            // Check for picture validity if it's < 1KB (might be plain test or HTML if things have gone wrong... or a small GIF! )
+            if (isComplete && headerLength < 1024) {
+                mimeType = ImageHelper.getMimeTypeFromPictureBinary(buffer, headerLength);
+                if (mimeType.isEmpty() || mimeType.equals(ImageHelper.MIME_IMAGE_GENERIC)) {
+                    Timber.w("Small non-image data received from %s", img.getUrl());
+                    throw new UnsupportedContentException(String.format("Small non-image data received from %s - data not processed", img.getUrl()));
+                }
+                fileExt = FileHelper.getExtensionFromMimeType(mimeType);
             }
-            fileExt = FileHelper.getExtensionFromMimeType(mimeType);
-        }
 
-        // Use the Content-type contained in the HTTP headers of the response
-        if (null != contentType) {
-            mimeType = HttpHelper.cleanContentType(contentType).first;
-            // Ignore neutral binary content-type
-            if (!contentType.equalsIgnoreCase("application/octet-stream")) {
-                fileExt = FileHelper.getExtensionFromMimeType(contentType);
-                Timber.v("Using content-type %s to determine file extension -> %s", contentType, fileExt);
+            // Use the Content-type contained in the HTTP headers of the response
+            if (null != contentType) {
+                mimeType = HttpHelper.cleanContentType(contentType).first;
+                // Ignore neutral binary content-type
+                if (!contentType.equalsIgnoreCase("application/octet-stream")) {
+                    fileExt = FileHelper.getExtensionFromMimeType(contentType);
+                    Timber.v("Using content-type %s to determine file extension -> %s", contentType, fileExt);
+                }
             }
-        }
-        // Content-type has not been useful to determine the extension => See if the URL contains an extension
-        if (null == fileExt || fileExt.isEmpty()) {
-            fileExt = HttpHelper.getExtensionFromUri(img.getUrl());
-            mimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(fileExt);
-            Timber.v("Using url to determine file extension (content-type was %s) for %s -> %s", contentType, img.getUrl(), fileExt);
-        }
-        // No extension detected in the URL => Read binary header of the file to detect known formats
-        // If PNG, peek into the file to see if it is an animated PNG or not (no other way to do that)
-        if (binaryContent != null && (fileExt.isEmpty() || fileExt.equals("png"))) {
-            mimeType = ImageHelper.getMimeTypeFromPictureBinary(binaryContent);
-            fileExt = FileHelper.getExtensionFromMimeType(mimeType);
-            Timber.v("Reading headers to determine file extension for %s -> %s (from detected mime-type %s)", img.getUrl(), fileExt, mimeType);
-        }
-        // If all else fails, fall back to jpg as default
-        if (null == fileExt || fileExt.isEmpty()) {
-            fileExt = "jpg";
-            mimeType = ImageHelper.MIME_IMAGE_JPEG;
-            Timber.d("Using default extension for %s -> %s", img.getUrl(), fileExt);
-        }
-        if (null == mimeType) mimeType = ImageHelper.MIME_IMAGE_GENERIC;
-        img.setMimeType(mimeType);
+            // Content-type has not been useful to determine the extension => See if the URL contains an extension
+            if (null == fileExt || fileExt.isEmpty()) {
+                fileExt = HttpHelper.getExtensionFromUri(img.getUrl());
+                mimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(fileExt);
+                Timber.v("Using url to determine file extension (content-type was %s) for %s -> %s", contentType, img.getUrl(), fileExt);
+            }
+            // No extension detected in the URL => Read binary header of the file to detect known formats
+            // If PNG, peek into the file to see if it is an animated PNG or not (no other way to do that)
+            if (fileExt.isEmpty() || fileExt.equals("png")) {
+                mimeType = ImageHelper.getMimeTypeFromPictureBinary(buffer, headerLength);
+                fileExt = FileHelper.getExtensionFromMimeType(mimeType);
+                Timber.v("Reading headers to determine file extension for %s -> %s (from detected mime-type %s)", img.getUrl(), fileExt, mimeType);
+            }
+            // If all else fails, fall back to jpg as default
+            if (null == fileExt || fileExt.isEmpty()) {
+                fileExt = "jpg";
+                mimeType = ImageHelper.MIME_IMAGE_JPEG;
+                Timber.d("Using default extension for %s -> %s", img.getUrl(), fileExt);
+            }
+            if (null == mimeType) mimeType = ImageHelper.MIME_IMAGE_GENERIC;
+            img.setMimeType(mimeType);
 
-        if (!ImageHelper.isImageExtensionSupported(fileExt))
-            throw new UnsupportedContentException(String.format("Unsupported extension %s for %s - data not processed", fileExt, img.getUrl()));
+            if (!ImageHelper.isImageExtensionSupported(fileExt))
+                throw new UnsupportedContentException(String.format("Unsupported extension %s for %s - data not processed", fileExt, img.getUrl()));
 
-        return saveImage(dir, img.getName() + "." + fileExt, mimeType, binaryContent);
+            return saveImage(img, dir, img.getName() + "." + fileExt, mimeType, buffer, headerLength, body);
+        } finally {
+            DownloadBufferPool.release(buffer);
+        }
     }
 
     /**
      * Create the given file in the given destination folder, and write binary data to it
      *
-     * @param dir           Destination folder
-     * @param fileName      Name of the file to write (with the extension)
-     * @param binaryContent Binary content of the image
+     * @param img          ImageFile that is being processed; its size is updated with the size of the file
+     * @param dir          Destination folder
+     * @param fileName     Name of the file to write (with the extension)
+     * @param buffer       Buffer containing the first bytes of the image; used to transfer the rest of it
+     * @param headerLength Number of bytes of the image already read into the buffer
+     * @param body         Rest of the binary content of the image
      * @throws IOException IOException if image cannot be saved at given location
      */
     private DocumentFile saveImage(
+            @NonNull ImageFile img,
             @NonNull DocumentFile dir,
             @NonNull String fileName,
             @NonNull String mimeType,
-            byte[] binaryContent) throws IOException {
-        DocumentFile file = FileHelper.findOrCreateDocumentFile(getApplicationContext(), dir, mimeType, fileName);
+            @NonNull byte[] buffer,
+            int headerLength,
+            @NonNull InputStream body) throws IOException {
+        FolderIndex index = getFolderIndex(dir);
+        DocumentFile file = index.findOrCreateFile(mimeType, fileName);
         if (null == file)
             throw new IOException(String.format("Failed to create document %s under %s", fileName, dir.getUri().toString()));
-        FileHelper.saveBinary(getApplicationContext(), file.getUri(), binaryContent);
+        try (OutputStream out = FileHelper.getOutputStream(getApplicationContext(), file)) {
+            if (null == out)
+                throw new IOException(String.format("Failed to open document %s under %s", fileName, dir.getUri().toString()));
+            out.write(buffer, 0, headerLength);
+            img.setSize(headerLength + FileHelper.copy(body, out, buffer));
+        } catch (IOException e) {
+            // Don't leave a truncated picture behind
+            // NB : The existing file may have been found under a name with a different case
+            String name = StringHelper.protect(file.getName());
+            if (file.delete()) index.removeFile(name);
+            else Timber.w("Could not delete partial file %s", file.getUri());
+            throw e;
+        }
         return file;
     }
 
+    /**
+     * Get the index of the given book folder, built from a single listing of the folder
+     * NB : Avoids listing the whole folder each time a page is saved
+     *
+     * @param dir Book folder to get the index of
+     * @return Index of the given folder
+     */
+    private synchronized FolderIndex getFolderIndex(@NonNull DocumentFile dir) {
+        if (null == folderIndex || !folderIndex.isIndexOf(dir))
+            folderIndex = FolderIndex.build(getApplicationContext(), dir);
+        return folderIndex;
+    }
+
     /**
      * Update given image status in DB
      *
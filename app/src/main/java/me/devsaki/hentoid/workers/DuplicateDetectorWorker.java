@@ -4,20 +4,26 @@ import android.content.Context;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.work.Data;
+import androidx.work.WorkManager;
 import androidx.work.WorkerParameters;
 
 import org.greenrobot.eventbus.EventBus;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import io.reactivex.Completable;
 import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.disposables.Disposable;
 import io.reactivex.schedulers.Schedulers;
 import me.devsaki.hentoid.BuildConfig;
 import me.devsaki.hentoid.R;
@@ -32,6 +38,9 @@ import me.devsaki.hentoid.notification.duplicates.DuplicateProgressNotification;
 import me.devsaki.hentoid.notification.duplicates.DuplicateStartNotification;
 import me.devsaki.hentoid.util.ContentHelper;
 import me.devsaki.hentoid.util.DuplicateHelper;
+import me.devsaki.hentoid.util.DuplicateIndex;
+import me.devsaki.hentoid.util.Helper;
+import me.devsaki.hentoid.util.LongMultiMap;
 import me.devsaki.hentoid.util.Preferences;
 import me.devsaki.hentoid.util.notification.Notification;
 import me.devsaki.hentoid.util.string_similarity.Cosine;
@@ -49,13 +58,28 @@ public class DuplicateDetectorWorker extends BaseWorker {
     public static int STEP_COVER_INDEX = 0;
     public static int STEP_DUPLICATES = 1;
 
+    // Number of references processed by each task of the detection pool
+    static final int CHUNK_SIZE = 64;
+
+    // Guards the checkpoint against being written again once the user has cancelled the detection
+    private static final Object checkpointLock = new Object();
+    // Incremented each time the user cancels the detection
+    private static int cancelGeneration = 0;
+
     private final CollectionDAO dao;
     private final DuplicatesDAO duplicatesDAO;
 
     private final CompositeDisposable notificationDisposables = new CompositeDisposable();
 
-    private final AtomicInteger currentIndex = new AtomicInteger(0);
+    // Index of the last reference whose results have been saved
+    private final AtomicInteger lastProcessedIndex = new AtomicInteger(-1);
+    // Fingerprint of the candidates of the current run
+    private long fingerprint = 0;
     private final AtomicBoolean stopped = new AtomicBoolean(false);
+    private long indexStartTime = 0;
+    private Disposable jsonUpdateDisposable = null;
+    // Value of cancelGeneration when the worker has been created
+    private final int generation;
 
 
     public DuplicateDetectorWorker(
@@ -65,12 +89,93 @@ public class DuplicateDetectorWorker extends BaseWorker {
 
         dao = new ObjectBoxDAO(getApplicationContext());
         duplicatesDAO = new DuplicatesDAO(getApplicationContext());
+        synchronized (checkpointLock) {
+            generation = cancelGeneration;
+        }
     }
 
     public static boolean isRunning(@NonNull Context context) {
         return isRunning(context, R.id.duplicate_detector_service);
     }
 
+    /**
+     * Cancel the running detection at the user's request
+     * NB : Unlike a worker stopped by the system, a cancelled detection can't be resumed; the next one starts over
+     *
+     * @param context Context to use
+     */
+    public static void cancel(@NonNull Context context) {
+        synchronized (checkpointLock) {
+            cancelGeneration++;
+            Preferences.setDuplicateLastIndex(-1);
+        }
+        WorkManager.getInstance(context).cancelUniqueWork(Integer.toString(R.id.duplicate_detector_service));
+    }
+
+    /**
+     * Record the given index as the last one whose results have been saved, unless the detection has been cancelled
+     */
+    private void saveCheckpoint(int lastIndex) {
+        saveCheckpoint(generation, lastIndex, fingerprint);
+    }
+
+    /**
+     * Record the given index as the last one whose results have been saved by the run with the given fingerprint,
+     * unless the detection has been cancelled since the given generation
+     *
+     * @param generation  Value of cancelGeneration when the run has started
+     * @param lastIndex   Index of the last reference whose results have been saved
+     * @param fingerprint Fingerprint of the candidates of the run
+     * @return True if the checkpoint has been recorded; false if the detection has been cancelled
+     */
+    static boolean saveCheckpoint(int generation, int lastIndex, long fingerprint) {
+        synchronized (checkpointLock) {
+            if (generation != cancelGeneration) return false;
+            Preferences.setDuplicateCheckpoint(lastIndex, fingerprint);
+            return true;
+        }
+    }
+
+    /**
+     * Index of the reference to start the run with the given fingerprint with
+     * NB : Previous results can only be reused if the set of candidates and the settings haven't changed
+     *
+     * @param fingerprint Fingerprint of the candidates of the run
+     * @return Index following the recorded checkpoint; 0 if there's none or if it has been recorded by another run
+     */
+    static int getStartIndex(long fingerprint) {
+        int startIndex = Preferences.getDuplicateLastIndex() + 1;
+        if (startIndex > 0 && Preferences.getDuplicateLastFingerprint() != fingerprint) return 0;
+        return startIndex;
+    }
+
+    /**
+     * Index of the last reference of the given chunk
+     *
+     * @param startIndex Index the run has started with
+     * @param chunk      Index of the chunk, relative to the start of the run
+     * @param nbBooks    Number of books of the run
+     * @return Index of the last reference of the given chunk
+     */
+    static int getChunkLastIndex(int startIndex, int chunk, int nbBooks) {
+        return Math.min(startIndex + (chunk + 1) * CHUNK_SIZE, nbBooks) - 1;
+    }
+
+    /**
+     * Value of cancelGeneration, i.e. the generation of the runs started now
+     */
+    static int getGeneration() {
+        synchronized (checkpointLock) {
+            return cancelGeneration;
+        }
+    }
+
+    private void resetCheckpoint() {
+        synchronized (checkpointLock) {
+            Preferences.setDuplicateLastIndex(-1);
+        }
+    }
+
     @Override
     Notification getStartNotification() {
         return new DuplicateStartNotification();
@@ -83,12 +188,17 @@ public class DuplicateDetectorWorker extends BaseWorker {
 
     @Override
     void onClear() {
-        if (!isStopped() && !isComplete())
-            Preferences.setDuplicateLastIndex(currentIndex.get());
-        else Preferences.setDuplicateLastIndex(-1);
+        // Completed detections start over next time; interrupted ones (incl. stopped by the system) resume from their checkpoint
+        // NB : Detections cancelled by the user have already been reset by cancel
+        // NB2 : Nothing to record if the detection itself hasn't started yet (e.g. stopped during cover indexing)
+        if (fingerprint != 0) {
+            if (isComplete()) resetCheckpoint();
+            else saveCheckpoint(lastProcessedIndex.get());
+        }
 
         stopped.set(true);
         notificationDisposables.clear();
+        if (jsonUpdateDisposable != null) jsonUpdateDisposable.dispose();
         dao.cleanup();
         duplicatesDAO.cleanup();
     }
@@ -97,21 +207,43 @@ public class DuplicateDetectorWorker extends BaseWorker {
     void getToWork(@NonNull Data input) {
         DuplicateData.Parser inputData = new DuplicateData.Parser(input);
 
+        Completable jsonUpdate = Completable.complete();
         if (inputData.getUseCover()) {
             // Run cover indexing in the background
             trace(Log.INFO, "Covers to index : %s", dao.countContentWithUnhashedCovers());
 
-            DuplicateHelper.Companion.indexCovers(getApplicationContext(), dao, stopped,
+            indexStartTime = System.currentTimeMillis();
+            List<Long> indexedIds = DuplicateHelper.Companion.indexCovers(getApplicationContext(), dao, stopped,
                     this::indexContentInfo, this::notifyIndexProgress, this::indexError);
 
             trace(Log.INFO, "Indexing done");
+
+            // Save new hashes to the books JSONs while duplicates are being detected
+            if (!indexedIds.isEmpty()) {
+                jsonUpdate = Completable.fromRunnable(() -> updateJsons(indexedIds))
+                        .subscribeOn(Schedulers.io())
+                        .cache();
+                jsonUpdateDisposable = jsonUpdate.subscribe(() -> trace(Log.INFO, "JSON update done"), Timber::w);
+            }
         }
 
         // No need to continue if the process has already been stopped
-        if (isStopped()) return;
+        if (!isStopped()) {
+            // Initialize duplicate detection
+            detectDuplicates(inputData.getUseTitle(), inputData.getUseCover(), inputData.getUseArtist(), inputData.getUseSameLanguage(), inputData.getIgnoreChapters(), inputData.getSensitivity());
+        }
 
-        // Initialize duplicate detection
-        detectDuplicates(inputData.getUseTitle(), inputData.getUseCover(), inputData.getUseArtist(), inputData.getUseSameLanguage(), inputData.getIgnoreChapters(), inputData.getSensitivity());
+        // Wait for the JSON update to complete (or to notice the worker has been stopped)
+        jsonUpdate.onErrorComplete().blockingAwait();
+    }
+
+    private void updateJsons(@NonNull List<Long> contentIds) {
+        CollectionDAO jsonDao = new ObjectBoxDAO(getApplicationContext());
+        try {
+            DuplicateHelper.Companion.updateContentJsons(getApplicationContext(), jsonDao, contentIds, stopped);
+        } finally {
+            jsonDao.cleanup();
+        }
     }
 
     private void detectDuplicates(
@@ -125,12 +257,26 @@ public class DuplicateDetectorWorker extends BaseWorker {
         // to support abort and retry
         setComplete(false);
 
-        Map<Long, List<Long>> matchedIds = new HashMap<>();
-        Map<Long, List<Long>> reverseMatchedIds = new HashMap<>();
+        LongMultiMap matchedIds = new LongMultiMap();
+        LongMultiMap reverseMatchedIds = new LongMultiMap();
 
-        // Retrieve number of lines done in previous iteration (ended with RETRY)
-        int startIndex = Preferences.getDuplicateLastIndex() + 1;
-        if (0 == startIndex) duplicatesDAO.clearEntries();
+        trace(Log.DEBUG, "Preparation started");
+        // Pre-compute all book entries as DuplicateCandidates
+        List<DuplicateHelper.DuplicateCandidate> candidates = new ArrayList<>();
+        dao.streamStoredContent(false, false, Preferences.Constant.ORDER_FIELD_SIZE, true,
+                content -> candidates.add(new DuplicateHelper.DuplicateCandidate(content, useTitle, useArtist, useSameLanguage, Long.MIN_VALUE)));
+        fingerprint = computeFingerprint(candidates, useTitle, useCover, useArtist, useSameLanguage, ignoreChapters, sensitivity);
+
+        // Retrieve number of lines done in previous iteration (ended with RETRY or killed)
+        // Previous results can only be reused if the set of candidates hasn't changed
+        int startIndex = getStartIndex(fingerprint);
+        if (0 == startIndex && Preferences.getDuplicateLastIndex() > -1)
+            trace(Log.DEBUG, "Library or settings have changed since last run; restarting");
+        if (0 == startIndex) {
+            duplicatesDAO.clearEntries();
+            // Books added during the detection can't be matched incrementally until it has been completed
+            DuplicateIndex.Companion.invalidate(getApplicationContext());
+        }
         else {
             trace(Log.DEBUG, "Resuming from index %d", startIndex);
             // Pre-populate matchedIds and reverseMatchedIds using existing duplicates
@@ -138,12 +284,7 @@ public class DuplicateDetectorWorker extends BaseWorker {
             for (DuplicateEntry entry : entries)
                 processEntry(entry.getReferenceId(), entry.getDuplicateId(), matchedIds, reverseMatchedIds);
         }
-
-        trace(Log.DEBUG, "Preparation started");
-        // Pre-compute all book entries as DuplicateCandidates
-        List<DuplicateHelper.DuplicateCandidate> candidates = new ArrayList<>();
-        dao.streamStoredContent(false, false, Preferences.Constant.ORDER_FIELD_SIZE, true,
-                content -> candidates.add(new DuplicateHelper.DuplicateCandidate(content, useTitle, useArtist, useSameLanguage, Long.MIN_VALUE)));
+        lastProcessedIndex.set(startIndex - 1);
 
         trace(Log.DEBUG, "Detection started for %d books", candidates.size());
         processAll(
@@ -159,16 +300,47 @@ public class DuplicateDetectorWorker extends BaseWorker {
                 ignoreChapters,
                 sensitivity);
 
-        trace(Log.DEBUG, "Final End reached (currentIndex=%d, complete=%s)", currentIndex.get(), isComplete());
+        trace(Log.DEBUG, "Final End reached (lastProcessedIndex=%d, complete=%s)", lastProcessedIndex.get(), isComplete());
 
-        setComplete(true);
+        // Don't mark the process as complete if it has been interrupted
+        if (lastProcessedIndex.get() == candidates.size() - 1) {
+            setComplete(true);
+            // Allow new books to be matched against the library without a full detection
+            DuplicateIndex.Companion.rebuild(getApplicationContext(), candidates, useTitle, useCover, useArtist, useSameLanguage, ignoreChapters, sensitivity);
+            trace(Log.DEBUG, "Duplicate index rebuilt");
+        }
         matchedIds.clear();
+        reverseMatchedIds.clear();
+    }
+
+    /**
+     * Fingerprint of the given candidates and detection settings, used to check if a checkpoint
+     * recorded by a previous run is still valid
+     */
+    private static long computeFingerprint(
+            @NonNull List<DuplicateHelper.DuplicateCandidate> candidates,
+            boolean useTitle,
+            boolean useCover,
+            boolean useArtist,
+            boolean useSameLanguage,
+            boolean ignoreChapters,
+            int sensitivity) {
+        ByteBuffer buffer = ByteBuffer.allocate(candidates.size() * 24 + 8);
+        for (DuplicateHelper.DuplicateCandidate candidate : candidates) {
+            buffer.putLong(candidate.getId());
+            buffer.putLong(candidate.getSize());
+            buffer.putLong(candidate.getCoverHash());
+        }
+        int flags = (useTitle ? 1 : 0) | (useCover ? 2 : 0) | (useArtist ? 4 : 0) | (useSameLanguage ? 8 : 0) | (ignoreChapters ? 16 : 0);
+        buffer.putInt(flags);
+        buffer.putInt(sensitivity);
+        return Helper.hash64(buffer.array());
     }
 
     private void processAll(DuplicatesDAO duplicatesDao,
                             List<DuplicateHelper.DuplicateCandidate> library,
-                            Map<Long, List<Long>> matchedIds,
-                            Map<Long, List<Long>> reverseMatchedIds,
+                            LongMultiMap matchedIds,
+                            LongMultiMap reverseMatchedIds,
                             int startIndex,
                             boolean useTitle,
                             boolean useCover,
@@ -176,37 +348,108 @@ public class DuplicateDetectorWorker extends BaseWorker {
                             boolean useSameLanguage,
                             boolean ignoreChapters,
                             int sensitivity) {
-        List<DuplicateEntry> tempResults = new ArrayList<>();
         StringSimilarity cosine = new Cosine();
         int max = library.size() - 1;
-        for (int i = startIndex; i < library.size(); i++) {
-            if (isStopped()) return;
 
-            DuplicateHelper.DuplicateCandidate reference = library.get(i);
+        // Only compare each reference with the books that can actually match it
+        DuplicateHelper.DuplicateCandidateIndex index = new DuplicateHelper.DuplicateCandidateIndex(library, useTitle, useCover, sensitivity);
+        ThreadLocal<DuplicateHelper.DuplicateCandidateIndex.SearchBuffers> buffers = new ThreadLocal<>();
+        trace(Log.DEBUG, "Candidate index built");
+
+        // Split the remaining references into chunks processed in parallel
+        AtomicLong nbComparisons = new AtomicLong(0);
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        List<Future<List<DuplicateEntry>>> chunks = new ArrayList<>();
+        for (int chunkStart = startIndex; chunkStart < library.size(); chunkStart += CHUNK_SIZE) {
+            final int start = chunkStart;
+            final int end = Math.min(chunkStart + CHUNK_SIZE, library.size());
+            chunks.add(pool.submit(() -> processChunk(library, index, buffers, start, end, nbComparisons, useTitle, useCover, useSameArtist, useSameLanguage, ignoreChapters, sensitivity, cosine)));
+        }
 
-            for (int j = (i + 1); j < library.size(); j++) {
+        // Merge the results of each chunk in order, so that transitive matches are filtered out
+        // the same way they would be on a sequential run
+        try {
+            List<DuplicateEntry> tempResults = new ArrayList<>();
+            for (int c = 0; c < chunks.size(); c++) {
                 if (isStopped()) return;
+                List<DuplicateEntry> chunkResults = chunks.get(c).get();
+                if (null == chunkResults) return; // Chunk has been interrupted
+
+                for (DuplicateEntry entry : chunkResults)
+                    if (processEntry(entry.getReferenceId(), entry.getDuplicateId(), matchedIds, reverseMatchedIds))
+                        tempResults.add(entry);
+
+                // Save results for this chunk
+                if (!tempResults.isEmpty()) {
+                    duplicatesDao.insertEntries(tempResults);
+                    tempResults.clear();
+                }
+
+                // Durable checkpoint to be able to resume if the worker gets killed
+                int lastIndex = getChunkLastIndex(startIndex, c, library.size());
+                lastProcessedIndex.set(lastIndex);
+                saveCheckpoint(lastIndex);
+
+                notifyProcessProgress(lastIndex, max);
+            }
+        } catch (InterruptedException e) {
+            Timber.w(e);
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            Timber.w(e);
+            trace(Log.WARN, "Detection error : %s", e.getMessage());
+            return;
+        } finally {
+            pool.shutdownNow();
+        }
+        trace(Log.DEBUG, "%d comparisons performed", nbComparisons.get());
+        notifyProcessProgress(max, max);
+    }
+
+    /**
+     * Compare the references of the given range with their candidates
+     *
+     * @return Entries found for the given range, in reference order; null if processing has been interrupted
+     */
+    @Nullable
+    private List<DuplicateEntry> processChunk(List<DuplicateHelper.DuplicateCandidate> library,
+                                              DuplicateHelper.DuplicateCandidateIndex index,
+                                              ThreadLocal<DuplicateHelper.DuplicateCandidateIndex.SearchBuffers> buffers,
+                                              int start,
+                                              int end,
+                                              AtomicLong nbComparisons,
+                                              boolean useTitle,
+                                              boolean useCover,
+                                              boolean useSameArtist,
+                                              boolean useSameLanguage,
+                                              boolean ignoreChapters,
+                                              int sensitivity,
+                                              StringSimilarity cosine) {
+        DuplicateHelper.DuplicateCandidateIndex.SearchBuffers threadBuffers = buffers.get();
+        if (null == threadBuffers) {
+            threadBuffers = index.newSearchBuffers();
+            buffers.set(threadBuffers);
+        }
+
+        List<DuplicateEntry> result = new ArrayList<>();
+        for (int i = start; i < end; i++) {
+            if (isStopped()) return null;
+
+            DuplicateHelper.DuplicateCandidate reference = library.get(i);
+            int[] candidateIndexes = index.getCandidates(i, threadBuffers);
+            nbComparisons.addAndGet(candidateIndexes.length);
+
+            for (int j : candidateIndexes) {
                 DuplicateHelper.DuplicateCandidate candidate = library.get(j);
 
                 DuplicateEntry entry = DuplicateHelper.Companion.processContent(
                         reference, candidate,
                         useTitle, useCover, useSameArtist, useSameLanguage, ignoreChapters, sensitivity, cosine);
-                if (entry != null && processEntry(entry.getReferenceId(), entry.getDuplicateId(), matchedIds, reverseMatchedIds))
-                    tempResults.add(entry);
-            }
-
-            // Save results for this reference
-            if (!tempResults.isEmpty()) {
-                duplicatesDao.insertEntries(tempResults);
-                tempResults.clear();
+                if (entry != null) result.add(entry);
             }
-
-            currentIndex.set(i);
-
-            if (0 == i % 10)
-                notifyProcessProgress(i, max); // Only update every 10 iterations for performance
         }
-        notifyProcessProgress(max, max);
+        return result;
     }
 
     private void indexContentInfo(Content c) {
@@ -225,44 +468,28 @@ public class DuplicateDetectorWorker extends BaseWorker {
     private boolean processEntry(
             long referenceId,
             long candidateId,
-            Map<Long, List<Long>> matchedIds,
-            Map<Long, List<Long>> reverseMatchedIds
+            LongMultiMap matchedIds,
+            LongMultiMap reverseMatchedIds
     ) {
+        // Entry has already been recorded (e.g. chunk reprocessed after the worker has been killed)
+        if (matchedIds.contains(referenceId, candidateId)) return false;
+
         // Check if matched IDs don't already contain the reference as a transitive link
-        // TODO doc
-        boolean transitiveMatchFound = false;
-        List<Long> reverseMatchesC = reverseMatchedIds.get(candidateId);
-        if (reverseMatchesC != null && !reverseMatchesC.isEmpty()) {
-            List<Long> reverseMatchesRef = reverseMatchedIds.get(referenceId);
-            if (reverseMatchesRef != null && !reverseMatchesRef.isEmpty()) {
-                for (long lc : reverseMatchesC) {
-                    for (long lr : reverseMatchesRef)
-                        if (lc == lr) {
-                            transitiveMatchFound = true;
-                            break;
-                        }
-                    if (transitiveMatchFound) break;
-                }
-            }
-        }
+        // i.e. reference and candidate have both already been matched with the same book
+        if (reverseMatchedIds.intersects(candidateId, referenceId)) return false;
+
         // Record the entry
-        if (!transitiveMatchFound) {
-            List<Long> matches = matchedIds.get(referenceId);
-            if (null == matches) matches = new ArrayList<>();
-            matches.add(candidateId);
-            matchedIds.put(referenceId, matches);
-
-            List<Long> reverseMatches = reverseMatchedIds.get(candidateId);
-            if (null == reverseMatches) reverseMatches = new ArrayList<>();
-            reverseMatches.add(referenceId);
-            reverseMatchedIds.put(candidateId, reverseMatches);
-            return true;
-        }
-        return false;
+        matchedIds.put(referenceId, candidateId);
+        reverseMatchedIds.put(candidateId, referenceId);
+        return true;
     }
 
     private void notifyIndexProgress(int progress, int max) {
-        Timber.i(">> indexing progress %s", progress * 1f / max);
+        if (progress > 0 && progress < max) {
+            long elapsed = System.currentTimeMillis() - indexStartTime;
+            long eta = elapsed * (max - progress) / progress;
+            Timber.i(">> indexing progress %s (ETA %ds)", progress * 1f / max, eta / 1000);
+        } else Timber.i(">> indexing progress %s", progress * 1f / max);
         if (progress < max) {
             EventBus.getDefault().post(new ProcessEvent(ProcessEvent.EventType.PROGRESS, R.id.duplicate_index, STEP_COVER_INDEX, progress, 0, max));
         } else {
@@ -11,8 +11,7 @@ import androidx.documentfile.provider.DocumentFile;
 import androidx.work.Data;
 import androidx.work.WorkerParameters;
 
-import com.annimon.stream.Optional;
-import com.annimon.stream.Stream;
+import com.annimon.stream.function.Consumer;
 import com.squareup.moshi.JsonDataException;
 
 import org.apache.commons.lang3.tuple.ImmutablePair;
@@ -21,7 +20,9 @@ import org.threeten.bp.Instant;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 
 import me.devsaki.hentoid.R;
 import me.devsaki.hentoid.core.Consts;
@@ -49,8 +50,12 @@ import me.devsaki.hentoid.notification.import_.ImportCompleteNotification;
 import me.devsaki.hentoid.notification.import_.ImportProgressNotification;
 import me.devsaki.hentoid.notification.import_.ImportStartNotification;
 import me.devsaki.hentoid.util.ContentHelper;
+import me.devsaki.hentoid.util.ContentImportWriter;
+import me.devsaki.hentoid.util.DuplicateIndex;
 import me.devsaki.hentoid.util.FileExplorer;
 import me.devsaki.hentoid.util.FileHelper;
+import me.devsaki.hentoid.util.FolderIndex;
+import me.devsaki.hentoid.util.FolderScanner;
 import me.devsaki.hentoid.util.ImageHelper;
 import me.devsaki.hentoid.util.ImportHelper;
 import me.devsaki.hentoid.util.JsonHelper;
@@ -151,10 +156,14 @@ public class ImportWorker extends BaseWorker {
             return;
         }
 
-        List<DocumentFile> bookFolders = new ArrayList<>();
+        int nbBookFolders = 0;                  // Number of book folders found so far
         CollectionDAO dao = new ObjectBoxDAO(context);
+        // Imported books are written by batches; they are detected as duplicates once written
+        ContentImportWriter writer = new ContentImportWriter(context, dao, ContentImportWriter.DEFAULT_BATCH_SIZE, contents -> DuplicateIndex.Companion.probe(context, dao, contents));
 
-        try (FileExplorer explorer = new FileExplorer(context, Uri.parse(Preferences.getStorageUri()))) {
+        Uri rootUri = Uri.parse(Preferences.getStorageUri());
+        try (FileExplorer explorer = new FileExplorer(context, rootUri);
+             FolderScanner<FolderIndex> scanner = new FolderScanner<>(context, rootUri)) {
             // 1st pass : Import groups JSON
 
             // Flag existing groups for cleanup
@@ -164,23 +173,20 @@ public class ImportWorker extends BaseWorker {
             if (groupsFile != null) importGroups(context, groupsFile, dao, log);
             else trace(Log.INFO, STEP_GROUPS, log, "No groups file found");
 
-            // 2nd pass : count subfolders of every site folder
+            // 2nd pass : start scanning the book folders of every site folder; they are imported as soon as they are found
             List<DocumentFile> siteFolders = explorer.listFolders(context, rootFolder);
-            int foldersProcessed = 1;
-            for (DocumentFile f : siteFolders) {
-                bookFolders.addAll(explorer.listFolders(context, f));
-                eventProgress(STEP_2_BOOK_FOLDERS, siteFolders.size(), foldersProcessed++, 0);
-            }
+            scanner.start(siteFolders, ImportWorker::visitFolder);
             eventComplete(STEP_2_BOOK_FOLDERS, siteFolders.size(), siteFolders.size(), 0, null);
             notificationManager.notify(new ImportProgressNotification(context.getResources().getString(R.string.starting_import), 0, 0));
 
             // 3rd pass : scan every folder for a JSON file or subdirectories
             String enabled = context.getResources().getString(R.string.enabled);
             String disabled = context.getResources().getString(R.string.disabled);
-            trace(Log.DEBUG, 0, log, "Import books starting - initial detected count : %s", bookFolders.size() + "");
+            trace(Log.DEBUG, 0, log, "Import books starting - site folders count : %s", siteFolders.size() + "");
             trace(Log.INFO, 0, log, "Rename folders %s", (rename ? enabled : disabled));
             trace(Log.INFO, 0, log, "Remove folders with no JSONs %s", (cleanNoJSON ? enabled : disabled));
             trace(Log.INFO, 0, log, "Remove folders with no images %s", (cleanNoImages ? enabled : disabled));
+            long nbProviderQueriesAtStart = FileExplorer.getNbQueries();
 
             // Cleanup previously detected duplicates
             DuplicatesDAO duplicatesDAO = new DuplicatesDAO(context);
@@ -189,18 +195,23 @@ public class ImportWorker extends BaseWorker {
             } finally {
                 duplicatesDAO.cleanup();
             }
+            // Imported books are detected again as they are added
+            DuplicateIndex.Companion.clear(context);
             // Flag DB content for cleanup
             dao.flagAllInternalBooks();
             dao.flagAllErrorBooksWithJson();
 
-            for (int i = 0; i < bookFolders.size(); i++) {
+            // The contents of every book folder are listed once and for all by the scanner
+            FolderIndex bookFolderIndex;
+            while ((bookFolderIndex = scanner.next()) != null) {
                 if (isStopped()) throw new InterruptedException();
-                DocumentFile bookFolder = bookFolders.get(i);
+                DocumentFile bookFolder = bookFolderIndex.getFolder();
+                nbBookFolders++;
 
                 // Detect the presence of images if the corresponding cleanup option has been enabled
                 if (cleanNoImages) {
-                    List<DocumentFile> imageFiles = explorer.listFiles(context, bookFolder, imageNames);
-                    List<DocumentFile> subfolders = explorer.listFolders(context, bookFolder);
+                    List<DocumentFile> imageFiles = bookFolderIndex.getFiles(imageNames);
+                    List<DocumentFile> subfolders = bookFolderIndex.getSubfolders();
                     if (imageFiles.isEmpty() && subfolders.isEmpty()) { // No supported images nor subfolders
                         booksKO++;
                         boolean success = bookFolder.delete();
@@ -214,8 +225,7 @@ public class ImportWorker extends BaseWorker {
 
                 // Detect JSON and try to parse it
                 try {
-                    List<DocumentFile> bookFiles = explorer.listFiles(context, bookFolder, null);
-                    content = importJson(context, bookFolder, bookFiles, dao);
+                    content = importJson(context, bookFolderIndex, dao);
                     if (content != null) {
                         // If the book exists and is flagged for deletion, delete it to make way for a new import (as intended)
                         if (existingFlaggedContent != null)
@@ -224,6 +234,9 @@ public class ImportWorker extends BaseWorker {
                         // If the very same book still exists in the DB at this point, it means it's present in the queue
                         // => don't import it even though it has a JSON file; it has been re-queued after being downloaded or viewed once
                         Content existingDuplicate = dao.selectContentBySourceAndUrl(content.getSite(), content.getUrl(), "");
+                        // Same goes for books that have been imported just before and are waiting to be written
+                        if (null == existingDuplicate && writer.isPending(content.getSite(), content.getUrl()))
+                            existingDuplicate = content;
                         if (existingDuplicate != null && !existingDuplicate.isFlaggedForDeletion()) {
                             booksKO++;
                             String location = ContentHelper.isInQueue(existingDuplicate.getStatus()) ? "queue" : "collection";
@@ -245,10 +258,13 @@ public class ImportWorker extends BaseWorker {
                             String bookFolderName = bookPathParts[bookPathParts.length - 1];
 
                             if (!canonicalBookFolderName.left.equalsIgnoreCase(bookFolderName)) {
-                                if (renameFolder(context, bookFolder, content, explorer, canonicalBookFolderName.left)) {
+                                if (renameFolder(bookFolder, content, canonicalBookFolderName.left)) {
                                     trace(Log.INFO, STEP_2_BOOK_FOLDERS, log, "[Rename OK] Folder %s renamed to %s", bookFolderName, canonicalBookFolderName.left);
                                     // Rescan files inside the renamed folder
-                                    bookFiles = explorer.listFiles(context, bookFolder, null);
+                                    bookFolderIndex = FolderIndex.build(context, bookFolder, explorer);
+                                    // Update the JSON's URI
+                                    DocumentFile jsonFile = bookFolderIndex.findFileIgnoreCase(Consts.JSON_FILE_NAME_V2);
+                                    if (jsonFile != null) content.setJsonUri(jsonFile.getUri().toString());
                                 } else {
                                     trace(Log.WARN, STEP_2_BOOK_FOLDERS, log, "[Rename KO] Could not rename file %s to %s", bookFolderName, canonicalBookFolderName.left);
                                 }
@@ -256,7 +272,7 @@ public class ImportWorker extends BaseWorker {
                         }
 
                         // Attach image file Uri's to the book's images
-                        List<DocumentFile> imageFiles = Stream.of(bookFiles).filter(f -> imageNames.accept(f.getName())).toList();
+                        List<DocumentFile> imageFiles = bookFolderIndex.getFiles(imageNames);
                         if (!imageFiles.isEmpty()) {
                             // No images described in the JSON -> recreate them
                             if (contentImages.isEmpty()) {
@@ -273,13 +289,12 @@ public class ImportWorker extends BaseWorker {
                         ImportHelper.removeExternalAttribute(content);
 
                         content.computeSize();
-                        ContentHelper.addContent(context, dao, content);
+                        writer.add(content);
                         trace(Log.INFO, STEP_2_BOOK_FOLDERS, log, "Import book OK : %s", bookFolder.getUri().toString());
                     } else { // JSON not found
-                        List<DocumentFile> subfolders = explorer.listFolders(context, bookFolder);
-                        if (!subfolders.isEmpty()) // Folder doesn't contain books but contains subdirectories
+                        List<DocumentFile> subfolders = bookFolderIndex.getSubfolders();
+                        if (!subfolders.isEmpty()) // Folder doesn't contain books but contains subdirectories (scanned next)
                         {
-                            bookFolders.addAll(subfolders);
                             trace(Log.INFO, STEP_2_BOOK_FOLDERS, log, "Subfolders found in : %s", bookFolder.getUri().toString());
                             nbFolders++;
                             continue;
@@ -299,10 +314,11 @@ public class ImportWorker extends BaseWorker {
                     // If the book is still present in the DB, regenerate the JSON and unflag the book
                     if (existingFlaggedContent != null) {
                         try {
-                            DocumentFile newJson = JsonHelper.jsonToFile(context, JsonContent.fromEntity(existingFlaggedContent), JsonContent.class, bookFolder);
+                            DocumentFile newJson = JsonHelper.jsonToFile(context, JsonContent.fromEntity(existingFlaggedContent), JsonContent.class, bookFolderIndex);
                             existingFlaggedContent.setJsonUri(newJson.getUri().toString());
                             existingFlaggedContent.setFlaggedForDeletion(false);
                             dao.insertContent(existingFlaggedContent);
+                            DuplicateIndex.Companion.probe(context, dao, existingFlaggedContent);
                             trace(Log.INFO, STEP_2_BOOK_FOLDERS, log, "Import book OK (JSON regenerated) : %s", bookFolder.getUri().toString());
                             booksOK++;
                         } catch (IOException | JsonDataException e) {
@@ -324,9 +340,9 @@ public class ImportWorker extends BaseWorker {
                             }
                             // Scan the folder
                             Content storedContent = ImportHelper.scanBookFolder(context, bookFolder, explorer, parentFolder, StatusContent.DOWNLOADED, dao, null, null);
-                            DocumentFile newJson = JsonHelper.jsonToFile(context, JsonContent.fromEntity(storedContent), JsonContent.class, bookFolder);
+                            DocumentFile newJson = JsonHelper.jsonToFile(context, JsonContent.fromEntity(storedContent), JsonContent.class, bookFolderIndex);
                             storedContent.setJsonUri(newJson.getUri().toString());
-                            ContentHelper.addContent(context, dao, storedContent);
+                            writer.add(storedContent);
                             trace(Log.INFO, STEP_2_BOOK_FOLDERS, log, "Import book OK (Content regenerated) : %s", bookFolder.getUri().toString());
                             booksOK++;
                         } catch (IOException | JsonDataException e) {
@@ -343,11 +359,15 @@ public class ImportWorker extends BaseWorker {
                     trace(Log.ERROR, STEP_2_BOOK_FOLDERS, log, "Import book ERROR : %s for Folder %s", e.getMessage(), bookFolder.getUri().toString());
                 }
                 String bookName = (null == bookFolder.getName()) ? "" : bookFolder.getName();
-                notificationManager.notify(new ImportProgressNotification(bookName, booksOK + booksKO, bookFolders.size() - nbFolders));
-                eventProgress(STEP_3_BOOKS, bookFolders.size() - nbFolders, booksOK, booksKO);
+                notificationManager.notify(new ImportProgressNotification(bookName, booksOK + booksKO, nbBookFolders - nbFolders));
+                eventProgress(STEP_3_BOOKS, nbBookFolders - nbFolders, booksOK, booksKO);
             }
-            trace(Log.INFO, STEP_3_BOOKS, log, "Import books complete - %s OK; %s KO; %s final count", booksOK + "", booksKO + "", bookFolders.size() - nbFolders + "");
-            eventComplete(STEP_3_BOOKS, bookFolders.size(), booksOK, booksKO, null);
+            // Books have to be in the DB before importing the queue, for duplicates to be detected
+            writer.complete();
+            trace(Log.INFO, STEP_3_BOOKS, log, "Import books complete - %s OK; %s KO; %s final count", booksOK + "", booksKO + "", nbBookFolders - nbFolders + "");
+            trace(Log.DEBUG, STEP_3_BOOKS, log, "Storage provider queries : %s", FileExplorer.getNbQueries() - nbProviderQueriesAtStart + "");
+            trace(Log.DEBUG, STEP_3_BOOKS, log, "Scanned folders : %s (%s folders/s)", scanner.getNbScannedFolders(), String.format(Locale.ENGLISH, "%.1f", scanner.getFoldersPerSecond()));
+            eventComplete(STEP_3_BOOKS, nbBookFolders, booksOK, booksKO, null);
 
             // 4th pass : Import queue & bookmarks JSON
             DocumentFile queueFile = explorer.findFile(context, rootFolder, Consts.QUEUE_JSON_FILE_NAME);
@@ -362,6 +382,9 @@ public class ImportWorker extends BaseWorker {
             // Restore interrupted state
             Thread.currentThread().interrupt();
         } finally {
+            // Write the books that have been imported before any interruption
+            writer.complete();
+
             // Write log in root folder
             DocumentFile logFile = LogHelper.writeLog(context, buildLogInfo(rename || cleanNoJSON || cleanNoImages, log));
 
@@ -369,11 +392,36 @@ public class ImportWorker extends BaseWorker {
             dao.deleteAllFlaggedGroups();
             dao.cleanup();
 
-            eventComplete(STEP_4_QUEUE_FINAL, bookFolders.size(), booksOK, booksKO, logFile);
+            eventComplete(STEP_4_QUEUE_FINAL, nbBookFolders, booksOK, booksKO, logFile);
             notificationManager.notify(new ImportCompleteNotification(booksOK, booksKO));
         }
     }
 
+    /**
+     * Select the folders to scan next among the subfolders of the given folder
+     * NB : Called concurrently by the scanning threads
+     *
+     * @param folder   Folder that has just been listed
+     * @param explorer FileExplorer of the calling scanning thread
+     * @param emitter  Consumer to send the book folders to
+     * @return Subfolders of the given folder to scan next
+     */
+    private static List<DocumentFile> visitFolder(
+            @NonNull final FolderScanner.Folder folder,
+            @NonNull final FileExplorer explorer,
+            @NonNull final Consumer<FolderIndex> emitter) {
+        FolderIndex index = folder.getIndex();
+        // Site folder : only contains book folders
+        if (folder.getParentNames().isEmpty()) return index.getSubfolders();
+
+        emitter.accept(index);
+        // Folders without JSON file may contain books inside their subfolders
+        boolean hasJson = index.findFileIgnoreCase(Consts.JSON_FILE_NAME_V2) != null
+                || index.findFileIgnoreCase(Consts.JSON_FILE_NAME) != null
+                || index.findFileIgnoreCase(Consts.JSON_FILE_NAME_OLD) != null;
+        return hasJson ? Collections.emptyList() : index.getSubfolders();
+    }
+
     private LogHelper.LogInfo buildLogInfo(boolean cleanup, @NonNull List<LogHelper.LogEntry> log) {
         LogHelper.LogInfo logInfo = new LogHelper.LogInfo();
         logInfo.setLogName(cleanup ? "Cleanup" : "Import");
@@ -383,14 +431,12 @@ public class ImportWorker extends BaseWorker {
         return logInfo;
     }
 
-    private boolean renameFolder(@NonNull Context context, @NonNull DocumentFile folder, @NonNull final Content content, @NonNull FileExplorer explorer, @NonNull final String newName) {
+    private boolean renameFolder(@NonNull DocumentFile folder, @NonNull final Content content, @NonNull final String newName) {
         try {
             if (folder.renameTo(newName)) {
                 // 1- Update the book folder's URI
                 content.setStorageUri(folder.getUri().toString());
-                // 2- Update the JSON's URI
-                DocumentFile jsonFile = explorer.findFile(context, folder, Consts.JSON_FILE_NAME_V2);
-                if (jsonFile != null) content.setJsonUri(jsonFile.getUri().toString());
+                // 2- Update the JSON's URI -> will be done by the caller when rescanning the folder
                 // 3- Update the image's URIs -> will be done by the next block back in startImport
                 return true;
             }
@@ -488,17 +534,16 @@ public class ImportWorker extends BaseWorker {
     @Nullable
     private Content importJson(
             @NonNull final Context context,
-            @NonNull DocumentFile folder,
-            @NonNull List<DocumentFile> bookFiles,
+            @NonNull FolderIndex folder,
             @NonNull CollectionDAO dao) throws ParseException {
-        Optional<DocumentFile> file = Stream.of(bookFiles).filter(f -> f.getName().equals(Consts.JSON_FILE_NAME_V2)).findFirst();
-        if (file.isPresent()) return importJsonV2(context, file.get(), folder, dao);
+        DocumentFile file = folder.findFileIgnoreCase(Consts.JSON_FILE_NAME_V2);
+        if (file != null) return importJsonV2(context, file, folder.getFolder(), dao);
 
-        file = Stream.of(bookFiles).filter(f -> f.getName().equals(Consts.JSON_FILE_NAME)).findFirst();
-        if (file.isPresent()) return importJsonV1(context, file.get(), folder);
+        file = folder.findFileIgnoreCase(Consts.JSON_FILE_NAME);
+        if (file != null) return importJsonV1(context, file, folder);
 
-        file = Stream.of(bookFiles).filter(f -> f.getName().equals(Consts.JSON_FILE_NAME_OLD)).findFirst();
-        if (file.isPresent()) return importJsonLegacy(context, file.get(), folder);
+        file = folder.findFileIgnoreCase(Consts.JSON_FILE_NAME_OLD);
+        if (file != null) return importJsonLegacy(context, file, folder);
 
         return null;
     }
@@ -544,7 +589,7 @@ public class ImportWorker extends BaseWorker {
     private Content importJsonLegacy(
             @NonNull final Context context,
             @NonNull final DocumentFile json,
-            @NonNull final DocumentFile parentFolder) throws ParseException {
+            @NonNull final FolderIndex parentFolder) throws ParseException {
         try {
             DoujinBuilder doujinBuilder =
                     JsonHelper.jsonToObject(context, json, DoujinBuilder.class);
@@ -580,7 +625,7 @@ public class ImportWorker extends BaseWorker {
             content.setDownloadDate(Instant.now().toEpochMilli());
             Content contentV2 = content.toV2Content();
 
-            contentV2.setStorageUri(parentFolder.getUri().toString());
+            contentV2.setStorageUri(parentFolder.getFolder().getUri().toString());
 
             DocumentFile newJson = JsonHelper.jsonToFile(context, JsonContent.fromEntity(contentV2), JsonContent.class, parentFolder);
             contentV2.setJsonUri(newJson.getUri().toString());
@@ -594,7 +639,7 @@ public class ImportWorker extends BaseWorker {
 
     @CheckResult
     @SuppressWarnings({"deprecation", "squid:CallToDeprecatedMethod"})
-    private Content importJsonV1(@NonNull final Context context, @NonNull final DocumentFile json, @NonNull final DocumentFile parentFolder) throws ParseException {
+    private Content importJsonV1(@NonNull final Context context, @NonNull final DocumentFile json, @NonNull final FolderIndex parentFolder) throws ParseException {
         try {
             ContentV1 content = JsonHelper.jsonToObject(context, json, ContentV1.class);
             if (content.getStatus() != StatusContent.DOWNLOADED
@@ -603,7 +648,7 @@ public class ImportWorker extends BaseWorker {
             }
             Content contentV2 = content.toV2Content();
 
-            contentV2.setStorageUri(parentFolder.getUri().toString());
+            contentV2.setStorageUri(parentFolder.getFolder().getUri().toString());
 
             DocumentFile newJson = JsonHelper.jsonToFile(context, JsonContent.fromEntity(contentV2), JsonContent.class, parentFolder);
             contentV2.setJsonUri(newJson.getUri().toString());
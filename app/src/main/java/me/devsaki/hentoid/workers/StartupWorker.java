@@ -8,10 +8,14 @@ import androidx.work.WorkerParameters;
 
 import java.util.List;
 
-import io.reactivex.Observable;
-import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.CompletableSubject;
+import me.devsaki.hentoid.BuildConfig;
 import me.devsaki.hentoid.R;
 import me.devsaki.hentoid.core.AppStartup;
+import me.devsaki.hentoid.core.StartupScheduler;
+import me.devsaki.hentoid.core.StartupTask;
+import me.devsaki.hentoid.core.StartupTrace;
 import me.devsaki.hentoid.database.DatabaseMaintenance;
 import me.devsaki.hentoid.notification.startup.StartupCompleteNotification;
 import me.devsaki.hentoid.notification.startup.StartupProgressNotification;
@@ -20,12 +24,12 @@ import timber.log.Timber;
 
 
 /**
- * Worker responsible for running post-startup tasks
+ * Worker responsible for running post-startup tasks, along with the startup tasks that have been deferred
  */
 public class StartupWorker extends BaseWorker {
 
-    private Disposable launchDisposable = null;
-    private List<Observable<Float>> launchTasks;
+    // Signals the tasks have to stop
+    private final CompletableSubject interruption = CompletableSubject.create();
 
 
     public StartupWorker(
@@ -41,25 +45,35 @@ public class StartupWorker extends BaseWorker {
 
     @Override
     void onInterrupt() {
-        if (launchDisposable != null) launchDisposable.dispose();
+        interruption.onComplete();
     }
 
     @Override
     void onClear() {
-        launchTasks.clear();
-        if (launchDisposable != null) launchDisposable.dispose();
+        interruption.onComplete();
     }
 
     @Override
     void getToWork(@NonNull Data input) {
-        launchTasks = AppStartup.getPostLaunchTasks(getApplicationContext());
-        launchTasks.addAll(DatabaseMaintenance.getPostLaunchCleanupTasks(getApplicationContext()));
+        List<StartupTask> launchTasks = AppStartup.getPreLaunchTasks();
+        launchTasks.addAll(DatabaseMaintenance.getPreLaunchCleanupTasks());
+        launchTasks.addAll(AppStartup.getPostLaunchTasks());
+        launchTasks.addAll(DatabaseMaintenance.getPostLaunchCleanupTasks());
 
-        launchDisposable = Observable.concat(launchTasks)
-                .subscribe(
+        // Tasks run concurrently; wait for all of them to complete before the worker ends
+        new StartupScheduler(getApplicationContext(), launchTasks, false)
+                .run(Schedulers.single(),
                         v -> notificationManager.notify(new StartupProgressNotification(Math.round(v * 100), 100)),
-                        Timber::e,
-                        () -> notificationManager.notify(new StartupCompleteNotification())
-                );
+                        v -> {
+                            // Progress of concurrent tasks can't be displayed meaningfully inside a single notification
+                        })
+                .ambWith(interruption)
+                .doOnError(Timber::e)
+                .onErrorComplete()
+                .blockingAwait();
+        if (interruption.hasComplete()) return;
+
+        notificationManager.notify(new StartupCompleteNotification());
+        if (BuildConfig.DEBUG) StartupTrace.export(getApplicationContext());
     }
 }
@@ -0,0 +1,94 @@
+package me.devsaki.hentoid.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+import me.devsaki.hentoid.util.string_similarity.Cosine;
+import me.devsaki.hentoid.util.string_similarity.ShingleProfile;
+
+/**
+ * Checks the precomputed profile version of the cosine similarity against the string version
+ * and benchmarks both over a synthetic 10k-title corpus
+ */
+public class CosineProfileTest {
+
+    private static final int CORPUS_SIZE = 10000;
+    private static final int NB_REFERENCES = 200;
+    private static final int NB_ROUNDS = 3;
+    private static final String[] WORDS = {"ane", "to", "no", "natsu", "yasumi", "kanojo", "ga", "imouto", "sensei", "onee", "chan", "shiranai", "himitsu", "futari", "kiss", "love", "summer", "school", "days", "after", "night", "my", "little", "sister", "hero", "academia", "princess", "knight", "maid", "cafe", "a", "xy"};
+
+    @Test
+    public void similaritiesAreIdentical() {
+        Random rnd = new Random(42);
+        String[] titles = generateTitles(rnd, 500);
+        Cosine cosine = new Cosine();
+        ShingleProfile[] profiles = toProfiles(cosine, titles);
+
+        for (int i = 0; i < titles.length; i++)
+            for (int j = 0; j < titles.length; j++) {
+                double expected = cosine.similarity(titles[i], titles[j]);
+                double actual = cosine.similarity(profiles[i], profiles[j]);
+                if (Double.isNaN(expected)) Assert.assertTrue(Double.isNaN(actual));
+                else Assert.assertEquals(expected, actual, 0);
+            }
+    }
+
+    @Test
+    public void benchmark() {
+        Random rnd = new Random(42);
+        String[] titles = generateTitles(rnd, CORPUS_SIZE);
+        Cosine cosine = new Cosine();
+
+        double checksumOld = 0;
+        double checksumNew = 0;
+        long oldTime = Long.MAX_VALUE;
+        long newTime = Long.MAX_VALUE;
+        // Best of several rounds, first ones serving as warm-up
+        for (int round = 0; round < NB_ROUNDS; round++) {
+            long start = System.nanoTime();
+            double sum = 0;
+            for (int i = 0; i < NB_REFERENCES; i++)
+                for (String title : titles) sum += cosine.similarity(titles[i], title);
+            oldTime = Math.min(oldTime, System.nanoTime() - start);
+            checksumOld = sum;
+
+            start = System.nanoTime();
+            // Profile computation is part of the measure
+            ShingleProfile[] profiles = toProfiles(cosine, titles);
+            sum = 0;
+            for (int i = 0; i < NB_REFERENCES; i++)
+                for (ShingleProfile profile : profiles) sum += cosine.similarity(profiles[i], profile);
+            newTime = Math.min(newTime, System.nanoTime() - start);
+            checksumNew = sum;
+        }
+
+        long nbPairs = (long) NB_REFERENCES * CORPUS_SIZE;
+        System.out.printf("%d pairs : strings %.1f ns/pair | profiles %.1f ns/pair | x%.1f%n",
+                nbPairs, oldTime * 1.0 / nbPairs, newTime * 1.0 / nbPairs, oldTime * 1.0 / newTime);
+        Assert.assertEquals(checksumOld, checksumNew, 1e-6);
+        Assert.assertTrue(newTime < oldTime);
+    }
+
+    private static ShingleProfile[] toProfiles(Cosine cosine, String[] titles) {
+        ShingleProfile[] result = new ShingleProfile[titles.length];
+        for (int i = 0; i < titles.length; i++) result[i] = new ShingleProfile(titles[i], cosine);
+        return result;
+    }
+
+    private static String[] generateTitles(Random rnd, int size) {
+        String[] result = new String[size];
+        for (int i = 0; i < size; i++) {
+            if (i > 0 && rnd.nextInt(3) == 0) {
+                result[i] = result[rnd.nextInt(i)] + " " + (1 + rnd.nextInt(9));
+            } else {
+                StringBuilder sb = new StringBuilder();
+                for (int w = 1 + rnd.nextInt(6); w > 0; w--)
+                    sb.append(WORDS[rnd.nextInt(WORDS.length)]).append(' ');
+                result[i] = sb.toString().trim();
+            }
+        }
+        return result;
+    }
+}
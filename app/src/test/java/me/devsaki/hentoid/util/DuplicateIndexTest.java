@@ -0,0 +1,165 @@
+package me.devsaki.hentoid.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import me.devsaki.hentoid.util.string_similarity.Cosine;
+import me.devsaki.hentoid.util.string_similarity.GrowableMinHashLSH;
+import me.devsaki.hentoid.util.string_similarity.MinHashLSH;
+import me.devsaki.hentoid.util.string_similarity.ShingleProfile;
+
+/**
+ * Checks the candidate generation structures used by duplicate detection
+ * and displays the number of comparisons they perform vs. library size
+ */
+public class DuplicateIndexTest {
+
+    // Max cover distance at the lowest sensitivity (0.8 similarity @ 64 bits)
+    private static final int COVER_MAX_DISTANCE = 12;
+    private static final String[] WORDS = {"ane", "to", "no", "natsu", "yasumi", "kanojo", "ga", "imouto", "sensei", "onee", "chan", "shiranai", "himitsu", "futari", "kiss", "love", "summer", "school", "days", "after", "night", "my", "little", "sister", "hero", "academia", "princess", "knight", "maid", "cafe"};
+
+    @Test
+    public void multiIndexMatchesBruteForce() {
+        Random rnd = new Random(42);
+        long[] hashes = generateHashes(rnd, 3000);
+
+        HashMultiIndex index = new HashMultiIndex();
+        for (int i = 0; i < hashes.length; i++) index.add(hashes[i], i);
+
+        for (int i = 0; i < hashes.length; i += 7) {
+            int[] result = index.query(hashes[i], COVER_MAX_DISTANCE);
+            Arrays.sort(result);
+            List<Integer> expected = new ArrayList<>();
+            for (int j = 0; j < hashes.length; j++)
+                if (HashMultiIndex.distance(hashes[i], hashes[j]) <= COVER_MAX_DISTANCE)
+                    expected.add(j);
+            Assert.assertEquals(expected.size(), result.length);
+            for (int j = 0; j < result.length; j++)
+                Assert.assertEquals(expected.get(j).intValue(), result[j]);
+        }
+    }
+
+    @Test
+    public void lshCatchesSimilarTitles() {
+        Random rnd = new Random(42);
+        String[] titles = generateTitles(rnd, 2000);
+        Cosine cosine = new Cosine();
+        MinHashLSH lsh = new MinHashLSH(cosine, titles);
+
+        int[] marks = new int[titles.length];
+        int[] buffer = new int[titles.length];
+        int nbSimilar = 0;
+        int nbFound = 0;
+        for (int i = 0; i < titles.length; i++) {
+            int nbCandidates = lsh.getCandidatesAfter(i, marks, buffer);
+            int[] candidates = Arrays.copyOf(buffer, nbCandidates);
+            Arrays.sort(candidates);
+            for (int j = i + 1; j < titles.length; j++) {
+                if (cosine.similarity(titles[i], titles[j]) >= 0.8) {
+                    nbSimilar++;
+                    if (Arrays.binarySearch(candidates, j) > -1) nbFound++;
+                }
+            }
+        }
+        System.out.printf("LSH recall : %d / %d similar titles%n", nbFound, nbSimilar);
+        Assert.assertTrue(nbSimilar > 0);
+        Assert.assertTrue(nbFound >= nbSimilar * 0.99);
+    }
+
+    @Test
+    public void growableLshMatchesLsh() {
+        Random rnd = new Random(42);
+        String[] titles = generateTitles(rnd, 3000);
+        Cosine cosine = new Cosine();
+        ShingleProfile[] profiles = new ShingleProfile[titles.length];
+        for (int i = 0; i < titles.length; i++) profiles[i] = new ShingleProfile(titles[i], cosine);
+        MinHashLSH lsh = new MinHashLSH(profiles);
+
+        // Each title is queried before being added, i.e. against the titles that precede it
+        GrowableMinHashLSH growableLsh = new GrowableMinHashLSH();
+        List<List<Integer>> expected = new ArrayList<>();
+        for (int i = 0; i < titles.length; i++) expected.add(new ArrayList<>());
+        int[] marks = new int[titles.length];
+        int[] buffer = new int[titles.length];
+        for (int i = 0; i < titles.length; i++) {
+            int nbCandidates = lsh.getCandidatesAfter(i, marks, buffer);
+            for (int j = 0; j < nbCandidates; j++) expected.get(buffer[j]).add(i);
+        }
+        for (int i = 0; i < titles.length; i++) {
+            int[] result = growableLsh.getCandidates(profiles[i]);
+            List<Integer> expectedResult = expected.get(i);
+            expectedResult.sort(null);
+            Assert.assertEquals(expectedResult.size(), result.length);
+            for (int j = 0; j < result.length; j++)
+                Assert.assertEquals(expectedResult.get(j).intValue(), result[j]);
+            Assert.assertEquals(i, growableLsh.add(profiles[i]));
+        }
+    }
+
+    @Test
+    public void displayComparisons() {
+        Random rnd = new Random(42);
+        Cosine cosine = new Cosine();
+        for (int size : new int[]{1000, 5000, 10000, 40000}) {
+            long bruteForce = size * (size - 1L) / 2;
+
+            long[] hashes = generateHashes(rnd, size);
+            HashMultiIndex index = new HashMultiIndex(size);
+            for (int i = 0; i < size; i++) index.add(hashes[i], i);
+            long coverPairs = 0;
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < size; i++)
+                for (int j : index.query(hashes[i], COVER_MAX_DISTANCE)) if (j > i) coverPairs++;
+            long coverTime = System.currentTimeMillis() - start;
+
+            String[] titles = generateTitles(rnd, size);
+            start = System.currentTimeMillis();
+            MinHashLSH lsh = new MinHashLSH(cosine, titles);
+            int[] marks = new int[size];
+            int[] buffer = new int[size];
+            long titlePairs = 0;
+            for (int i = 0; i < size; i++) titlePairs += lsh.getCandidatesAfter(i, marks, buffer);
+            long titleTime = System.currentTimeMillis() - start;
+
+            System.out.printf("%6d books : brute force %11d | covers %9d pairs (%5d ms) | titles %9d pairs (%5d ms)%n",
+                    size, bruteForce, coverPairs, coverTime, titlePairs, titleTime);
+            Assert.assertTrue(coverPairs < bruteForce);
+            Assert.assertTrue(titlePairs < bruteForce);
+        }
+    }
+
+    // Random hashes, a third of them being near-duplicates of others
+    private static long[] generateHashes(Random rnd, int size) {
+        long[] result = new long[size];
+        for (int i = 0; i < size; i++) {
+            if (i > 0 && rnd.nextInt(3) == 0) {
+                long hash = result[rnd.nextInt(i)];
+                for (int b = rnd.nextInt(COVER_MAX_DISTANCE); b > 0; b--)
+                    hash ^= 1L << rnd.nextInt(Long.SIZE);
+                result[i] = hash;
+            } else result[i] = rnd.nextLong();
+        }
+        return result;
+    }
+
+    // Random titles, a third of them being variants of others
+    private static String[] generateTitles(Random rnd, int size) {
+        String[] result = new String[size];
+        for (int i = 0; i < size; i++) {
+            if (i > 0 && rnd.nextInt(3) == 0) {
+                result[i] = result[rnd.nextInt(i)] + " " + (1 + rnd.nextInt(9));
+            } else {
+                StringBuilder sb = new StringBuilder();
+                for (int w = 3 + rnd.nextInt(5); w > 0; w--)
+                    sb.append(WORDS[rnd.nextInt(WORDS.length)]).append(' ');
+                result[i] = sb.toString().trim();
+            }
+        }
+        return result;
+    }
+}
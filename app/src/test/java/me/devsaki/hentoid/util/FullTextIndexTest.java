@@ -0,0 +1,126 @@
+package me.devsaki.hentoid.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks FullTextIndex matching and ranking, and measures its latency over a synthetic 100k-book library
+ */
+public class FullTextIndexTest {
+
+    private static final int NB_BOOKS = 100000;
+    private static final int NB_QUERIES = 200;
+
+    @Test
+    public void tokenize() {
+        Assert.assertEquals(Arrays.asList("c99", "circle", "ane", "to", "no", "natsu", "yasumi"),
+                FullTextIndex.tokenize("(C99) [Circle] Ane-to no Natsu_Yasumi!"));
+        // CJK runs are split into bigrams; single CJK characters are kept as is
+        Assert.assertEquals(Arrays.asList("夏休", "休み", "a", "猫"),
+                FullTextIndex.tokenize("夏休み a 猫"));
+        Assert.assertTrue(FullTextIndex.tokenize("  ").isEmpty());
+    }
+
+    @Test
+    public void editDistance() {
+        Assert.assertEquals(0, FullTextIndex.editDistance("sister", "sister", 2));
+        Assert.assertEquals(1, FullTextIndex.editDistance("sister", "sistr", 2));
+        Assert.assertEquals(2, FullTextIndex.editDistance("sister", "sitser", 2));
+        Assert.assertTrue(FullTextIndex.editDistance("sister", "academia", 2) > 2);
+    }
+
+    @Test
+    public void search() {
+        FullTextIndex index = new FullTextIndex();
+        index.put(1, "My little sister", Arrays.asList("sister", "english"));
+        index.put(2, "Summer days", Arrays.asList("sister", "japanese"));
+        index.put(3, "Summer school", Collections.singletonList("english"));
+        index.put(4, "夏休みの宿題", Collections.emptyList());
+
+        // AND logic
+        assertResults(index.search("summer english"), 3);
+        // Title matches rank before tag matches
+        assertResults(index.search("sister"), 1, 2);
+        // Prefix on the last word only
+        assertResults(index.search("summ"), 3, 2);
+        Assert.assertEquals(0, index.search("summ days").length);
+        // Typo tolerance
+        assertResults(index.search("sumer school"), 3);
+        assertResults(index.search("japanees"), 2);
+        // CJK substring
+        assertResults(index.search("休み"), 4);
+        assertResults(index.search("宿"), 4);
+
+        index.remove(3);
+        assertResults(index.search("summer"), 2);
+        index.put(2, "Winter days", Collections.emptyList());
+        Assert.assertEquals(0, index.search("summer").length);
+        Assert.assertEquals(0, index.search("japanese").length);
+        Assert.assertEquals(3, index.size());
+    }
+
+    @Test
+    public void latency() {
+        Random rnd = new Random(42);
+        List<String> vocabulary = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) vocabulary.add(randomWord(rnd));
+        List<String> tags = vocabulary.subList(0, 3000);
+
+        FullTextIndex index = new FullTextIndex();
+        for (long id = 1; id <= NB_BOOKS; id++) {
+            StringBuilder title = new StringBuilder();
+            // Zipf-like word popularity
+            for (int w = 3 + rnd.nextInt(6); w > 0; w--)
+                title.append(vocabulary.get((int) Math.pow(vocabulary.size(), rnd.nextDouble()) - 1)).append(' ');
+            List<String> bookTags = new ArrayList<>();
+            for (int t = 5 + rnd.nextInt(15); t > 0; t--)
+                bookTags.add(tags.get((int) Math.pow(tags.size(), rnd.nextDouble()) - 1));
+            index.put(id, title.toString(), bookTags);
+        }
+
+        // Queries : 1 to 3 words, last one typed partially, sometimes with a typo
+        String[] queries = new String[NB_QUERIES];
+        for (int i = 0; i < NB_QUERIES; i++) {
+            StringBuilder query = new StringBuilder();
+            int nbWords = 1 + rnd.nextInt(3);
+            for (int w = 0; w < nbWords; w++) {
+                String word = vocabulary.get(rnd.nextInt(2000));
+                if (w == nbWords - 1) word = word.substring(0, Math.max(2, word.length() - rnd.nextInt(3)));
+                else if (rnd.nextInt(4) == 0) word = word.substring(0, word.length() - 1);
+                query.append(word).append(' ');
+            }
+            queries[i] = query.toString();
+        }
+
+        for (String query : queries) index.search(query); // Warm-up
+        long maxTime = 0;
+        long totalTime = 0;
+        long nbResults = 0;
+        for (String query : queries) {
+            long start = System.nanoTime();
+            nbResults += index.search(query).length;
+            long time = System.nanoTime() - start;
+            totalTime += time;
+            maxTime = Math.max(maxTime, time);
+        }
+        System.out.printf("%d books, %d queries : average %.2f ms | max %.2f ms | %d results on average%n",
+                NB_BOOKS, NB_QUERIES, totalTime / 1e6 / NB_QUERIES, maxTime / 1e6, nbResults / NB_QUERIES);
+        Assert.assertTrue(totalTime / NB_QUERIES < 50_000_000);
+    }
+
+    private static void assertResults(long[] actual, long... expected) {
+        Assert.assertArrayEquals(expected, actual);
+    }
+
+    private static String randomWord(Random rnd) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 3 + rnd.nextInt(6); i > 0; i--) result.append((char) ('a' + rnd.nextInt(26)));
+        return result.toString();
+    }
+}
@@ -0,0 +1,144 @@
+package me.devsaki.hentoid.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Checks IdBitmap against a reference TreeSet and benchmarks advanced search filtering
+ * (AND / AND NOT of attributes + tag counts) over a synthetic 50k-book library
+ */
+public class IdBitmapTest {
+
+    private static final int NB_BOOKS = 50000;
+    private static final int NB_ATTRIBUTES = 5000;
+    private static final int ATTRIBUTES_PER_BOOK = 15;
+
+    @Test
+    public void sameResultsAsTreeSet() {
+        Random rnd = new Random(42);
+        for (int round = 0; round < 20; round++) {
+            // Mix sparse and dense ranges to get both container types
+            long range = (round % 2 == 0) ? 300000 : 20000;
+            TreeSet<Long> refA = randomSet(rnd, range, 1 + rnd.nextInt(15000));
+            TreeSet<Long> refB = randomSet(rnd, range, 1 + rnd.nextInt(15000));
+            IdBitmap a = IdBitmap.of(toArray(refA));
+            IdBitmap b = IdBitmap.of(toArray(refB));
+
+            Assert.assertArrayEquals(toArray(refA), a.toArray());
+            Assert.assertEquals(refA.size(), a.getCardinality());
+
+            TreeSet<Long> and = new TreeSet<>(refA);
+            and.retainAll(refB);
+            Assert.assertArrayEquals(toArray(and), a.and(b).toArray());
+            Assert.assertEquals(and.size(), a.andCardinality(b));
+            Assert.assertEquals(!and.isEmpty(), a.intersects(b));
+
+            TreeSet<Long> or = new TreeSet<>(refA);
+            or.addAll(refB);
+            Assert.assertArrayEquals(toArray(or), a.or(b).toArray());
+            Assert.assertEquals(or.size(), a.or(b).getCardinality());
+
+            TreeSet<Long> andNot = new TreeSet<>(refA);
+            andNot.removeAll(refB);
+            Assert.assertArrayEquals(toArray(andNot), a.andNot(b).toArray());
+
+            // Removals, including ones that turn bitmap containers back into arrays
+            for (int i = 0; i < 8000; i++) {
+                long id = (long) (rnd.nextDouble() * range);
+                Assert.assertEquals(refA.remove(id), a.remove(id));
+            }
+            Assert.assertArrayEquals(toArray(refA), a.toArray());
+            for (long id : refA) Assert.assertTrue(a.contains(id));
+        }
+    }
+
+    @Test
+    public void emptyBitmaps() {
+        IdBitmap empty = new IdBitmap();
+        IdBitmap full = IdBitmap.of(new long[]{1, 2, 70000, 0xFFFFFFFFL});
+        Assert.assertTrue(empty.isEmpty());
+        Assert.assertEquals(0, empty.and(full).getCardinality());
+        Assert.assertEquals(0, empty.andNot(full).getCardinality());
+        Assert.assertArrayEquals(full.toArray(), empty.or(full).toArray());
+        Assert.assertArrayEquals(full.toArray(), full.andNot(empty).toArray());
+        Assert.assertFalse(full.intersects(empty));
+
+        Assert.assertFalse(full.add(2));
+        Assert.assertTrue(full.remove(70000));
+        Assert.assertFalse(full.remove(70000));
+        Assert.assertFalse(full.contains(-1));
+        Assert.assertArrayEquals(new long[]{1, 2, 0xFFFFFFFFL}, full.toArray());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void outOfRange() {
+        new IdBitmap().add(0x100000000L);
+    }
+
+    @Test
+    public void benchmark() {
+        Random rnd = new Random(42);
+        // Attribute -> sorted IDs of its books, as returned by Query.findIds
+        // Zipf-like popularity : a few tags are on most books, most tags are on a few books
+        List<TreeSet<Long>> books = new ArrayList<>();
+        for (int a = 0; a < NB_ATTRIBUTES; a++) books.add(new TreeSet<>());
+        for (long bookId = 1; bookId <= NB_BOOKS; bookId++)
+            for (int i = 0; i < ATTRIBUTES_PER_BOOK; i++)
+                books.get((int) Math.min(NB_ATTRIBUTES - 1, Math.floor(Math.pow(NB_ATTRIBUTES, rnd.nextDouble())) - 1)).add(bookId);
+
+        long[][] idsPerAttribute = new long[NB_ATTRIBUTES][];
+        IdBitmap[] bitmaps = new IdBitmap[NB_ATTRIBUTES];
+        for (int a = 0; a < NB_ATTRIBUTES; a++) {
+            idsPerAttribute[a] = toArray(books.get(a));
+            bitmaps[a] = IdBitmap.of(idsPerAttribute[a]);
+        }
+
+        // Filter : 3 included tags of decreasing popularity + 1 excluded tag; tag counts of 500 tags
+        int[] included = {3, 8, 20};
+        int excluded = 5;
+
+        // Former path : List<Long>.retainAll / removeAll, then counting with List.contains
+        long start = System.nanoTime();
+        List<Long> results = Helper.getListFromPrimitiveArray(idsPerAttribute[included[0]]);
+        for (int i = 1; i < included.length; i++)
+            results.retainAll(Helper.getListFromPrimitiveArray(idsPerAttribute[included[i]]));
+        results.removeAll(Helper.getListFromPrimitiveArray(idsPerAttribute[excluded]));
+        long[] countsOld = new long[500];
+        for (int a = 0; a < countsOld.length; a++)
+            for (long id : idsPerAttribute[a]) if (results.contains(id)) countsOld[a]++;
+        long oldTime = System.nanoTime() - start;
+
+        // Bitmap path
+        start = System.nanoTime();
+        IdBitmap filtered = bitmaps[included[0]];
+        for (int i = 1; i < included.length; i++) filtered = filtered.and(bitmaps[included[i]]);
+        filtered = filtered.andNot(bitmaps[excluded]);
+        long[] countsNew = new long[500];
+        for (int a = 0; a < countsNew.length; a++) countsNew[a] = bitmaps[a].andCardinality(filtered);
+        long newTime = System.nanoTime() - start;
+
+        System.out.printf("%d books, %d results : lists %.2f ms | bitmaps %.2f ms | x%.1f%n",
+                NB_BOOKS, results.size(), oldTime / 1e6, newTime / 1e6, oldTime * 1.0 / newTime);
+        Assert.assertArrayEquals(Helper.getPrimitiveLongArrayFromList(results), filtered.toArray());
+        Assert.assertArrayEquals(countsOld, countsNew);
+        Assert.assertTrue(newTime < oldTime);
+    }
+
+    private static TreeSet<Long> randomSet(Random rnd, long range, int size) {
+        TreeSet<Long> result = new TreeSet<>();
+        for (int i = 0; i < size; i++) result.add((long) (rnd.nextDouble() * range));
+        return result;
+    }
+
+    private static long[] toArray(TreeSet<Long> set) {
+        long[] result = new long[set.size()];
+        int i = 0;
+        for (Long l : set) result[i++] = l;
+        return result;
+    }
+}
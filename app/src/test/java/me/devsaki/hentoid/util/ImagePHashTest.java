@@ -0,0 +1,122 @@
+package me.devsaki.hentoid.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Checks the optimized DCT of the pHash engine against the original implementation
+ * and displays the per-cover speedup
+ * <p>
+ * NB : Both implementations are fed with the same luminance; hashes computed from Bitmaps aren't compared with
+ * those of ImagePHash v1, whose luminance came from Skia (see ImagePHash.VERSION)
+ */
+public class ImagePHashTest {
+
+    private static final int SIZE = 48;
+    private static final int SMALLER_SIZE = 8;
+
+    @Test
+    public void dctIsIdentical() {
+        Random rnd = new Random(42);
+        ImagePHash engine = new ImagePHash(SIZE, SMALLER_SIZE);
+        for (int i = 0; i < 60; i++) {
+            int[] pixels = generatePicture(rnd, i % 3);
+            Assert.assertEquals(legacyHash(pixels), engine.calcPHash(pixels));
+        }
+    }
+
+    @Test
+    public void displaySpeedup() {
+        Random rnd = new Random(42);
+        int nbPictures = 20;
+        int[][] pictures = new int[nbPictures][];
+        for (int i = 0; i < nbPictures; i++) pictures[i] = generatePicture(rnd, i % 3);
+
+        long start = System.nanoTime();
+        for (int[] pixels : pictures) legacyHash(pixels);
+        long legacyTime = System.nanoTime() - start;
+
+        ImagePHash engine = new ImagePHash(SIZE, SMALLER_SIZE);
+        int nbRounds = 50;
+        start = System.nanoTime();
+        for (int r = 0; r < nbRounds; r++)
+            for (int[] pixels : pictures) engine.calcPHash(pixels);
+        long newTime = (System.nanoTime() - start) / nbRounds;
+
+        System.out.printf("Per cover : legacy %.3f ms | optimized %.3f ms | x%.0f%n",
+                legacyTime / 1e6 / nbPictures, newTime / 1e6 / nbPictures, legacyTime * 1.0 / newTime);
+        Assert.assertTrue(newTime < legacyTime);
+    }
+
+    // 0 = noise; 1 = gradient; 2 = blocks
+    private static int[] generatePicture(Random rnd, int type) {
+        int[] result = new int[SIZE * SIZE];
+        int blockSize = 4 + rnd.nextInt(12);
+        int[] palette = new int[8];
+        for (int i = 0; i < palette.length; i++) palette[i] = rnd.nextInt();
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                int color;
+                if (0 == type) color = rnd.nextInt();
+                else if (1 == type) {
+                    int v = (x * 255 / SIZE + y * 128 / SIZE + rnd.nextInt(8)) & 0xff;
+                    color = (v << 16) | ((255 - v) << 8) | (v / 2);
+                } else color = palette[((x / blockSize) + (y / blockSize) * 3) % palette.length];
+                result[y * SIZE + x] = 0xff000000 | color;
+            }
+        }
+        return result;
+    }
+
+    // Original implementation : grayscale matrix + naive DCT
+    private static long legacyHash(int[] pixels) {
+        double[][] vals = new double[SIZE][SIZE];
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                int argb = pixels[y * SIZE + x];
+                int r = (argb >> 16) & 0xff;
+                int g = (argb >> 8) & 0xff;
+                int b = argb & 0xff;
+                vals[x][y] = Math.min((int) (0.213 * r + 0.715 * g + 0.072 * b + 0.5), 0xff);
+            }
+        }
+
+        double[] c = new double[SIZE];
+        for (int i = 1; i < SIZE; i++) c[i] = 1;
+        c[0] = 1 / Math.sqrt(2.0);
+
+        double[][] dctVals = new double[SIZE][SIZE];
+        for (int u = 0; u < SIZE; u++) {
+            for (int v = 0; v < SIZE; v++) {
+                double sum = 0.0;
+                for (int i = 0; i < SIZE; i++) {
+                    for (int j = 0; j < SIZE; j++) {
+                        sum += Math.cos(((2 * i + 1) / (2.0 * SIZE)) * u * Math.PI) * Math.cos(((2 * j + 1) / (2.0 * SIZE)) * v * Math.PI) * (vals[i][j]);
+                    }
+                }
+                sum *= ((c[u] * c[v]) / 4.0);
+                dctVals[u][v] = sum;
+            }
+        }
+
+        double total = 0;
+        for (int x = 0; x < SMALLER_SIZE; x++)
+            for (int y = 0; y < SMALLER_SIZE; y++)
+                total += dctVals[x][y];
+        total -= dctVals[0][0];
+        double avg = total / (double) ((SMALLER_SIZE * SMALLER_SIZE) - 1);
+
+        long hash = 0;
+        for (int x = 0; x < SMALLER_SIZE; x++) {
+            for (int y = 0; y < SMALLER_SIZE; y++) {
+                if (x != 0 && y != 0) {
+                    hash *= 2;
+                    if (dctVals[x][y] > avg) hash++;
+                }
+            }
+        }
+        return hash;
+    }
+}
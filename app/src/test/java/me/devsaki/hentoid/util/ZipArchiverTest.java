@@ -0,0 +1,116 @@
+package me.devsaki.hentoid.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Checks that ZipArchiver writes valid archives, with their entries in order and already compressed files STORED
+ */
+public class ZipArchiverTest {
+
+    @Test
+    public void zip() throws IOException {
+        Random rnd = new Random(42);
+        List<ZipArchiver.Source> sources = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            byte[] data = new byte[1000 + rnd.nextInt(100000)];
+            rnd.nextBytes(data);
+            contents.add(data);
+            sources.add(new TestSource(String.format("%03d.jpg", i), data));
+        }
+        byte[] json = String.join(",", Collections.nCopies(1000, "\"title\":\"Natsu yasumi\"")).getBytes(StandardCharsets.UTF_8);
+        contents.add(json);
+        sources.add(new TestSource("content.json", json));
+        byte[] big = new byte[300000];
+        rnd.nextBytes(big);
+        contents.add(big);
+        sources.add(new TestSource("big_é.png", big));
+
+        File archive = File.createTempFile("test", ".zip");
+        try {
+            // Small in-memory limit to also test streamed entries
+            try (ZipArchiver archiver = new ZipArchiver(4, 200000); OutputStream out = new FileOutputStream(archive)) {
+                long size = archiver.zip(sources, out);
+                out.flush();
+                Assert.assertEquals(size, archive.length());
+            }
+
+            try (ZipFile zip = new ZipFile(archive)) {
+                List<? extends ZipEntry> entries = Collections.list(zip.entries());
+                Assert.assertEquals(sources.size(), entries.size());
+                for (int i = 0; i < entries.size(); i++) {
+                    ZipEntry entry = entries.get(i);
+                    Assert.assertEquals(sources.get(i).getName(), entry.getName());
+                    Assert.assertEquals(entry.getName().endsWith(".json") ? ZipEntry.DEFLATED : ZipEntry.STORED, entry.getMethod());
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        Assert.assertArrayEquals(contents.get(i), readFully(in));
+                    }
+                }
+                Assert.assertTrue(zip.getEntry("content.json").getCompressedSize() < json.length / 10);
+            }
+
+            // Stored pages can be read directly from the archive
+            try (FileInputStream fis = new FileInputStream(archive); FileChannel channel = fis.getChannel()) {
+                Assert.assertNotNull(ZipDirectory.read(channel).getStoredEntry("025.jpg"));
+            }
+        } finally {
+            Assert.assertTrue(archive.delete());
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) != -1) result.write(buffer, 0, count);
+        return result.toByteArray();
+    }
+
+    private static class TestSource implements ZipArchiver.Source {
+        private final String name;
+        private final byte[] data;
+
+        TestSource(String name, byte[] data) {
+            this.name = name;
+            this.data = data;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public long getSize() {
+            return data.length;
+        }
+
+        @Override
+        public long getLastModified() {
+            return 0;
+        }
+
+        @Override
+        public InputStream open() {
+            return new ByteArrayInputStream(data);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package me.devsaki.hentoid.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Checks that ZipDirectory locates STORED entries at their exact place inside the archive file
+ */
+public class ZipDirectoryTest {
+
+    @Test
+    public void storedEntries() throws IOException {
+        File archive = File.createTempFile("test", ".zip");
+        try {
+            byte[] page1 = "page one".getBytes(StandardCharsets.UTF_8);
+            byte[] page2 = "the second page".getBytes(StandardCharsets.UTF_8);
+            byte[] page3 = "compressed page compressed page compressed page".getBytes(StandardCharsets.UTF_8);
+            try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(archive))) {
+                zos.setComment("archive comment");
+                putEntry(zos, "001.jpg", page1, ZipEntry.STORED);
+                putEntry(zos, "folder/002.PNG", page2, ZipEntry.STORED);
+                putEntry(zos, "003.jpg", page3, ZipEntry.DEFLATED);
+            }
+
+            try (FileInputStream fis = new FileInputStream(archive); FileChannel channel = fis.getChannel()) {
+                ZipDirectory directory = ZipDirectory.read(channel);
+                Assert.assertEquals(archive.length(), directory.getArchiveSize());
+
+                assertEntry(archive, channel, directory, "001.jpg", page1);
+                // Lookups are case-insensitive
+                assertEntry(archive, channel, directory, "folder/002.png", page2);
+                // Compressed and unknown entries have to be extracted
+                Assert.assertNull(directory.getStoredEntry("003.jpg"));
+                Assert.assertNull(directory.getStoredEntry("004.jpg"));
+            }
+        } finally {
+            Assert.assertTrue(archive.delete());
+        }
+    }
+
+    @Test
+    public void notAZip() throws IOException {
+        File file = File.createTempFile("test", ".rar");
+        try {
+            try (FileOutputStream fos = new FileOutputStream(file)) {
+                fos.write(new byte[1000]);
+            }
+            try (FileInputStream fis = new FileInputStream(file); FileChannel channel = fis.getChannel()) {
+                Assert.assertNull(ZipDirectory.read(channel).getStoredEntry("001.jpg"));
+            }
+        } finally {
+            Assert.assertTrue(file.delete());
+        }
+    }
+
+    private static void putEntry(ZipOutputStream zos, String name, byte[] data, int method) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(method);
+        if (ZipEntry.STORED == method) {
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            entry.setSize(data.length);
+            entry.setCompressedSize(data.length);
+            entry.setCrc(crc.getValue());
+            entry.setExtra(new byte[]{(byte) 0xCA, (byte) 0xFE, 0, 0}); // Local header longer than the file name
+        }
+        zos.putNextEntry(entry);
+        zos.write(data);
+        zos.closeEntry();
+    }
+
+    private static void assertEntry(File archive, FileChannel channel, ZipDirectory directory, String path, byte[] expected) throws IOException {
+        ZipDirectory.Entry entry = directory.getStoredEntry(path);
+        Assert.assertNotNull(entry);
+        Assert.assertEquals(expected.length, entry.getSize());
+        long offset = directory.getDataOffset(channel, entry);
+
+        byte[] actual = new byte[expected.length];
+        try (RandomAccessFile raf = new RandomAccessFile(archive, "r")) {
+            raf.seek(offset);
+            raf.readFully(actual);
+        }
+        Assert.assertArrayEquals(expected, actual);
+    }
+}
@@ -0,0 +1,47 @@
+package me.devsaki.hentoid.util.download;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConcurrencyControllerTest {
+
+    @Test
+    public void growsWhileThroughputGrows() {
+        ConcurrencyController controller = new ConcurrencyController(2, 8);
+        // Throughput proportional to the limit (fast CDN)
+        for (int i = 0; i < 100; i++) controller.onSpeedSample(controller.getLimit() * 500f);
+        Assert.assertEquals(8, controller.getLimit());
+    }
+
+    @Test
+    public void stopsGrowingAtThroughputPlateau() {
+        ConcurrencyController controller = new ConcurrencyController(2, 16);
+        // Link saturates at 4 parallel downloads
+        for (int i = 0; i < 200; i++)
+            controller.onSpeedSample(Math.min(controller.getLimit(), 4) * 500f);
+        Assert.assertTrue(controller.getLimit() >= 4);
+        Assert.assertTrue(controller.getLimit() <= 5);
+    }
+
+    @Test
+    public void backsOffOnCongestion() {
+        ConcurrencyController controller = new ConcurrencyController(8, 8);
+        Assert.assertTrue(controller.onCongestion(10000));
+        Assert.assertEquals(4, controller.getLimit());
+        // Errors of requests that were running at the same time are ignored
+        Assert.assertFalse(controller.onCongestion(10000 + ConcurrencyController.DECREASE_COOLDOWN_MS / 2));
+        Assert.assertEquals(4, controller.getLimit());
+        Assert.assertTrue(controller.onCongestion(10000 + ConcurrencyController.DECREASE_COOLDOWN_MS * 2));
+        Assert.assertEquals(2, controller.getLimit());
+
+        // Limit stays stable for a while after a decrease
+        for (int i = 0; i < ConcurrencyController.SAMPLES_PER_STEP * ConcurrencyController.HOLD_STEPS; i++)
+            Assert.assertFalse(controller.onSpeedSample(controller.getLimit() * 500f));
+        Assert.assertEquals(2, controller.getLimit());
+
+        // Never goes below one request
+        for (int i = 1; i < 5; i++)
+            controller.onCongestion(10000 + ConcurrencyController.DECREASE_COOLDOWN_MS * 2 * (i + 1));
+        Assert.assertEquals(1, controller.getLimit());
+    }
+}
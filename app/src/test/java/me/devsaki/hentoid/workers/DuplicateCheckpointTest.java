@@ -0,0 +1,72 @@
+package me.devsaki.hentoid.workers;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import me.devsaki.hentoid.util.Preferences;
+
+/**
+ * Checks that the duplicate detection records its checkpoint after each chunk and resumes from it
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DuplicateCheckpointTest {
+
+    private static final int NB_BOOKS = 150;
+    private static final long FINGERPRINT = 0x1234567890ABCDEFL;
+
+    @Before
+    public void setUp() {
+        Preferences.init(ApplicationProvider.getApplicationContext());
+        Preferences.setDuplicateLastIndex(-1);
+    }
+
+    @Test
+    public void resumeFromCheckpoint() {
+        int generation = DuplicateDetectorWorker.getGeneration();
+
+        // First run : nothing to resume
+        int startIndex = DuplicateDetectorWorker.getStartIndex(FINGERPRINT);
+        Assert.assertEquals(0, startIndex);
+
+        // Run one chunk then get interrupted
+        int lastIndex = DuplicateDetectorWorker.getChunkLastIndex(startIndex, 0, NB_BOOKS);
+        Assert.assertEquals(DuplicateDetectorWorker.CHUNK_SIZE - 1, lastIndex);
+        Assert.assertTrue(DuplicateDetectorWorker.saveCheckpoint(generation, lastIndex, FINGERPRINT));
+        Assert.assertEquals(lastIndex, Preferences.getDuplicateLastIndex());
+        Assert.assertEquals(FINGERPRINT, Preferences.getDuplicateLastFingerprint());
+
+        // Second run : resume after the saved chunk
+        startIndex = DuplicateDetectorWorker.getStartIndex(FINGERPRINT);
+        Assert.assertEquals(DuplicateDetectorWorker.CHUNK_SIZE, startIndex);
+        lastIndex = DuplicateDetectorWorker.getChunkLastIndex(startIndex, 0, NB_BOOKS);
+        Assert.assertEquals(2 * DuplicateDetectorWorker.CHUNK_SIZE - 1, lastIndex);
+        Assert.assertTrue(DuplicateDetectorWorker.saveCheckpoint(generation, lastIndex, FINGERPRINT));
+
+        // Last chunk is truncated to the size of the library
+        startIndex = DuplicateDetectorWorker.getStartIndex(FINGERPRINT);
+        Assert.assertEquals(NB_BOOKS - 1, DuplicateDetectorWorker.getChunkLastIndex(startIndex, 0, NB_BOOKS));
+    }
+
+    @Test
+    public void restartWhenLibraryHasChanged() {
+        int generation = DuplicateDetectorWorker.getGeneration();
+        Assert.assertTrue(DuplicateDetectorWorker.saveCheckpoint(generation, DuplicateDetectorWorker.CHUNK_SIZE - 1, FINGERPRINT));
+
+        Assert.assertEquals(0, DuplicateDetectorWorker.getStartIndex(FINGERPRINT + 1));
+    }
+
+    @Test
+    public void noCheckpointOnceCancelled() {
+        // Run started before a cancellation
+        int generation = DuplicateDetectorWorker.getGeneration() - 1;
+
+        Assert.assertFalse(DuplicateDetectorWorker.saveCheckpoint(generation, DuplicateDetectorWorker.CHUNK_SIZE - 1, FINGERPRINT));
+        Assert.assertEquals(-1, Preferences.getDuplicateLastIndex());
+        Assert.assertEquals(0, DuplicateDetectorWorker.getStartIndex(FINGERPRINT));
+    }
+}